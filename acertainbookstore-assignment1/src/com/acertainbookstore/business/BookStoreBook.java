@@ -1,11 +1,20 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreBook} implements all parts of the book. Only parts of it are
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
+ *
+ * The ratings are added without any lock: the number of times rated and the
+ * total rating are packed in the same striped {@link LongAdder}, so that a
+ * burst of ratings of the same book does not contend, and a single sum
+ * always gives a consistent pair. The packing bounds the ratings a book can
+ * hold, cf. {@link #MAX_NUM_TIMES_RATED}.
  * 
  * @see Book
  * @see StockBook
@@ -16,11 +25,29 @@ public class BookStoreBook extends ImmutableBook {
 	/** The number of copies. */
 	private int numCopies;
 
-	/** The total rating. */
-	private long totalRating;
+	/** The number of bits of the total rating in {@link #ratings}. */
+	private static final int TOTAL_RATING_BITS = 34;
+
+	/** The mask of the total rating in {@link #ratings}. */
+	private static final long TOTAL_RATING_MASK = (1L << TOTAL_RATING_BITS) - 1;
+
+	/** The highest rating. */
+	private static final int MAX_RATING = 5;
+
+	/**
+	 * The number of times a book can be rated. The number of times rated has
+	 * the upper 30 bits of {@link #ratings}, and the margin above this bound
+	 * absorbs the ratings added after a concurrent check of the bound, at most
+	 * one per rating thread.
+	 */
+	public static final long MAX_NUM_TIMES_RATED = (1L << (Long.SIZE - TOTAL_RATING_BITS)) - (1L << 20);
 
-	/** The number of times rated. */
-	private long numTimesRated;
+	/**
+	 * The number of times rated, in the upper bits, and the total rating, in
+	 * the lower {@link #TOTAL_RATING_BITS} bits, which a rating of at most
+	 * {@link #MAX_RATING} per time rated cannot overflow.
+	 */
+	private final LongAdder ratings = new LongAdder();
 
 	/** The number of sale misses. */
 	private long numSaleMisses;
@@ -28,6 +55,19 @@ public class BookStoreBook extends ImmutableBook {
 	/** Whether the book is editor picked. */
 	private boolean editorPick;
 
+	/**
+	 * Whether a thread is moving the book in the index of the top rated
+	 * books, or the book was removed from it (cf.
+	 * {@link #tryLatchRatingIndex()}).
+	 */
+	private final AtomicBoolean ratingIndexLatch = new AtomicBoolean();
+
+	/**
+	 * The average rating under which the book is in the index of the top rated
+	 * books, guarded by the rating index latch.
+	 */
+	private float indexedAverageRating;
+
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
 	 *
@@ -46,9 +86,7 @@ public class BookStoreBook extends ImmutableBook {
 		super(isbn, title, author, price);
 
 		this.setNumSaleMisses(0);
-		this.setNumTimesRated(0);
 		this.setNumCopies(numCopies);
-		this.setTotalRating(0);
 		this.setEditorPick(false);
 	}
 
@@ -58,24 +96,33 @@ public class BookStoreBook extends ImmutableBook {
 	 *
 	 * @param bookToCopy
 	 *            the book to copy
+	 * @throws IllegalArgumentException
+	 *             if the ratings of the book are invalid, cf.
+	 *             {@link #isInvalidRatings(long, long)}
 	 */
 	public BookStoreBook(StockBook bookToCopy) {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
 
+		if (isInvalidRatings(bookToCopy.getNumTimesRated(), bookToCopy.getTotalRating())) {
+			throw new IllegalArgumentException("Invalid ratings: " + bookToCopy.getNumTimesRated() + " times rated, "
+					+ bookToCopy.getTotalRating() + " in total");
+		}
+
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
-		this.setNumTimesRated(bookToCopy.getNumTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
-		this.setTotalRating(bookToCopy.getTotalRating());
+		this.ratings.add(bookToCopy.getNumTimesRated() << TOTAL_RATING_BITS | bookToCopy.getTotalRating());
 		this.setEditorPick(bookToCopy.isEditorPick());
 	}
 
 	/**
-	 * Gets the total rating.
+	 * Gets the total rating. Use {@link #getAverageRating()} rather than
+	 * dividing it by {@link #getNumTimesRated()}, as ratings may be added in
+	 * between.
 	 *
 	 * @return the total rating
 	 */
 	public long getTotalRating() {
-		return totalRating;
+		return totalRating(ratings.sum());
 	}
 
 	/**
@@ -84,7 +131,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of times rated
 	 */
 	public long getNumTimesRated() {
-		return numTimesRated;
+		return numTimesRated(ratings.sum());
 	}
 
 	/**
@@ -111,36 +158,66 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		long ratings = this.ratings.sum();
+		long numTimesRated = numTimesRated(ratings);
+		return (numTimesRated == 0 ? -1.0f : (float) totalRating(ratings) / numTimesRated);
 	}
 
 	/**
-	 * Checks if the book is editor picked.
+	 * Checks whether ratings cannot be held by a book: the number of times
+	 * rated must be at most {@link #MAX_NUM_TIMES_RATED}, and the total rating
+	 * at most {@link #MAX_RATING} per time rated.
 	 *
-	 * @return true, if it is editor picked
+	 * @param numTimesRated
+	 *            the number of times rated
+	 * @param totalRating
+	 *            the total rating
+	 * @return true, if the ratings are invalid
 	 */
-	public boolean isEditorPick() {
-		return editorPick;
+	public static boolean isInvalidRatings(long numTimesRated, long totalRating) {
+		return numTimesRated < 0 || numTimesRated > MAX_NUM_TIMES_RATED || totalRating < 0
+				|| totalRating > MAX_RATING * numTimesRated;
 	}
 
 	/**
-	 * Sets the total rating of the book.
+	 * Checks whether the book can still be rated, i.e. it was rated less than
+	 * {@link #MAX_NUM_TIMES_RATED} times.
 	 *
-	 * @param totalRating
-	 *            the new total rating
+	 * @return true, if the book can be rated
 	 */
-	private void setTotalRating(long totalRating) {
-		this.totalRating = totalRating;
+	public boolean canBeRated() {
+		return numTimesRated(ratings.sum()) < MAX_NUM_TIMES_RATED;
 	}
 
 	/**
-	 * Sets the number of times that the book was rated.
+	 * Unpacks the total rating from a sum of {@link #ratings}.
 	 *
-	 * @param numTimesRated
-	 *            the new number of times rated
+	 * @param ratings
+	 *            the sum
+	 * @return the total rating
+	 */
+	private static long totalRating(long ratings) {
+		return ratings & TOTAL_RATING_MASK;
+	}
+
+	/**
+	 * Unpacks the number of times rated from a sum of {@link #ratings}.
+	 *
+	 * @param ratings
+	 *            the sum
+	 * @return the number of times rated
 	 */
-	private void setNumTimesRated(long numTimesRated) {
-		this.numTimesRated = numTimesRated;
+	private static long numTimesRated(long ratings) {
+		return ratings >>> TOTAL_RATING_BITS;
+	}
+
+	/**
+	 * Checks if the book is editor picked.
+	 *
+	 * @return true, if it is editor picked
+	 */
+	public boolean isEditorPick() {
+		return editorPick;
 	}
 
 	/**
@@ -226,18 +303,59 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Adds the rating to the total rating of the book.
+	 * Adds the rating to the total rating of the book. Never blocks, and may
+	 * run concurrently with any other method. The caller must check
+	 * {@link #canBeRated()} first.
 	 *
 	 * @param rating
 	 *            the rating
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			ratings.add(1L << TOTAL_RATING_BITS | rating);
 		}
 	}
 
+	/**
+	 * Latches the book to move it in the index of the top rated books. Never
+	 * blocks.
+	 *
+	 * @return true, if the book was latched, false if another thread holds the
+	 *         latch or the book was removed from the index
+	 */
+	boolean tryLatchRatingIndex() {
+		return ratingIndexLatch.compareAndSet(false, true);
+	}
+
+	/**
+	 * Releases the latch taken by {@link #tryLatchRatingIndex()}.
+	 */
+	void unlatchRatingIndex() {
+		ratingIndexLatch.set(false);
+	}
+
+	/**
+	 * Gets the average rating under which the book is in the index of the top
+	 * rated books, with the rating index latch held.
+	 *
+	 * @return the average rating
+	 */
+	float getIndexedAverageRating() {
+		return indexedAverageRating;
+	}
+
+	/**
+	 * Sets the average rating under which the book is in the index of the top
+	 * rated books, with the rating index latch held or before the book is
+	 * shared.
+	 *
+	 * @param averageRating
+	 *            the average rating
+	 */
+	void setIndexedAverageRating(float averageRating) {
+		indexedAverageRating = averageRating;
+	}
+
 	/**
 	 * Checks if someone tried to buy the book, while the book was not in stock,
 	 * also known as having sale misses.
@@ -275,8 +393,9 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
+		long ratings = this.ratings.sum();
 		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
+				this.getPrice(), this.numCopies, this.numSaleMisses, numTimesRated(ratings), totalRating(ratings),
 				this.editorPick);
 	}
 
@@ -3,12 +3,10 @@ package com.acertainbookstore.business;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -18,6 +16,7 @@ import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
 
 /**
  * {@link CertainBookStore} implements the {@link BookStore} and
@@ -29,7 +28,16 @@ import com.acertainbookstore.utils.BookStoreUtility;
 public class CertainBookStore implements BookStore, StockManager {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntObjectHashMap<BookStoreBook> bookMap = null;
+
+	/** The editor picks of {@link #bookMap}. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/** The books of {@link #bookMap} ordered by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/** The books of {@link #bookMap} with sale misses, by ISBN. */
+	private final IntObjectHashMap<BookStoreBook> inDemandBooks = new IntObjectHashMap<>();
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
@@ -37,7 +45,7 @@ public class CertainBookStore implements BookStore, StockManager {
 	public CertainBookStore() {
 
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntObjectHashMap<>();
 	}
 
 	private synchronized void validate(StockBook book) throws BookStoreException {
@@ -67,6 +75,11 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
 		}
 
+		// Check if the ratings fit in a book
+		if (BookStoreBook.isInvalidRatings(book.getNumTimesRated(), book.getTotalRating())) {
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
 		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
 			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
 		}
@@ -92,6 +105,10 @@ public class CertainBookStore implements BookStore, StockManager {
 		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
 			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
 		}
+
+		if (!bookMap.get(isbn).canBeRated()) { // Check if the book can hold another rating
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.MAX_RATINGS);
+		}
 	}
 
 	private synchronized void validate(BookEditorPick editorPickArg) throws BookStoreException {
@@ -126,7 +143,14 @@ public class CertainBookStore implements BookStore, StockManager {
 		// Then add these books to the store.
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(isbn, bookStoreBook);
+			editorPickIndex.update(isbn, bookStoreBook, book.isEditorPick());
+			bookStoreBook.setIndexedAverageRating(bookStoreBook.getAverageRating());
+			topRatedIndex.add(bookStoreBook.immutableBook(), bookStoreBook.getIndexedAverageRating());
+			if (bookStoreBook.hadSaleMiss()) {
+				inDemandBooks.put(isbn, bookStoreBook);
+			}
 		}
 
 	}
@@ -157,6 +181,9 @@ public class CertainBookStore implements BookStore, StockManager {
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(isbn);
 			book.addCopies(numCopies);
+
+			// Adding copies resets the sale misses.
+			inDemandBooks.remove(isbn);
 		}
 
 	}
@@ -192,7 +219,9 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		// Then set the editor pick.
 		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+			book.setEditorPick(editorPickArg.isEditorPick());
+			editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
 		}
 	}
 
@@ -232,6 +261,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
 				book = bookMap.get(saleMissEntry.getKey());
 				book.addSaleMiss(saleMissEntry.getValue());
+				inDemandBooks.put(saleMissEntry.getKey(), book);
 			}
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
@@ -290,34 +320,8 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		// Get all books that are editor picks.
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream().map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick()).collect(Collectors.toList());
-
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-
-		if (rangePicks <= numBooks) {
-
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
-
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
-		}
-
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream().map(index -> listAllEditorPicks.get(index).immutableBook())
+		// Sample the editor picks instead of scanning the catalog.
+		return editorPickIndex.sample(numBooks).stream().map(BookStoreBook::immutableBook)
 				.collect(Collectors.toList());
 	}
 
@@ -327,35 +331,24 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int topK) throws BookStoreException {
+	public List<Book> getTopRatedBooks(int topK) throws BookStoreException {
+		// Not synchronized: the index is read without blocking the buyers.
 		if (topK < 0) {
 			throw new BookStoreException("numBooks = " + topK + ", but it must be positive");
 		}
-		else if (topK > bookMap.size()) {
+		else if (topK > topRatedIndex.size()) {
 			throw new BookStoreException("numBooks = " + topK + ", but it exceeds the number of books in the store");
 		}
 
-		// Get all books.
-		List<StockBook> listAllBooks = getBooks();
+		// Read the topK first books of the index.
+		List<Book> topRatedBooks = topRatedIndex.top(topK);
 
-		// Sort all books by average rating in descending order.
-		listAllBooks.sort((book1, book2) -> {
-			if (book1.getAverageRating() < book2.getAverageRating()) {
-				return 1;
-			} else if (book1.getAverageRating() > book2.getAverageRating()) {
-				return -1;
-			} else {
-				return 0;
-			}
-		});
-
-		// Assert size of listAllBooks is at least topK.
-		if (listAllBooks.size() < topK) {
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < topK) {
 			throw new BookStoreException("Not enough books in the store to get top " + topK + " rated books.");
 		}
 
-		// Return topK books.
-		return listAllBooks.stream().limit(topK).collect(Collectors.toList());
+		return topRatedBooks;
 	}
 
 	/*
@@ -365,12 +358,10 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	@Override
 	public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
-
-		List<StockBook> books = bookMapValues.stream()
-		.filter(book -> book.getNumSaleMisses() > 0)
-		.map(book -> book.immutableStockBook())
-		.collect(Collectors.toList());
+		// Only the books with sale misses are visited.
+		List<StockBook> books = inDemandBooks.values().stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList());
 
 		return books;
 
@@ -383,21 +374,69 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 
 	@Override
-	public synchronized void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
         if (bookRatings == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (BookRating ratingToValidate : bookRatings) {
-			// Check whether the book is in the system. If not, throw exception (all-or-nothing).
-			validate(ratingToValidate);
+		// Only the lookup of the books is synchronized: the ratings are added
+		// to striped adders, so they contend neither with the buyers nor with
+		// each other.
+		List<BookStoreBook> books = new ArrayList<>(bookRatings.size());
+		synchronized (this) {
+			for (BookRating ratingToValidate : bookRatings) {
+				// Check whether the book is in the system. If not, throw exception (all-or-nothing).
+				validate(ratingToValidate);
+			}
+
+			for (BookRating ratingToAdd : bookRatings) {
+				books.add(bookMap.get(ratingToAdd.getISBN()));
+			}
 		}
 
 		// Then make ratings.
-		for (BookRating ratingToAdd: bookRatings) {
-			int isbn = ratingToAdd.getISBN();
-            BookStoreBook book = bookMap.get(isbn);
+		int i = 0;
+		for (BookRating ratingToAdd : bookRatings) {
+			BookStoreBook book = books.get(i++);
 			book.addRating(ratingToAdd.getRating());
+			reindexRating(book);
+		}
+	}
+
+	/**
+	 * Moves a book to its current average rating in {@link #topRatedIndex}.
+	 * The thread holding the rating index latch of the book moves it, and
+	 * the raters which cannot take the latch leave their ratings to it: it
+	 * checks the average rating again once it released the latch.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void reindexRating(BookStoreBook book) {
+		while (book.tryLatchRatingIndex()) {
+			float averageRating = book.getAverageRating();
+			topRatedIndex.update(book.getISBN(), book.getIndexedAverageRating(), averageRating);
+			book.setIndexedAverageRating(averageRating);
+			book.unlatchRatingIndex();
+
+			if (Float.compare(book.getAverageRating(), averageRating) == 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Latches a book which is about to be removed from
+	 * {@link #topRatedIndex}. The latch is never released, so that the raters
+	 * which still hold the book do not add it back.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private static void latchForRemoval(BookStoreBook book) {
+		// The latch is only held by raters moving the book in the index.
+		while (!book.tryLatchRatingIndex()) {
+			Thread.yield();
 		}
 	}
 	/*
@@ -406,7 +445,13 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
+		for (BookStoreBook book : bookMap.values()) {
+			latchForRemoval(book);
+		}
 		bookMap.clear();
+		editorPickIndex.clear();
+		topRatedIndex.clear();
+		inDemandBooks.clear();
 	}
 
 	/*
@@ -430,7 +475,12 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		for (int isbn : isbnSet) {
+			BookStoreBook book = bookMap.get(isbn);
+			latchForRemoval(book);
+			topRatedIndex.remove(isbn, book.getIndexedAverageRating());
 			bookMap.remove(isbn);
+			editorPickIndex.remove(isbn);
+			inDemandBooks.remove(isbn);
 		}
 	}
 }
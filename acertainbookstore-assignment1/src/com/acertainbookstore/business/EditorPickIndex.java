@@ -0,0 +1,155 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link EditorPickIndex} keeps the editor picks of the catalog apart, so that
+ * getEditorPicks does not scan the whole catalog. The picks are kept densely
+ * in an array, and a map from ISBN to array position makes additions and
+ * removals O(1): a removed pick is replaced by the last one. Sampling k
+ * distinct picks uniformly at random then costs O(k), whatever the size of
+ * the catalog.
+ *
+ * The index is not thread-safe, but sampling never writes, so concurrent
+ * samples are safe as long as nobody modifies the index.
+ *
+ * @param <V>
+ *            the type of the picks
+ */
+final class EditorPickIndex<V> {
+
+	/**
+	 * A pick and its position in {@link EditorPickIndex#picks}.
+	 *
+	 * @param <V>
+	 *            the type of the picks
+	 */
+	private static final class Entry<V> {
+		private final V pick;
+		private int position;
+
+		private Entry(V pick, int position) {
+			this.pick = pick;
+			this.position = position;
+		}
+	}
+
+	/** The mapping of picks from ISBN to their entry. */
+	private final IntObjectHashMap<Entry<V>> entries = new IntObjectHashMap<>();
+
+	/** The entries, densely packed. */
+	private final List<Entry<V>> picks = new ArrayList<>();
+
+	/**
+	 * Gets the number of picks.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return picks.size();
+	}
+
+	/**
+	 * Adds a pick, unless its ISBN is already in the index.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param pick
+	 *            the pick
+	 */
+	void add(int isbn, V pick) {
+		if (entries.containsKey(isbn)) {
+			return;
+		}
+
+		Entry<V> entry = new Entry<>(pick, picks.size());
+		picks.add(entry);
+		entries.put(isbn, entry);
+	}
+
+	/**
+	 * Removes a pick, if its ISBN is in the index.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(int isbn) {
+		Entry<V> entry = entries.remove(isbn);
+		if (entry == null) {
+			return;
+		}
+
+		// Fill the hole with the last pick.
+		Entry<V> last = picks.remove(picks.size() - 1);
+		if (last != entry) {
+			last.position = entry.position;
+			picks.set(last.position, last);
+		}
+	}
+
+	/**
+	 * Adds or removes a pick.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param pick
+	 *            the pick
+	 * @param editorPick
+	 *            whether the book is an editor pick
+	 */
+	void update(int isbn, V pick, boolean editorPick) {
+		if (editorPick) {
+			add(isbn, pick);
+		} else {
+			remove(isbn);
+		}
+	}
+
+	/**
+	 * Removes all the picks.
+	 */
+	void clear() {
+		entries.clear();
+		picks.clear();
+	}
+
+	/**
+	 * Samples distinct picks uniformly at random, or returns all of them if
+	 * there are no more than <code>numPicks</code>.
+	 *
+	 * @param numPicks
+	 *            the number of picks
+	 * @return the picks
+	 */
+	List<V> sample(int numPicks) {
+		int size = picks.size();
+		List<V> sample = new ArrayList<>(Math.min(numPicks, size));
+
+		if (size <= numPicks) {
+			for (Entry<V> entry : picks) {
+				sample.add(entry.pick);
+			}
+			return sample;
+		}
+
+		// Floyd's algorithm: every numPicks-subset of the positions is equally
+		// likely, and every round draws once.
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Set<Integer> positions = new HashSet<>();
+		for (int bound = size - numPicks; bound < size; bound++) {
+			int position = random.nextInt(bound + 1);
+			if (!positions.add(position)) {
+				positions.add(bound);
+				position = bound;
+			}
+			sample.add(picks.get(position).pick);
+		}
+		return sample;
+	}
+}
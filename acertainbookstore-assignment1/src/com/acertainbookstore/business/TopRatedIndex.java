@@ -0,0 +1,140 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link TopRatedIndex} keeps the books of the catalog ordered by descending
+ * average rating, then ascending ISBN, in a concurrent skip list, so that
+ * getTopRatedBooks reads the first k entries instead of sorting the catalog.
+ * A rating moves the book by inserting its new entry before removing the old
+ * one, so a concurrent reader may see a book twice, which {@link #top(int)}
+ * filters out, but never misses it.
+ *
+ * Reads are thread-safe and take no lock. Updates of the same book must be
+ * serialized by the caller, e.g. under the lock of the book, and pass the
+ * average rating before and after the update.
+ */
+final class TopRatedIndex {
+
+	/** The order of the entries: best rated first, ties by ascending ISBN. */
+	private static final Comparator<Entry> ORDER = Comparator.<Entry> comparingDouble(entry -> -entry.averageRating)
+			.thenComparingInt(entry -> entry.isbn);
+
+	/**
+	 * A book and its average rating.
+	 */
+	private static final class Entry {
+		private final float averageRating;
+		private final int isbn;
+		private final Book book;
+
+		private Entry(float averageRating, int isbn, Book book) {
+			this.averageRating = averageRating;
+			this.isbn = isbn;
+			this.book = book;
+		}
+	}
+
+	private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+
+	/** The number of books, {@link ConcurrentSkipListSet#size()} is O(n). */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param book
+	 *            the immutable attributes of the book
+	 * @param averageRating
+	 *            the average rating of the book
+	 */
+	void add(Book book, float averageRating) {
+		if (entries.add(new Entry(averageRating, book.getISBN(), book))) {
+			size.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Moves a book to its new average rating.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param oldAverageRating
+	 *            the average rating before the update
+	 * @param newAverageRating
+	 *            the average rating after the update
+	 */
+	void update(int isbn, float oldAverageRating, float newAverageRating) {
+		if (Float.compare(oldAverageRating, newAverageRating) == 0) {
+			return;
+		}
+
+		Entry oldEntry = entries.ceiling(new Entry(oldAverageRating, isbn, null));
+		if (oldEntry == null || oldEntry.isbn != isbn || Float.compare(oldEntry.averageRating, oldAverageRating) != 0) {
+			return;
+		}
+
+		entries.add(new Entry(newAverageRating, isbn, oldEntry.book));
+		entries.remove(oldEntry);
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param averageRating
+	 *            the average rating of the book
+	 */
+	void remove(int isbn, float averageRating) {
+		if (entries.remove(new Entry(averageRating, isbn, null))) {
+			size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	void clear() {
+		entries.clear();
+		size.set(0);
+	}
+
+	/**
+	 * Gets the best rated books, or all of them if there are no more than
+	 * <code>numBooks</code>.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books, best rated first
+	 */
+	List<Book> top(int numBooks) {
+		List<Book> books = new ArrayList<>(Math.min(numBooks, size()));
+		Set<Integer> isbns = new HashSet<>();
+
+		for (Entry entry : entries) {
+			if (books.size() >= numBooks) {
+				break;
+			}
+			if (isbns.add(entry.isbn)) {
+				books.add(entry.book);
+			}
+		}
+		return books;
+	}
+}
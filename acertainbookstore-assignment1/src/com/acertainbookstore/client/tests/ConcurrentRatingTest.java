@@ -0,0 +1,255 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreBook;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ConcurrentRatingTest} tests the ratings packed in a single adder by
+ * {@link BookStoreBook}, and the reindexing of the top rated books by
+ * {@link CertainBookStore} while they are rated and read concurrently.
+ *
+ * @see BookStoreBook
+ * @see CertainBookStore
+ */
+public class ConcurrentRatingTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 10000;
+
+	/** The store. */
+	private CertainBookStore store;
+
+	/**
+	 * Adds two books to a new store, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new CertainBookStore();
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getBook(TEST_ISBN, 0, 0));
+		booksToAdd.add(getBook(TEST_ISBN + 1, 0, 0));
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Gets a book with the given ratings.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numTimesRated
+	 *            the number of times rated
+	 * @param totalRating
+	 *            the total rating
+	 * @return the book
+	 */
+	private static StockBook getBook(int isbn, long numTimesRated, long totalRating) {
+		return new ImmutableStockBook(isbn, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES, 0,
+				numTimesRated, totalRating, false);
+	}
+
+	/**
+	 * Rates a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param rating
+	 *            the rating
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void rate(int isbn, int rating) throws BookStoreException {
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(isbn, rating));
+		store.rateBooks(ratings);
+	}
+
+	/**
+	 * Starts the threads and waits for them.
+	 *
+	 * @param threads
+	 *            the threads
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private static void runAll(List<Thread> threads) throws InterruptedException {
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Checks that concurrent ratings are all counted, and that the number of
+	 * times rated and the total rating are always read as a consistent pair:
+	 * every rating is 4, so the average is 4 as soon as the book is rated.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testConcurrentRatings() throws InterruptedException {
+		BookStoreBook book = new BookStoreBook(getBook(TEST_ISBN, 0, 0));
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < NUM_OPERATIONS; i++) {
+					book.addRating(4);
+				}
+			}));
+		}
+		threads.add(new Thread(() -> {
+			try {
+				for (int i = 0; i < NUM_OPERATIONS; i++) {
+					float averageRating = book.getAverageRating();
+					assertTrue(averageRating == -1.0f || averageRating == 4.0f);
+					StockBook copy = book.immutableStockBook();
+					assertEquals(4 * copy.getNumTimesRated(), copy.getTotalRating());
+				}
+			} catch (Throwable ex) {
+				failures.add(ex);
+			}
+		}));
+
+		runAll(threads);
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(NUM_THREADS * NUM_OPERATIONS, book.getNumTimesRated());
+		assertEquals(4 * NUM_THREADS * NUM_OPERATIONS, book.getTotalRating());
+		assertEquals(4.0f, book.getAverageRating(), 0);
+	}
+
+	/**
+	 * Checks that the readers of the top rated books always see both books
+	 * while concurrent raters move them in the index, and that the index ends
+	 * in the order of the final averages.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testTopRatedBooksDuringReindex() throws InterruptedException, BookStoreException {
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			final int rater = t;
+			threads.add(new Thread(() -> {
+				try {
+					// The first book starts below the second one, with a rating
+					// of 0, and ends above it.
+					for (int i = 0; i < NUM_OPERATIONS / 10; i++) {
+						rate(TEST_ISBN + rater % 2, rater % 2 == 0 ? 5 * (i % 2) : 1);
+					}
+					rate(TEST_ISBN + rater % 2, rater % 2 == 0 ? 5 : 1);
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+		threads.add(new Thread(() -> {
+			try {
+				for (int i = 0; i < NUM_OPERATIONS / 10; i++) {
+					List<Book> topRatedBooks = store.getTopRatedBooks(2);
+					assertEquals(2, topRatedBooks.size());
+					assertEquals(2, new HashSet<Book>(topRatedBooks).size());
+					assertEquals(1, store.getTopRatedBooks(1).size());
+				}
+			} catch (Throwable ex) {
+				failures.add(ex);
+			}
+		}));
+
+		runAll(threads);
+		assertTrue(failures.toString(), failures.isEmpty());
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_THREADS / 2 * (NUM_OPERATIONS / 10 + 1), book.getNumTimesRated());
+		}
+		List<Book> topRatedBooks = store.getTopRatedBooks(2);
+		assertEquals(TEST_ISBN, topRatedBooks.get(0).getISBN());
+		assertEquals(TEST_ISBN + 1, topRatedBooks.get(1).getISBN());
+	}
+
+	/**
+	 * Checks that books whose ratings do not fit in the packed adder are
+	 * rejected, and that a book cannot be rated more than
+	 * {@link BookStoreBook#MAX_NUM_TIMES_RATED} times.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRatingBounds() throws BookStoreException {
+		long maxTimesRated = BookStoreBook.MAX_NUM_TIMES_RATED;
+		assertFalse(BookStoreBook.isInvalidRatings(maxTimesRated, 5 * maxTimesRated));
+		assertTrue(BookStoreBook.isInvalidRatings(maxTimesRated + 1, 0));
+		assertTrue(BookStoreBook.isInvalidRatings(-1, 0));
+		assertTrue(BookStoreBook.isInvalidRatings(1, 6));
+		assertTrue(BookStoreBook.isInvalidRatings(1, -1));
+
+		try {
+			new BookStoreBook(getBook(TEST_ISBN, 1, 6));
+			fail();
+		} catch (IllegalArgumentException ex) {
+			;
+		}
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getBook(TEST_ISBN + 2, maxTimesRated + 1, 0));
+		try {
+			store.addBooks(booksToAdd);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+		assertEquals(2, store.getBooks().size());
+
+		// The last rating a book can hold keeps its ratings consistent.
+		booksToAdd.clear();
+		booksToAdd.add(getBook(TEST_ISBN + 2, maxTimesRated - 1, 5 * (maxTimesRated - 1)));
+		store.addBooks(booksToAdd);
+		rate(TEST_ISBN + 2, 5);
+		try {
+			rate(TEST_ISBN + 2, 5);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		StockBook book = store.getBooks().stream().filter(b -> b.getISBN() == TEST_ISBN + 2).findFirst().get();
+		assertEquals(maxTimesRated, book.getNumTimesRated());
+		assertEquals(5 * maxTimesRated, book.getTotalRating());
+		assertEquals(TEST_ISBN + 2, store.getTopRatedBooks(1).get(0).getISBN());
+	}
+}
@@ -42,6 +42,9 @@ public final class BookStoreConstants {
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
+	/** The Constant MAX_RATINGS when a book cannot be rated anymore. */
+	public static final String MAX_RATINGS = " was rated too many times";
+
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
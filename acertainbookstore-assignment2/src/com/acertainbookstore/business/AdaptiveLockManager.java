@@ -0,0 +1,464 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link AdaptiveLockManager} is the {@link LockManager} of the
+ * {@link LockManager#ADAPTIVE} policy: it runs the sections with a
+ * {@link PerBookLockManager}, either in {@link Mode#SINGLE_LOCK} mode, where
+ * its global lock is the only one, or in {@link Mode#PER_BOOK} mode, with its
+ * two-level locking, and switches between them online.
+ *
+ * Every sample period it looks at the sections run since the
+ * last sample: the share of catalog sections, i.e. catalog scans and
+ * changes, which have to lock every book in per-book mode, and the mean time
+ * the sections waited before they ran. It switches to per-book mode when the
+ * single lock is contended by sections on books, and back to single-lock mode
+ * when the catalog sections come back. It does not switch back when the
+ * contention is gone, since that is usually the effect of the book locks.
+ *
+ * A switch takes the global lock in write mode, so that the sections in
+ * flight drain before the mode changes and every section runs in a single
+ * mode. The book locks are kept up to date in single-lock mode too, so that
+ * the switch does not have to rebuild them.
+ */
+public final class AdaptiveLockManager implements LockManager {
+
+	/** The default period between two samples, in milliseconds. */
+	public static final long DEFAULT_SAMPLE_PERIOD_MILLIS = 100;
+
+	/**
+	 * The number of sections under which a sample is too small to switch, and
+	 * is extended by another sample period.
+	 */
+	private static final long MIN_SAMPLE_SECTIONS = 100;
+
+	/**
+	 * The mean wait of the sections, in nanoseconds, from which the single
+	 * lock is contended enough to switch to per-book mode.
+	 */
+	private static final long MIN_CONTENDED_WAIT_NANOS = 2_000;
+
+	/** The largest share of catalog sections with which per-book mode is chosen. */
+	private static final double PER_BOOK_MAX_CATALOG_SHARE = 0.01;
+
+	/**
+	 * The share of catalog sections from which single-lock mode is chosen
+	 * again, larger than {@link #PER_BOOK_MAX_CATALOG_SHARE} so that the mode
+	 * does not flap.
+	 */
+	private static final double SINGLE_LOCK_MIN_CATALOG_SHARE = 0.05;
+
+	/** The number of transitions kept in the history. */
+	private static final int MAX_TRANSITIONS = 256;
+
+	/**
+	 * The modes of the {@link AdaptiveLockManager}.
+	 */
+	public enum Mode {
+
+		/** A single read-write lock for the whole catalog. */
+		SINGLE_LOCK,
+
+		/** A global intention lock and a read-write lock per book. */
+		PER_BOOK
+	}
+
+	/**
+	 * A switch between two modes, with the sample which caused it.
+	 */
+	public static final class Transition {
+
+		private final long timeMillis;
+		private final Mode from;
+		private final Mode to;
+		private final long numSections;
+		private final double catalogShare;
+		private final long meanWaitNanos;
+		private final long drainNanos;
+
+		/**
+		 * Instantiates a new {@link Transition}.
+		 *
+		 * @param timeMillis
+		 *            the time of the switch
+		 * @param from
+		 *            the previous mode
+		 * @param to
+		 *            the new mode
+		 * @param numSections
+		 *            the number of sections of the sample
+		 * @param catalogShare
+		 *            the share of catalog sections of the sample
+		 * @param meanWaitNanos
+		 *            the mean wait of the sections of the sample
+		 * @param drainNanos
+		 *            the time the sections in flight took to drain
+		 */
+		Transition(long timeMillis, Mode from, Mode to, long numSections, double catalogShare, long meanWaitNanos,
+				long drainNanos) {
+			this.timeMillis = timeMillis;
+			this.from = from;
+			this.to = to;
+			this.numSections = numSections;
+			this.catalogShare = catalogShare;
+			this.meanWaitNanos = meanWaitNanos;
+			this.drainNanos = drainNanos;
+		}
+
+		/**
+		 * Gets the time of the switch.
+		 *
+		 * @return the time in milliseconds since the epoch
+		 */
+		public long getTimeMillis() {
+			return timeMillis;
+		}
+
+		/**
+		 * Gets the previous mode.
+		 *
+		 * @return the mode
+		 */
+		public Mode getFrom() {
+			return from;
+		}
+
+		/**
+		 * Gets the new mode.
+		 *
+		 * @return the mode
+		 */
+		public Mode getTo() {
+			return to;
+		}
+
+		/**
+		 * Gets the number of sections of the sample.
+		 *
+		 * @return the number of sections
+		 */
+		public long getNumSections() {
+			return numSections;
+		}
+
+		/**
+		 * Gets the share of catalog scans and changes in the sample.
+		 *
+		 * @return the share, between 0 and 1
+		 */
+		public double getCatalogShare() {
+			return catalogShare;
+		}
+
+		/**
+		 * Gets the mean time the sections of the sample waited before they ran.
+		 *
+		 * @return the wait in nanoseconds
+		 */
+		public long getMeanWaitNanos() {
+			return meanWaitNanos;
+		}
+
+		/**
+		 * Gets the time the sections in flight took to drain.
+		 *
+		 * @return the time in nanoseconds
+		 */
+		public long getDrainNanos() {
+			return drainNanos;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format("%d %s->%s sections=%d catalog_share=%.4f mean_wait_nanos=%d drain_nanos=%d",
+					timeMillis, from, to, numSections, catalogShare, meanWaitNanos, drainNanos);
+		}
+	}
+
+	private final PerBookLockManager perBookLockManager = new PerBookLockManager(false);
+
+	/** The current mode, only changed in {@link #adapt}. */
+	private volatile Mode mode;
+
+	/** The period between two samples. */
+	private final long samplePeriodNanos;
+
+	/** The start of the current sample. */
+	private final AtomicLong sampleStartNanos;
+
+	/** The number of sections on books in the current sample. */
+	private final LongAdder numBookSections = new LongAdder();
+
+	/** The number of catalog scans and changes in the current sample. */
+	private final LongAdder numCatalogSections = new LongAdder();
+
+	/** The total wait of the sections of the current sample, in nanoseconds. */
+	private final LongAdder waitNanos = new LongAdder();
+
+	/** The last {@link #MAX_TRANSITIONS} transitions, guarded by itself. */
+	private final Deque<Transition> transitions = new ArrayDeque<>();
+
+	/** The number of transitions since the creation. */
+	private final LongAdder numTransitions = new LongAdder();
+
+	/**
+	 * Instantiates a new {@link AdaptiveLockManager} starting in single-lock
+	 * mode, with the default sample period.
+	 */
+	public AdaptiveLockManager() {
+		this(Mode.SINGLE_LOCK, DEFAULT_SAMPLE_PERIOD_MILLIS);
+	}
+
+	/**
+	 * Instantiates a new {@link AdaptiveLockManager}.
+	 *
+	 * @param initialMode
+	 *            the initial mode
+	 * @param samplePeriodMillis
+	 *            the period between two samples, in milliseconds
+	 */
+	public AdaptiveLockManager(Mode initialMode, long samplePeriodMillis) {
+		this.mode = initialMode;
+		perBookLockManager.setSingleLock(initialMode == Mode.SINGLE_LOCK);
+		this.samplePeriodNanos = TimeUnit.MILLISECONDS.toNanos(samplePeriodMillis);
+		this.sampleStartNanos = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Gets the current mode.
+	 *
+	 * @return the mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Gets the last transitions between the modes, at most
+	 * {@value #MAX_TRANSITIONS}.
+	 *
+	 * @return the transitions, oldest first
+	 */
+	public List<Transition> getTransitions() {
+		synchronized (transitions) {
+			return new ArrayList<>(transitions);
+		}
+	}
+
+	/**
+	 * Gets the number of transitions between the modes since the creation.
+	 *
+	 * @return the number of transitions
+	 */
+	public long getNumTransitions() {
+		return numTransitions.sum();
+	}
+
+	/**
+	 * Wraps a section so that the time it waited for its locks is sampled.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param counter
+	 *            the counter of the kind of the section
+	 * @param section
+	 *            the section
+	 * @return the section to run with the per-book manager
+	 */
+	private <T> Section<T> timed(LongAdder counter, Section<T> section) {
+		counter.increment();
+		long startNanos = System.nanoTime();
+		return () -> {
+			waitNanos.add(System.nanoTime() - startNanos);
+			return section.run();
+		};
+	}
+
+	/**
+	 * Takes a sample if the sample period is over and no other thread took
+	 * it, and switches the mode if the sample calls for it. Called once a
+	 * section is over, since a switch waits for the sections in flight.
+	 */
+	private void sampleIfDue() {
+		long start = sampleStartNanos.get();
+		long now = System.nanoTime();
+		if (now - start < samplePeriodNanos || !sampleStartNanos.compareAndSet(start, now)
+				|| numBookSections.sum() + numCatalogSections.sum() < MIN_SAMPLE_SECTIONS) {
+			return;
+		}
+
+		long numBooks = numBookSections.sumThenReset();
+		long numCatalog = numCatalogSections.sumThenReset();
+		long totalWaitNanos = waitNanos.sumThenReset();
+		long numSections = numBooks + numCatalog;
+		adapt(numSections, (double) numCatalog / numSections, totalWaitNanos / numSections);
+	}
+
+	/**
+	 * Switches the mode if a sample calls for it. Synchronized, should a
+	 * switch outlast the sample period.
+	 *
+	 * @param numSections
+	 *            the number of sections of the sample
+	 * @param catalogShare
+	 *            the share of catalog sections of the sample
+	 * @param meanWaitNanos
+	 *            the mean wait of the sections of the sample
+	 */
+	private synchronized void adapt(long numSections, double catalogShare, long meanWaitNanos) {
+		if (mode == Mode.SINGLE_LOCK) {
+			if (catalogShare <= PER_BOOK_MAX_CATALOG_SHARE && meanWaitNanos >= MIN_CONTENDED_WAIT_NANOS) {
+				switchTo(Mode.PER_BOOK, numSections, catalogShare, meanWaitNanos);
+			}
+		} else if (catalogShare >= SINGLE_LOCK_MIN_CATALOG_SHARE) {
+			switchTo(Mode.SINGLE_LOCK, numSections, catalogShare, meanWaitNanos);
+		}
+	}
+
+	/**
+	 * Drains the sections in flight and switches to the given mode.
+	 *
+	 * @param newMode
+	 *            the new mode
+	 * @param numSections
+	 *            the number of sections of the sample
+	 * @param catalogShare
+	 *            the share of catalog sections of the sample
+	 * @param meanWaitNanos
+	 *            the mean wait of the sections of the sample
+	 */
+	private void switchTo(Mode newMode, long numSections, double catalogShare, long meanWaitNanos) {
+		long drainNanos = perBookLockManager.setSingleLock(newMode == Mode.SINGLE_LOCK);
+		Transition transition = new Transition(System.currentTimeMillis(), mode, newMode, numSections, catalogShare,
+				meanWaitNanos, drainNanos);
+		mode = newMode;
+		numTransitions.increment();
+		synchronized (transitions) {
+			if (transitions.size() == MAX_TRANSITIONS) {
+				transitions.removeFirst();
+			}
+			transitions.addLast(transition);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#readBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		try {
+			return perBookLockManager.readBooks(isbns, timed(numBookSections, section));
+		} finally {
+			sampleIfDue();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#writeBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		try {
+			return perBookLockManager.writeBooks(isbns, timed(numBookSections, section));
+		} finally {
+			sampleIfDue();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#readCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readCatalog(Section<T> section) throws BookStoreException {
+		try {
+			return perBookLockManager.readCatalog(timed(numCatalogSections, section));
+		} finally {
+			sampleIfDue();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#changeCatalog(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T changeCatalog(int[] isbns, Section<T> section) throws BookStoreException {
+		try {
+			return perBookLockManager.changeCatalog(isbns, timed(numCatalogSections, section));
+		} finally {
+			sampleIfDue();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#writeCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeCatalog(Section<T> section) throws BookStoreException {
+		try {
+			return perBookLockManager.writeCatalog(timed(numCatalogSections, section));
+		} finally {
+			sampleIfDue();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#bookAdded(int)
+	 */
+	@Override
+	public void bookAdded(int isbn) {
+		perBookLockManager.bookAdded(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#bookRemoved(int)
+	 */
+	@Override
+	public void bookRemoved(int isbn) {
+		perBookLockManager.bookRemoved(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#allBooksRemoved()
+	 */
+	@Override
+	public void allBooksRemoved() {
+		perBookLockManager.allBooksRemoved();
+	}
+}
@@ -0,0 +1,506 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore.AcquisitionPolicy;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link BookLockAcquirer} takes the locks of several books for the
+ * operations of the {@link TwoLevelLockingConcurrentCertainBookStore} which
+ * hold them all at once, following an {@link AcquisitionPolicy} which keeps
+ * them from deadlocking:
+ * <ul>
+ * <li>{@link AcquisitionPolicy#ORDERED} waits for the locks in ascending ISBN
+ * order, so that no cycle of waits can form.</li>
+ * <li>{@link AcquisitionPolicy#NO_WAIT} takes the locks in the order of the
+ * operation and never waits: on a taken lock it aborts, giving up its locks,
+ * backs off and starts again.</li>
+ * <li>{@link AcquisitionPolicy#WAIT_DIE} and
+ * {@link AcquisitionPolicy#WOUND_WAIT} also take the locks in the order of
+ * the operation, and give every operation a timestamp, kept across its
+ * restarts so that it eventually becomes the oldest. With wait-die an older
+ * operation waits for a younger holder and a younger one aborts; with
+ * wound-wait an older operation wounds the younger holders, which abort if
+ * they are still waiting for a lock, and a younger one waits.</li>
+ * </ul>
+ * The operations holding a single book lock at a time, e.g. getBooksByISBN,
+ * take it directly: they cannot be part of a cycle, so they are simply waited for.
+ *
+ * Under wait-die and wound-wait, an operation waits on the monitor of the
+ * book lock, which is notified whenever the lock is released, by any
+ * operation, whenever an operation starts holding it, which may change the
+ * decision of the policy, and whenever the waiting operation is wounded.
+ */
+final class BookLockAcquirer {
+
+	/** The number of aborts after which an operation parks instead of yielding. */
+	private static final int YIELDS_BEFORE_PARK = 8;
+
+	/** The maximum back-off of an aborted operation, in nanoseconds. */
+	private static final long MAX_BACK_OFF_NANOS = 100_000;
+
+	/**
+	 * An operation taking book locks under the wait-die or wound-wait policy.
+	 */
+	private static final class Transaction {
+
+		/** The timestamp of the operation, smaller for older operations. */
+		private final long timestamp;
+
+		/** Whether an older operation asked this one to abort. */
+		private volatile boolean wounded = false;
+
+		/** The lock the operation waits for, if any. */
+		private volatile BookLock waitingFor = null;
+
+		/**
+		 * Instantiates a new {@link Transaction}.
+		 *
+		 * @param timestamp
+		 *            the timestamp
+		 */
+		Transaction(long timestamp) {
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * Asks the operation to abort, and wakes it up if it waits for a lock.
+		 */
+		private void wound() {
+			wounded = true;
+			BookLock bookLock = waitingFor;
+			if (bookLock != null) {
+				bookLock.signalWaiters();
+			}
+		}
+	}
+
+	/**
+	 * The lock of a book, which knows the operations holding it under the
+	 * wait-die and wound-wait policies, and on whose monitor they wait for it.
+	 * Its read and write locks wake the waiting operations up when released.
+	 */
+	@SuppressWarnings("serial")
+	static final class BookLock extends ReentrantReadWriteLock {
+
+		private static final Transaction[] NO_READERS = new Transaction[0];
+
+		private final ReentrantReadWriteLock.ReadLock readLock = new ReentrantReadWriteLock.ReadLock(this) {
+			@Override
+			public void unlock() {
+				super.unlock();
+				signalWaiters();
+			}
+		};
+
+		private final ReentrantReadWriteLock.WriteLock writeLock = new ReentrantReadWriteLock.WriteLock(this) {
+			@Override
+			public void unlock() {
+				super.unlock();
+				signalWaiters();
+			}
+		};
+
+		/** The operation holding the write lock, if any. */
+		private volatile Transaction writer = null;
+
+		/** The operations holding the read lock, copied on write under this. */
+		private volatile Transaction[] readers = NO_READERS;
+
+		/** The number of operations waiting on the monitor, changed under this. */
+		private volatile int numWaiters = 0;
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.ReentrantReadWriteLock#readLock()
+		 */
+		@Override
+		public ReentrantReadWriteLock.ReadLock readLock() {
+			return readLock;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.ReentrantReadWriteLock#writeLock()
+		 */
+		@Override
+		public ReentrantReadWriteLock.WriteLock writeLock() {
+			return writeLock;
+		}
+
+		/**
+		 * Records an operation holding the lock, and wakes up the waiting
+		 * operations so that they apply their policy to it.
+		 *
+		 * @param transaction
+		 *            the operation
+		 * @param write
+		 *            whether it holds the write lock
+		 */
+		private void addHolder(Transaction transaction, boolean write) {
+			if (write) {
+				writer = transaction;
+			} else {
+				synchronized (this) {
+					Transaction[] newReaders = Arrays.copyOf(readers, readers.length + 1);
+					newReaders[readers.length] = transaction;
+					readers = newReaders;
+				}
+			}
+			signalWaiters();
+		}
+
+		private void removeHolder(Transaction transaction, boolean write) {
+			if (write) {
+				writer = null;
+				return;
+			}
+			synchronized (this) {
+				Transaction[] oldReaders = readers;
+				for (int i = 0; i < oldReaders.length; i++) {
+					if (oldReaders[i] == transaction) {
+						Transaction[] newReaders = new Transaction[oldReaders.length - 1];
+						System.arraycopy(oldReaders, 0, newReaders, 0, i);
+						System.arraycopy(oldReaders, i + 1, newReaders, i, newReaders.length - i);
+						readers = newReaders;
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Checks whether an operation older than the given one holds the lock.
+		 *
+		 * @param transaction
+		 *            the operation
+		 * @return true, if an older operation holds the lock
+		 */
+		private boolean hasOlderHolder(Transaction transaction) {
+			Transaction holder = writer;
+			if (holder != null && holder.timestamp < transaction.timestamp) {
+				return true;
+			}
+			for (Transaction reader : readers) {
+				holder = reader;
+				if (holder.timestamp < transaction.timestamp) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Checks whether an operation younger than the given one holds the
+		 * lock and was not wounded yet.
+		 *
+		 * @param transaction
+		 *            the operation
+		 * @return true, if a younger operation is to be wounded
+		 */
+		private boolean hasUnwoundedYoungerHolder(Transaction transaction) {
+			Transaction holder = writer;
+			if (holder != null && holder.timestamp > transaction.timestamp && !holder.wounded) {
+				return true;
+			}
+			for (Transaction reader : readers) {
+				if (reader.timestamp > transaction.timestamp && !reader.wounded) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Wounds the operations younger than the given one holding the lock.
+		 *
+		 * @param transaction
+		 *            the operation
+		 */
+		private void woundYoungerHolders(Transaction transaction) {
+			wound(writer, transaction);
+			for (Transaction reader : readers) {
+				wound(reader, transaction);
+			}
+		}
+
+		private static void wound(Transaction holder, Transaction transaction) {
+			if (holder != null && holder.timestamp > transaction.timestamp && !holder.wounded) {
+				holder.wound();
+			}
+		}
+
+		/**
+		 * Wakes up the operations waiting on the monitor, once the lock was
+		 * released, an operation started holding it or one of them was
+		 * wounded.
+		 */
+		private void signalWaiters() {
+			if (numWaiters > 0) {
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private final AcquisitionPolicy policy;
+
+	/** The source of the timestamps of the wait-die and wound-wait policies. */
+	private final AtomicLong clock = new AtomicLong();
+
+	/** The number of times an operation gave up its locks. */
+	private final LongAdder numAborts = new LongAdder();
+
+	/** The number of operations which were aborted at least once. */
+	private final LongAdder numRetries = new LongAdder();
+
+	/** The total time spent waiting for taken locks, in nanoseconds. */
+	private final LongAdder lockWaitNanos = new LongAdder();
+
+	/**
+	 * Instantiates a new {@link BookLockAcquirer}.
+	 *
+	 * @param policy
+	 *            the acquisition policy
+	 */
+	BookLockAcquirer(AcquisitionPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Gets the acquisition policy.
+	 *
+	 * @return the policy
+	 */
+	AcquisitionPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Gets the number of times an operation gave up its locks and started
+	 * again.
+	 *
+	 * @return the number of aborts
+	 */
+	long getNumAborts() {
+		return numAborts.sum();
+	}
+
+	/**
+	 * Gets the number of operations which had to start again at least once.
+	 *
+	 * @return the number of retried operations
+	 */
+	long getNumRetries() {
+		return numRetries.sum();
+	}
+
+	/**
+	 * Gets the total time spent waiting for locks taken by other operations.
+	 *
+	 * @return the wait time in nanoseconds
+	 */
+	long getLockWaitNanos() {
+		return lockWaitNanos.sum();
+	}
+
+	/**
+	 * Runs a section under the locks of the given books, while the caller
+	 * holds the global read lock. The books may be removed until their locks
+	 * are taken, which the section has to check.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs of the books, in the order of the operation
+	 * @param bookLocks
+	 *            the locks of the books by ISBN
+	 * @param write
+	 *            whether the locks are taken in write mode
+	 * @param section
+	 *            the section, run once all the locks are taken
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	<T> T runWithBookLocks(int[] isbns, IntFunction<BookLock> bookLocks, boolean write,
+			LockManager.Section<T> section) throws BookStoreException {
+		int[] distinctIsbns = policy == AcquisitionPolicy.ORDERED ? BookStoreUtility.sortedDistinct(isbns)
+				: distinct(isbns);
+
+		// The locks, in the order in which they are taken.
+		BookLock[] locks = new BookLock[distinctIsbns.length];
+		for (int i = 0; i < distinctIsbns.length; i++) {
+			locks[i] = bookLocks.apply(distinctIsbns[i]);
+		}
+
+		Transaction transaction = policy == AcquisitionPolicy.WAIT_DIE || policy == AcquisitionPolicy.WOUND_WAIT
+				? new Transaction(clock.incrementAndGet())
+				: null;
+		boolean interrupted = false;
+		try {
+			for (int attempt = 0;; attempt++) {
+				int numLocked = 0;
+				try {
+					for (; numLocked < locks.length; numLocked++) {
+						Lock lock = write ? locks[numLocked].writeLock() : locks[numLocked].readLock();
+						if (!lock.tryLock()) {
+							long start = System.nanoTime();
+							int outcome = await(lock, locks[numLocked], transaction);
+							lockWaitNanos.add(System.nanoTime() - start);
+							interrupted |= (outcome & INTERRUPTED) != 0;
+							if ((outcome & LOCKED) == 0) {
+								break;
+							}
+						}
+						if (transaction != null) {
+							locks[numLocked].addHolder(transaction, write);
+						}
+					}
+
+					if (numLocked == locks.length) {
+						return section.run();
+					}
+				} finally {
+					while (numLocked > 0) {
+						BookLock bookLock = locks[--numLocked];
+						if (transaction != null) {
+							bookLock.removeHolder(transaction, write);
+						}
+						(write ? bookLock.writeLock() : bookLock.readLock()).unlock();
+					}
+				}
+
+				numAborts.increment();
+				if (attempt == 0) {
+					numRetries.increment();
+				}
+				if (transaction != null) {
+					transaction.wounded = false;
+				}
+				backOff(attempt);
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** The flag of the outcome of {@link #await} set if the lock was taken. */
+	private static final int LOCKED = 1;
+
+	/**
+	 * The flag of the outcome of {@link #await} set if the thread was
+	 * interrupted while waiting.
+	 */
+	private static final int INTERRUPTED = 2;
+
+	/**
+	 * Waits for a lock taken by another operation, as far as the policy
+	 * allows.
+	 *
+	 * @param lock
+	 *            the read or write lock
+	 * @param bookLock
+	 *            the book lock it belongs to
+	 * @param transaction
+	 *            the operation, null unless under wait-die or wound-wait
+	 * @return the outcome, {@link #LOCKED} unless the operation must abort,
+	 *         and {@link #INTERRUPTED} if the thread was interrupted
+	 */
+	private int await(Lock lock, BookLock bookLock, Transaction transaction) {
+		switch (policy) {
+		case ORDERED:
+			lock.lock();
+			return LOCKED;
+
+		case NO_WAIT:
+			return 0;
+
+		default:
+			int interrupted = 0;
+			for (;;) {
+				if (policy == AcquisitionPolicy.WOUND_WAIT) {
+					// Outside the monitor, since wounding notifies the monitor
+					// of the lock the wounded operation waits for.
+					bookLock.woundYoungerHolders(transaction);
+				}
+
+				synchronized (bookLock) {
+					// Registered before checking the holders and trying the
+					// lock, so that a new holder or a release either is seen
+					// here or notifies the monitor, and no wake-up is lost.
+					bookLock.numWaiters++;
+					transaction.waitingFor = bookLock;
+					try {
+						if (policy == AcquisitionPolicy.WAIT_DIE ? bookLock.hasOlderHolder(transaction)
+								: transaction.wounded) {
+							return interrupted;
+						}
+						if (lock.tryLock()) {
+							return LOCKED | interrupted;
+						}
+						if (policy == AcquisitionPolicy.WOUND_WAIT && bookLock.hasUnwoundedYoungerHolder(transaction)) {
+							continue;
+						}
+						bookLock.wait();
+					} catch (InterruptedException ex) {
+						// Keep waiting, the interrupt is restored once done.
+						interrupted = INTERRUPTED;
+					} finally {
+						transaction.waitingFor = null;
+						bookLock.numWaiters--;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Backs off before an aborted operation starts again, by yielding at first
+	 * and then parking for a random time growing with the aborts.
+	 *
+	 * @param attempt
+	 *            the number of aborts so far, minus one
+	 */
+	private static void backOff(int attempt) {
+		if (attempt < YIELDS_BEFORE_PARK) {
+			Thread.yield();
+		} else {
+			long maxNanos = Math.min(MAX_BACK_OFF_NANOS, 1_000L << Math.min(attempt - YIELDS_BEFORE_PARK, 20));
+			LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxNanos) + 1);
+		}
+	}
+
+	/**
+	 * Removes the duplicates of the given ISBNs, keeping their order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the distinct ISBNs
+	 */
+	private static int[] distinct(int[] isbns) {
+		IntObjectHashMap<Boolean> seen = new IntObjectHashMap<>(isbns.length);
+		int numDistinct = 0;
+		for (int isbn : isbns) {
+			if (seen.put(isbn, Boolean.TRUE) == null) {
+				isbns[numDistinct++] = isbn;
+			}
+		}
+		return numDistinct == isbns.length ? isbns : Arrays.copyOf(isbns, numDistinct);
+	}
+}
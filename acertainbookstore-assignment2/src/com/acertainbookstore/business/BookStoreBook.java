@@ -1,5 +1,8 @@
 package com.acertainbookstore.business;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -28,6 +31,23 @@ public class BookStoreBook extends ImmutableBook {
 	/** Whether the book is editor picked. */
 	private boolean editorPick;
 
+	/**
+	 * The version stamp used by optimistic concurrency control. It is even when
+	 * the book is unlocked and odd while a writer holds the book.
+	 */
+	private volatile long version;
+
+	/** The handle used to compare-and-set the version stamp. */
+	private static final VarHandle VERSION;
+
+	static {
+		try {
+			VERSION = MethodHandles.lookup().findVarHandle(BookStoreBook.class, "version", long.class);
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
 	 *
@@ -160,7 +180,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @param saleMisses
 	 *            the new sale misses
 	 */
-	private void setNumSaleMisses(long numSaleMisses) {
+	protected void setNumSaleMisses(long numSaleMisses) {
 		this.numSaleMisses = numSaleMisses;
 	}
 
@@ -175,6 +195,49 @@ public class BookStoreBook extends ImmutableBook {
 		this.editorPick = editorPick;
 	}
 
+	/**
+	 * Gets the version stamp of the book.
+	 *
+	 * @return the version, odd if the book is locked by a writer
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Checks whether a version stamp denotes a locked book.
+	 *
+	 * @param version
+	 *            the version
+	 * @return true, if the version is locked
+	 */
+	public static boolean isLocked(long version) {
+		return (version & 1L) != 0;
+	}
+
+	/**
+	 * Locks the book for writing if its version is still
+	 * <code>expectedVersion</code>. Never blocks.
+	 *
+	 * @param expectedVersion
+	 *            the (unlocked) version read before
+	 * @return true, if the book was locked
+	 */
+	public boolean tryLockVersion(long expectedVersion) {
+		return !isLocked(expectedVersion) && VERSION.compareAndSet(this, expectedVersion, expectedVersion + 1);
+	}
+
+	/**
+	 * Unlocks a book locked by {@link #tryLockVersion(long)}, publishing a new
+	 * version if the book was modified.
+	 *
+	 * @param modified
+	 *            whether the book was modified while locked
+	 */
+	public void unlockVersion(boolean modified) {
+		version = modified ? version + 1 : version - 1;
+	}
+
 	/**
 	 * Checks if at least <code>numCopies</code> of the book are available.
 	 *
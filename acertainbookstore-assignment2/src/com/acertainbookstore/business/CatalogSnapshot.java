@@ -0,0 +1,171 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link CatalogSnapshot} is an immutable copy of the catalog, stamped with
+ * the version of the catalog it was copied at. The full-catalog reads,
+ * getBooks and getBooksInDemand, are served from it without any lock, and
+ * without copying any book: a call only copies the references of the books
+ * it returns into a new list, which the caller may modify or serialize like
+ * the lists of the other implementations. getBooksByISBN is served from the
+ * catalog itself, since a lookup of a few books after every write would
+ * otherwise copy the whole catalog.
+ *
+ * The lookups of the snapshot never write, so it is safe to share once it is
+ * published through the volatile reference of its {@link Publisher}.
+ */
+final class CatalogSnapshot {
+
+	/**
+	 * Copies the catalog under the locks of the implementation.
+	 */
+	@FunctionalInterface
+	interface Builder {
+
+		/**
+		 * Copies the catalog. The version must be read, with
+		 * {@link Publisher#getVersion()}, before or while the books are
+		 * copied, never after.
+		 *
+		 * @return the snapshot
+		 */
+		CatalogSnapshot build();
+	}
+
+	/**
+	 * {@link Publisher} publishes the snapshots of an implementation. Writers
+	 * only bump the version of the catalog, once their writes are applied and
+	 * before they release their locks, and the snapshot is copied again by
+	 * the first full-catalog read that finds it outdated. A burst of writes
+	 * between two reads is thus published once, and a read never returns a
+	 * snapshot older than the writes which completed before it.
+	 *
+	 * A copy costs what a full-catalog read costs in the other modes, so a
+	 * read after every write is no slower than there, apart from the wait for
+	 * the copy. The readers finding the snapshot outdated wait for a single
+	 * copy, and take any snapshot whose copy started after they arrived, even
+	 * if writes outdated it meanwhile: under a steady stream of writes, a
+	 * read thus waits for at most the copy in progress and one more, instead
+	 * of a copy per reader queued before it.
+	 */
+	static final class Publisher {
+
+		/** The version of the catalog, bumped by every write. */
+		private final AtomicLong version = new AtomicLong();
+
+		/** The last published snapshot, null until the first read. */
+		private volatile CatalogSnapshot snapshot = null;
+
+		/** Lets a single reader copy an outdated snapshot. */
+		private final ReentrantLock publishLock = new ReentrantLock();
+
+		/** The number of copies of the catalog. */
+		private final LongAdder numBuilds = new LongAdder();
+
+		/**
+		 * Marks the published snapshot as outdated.
+		 */
+		void invalidate() {
+			version.incrementAndGet();
+		}
+
+		/**
+		 * Gets the version of the catalog.
+		 *
+		 * @return the version
+		 */
+		long getVersion() {
+			return version.get();
+		}
+
+		/**
+		 * Gets the number of copies of the catalog.
+		 *
+		 * @return the number of copies
+		 */
+		long getNumBuilds() {
+			return numBuilds.sum();
+		}
+
+		/**
+		 * Gets the current snapshot, copying it with <code>builder</code> if
+		 * the catalog changed since it was published.
+		 *
+		 * @param builder
+		 *            the builder of the implementation
+		 * @return the snapshot
+		 */
+		CatalogSnapshot get(Builder builder) {
+			long arrival = version.get();
+			CatalogSnapshot current = snapshot;
+			if (current != null && current.version == arrival) {
+				return current;
+			}
+
+			publishLock.lock();
+			try {
+				// Another reader may have copied it since we arrived, which
+				// holds every write completed before.
+				current = snapshot;
+				if (current == null || current.version < arrival) {
+					current = builder.build();
+					numBuilds.increment();
+					snapshot = current;
+				}
+				return current;
+			} finally {
+				publishLock.unlock();
+			}
+		}
+	}
+
+	private final long version;
+	private final List<StockBook> books;
+	private final List<StockBook> booksInDemand;
+
+	/**
+	 * Instantiates a new {@link CatalogSnapshot}.
+	 *
+	 * @param version
+	 *            the version of the catalog
+	 * @param books
+	 *            the immutable copies of the books, owned by the snapshot from
+	 *            now on
+	 */
+	CatalogSnapshot(long version, List<StockBook> books) {
+		List<StockBook> booksInDemand = new ArrayList<>();
+
+		for (StockBook book : books) {
+			if (book.getNumSaleMisses() > 0) {
+				booksInDemand.add(book);
+			}
+		}
+
+		this.version = version;
+		this.books = books;
+		this.booksInDemand = booksInDemand;
+	}
+
+	/**
+	 * Gets the books.
+	 *
+	 * @return the books
+	 */
+	List<StockBook> getBooks() {
+		return new ArrayList<>(books);
+	}
+
+	/**
+	 * Gets the books with sale misses.
+	 *
+	 * @return the books
+	 */
+	List<StockBook> getBooksInDemand() {
+		return new ArrayList<>(booksInDemand);
+	}
+}
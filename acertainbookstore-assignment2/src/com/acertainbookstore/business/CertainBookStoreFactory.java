@@ -0,0 +1,200 @@
+package com.acertainbookstore.business;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CertainBookStoreFactory} creates the concurrent {@link BookStore} and
+ * {@link StockManager} implementations by name, so that the server, the tests
+ * and the benchmarks can select the implementation at runtime (cf.
+ * {@link com.acertainbookstore.utils.BookStoreConstants#PROPERTY_KEY_ENGINE}).
+ */
+public final class CertainBookStoreFactory {
+
+	/** The name of the {@link SingleLockConcurrentCertainBookStore}. */
+	public static final String SINGLE_LOCK = "singlelock";
+
+	/** The name of the {@link TwoLevelLockingConcurrentCertainBookStore}. */
+	public static final String TWO_LEVEL_LOCKING = "twolevel";
+
+	/**
+	 * The name of the {@link SingleLockConcurrentCertainBookStore} serving
+	 * full-catalog reads from a {@link CatalogSnapshot}.
+	 */
+	public static final String SINGLE_LOCK_SNAPSHOT = "singlelocksnapshot";
+
+	/**
+	 * The name of the {@link TwoLevelLockingConcurrentCertainBookStore}
+	 * serving full-catalog reads from a {@link CatalogSnapshot}.
+	 */
+	public static final String TWO_LEVEL_LOCKING_SNAPSHOT = "twolevelsnapshot";
+
+	/**
+	 * The name of the {@link TwoLevelLockingConcurrentCertainBookStore}
+	 * applying buyBooks and addCopies in batches with a {@link FlatCombiner}.
+	 */
+	public static final String TWO_LEVEL_LOCKING_COMBINING = "twolevelcombining";
+
+	/**
+	 * The name of the {@link TwoLevelLockingConcurrentCertainBookStore}
+	 * running buyBooks and addCopies through a {@link DeterministicScheduler},
+	 * with epochs of {@link BookStoreConstants#PROPERTY_KEY_EPOCH_MICROS}
+	 * microseconds.
+	 */
+	public static final String TWO_LEVEL_LOCKING_DETERMINISTIC = "twoleveldeterministic";
+
+	/** The name of the {@link StripedLockingConcurrentCertainBookStore}. */
+	public static final String STRIPED_LOCKING = "striped";
+
+	/**
+	 * The name of the {@link StripedLockingConcurrentCertainBookStore}
+	 * holding the copies of the books in an {@link EscrowCounter}.
+	 */
+	public static final String STRIPED_LOCKING_ESCROW = "stripedescrow";
+
+	/** The name of the {@link ShardedCertainBookStore}. */
+	public static final String SHARDED = "sharded";
+
+	/**
+	 * The name of the {@link LockManagerCertainBookStore}, with the
+	 * {@link LockManager} policy named by
+	 * {@link BookStoreConstants#PROPERTY_KEY_LOCK_POLICY}.
+	 */
+	public static final String LOCK_MANAGER = "lockmanager";
+
+	/**
+	 * The name of the {@link LockManagerCertainBookStore} with an
+	 * {@link AdaptiveLockManager}, switching between a single lock and a lock
+	 * per book.
+	 */
+	public static final String ADAPTIVE = "adaptive";
+
+	/** The name of the {@link OptimisticConcurrentCertainBookStore}. */
+	public static final String OPTIMISTIC = "optimistic";
+
+	/**
+	 * The name of the {@link TimestampOrderingConcurrentCertainBookStore}
+	 * following the basic timestamp-ordering rules.
+	 */
+	public static final String TIMESTAMP_ORDERING = "timestamp";
+
+	/**
+	 * The name of the {@link TimestampOrderingConcurrentCertainBookStore}
+	 * skipping obsolete blind writes under the Thomas write rule.
+	 */
+	public static final String TIMESTAMP_ORDERING_THOMAS = "timestampthomas";
+
+	/** The name of the {@link MultiVersionConcurrentCertainBookStore}. */
+	public static final String MULTI_VERSION = "multiversion";
+
+	/** The name of the {@link LockFreeConcurrentCertainBookStore}. */
+	public static final String LOCK_FREE = "lockfree";
+
+	/** The name of the {@link OffHeapConcurrentCertainBookStore}. */
+	public static final String OFF_HEAP = "offheap";
+
+	/** The names of all the implementations. */
+	public static final String[] ENGINES = { SINGLE_LOCK, TWO_LEVEL_LOCKING, SINGLE_LOCK_SNAPSHOT,
+			TWO_LEVEL_LOCKING_SNAPSHOT, TWO_LEVEL_LOCKING_COMBINING, TWO_LEVEL_LOCKING_DETERMINISTIC,
+			STRIPED_LOCKING, STRIPED_LOCKING_ESCROW, SHARDED, LOCK_MANAGER, ADAPTIVE, OPTIMISTIC, TIMESTAMP_ORDERING,
+			TIMESTAMP_ORDERING_THOMAS, MULTI_VERSION, LOCK_FREE, OFF_HEAP };
+
+	/**
+	 * Prevents the instantiation of a new {@link CertainBookStoreFactory}.
+	 */
+	private CertainBookStoreFactory() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Creates a new, empty book store.
+	 *
+	 * @param engine
+	 *            the name of the implementation
+	 * @return the book store
+	 * @throws BookStoreException
+	 *             if the implementation is unknown
+	 */
+	public static ConcurrentCertainBookStore newBookStore(String engine) throws BookStoreException {
+		if (engine == null) {
+			throw new BookStoreException("null engine");
+		}
+
+		switch (engine) {
+		case SINGLE_LOCK:
+			return new SingleLockConcurrentCertainBookStore();
+
+		case TWO_LEVEL_LOCKING:
+			return new TwoLevelLockingConcurrentCertainBookStore(false, false, -1, acquisitionPolicy());
+
+		case SINGLE_LOCK_SNAPSHOT:
+			return new SingleLockConcurrentCertainBookStore(true);
+
+		case TWO_LEVEL_LOCKING_SNAPSHOT:
+			return new TwoLevelLockingConcurrentCertainBookStore(true, false, -1, acquisitionPolicy());
+
+		case TWO_LEVEL_LOCKING_COMBINING:
+			return new TwoLevelLockingConcurrentCertainBookStore(false, true, -1, acquisitionPolicy());
+
+		case TWO_LEVEL_LOCKING_DETERMINISTIC:
+			return new TwoLevelLockingConcurrentCertainBookStore(false, false,
+					Long.getLong(BookStoreConstants.PROPERTY_KEY_EPOCH_MICROS, 0), acquisitionPolicy());
+
+		case STRIPED_LOCKING:
+			return new StripedLockingConcurrentCertainBookStore();
+
+		case STRIPED_LOCKING_ESCROW:
+			return new StripedLockingConcurrentCertainBookStore(
+					StripedLockingConcurrentCertainBookStore.DEFAULT_NUM_STRIPES, true);
+
+		case SHARDED:
+			return new ShardedCertainBookStore();
+
+		case LOCK_MANAGER:
+			return new LockManagerCertainBookStore(LockManager.newLockManager(
+					System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_POLICY, LockManager.PER_BOOK)));
+
+		case ADAPTIVE:
+			return new LockManagerCertainBookStore(new AdaptiveLockManager());
+
+		case OPTIMISTIC:
+			return new OptimisticConcurrentCertainBookStore();
+
+		case TIMESTAMP_ORDERING:
+			return new TimestampOrderingConcurrentCertainBookStore(false);
+
+		case TIMESTAMP_ORDERING_THOMAS:
+			return new TimestampOrderingConcurrentCertainBookStore(true);
+
+		case MULTI_VERSION:
+			return new MultiVersionConcurrentCertainBookStore();
+
+		case LOCK_FREE:
+			return new LockFreeConcurrentCertainBookStore();
+
+		case OFF_HEAP:
+			return new OffHeapConcurrentCertainBookStore();
+
+		default:
+			throw new BookStoreException("Unknown engine: " + engine);
+		}
+	}
+
+	/**
+	 * Gets the lock acquisition policy of the two-level engines, named by
+	 * {@link BookStoreConstants#PROPERTY_KEY_LOCK_ACQUISITION}.
+	 *
+	 * @return the policy, ordered by default
+	 * @throws BookStoreException
+	 *             if the policy is unknown
+	 */
+	private static TwoLevelLockingConcurrentCertainBookStore.AcquisitionPolicy acquisitionPolicy()
+			throws BookStoreException {
+		return TwoLevelLockingConcurrentCertainBookStore.AcquisitionPolicy.forName(System.getProperty(
+				BookStoreConstants.PROPERTY_KEY_LOCK_ACQUISITION,
+				TwoLevelLockingConcurrentCertainBookStore.AcquisitionPolicy.ORDERED.getName()));
+	}
+}
@@ -0,0 +1,215 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CheckpointFile} writes and restores compact binary checkpoints of the
+ * book table through memory-mapped files. A checkpoint holds the books and
+ * the offset of the {@link WriteAheadLog} up to which it covers the
+ * mutations, so that a restart restores the checkpoint and only replays the
+ * records after that offset.
+ *
+ * A checkpoint is written to a temporary file, forced, then atomically moved
+ * over the previous one, so that a crash leaves either checkpoint intact. The
+ * books are covered by a CRC32, and a missing or corrupt checkpoint is
+ * ignored, in which case the whole log is replayed.
+ *
+ * The layout is a header (magic, version, log offset, number of books, CRC32
+ * of the books) followed by the books: ISBN, price, copies, sale misses,
+ * times rated, total rating, editor pick, then the UTF-8 title and author
+ * prefixed by their length in bytes. The books are written in ascending ISBN
+ * order, which restores about twice as fast into the ordered indexes of the
+ * implementations as the hash order of their maps.
+ */
+public final class CheckpointFile {
+
+	/** "BKCP", the first bytes of a checkpoint. */
+	private static final int MAGIC = 0x424B4350;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES
+			+ Integer.BYTES;
+
+	/** The fixed size of a book, without its title and author. */
+	private static final int BOOK_BYTES = Integer.BYTES + Float.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES
+			+ Long.BYTES + Byte.BYTES + Integer.BYTES + Integer.BYTES;
+
+	/** The number of books restored per addBooks call. */
+	private static final int RESTORE_BATCH_SIZE = 1 << 16;
+
+	/**
+	 * Prevents the instantiation of a new {@link CheckpointFile}.
+	 */
+	private CheckpointFile() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Writes a checkpoint, replacing the previous one.
+	 *
+	 * @param path
+	 *            the file of the checkpoint
+	 * @param logOffset
+	 *            the offset of the log after the last mutation the books
+	 *            reflect
+	 * @param books
+	 *            the books
+	 * @return the size of the checkpoint in bytes
+	 * @throws IOException
+	 *             if the checkpoint cannot be written
+	 */
+	public static long write(Path path, long logOffset, Collection<StockBook> books) throws IOException {
+		StockBook[] sortedBooks = books.toArray(new StockBook[0]);
+		Arrays.sort(sortedBooks, Comparator.comparingInt(Book::getISBN));
+
+		// Encode the strings first to size the mapping.
+		byte[][] strings = new byte[2 * sortedBooks.length][];
+		long size = HEADER_BYTES;
+		int i = 0;
+		for (StockBook book : sortedBooks) {
+			strings[i] = book.getTitle().getBytes(StandardCharsets.UTF_8);
+			strings[i + 1] = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+			size += BOOK_BYTES + strings[i].length + strings[i + 1].length;
+			i += 2;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("The checkpoint of " + sortedBooks.length + " books exceeds 2 GB");
+		}
+
+		Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+			buffer.position(HEADER_BYTES);
+			i = 0;
+			for (StockBook book : sortedBooks) {
+				buffer.putInt(book.getISBN());
+				buffer.putFloat(book.getPrice());
+				buffer.putInt(book.getNumCopies());
+				buffer.putLong(book.getNumSaleMisses());
+				buffer.putLong(book.getNumTimesRated());
+				buffer.putLong(book.getTotalRating());
+				buffer.put((byte) (book.isEditorPick() ? 1 : 0));
+				buffer.putInt(strings[i].length);
+				buffer.put(strings[i]);
+				buffer.putInt(strings[i + 1].length);
+				buffer.put(strings[i + 1]);
+				i += 2;
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(buffer.duplicate().position(HEADER_BYTES).limit((int) size));
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(Integer.BYTES, VERSION);
+			buffer.putLong(2 * Integer.BYTES, logOffset);
+			buffer.putInt(2 * Integer.BYTES + Long.BYTES, sortedBooks.length);
+			buffer.putInt(3 * Integer.BYTES + Long.BYTES, (int) crc.getValue());
+			buffer.force();
+		}
+
+		Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return size;
+	}
+
+	/**
+	 * Restores a checkpoint into an empty book store. Since addBooks rejects
+	 * books without copies, sold out books are added with one copy, which is
+	 * then bought.
+	 *
+	 * @param path
+	 *            the file of the checkpoint
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager, usually the same object
+	 * @return the offset of the log from which the records must be replayed,
+	 *         0 if there is no valid checkpoint
+	 * @throws IOException
+	 *             if the checkpoint cannot be read
+	 * @throws BookStoreException
+	 *             if the books cannot be added
+	 */
+	public static long restore(Path path, BookStore bookStore, StockManager stockManager)
+			throws IOException, BookStoreException {
+		if (!Files.exists(path)) {
+			return 0;
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+				return 0;
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return 0;
+			}
+			long logOffset = buffer.getLong();
+			int numBooks = buffer.getInt();
+			int checksum = buffer.getInt();
+
+			CRC32 crc = new CRC32();
+			crc.update(buffer.duplicate());
+			if ((int) crc.getValue() != checksum) {
+				return 0;
+			}
+
+			Set<StockBook> books = new LinkedHashSet<>();
+			Set<BookCopy> soldOutCopies = new HashSet<>();
+			for (int i = 0; i < numBooks; i++) {
+				int isbn = buffer.getInt();
+				float price = buffer.getFloat();
+				int numCopies = buffer.getInt();
+				long numSaleMisses = buffer.getLong();
+				long numTimesRated = buffer.getLong();
+				long totalRating = buffer.getLong();
+				boolean editorPick = buffer.get() != 0;
+				String title = getString(buffer);
+				String author = getString(buffer);
+				if (numCopies == 0) {
+					soldOutCopies.add(new BookCopy(isbn, 1));
+					numCopies = 1;
+				}
+				books.add(new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+						totalRating, editorPick));
+
+				if (books.size() == RESTORE_BATCH_SIZE) {
+					stockManager.addBooks(books);
+					books = new LinkedHashSet<>();
+				}
+			}
+			stockManager.addBooks(books);
+			bookStore.buyBooks(soldOutCopies);
+
+			return logOffset;
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,492 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link DeterministicScheduler} executes transactions whose keys, the ISBNs
+ * of the books they write, are known before they run, in the style of Calvin.
+ * The incoming transactions are sequenced into epochs. At the end of every
+ * epoch, its transactions are appended in order to a queue of lock requests
+ * per key, all of their keys at once, and a transaction runs once it is at
+ * the head of the queues of all its keys. The thread which submitted a
+ * transaction waits for it to be granted its keys and then runs it, so the
+ * callers are the workers, and the non-conflicting transactions run in
+ * parallel without handing them to other threads. A caller releasing its
+ * keys runs the transactions it grants whose callers are parked, up to
+ * {@link #MAX_HELPED}, instead of waking their callers up, so that a chain
+ * of conflicting transactions does not cost a context switch per
+ * transaction.
+ *
+ * The queues are spread over lock stripes, and a transaction is appended to
+ * the queues of all its keys under the stripes of its keys, taken in
+ * ascending order, so that transactions of unrelated keys are sequenced in
+ * parallel. The scheduler lock only guards the current epoch: transactions
+ * sequenced on arrival, with an empty epoch, never take it.
+ *
+ * Since every transaction holds its place in the queues of all its keys
+ * before any later transaction, the transactions wait for each other in
+ * sequence order only: they can neither deadlock nor abort, and conflicting
+ * transactions run in the order they were sequenced. Longer epochs sequence
+ * more transactions per acquisition of the scheduler lock, at the cost of the
+ * latency of waiting for the end of the epoch.
+ */
+final class DeterministicScheduler implements Closeable {
+
+	/**
+	 * A transaction of the scheduler.
+	 */
+	interface Transaction {
+
+		/**
+		 * Runs the transaction, while it holds its keys.
+		 *
+		 * @throws BookStoreException
+		 *             if the transaction fails
+		 */
+		void run() throws BookStoreException;
+	}
+
+	/**
+	 * A transaction waiting for, or holding, its keys.
+	 */
+	private static final class Request {
+
+		/** The keys, sorted and distinct. */
+		private final int[] keys;
+
+		/** The stripes of the keys, sorted and distinct. */
+		private final int[] stripes;
+
+		private final Transaction transaction;
+
+		/**
+		 * The next request in the queue of every key, in the order of
+		 * {@link #keys}, null while the request is the last one.
+		 */
+		private final Request[] successors;
+
+		/** The number of keys whose queue the request is not at the head of. */
+		private final AtomicInteger numBlockingKeys = new AtomicInteger();
+
+		/** The thread which submitted the transaction, and runs it unless helped. */
+		private final Thread caller = Thread.currentThread();
+
+		/**
+		 * Whether the caller may run the transaction, which is at the head of
+		 * the queues of all its keys.
+		 */
+		private volatile boolean granted = false;
+
+		/** Whether the transaction ran, on the caller or on a helper. */
+		private volatile boolean done = false;
+
+		/** The failure of a transaction run by a helper, published by {@link #done}. */
+		private Throwable failure = null;
+
+		/**
+		 * Whether the caller stopped yielding and may park, so that granting
+		 * or completing the request must unpark it.
+		 */
+		private volatile boolean parking = false;
+
+		private Request(int[] keys, Transaction transaction) {
+			this.keys = keys;
+			this.transaction = transaction;
+			this.successors = new Request[keys.length];
+
+			int[] stripes = new int[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				stripes[i] = stripeOf(keys[i]);
+			}
+			this.stripes = BookStoreUtility.sortedDistinct(stripes);
+		}
+
+		/**
+		 * Lets the caller run the transaction.
+		 */
+		private void grant() {
+			granted = true;
+			// The caller sets parking before it checks granted for the last time.
+			if (parking) {
+				LockSupport.unpark(caller);
+			}
+		}
+
+		/**
+		 * Lets the caller return, once a helper ran the transaction.
+		 */
+		private void complete() {
+			done = true;
+			if (parking) {
+				LockSupport.unpark(caller);
+			}
+		}
+	}
+
+	/**
+	 * A lock stripe of the queues.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Stripe extends ReentrantLock {
+
+		/**
+		 * The last request in the queue of every key of the stripe, by key,
+		 * absent if the queue is empty. The queues are linked through
+		 * {@link Request#successors}.
+		 */
+		private final IntObjectHashMap<Request> lastRequests = new IntObjectHashMap<>();
+	}
+
+	/**
+	 * The number of times a caller yields, letting the transactions holding
+	 * its keys complete on the other cores, before it parks until it is
+	 * granted them. On a single core, yielding runs every other waiter
+	 * before the holder again, so the caller parks at once.
+	 */
+	private static final int YIELDS_BEFORE_PARK = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+	/**
+	 * The maximum number of transactions of parked callers that a caller runs
+	 * after its own, so that it returns in bounded time.
+	 */
+	private static final int MAX_HELPED = 8;
+
+	/** The number of lock stripes of the queues, a power of two. */
+	private static final int NUM_STRIPES = 64;
+
+	/** The lock stripes of the queues. */
+	private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+
+	/** Guards the fields below. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled when a transaction is submitted or the scheduler closed. */
+	private final Condition submitted = lock.newCondition();
+
+	/** The transactions submitted during the current epoch. */
+	private List<Request> epoch = new ArrayList<>();
+
+	/** Written under {@link #lock}, read without it with an empty epoch. */
+	private volatile boolean closed = false;
+
+	/** The length of an epoch, 0 if the transactions are sequenced on arrival. */
+	private final long epochNanos;
+
+	/** The background thread ending the epochs, null if they are empty. */
+	private final Thread sequencer;
+
+	/** The number of epochs with at least one transaction. */
+	private final AtomicLong numEpochs = new AtomicLong();
+
+	/** The number of transactions sequenced. */
+	private final AtomicLong numTransactions = new AtomicLong();
+
+	/**
+	 * Instantiates a new {@link DeterministicScheduler}.
+	 *
+	 * @param epochMicros
+	 *            the length of an epoch in microseconds, measured from the
+	 *            first transaction of the epoch, or 0 to sequence every
+	 *            transaction as it arrives
+	 */
+	DeterministicScheduler(long epochMicros) {
+		if (epochMicros < 0) {
+			throw new IllegalArgumentException("Invalid epoch: " + epochMicros);
+		}
+
+		epochNanos = TimeUnit.MICROSECONDS.toNanos(epochMicros);
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+
+		if (epochNanos > 0) {
+			sequencer = new Thread(this::sequenceContinuously, "DeterministicScheduler-sequencer");
+			sequencer.setDaemon(true);
+			sequencer.start();
+		} else {
+			sequencer = null;
+		}
+	}
+
+	/**
+	 * Maps a key to its stripe, with the hash of the striped locking
+	 * implementation.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the stripe index
+	 */
+	private static int stripeOf(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (NUM_STRIPES - 1);
+	}
+
+	/**
+	 * Gets the number of epochs sequenced so far.
+	 *
+	 * @return the number of epochs
+	 */
+	long getNumEpochs() {
+		return numEpochs.get();
+	}
+
+	/**
+	 * Gets the number of transactions sequenced so far.
+	 *
+	 * @return the number of transactions
+	 */
+	long getNumTransactions() {
+		return numTransactions.get();
+	}
+
+	/**
+	 * Runs <code>transaction</code> on the calling thread once it is
+	 * sequenced and holds all of <code>keys</code>.
+	 *
+	 * @param keys
+	 *            the keys written by the transaction, sorted in place
+	 * @param transaction
+	 *            the transaction
+	 * @throws BookStoreException
+	 *             if the transaction fails
+	 */
+	void execute(int[] keys, Transaction transaction) throws BookStoreException {
+		Request request = new Request(BookStoreUtility.sortedDistinct(keys), transaction);
+
+		if (sequencer == null) {
+			if (closed) {
+				throw new IllegalStateException("The scheduler is closed");
+			}
+			numEpochs.incrementAndGet();
+			enqueue(request);
+		} else {
+			lock.lock();
+			try {
+				if (closed) {
+					throw new IllegalStateException("The scheduler is closed");
+				}
+				epoch.add(request);
+				if (epoch.size() == 1) {
+					submitted.signal();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		for (int i = 0; i < YIELDS_BEFORE_PARK && !request.granted && !request.done; i++) {
+			Thread.yield();
+		}
+		if (!request.granted && !request.done) {
+			request.parking = true;
+			while (!request.granted && !request.done) {
+				LockSupport.park(this);
+			}
+		}
+
+		if (request.done) {
+			rethrow(request.failure);
+			return;
+		}
+		try {
+			transaction.run();
+		} finally {
+			help(release(request));
+		}
+	}
+
+	/**
+	 * Runs the transactions of parked callers granted by a release, and by
+	 * the releases of those, up to {@link #MAX_HELPED}, and grants the others
+	 * to their callers.
+	 *
+	 * @param grantable
+	 *            the requests whose keys were all released
+	 */
+	private void help(List<Request> grantable) {
+		ArrayDeque<Request> pending = new ArrayDeque<>(grantable);
+		int numHelped = 0;
+
+		while (!pending.isEmpty()) {
+			Request request = pending.pollFirst();
+			if (numHelped == MAX_HELPED || !request.parking) {
+				request.grant();
+				continue;
+			}
+
+			numHelped++;
+			try {
+				request.transaction.run();
+			} catch (BookStoreException | RuntimeException | Error ex) {
+				request.failure = ex;
+			}
+			pending.addAll(release(request));
+			request.complete();
+		}
+	}
+
+	/**
+	 * Throws the failure of a transaction run by a helper, if any.
+	 *
+	 * @param failure
+	 *            the failure, null if the transaction succeeded
+	 * @throws BookStoreException
+	 *             if the transaction failed with it
+	 */
+	private static void rethrow(Throwable failure) throws BookStoreException {
+		if (failure instanceof BookStoreException) {
+			throw (BookStoreException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	/**
+	 * Appends a request to the queues of its keys, under the stripes of its
+	 * keys, so that the requests sharing a key are appended to all their
+	 * queues in the same order.
+	 *
+	 * @param request
+	 *            the request
+	 */
+	private void enqueue(Request request) {
+		numTransactions.incrementAndGet();
+		for (int stripe : request.stripes) {
+			stripes[stripe].lock();
+		}
+		int numBlockingKeys = 0;
+		try {
+			for (int key : request.keys) {
+				Request last = stripes[stripeOf(key)].lastRequests.put(key, request);
+				if (last != null) {
+					last.successors[Arrays.binarySearch(last.keys, key)] = request;
+					numBlockingKeys++;
+				}
+			}
+			// Set before the stripes are released, the first time a
+			// predecessor can release a key.
+			request.numBlockingKeys.set(numBlockingKeys);
+		} finally {
+			for (int i = request.stripes.length - 1; i >= 0; i--) {
+				stripes[request.stripes[i]].unlock();
+			}
+		}
+
+		if (numBlockingKeys == 0) {
+			request.grant();
+		}
+	}
+
+	/**
+	 * Removes a completed request from the head of the queues of its keys.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the requests now at the head of the queues of all their keys,
+	 *         not granted yet
+	 */
+	private List<Request> release(Request request) {
+		List<Request> grantable = new ArrayList<>(1);
+		for (int i = 0; i < request.keys.length; i++) {
+			int key = request.keys[i];
+			Stripe stripe = stripes[stripeOf(key)];
+			Request next;
+
+			stripe.lock();
+			try {
+				next = request.successors[i];
+				if (next == null) {
+					stripe.lastRequests.remove(key);
+				}
+			} finally {
+				stripe.unlock();
+			}
+
+			if (next != null && next.numBlockingKeys.decrementAndGet() == 0) {
+				grantable.add(next);
+			}
+		}
+		return grantable;
+	}
+
+	/**
+	 * Ends an epoch {@link #epochNanos} after its first transaction, and
+	 * sequences its transactions in the order they were submitted, until the
+	 * scheduler is closed. An interrupt only ends the current epoch early.
+	 */
+	private void sequenceContinuously() {
+		while (true) {
+			lock.lock();
+			try {
+				while (!closed && epoch.isEmpty()) {
+					submitted.awaitUninterruptibly();
+				}
+				if (!closed) {
+					long remainingNanos = epochNanos;
+					try {
+						while (!closed && remainingNanos > 0) {
+							remainingNanos = submitted.awaitNanos(remainingNanos);
+						}
+					} catch (InterruptedException ex) {
+						// End the epoch now.
+					}
+				}
+
+				if (!epoch.isEmpty()) {
+					numEpochs.incrementAndGet();
+					for (Request request : epoch) {
+						enqueue(request);
+					}
+					epoch = new ArrayList<>();
+				} else if (closed) {
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Sequences the transactions of the current epoch and stops the
+	 * sequencer. The transactions already submitted still run, but no new one
+	 * is accepted.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			submitted.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		if (sequencer != null) {
+			try {
+				sequencer.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,758 @@
+package com.acertainbookstore.business;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link DurableCertainBookStore} makes any {@link BookStore} and
+ * {@link StockManager} implementation durable with a {@link WriteAheadLog}.
+ * Every mutation is applied to the in-memory implementation, then logged, and
+ * returns once its record is committed according to the
+ * {@link WriteAheadLog.Durability} of the log. Reads go to the in-memory
+ * implementation directly.
+ *
+ * A mutation holds the lock stripes of the ISBNs it touches, in ascending
+ * stripe order, from applying to logging, so that conflicting mutations are
+ * logged in the order in which they were applied, while mutations of
+ * unrelated books commute. The stripes are released before waiting for the
+ * commit, so that concurrent commits can share one force of the log. A failed
+ * buy is logged too, since it records the sale misses of the books.
+ *
+ * A mutation is only logged once it was applied, since a mutation which
+ * fails to apply is not logged either. If the log then fails, the in-memory
+ * implementation holds mutations the log may have lost, so the store fails
+ * for good: every later operation, read or write, throws a
+ * {@link BookStoreException}, and the store has to be opened again from its
+ * log.
+ *
+ * A {@link #checkpoint(Path)} bounds the replay at restart. It takes all the
+ * stripes only to note the log offset of the checkpoint, then copies the books
+ * one stripe at a time, under the lock of that stripe alone, so that writers
+ * of the other stripes proceed. The copy must reflect the books as of the
+ * offset, since replaying a record twice would apply it twice, so a writer
+ * reaching a stripe the checkpoint has not copied yet copies it first. The
+ * store keeps the ISBNs of each stripe for these copies.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class DurableCertainBookStore implements ConcurrentCertainBookStore, Closeable {
+
+	/** The number of lock stripes, a power of two. */
+	public static final int NUM_STRIPES = 256;
+
+	/** The record types. */
+	private static final byte ADD_BOOKS = 1;
+	private static final byte ADD_COPIES = 2;
+	private static final byte BUY_BOOKS = 3;
+	private static final byte RATE_BOOKS = 4;
+	private static final byte UPDATE_EDITOR_PICKS = 5;
+	private static final byte REMOVE_BOOKS = 6;
+	private static final byte REMOVE_ALL_BOOKS = 7;
+
+	/**
+	 * A mutation of the in-memory implementation.
+	 */
+	@FunctionalInterface
+	private interface Mutation {
+		void apply() throws BookStoreException;
+	}
+
+	/**
+	 * The payload of a record.
+	 */
+	@FunctionalInterface
+	private interface Encoder {
+		void encode(DataOutputStream out) throws IOException;
+	}
+
+	private final BookStore bookStore;
+	private final StockManager stockManager;
+	private final WriteAheadLog log;
+	private final ReentrantLock[] stripes;
+
+	/** The ISBNs of the books in each stripe, guarded by the stripe. */
+	private final Set<Integer>[] stripeISBNs;
+
+	/** The copy of the checkpoint in progress, if any. */
+	private volatile CheckpointCopy checkpointCopy = null;
+
+	/** Serializes the checkpoints. */
+	private final ReentrantLock checkpointLock = new ReentrantLock();
+
+	/** The first failure of the log, after which every operation fails. */
+	private volatile IOException logError = null;
+
+	/**
+	 * The books of a checkpoint as of its log offset, copied one stripe at a
+	 * time. The copy of a stripe is taken and read under the stripe.
+	 */
+	private static final class CheckpointCopy {
+		private final long logOffset;
+		private final List<StockBook>[] books;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private CheckpointCopy(long logOffset) {
+			this.logOffset = logOffset;
+			books = new List[NUM_STRIPES];
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private DurableCertainBookStore(BookStore bookStore, StockManager stockManager, WriteAheadLog log)
+			throws BookStoreException {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.log = log;
+
+		stripes = new ReentrantLock[NUM_STRIPES];
+		stripeISBNs = new Set[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			stripes[i] = new ReentrantLock();
+			stripeISBNs[i] = new HashSet<Integer>();
+		}
+
+		try {
+			for (StockBook book : stockManager.getBooks()) {
+				stripeISBNs[stripeOf(book.getISBN())].add(book.getISBN());
+			}
+		} catch (BookStoreException | RuntimeException ex) {
+			try {
+				log.close();
+			} catch (IOException closeEx) {
+				ex.addSuppressed(closeEx);
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Opens a durable book store. The records of the log, if any, are first
+	 * replayed into the in-memory implementation, which should be empty.
+	 *
+	 * @param bookStore
+	 *            the in-memory book store
+	 * @param stockManager
+	 *            the in-memory stock manager, usually the same object
+	 * @param path
+	 *            the file of the log
+	 * @param durability
+	 *            the durability of the commits
+	 * @return the durable book store
+	 * @throws IOException
+	 *             if the log cannot be opened
+	 * @throws BookStoreException
+	 *             if a record of the log cannot be replayed
+	 */
+	public static DurableCertainBookStore open(BookStore bookStore, StockManager stockManager, Path path,
+			WriteAheadLog.Durability durability) throws IOException, BookStoreException {
+		WriteAheadLog log = WriteAheadLog.open(path, durability, record -> replay(bookStore, stockManager, record));
+		return new DurableCertainBookStore(bookStore, stockManager, log);
+	}
+
+	/**
+	 * Opens a durable book store from a checkpoint. The checkpoint, if any, is
+	 * first restored into the in-memory implementation, which should be empty,
+	 * then the records of the log after the checkpoint are replayed.
+	 *
+	 * @param bookStore
+	 *            the in-memory book store
+	 * @param stockManager
+	 *            the in-memory stock manager, usually the same object
+	 * @param path
+	 *            the file of the log
+	 * @param durability
+	 *            the durability of the commits
+	 * @param checkpointPath
+	 *            the file of the checkpoint
+	 * @return the durable book store
+	 * @throws IOException
+	 *             if the checkpoint or the log cannot be opened
+	 * @throws BookStoreException
+	 *             if the checkpoint or a record of the log cannot be restored
+	 */
+	public static DurableCertainBookStore open(BookStore bookStore, StockManager stockManager, Path path,
+			WriteAheadLog.Durability durability, Path checkpointPath) throws IOException, BookStoreException {
+		long logOffset = CheckpointFile.restore(checkpointPath, bookStore, stockManager);
+		WriteAheadLog log = WriteAheadLog.open(path, durability, logOffset,
+				record -> replay(bookStore, stockManager, record));
+		return new DurableCertainBookStore(bookStore, stockManager, log);
+	}
+
+	/**
+	 * Gets the log.
+	 *
+	 * @return the log
+	 */
+	public WriteAheadLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Checks whether the log failed, in which case the store fails for good.
+	 *
+	 * @return true, if the store failed
+	 */
+	public boolean isFailed() {
+		return logError != null;
+	}
+
+	/**
+	 * Throws if the store failed.
+	 *
+	 * @throws BookStoreException
+	 *             if the log failed
+	 */
+	private void checkNotFailed() throws BookStoreException {
+		IOException ex = logError;
+		if (ex != null) {
+			throw new BookStoreException("The log failed, the store must be reopened", ex);
+		}
+	}
+
+	/**
+	 * Fails the store after a failure of the log.
+	 *
+	 * @param ex
+	 *            the failure
+	 * @return the exception to throw to the caller
+	 */
+	private BookStoreException fail(IOException ex) {
+		if (logError == null) {
+			logError = ex;
+		}
+		return new BookStoreException("The log failed", ex);
+	}
+
+	private static int stripeOf(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (NUM_STRIPES - 1);
+	}
+
+	/**
+	 * Computes the distinct stripes of the given ISBNs in ascending order, which
+	 * is the order in which they must be locked.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the sorted, distinct stripe indexes
+	 */
+	private static int[] stripesOf(Iterable<Integer> isbns) {
+		boolean[] seen = new boolean[NUM_STRIPES];
+		int[] indexes = new int[NUM_STRIPES];
+		int count = 0;
+
+		for (int isbn : isbns) {
+			int stripe = stripeOf(isbn);
+			if (!seen[stripe]) {
+				seen[stripe] = true;
+				indexes[count++] = stripe;
+			}
+		}
+
+		int[] result = Arrays.copyOf(indexes, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static int[] allStripes() {
+		int[] indexes = new int[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			indexes[i] = i;
+		}
+		return indexes;
+	}
+
+	/**
+	 * Writes a checkpoint of the book table, replacing the previous one. The
+	 * records the checkpoint covers are forced first, so that the checkpoint
+	 * never gets ahead of the log.
+	 *
+	 * @param checkpointPath
+	 *            the file of the checkpoint
+	 * @return the size of the checkpoint in bytes
+	 * @throws IOException
+	 *             if the checkpoint cannot be written
+	 * @throws BookStoreException
+	 *             if the books cannot be read or the log cannot be forced, in
+	 *             which case the store fails
+	 */
+	public long checkpoint(Path checkpointPath) throws IOException, BookStoreException {
+		checkNotFailed();
+		List<StockBook> books = new ArrayList<StockBook>();
+		CheckpointCopy copy;
+
+		checkpointLock.lock();
+		try {
+			// Only the offset is taken under all the stripes: no mutation is
+			// half logged, and every later one copies its stripes first.
+			for (int stripe = 0; stripe < NUM_STRIPES; stripe++) {
+				stripes[stripe].lock();
+			}
+			try {
+				copy = new CheckpointCopy(log.getAppendedOffset());
+				checkpointCopy = copy;
+			} finally {
+				for (int stripe = NUM_STRIPES - 1; stripe >= 0; stripe--) {
+					stripes[stripe].unlock();
+				}
+			}
+
+			try {
+				for (int stripe = 0; stripe < NUM_STRIPES; stripe++) {
+					stripes[stripe].lock();
+					try {
+						copyStripe(copy, stripe);
+						books.addAll(copy.books[stripe]);
+					} finally {
+						stripes[stripe].unlock();
+					}
+				}
+			} finally {
+				checkpointCopy = null;
+			}
+		} finally {
+			checkpointLock.unlock();
+		}
+
+		try {
+			log.force();
+		} catch (IOException ex) {
+			throw fail(ex);
+		}
+		return CheckpointFile.write(checkpointPath, copy.logOffset, books);
+	}
+
+	/**
+	 * Copies the books of a stripe into a checkpoint, unless they were copied
+	 * already. The stripe must be held.
+	 *
+	 * @param copy
+	 *            the copy of the checkpoint
+	 * @param stripe
+	 *            the stripe
+	 * @throws BookStoreException
+	 *             if the books cannot be read
+	 */
+	private void copyStripe(CheckpointCopy copy, int stripe) throws BookStoreException {
+		if (copy.books[stripe] == null) {
+			Set<Integer> isbns = stripeISBNs[stripe];
+			copy.books[stripe] = isbns.isEmpty() ? Collections.<StockBook>emptyList()
+					: stockManager.getBooksByISBN(isbns);
+		}
+	}
+
+	/**
+	 * Applies a mutation and logs it under the stripes of its ISBNs, then waits
+	 * for its commit.
+	 *
+	 * @param lockedStripes
+	 *            the stripes of the ISBNs, in ascending order
+	 * @param type
+	 *            the record type
+	 * @param encoder
+	 *            the payload of the record
+	 * @param mutation
+	 *            the mutation
+	 * @param logFailure
+	 *            whether a failed mutation is logged too
+	 * @throws BookStoreException
+	 *             if the mutation fails, the log cannot commit it or the store
+	 *             failed
+	 */
+	private void commit(int[] lockedStripes, byte type, Encoder encoder, Mutation mutation, boolean logFailure)
+			throws BookStoreException {
+		BookStoreException failure = null;
+		long lsn;
+
+		for (int stripe : lockedStripes) {
+			stripes[stripe].lock();
+		}
+		try {
+			// Checked under the stripes, so that no mutation is applied after
+			// a failed one of the same books.
+			checkNotFailed();
+
+			CheckpointCopy copy = checkpointCopy;
+			if (copy != null) {
+				for (int stripe : lockedStripes) {
+					copyStripe(copy, stripe);
+				}
+			}
+			try {
+				mutation.apply();
+			} catch (BookStoreException ex) {
+				if (!logFailure) {
+					throw ex;
+				}
+				failure = ex;
+			}
+
+			lsn = log.append(encode(type, encoder));
+		} catch (IOException ex) {
+			throw fail(ex);
+		} finally {
+			for (int i = lockedStripes.length - 1; i >= 0; i--) {
+				stripes[lockedStripes[i]].unlock();
+			}
+		}
+
+		try {
+			log.awaitDurable(lsn);
+		} catch (IOException ex) {
+			throw fail(ex);
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private static byte[] encode(byte type, Encoder encoder) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(type);
+		encoder.encode(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Applies a record of the log to the in-memory implementation.
+	 *
+	 * @param bookStore
+	 *            the in-memory book store
+	 * @param stockManager
+	 *            the in-memory stock manager
+	 * @param record
+	 *            the record
+	 * @throws BookStoreException
+	 *             if the record is unknown or cannot be applied
+	 */
+	private static void replay(BookStore bookStore, StockManager stockManager, byte[] record)
+			throws BookStoreException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+			byte type = in.readByte();
+			int size = type == REMOVE_ALL_BOOKS ? 0 : in.readInt();
+
+			switch (type) {
+			case ADD_BOOKS:
+				Set<StockBook> books = new HashSet<>();
+				for (int i = 0; i < size; i++) {
+					books.add(new ImmutableStockBook(in.readInt(), in.readUTF(), in.readUTF(), in.readFloat(),
+							in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readBoolean()));
+				}
+				stockManager.addBooks(books);
+				break;
+
+			case ADD_COPIES:
+			case BUY_BOOKS:
+				Set<BookCopy> copies = new HashSet<>();
+				for (int i = 0; i < size; i++) {
+					copies.add(new BookCopy(in.readInt(), in.readInt()));
+				}
+				if (type == ADD_COPIES) {
+					stockManager.addCopies(copies);
+				} else {
+					try {
+						bookStore.buyBooks(copies);
+					} catch (BookStoreException ex) {
+						// The buy failed when logged too, only its sale misses count.
+					}
+				}
+				break;
+
+			case RATE_BOOKS:
+				Set<BookRating> ratings = new HashSet<>();
+				for (int i = 0; i < size; i++) {
+					ratings.add(new BookRating(in.readInt(), in.readInt()));
+				}
+				bookStore.rateBooks(ratings);
+				break;
+
+			case UPDATE_EDITOR_PICKS:
+				Set<BookEditorPick> picks = new HashSet<>();
+				for (int i = 0; i < size; i++) {
+					picks.add(new BookEditorPick(in.readInt(), in.readBoolean()));
+				}
+				stockManager.updateEditorPicks(picks);
+				break;
+
+			case REMOVE_BOOKS:
+				Set<Integer> isbns = new HashSet<>();
+				for (int i = 0; i < size; i++) {
+					isbns.add(in.readInt());
+				}
+				stockManager.removeBooks(isbns);
+				break;
+
+			case REMOVE_ALL_BOOKS:
+				stockManager.removeAllBooks();
+				break;
+
+			default:
+				throw new BookStoreException("Unknown log record type " + type);
+			}
+		} catch (IOException ex) {
+			throw new BookStoreException("Malformed log record", ex);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(bookSet.stream().map(Book::getISBN).collect(Collectors.toList()));
+		commit(lockedStripes, ADD_BOOKS, out -> {
+			out.writeInt(bookSet.size());
+			for (StockBook book : bookSet) {
+				out.writeInt(book.getISBN());
+				out.writeUTF(book.getTitle());
+				out.writeUTF(book.getAuthor());
+				out.writeFloat(book.getPrice());
+				out.writeInt(book.getNumCopies());
+				out.writeLong(book.getNumSaleMisses());
+				out.writeLong(book.getNumTimesRated());
+				out.writeLong(book.getTotalRating());
+				out.writeBoolean(book.isEditorPick());
+			}
+		}, () -> {
+			stockManager.addBooks(bookSet);
+			for (StockBook book : bookSet) {
+				stripeISBNs[stripeOf(book.getISBN())].add(book.getISBN());
+			}
+		}, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
+		commit(lockedStripes, ADD_COPIES, out -> writeCopies(out, bookCopiesSet),
+				() -> stockManager.addCopies(bookCopiesSet), false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(bookCopiesToBuy.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
+		commit(lockedStripes, BUY_BOOKS, out -> writeCopies(out, bookCopiesToBuy),
+				() -> bookStore.buyBooks(bookCopiesToBuy), true);
+	}
+
+	private static void writeCopies(DataOutputStream out, Set<BookCopy> bookCopies) throws IOException {
+		out.writeInt(bookCopies.size());
+		for (BookCopy bookCopy : bookCopies) {
+			out.writeInt(bookCopy.getISBN());
+			out.writeInt(bookCopy.getNumCopies());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()));
+		commit(lockedStripes, RATE_BOOKS, out -> {
+			out.writeInt(bookRating.size());
+			for (BookRating rating : bookRating) {
+				out.writeInt(rating.getISBN());
+				out.writeInt(rating.getRating());
+			}
+		}, () -> bookStore.rateBooks(bookRating), false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()));
+		commit(lockedStripes, UPDATE_EDITOR_PICKS, out -> {
+			out.writeInt(editorPicks.size());
+			for (BookEditorPick pick : editorPicks) {
+				out.writeInt(pick.getISBN());
+				out.writeBoolean(pick.isEditorPick());
+			}
+		}, () -> stockManager.updateEditorPicks(editorPicks), false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		commit(stripesOf(isbnSet), REMOVE_BOOKS, out -> {
+			out.writeInt(isbnSet.size());
+			for (int isbn : isbnSet) {
+				out.writeInt(isbn);
+			}
+		}, () -> {
+			stockManager.removeBooks(isbnSet);
+			for (int isbn : isbnSet) {
+				stripeISBNs[stripeOf(isbn)].remove(isbn);
+			}
+		}, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		commit(allStripes(), REMOVE_ALL_BOOKS, out -> {
+		}, () -> {
+			stockManager.removeAllBooks();
+			for (Set<Integer> isbns : stripeISBNs) {
+				isbns.clear();
+			}
+		}, false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		checkNotFailed();
+		return stockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		checkNotFailed();
+		return stockManager.getBooksByISBN(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		checkNotFailed();
+		return stockManager.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		checkNotFailed();
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		checkNotFailed();
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		checkNotFailed();
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/**
+	 * Commits the mutations logged so far and closes the log.
+	 *
+	 * @throws IOException
+	 *             if the log cannot be forced
+	 */
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+}
@@ -0,0 +1,277 @@
+package com.acertainbookstore.business;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * {@link EpochReclaimer} defers the reclamation of objects unlinked from a
+ * shared structure until no thread can still hold them, with epoch-based
+ * reclamation. A thread encloses its accesses to the structure between
+ * {@link #enter()} and {@link #exit()}, which publish the global epoch it
+ * observed in its own record. An object unlinked from the structure is then
+ * retired with the current epoch, and reclaimed once the global epoch is two
+ * epochs later: the epoch only advances when every thread in a section has
+ * observed it, so the threads which could have found the object before it was
+ * unlinked have all left their sections by then.
+ *
+ * The garbage collector frees the memory of the objects anyway, so reclaiming
+ * an object means recycling it, which is only safe once no thread can observe
+ * it any more.
+ *
+ * The records are linked in a list when their thread first enters a section.
+ * Only the reclaiming thread unlinks records, those of the threads which have
+ * terminated, so that a pool of short-lived threads does not grow the list
+ * forever.
+ *
+ * @param <T>
+ *            the type of the objects
+ */
+final class EpochReclaimer<T> {
+
+	/** The epoch of a record whose thread is not in a section. */
+	private static final long IDLE = Long.MAX_VALUE;
+
+	/** The number of retired objects from which {@link #retire} tries to reclaim. */
+	private static final int RECLAIM_THRESHOLD = 64;
+
+	/** The handle used to leave a section with a release store. */
+	private static final VarHandle RECORD_EPOCH;
+
+	static {
+		try {
+			RECORD_EPOCH = MethodHandles.lookup().findVarHandle(Record.class, "epoch", long.class);
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	/**
+	 * {@link Record} is the record of a thread.
+	 */
+	private static final class Record {
+
+		/** The thread owning the record. */
+		private final Thread owner = Thread.currentThread();
+
+		/** The epoch observed by the section of the thread, or {@link #IDLE}. */
+		private volatile long epoch = IDLE;
+
+		/** The number of nested sections, only accessed by the owner. */
+		private int depth = 0;
+
+		/** The next record in the list. */
+		private volatile Record next = null;
+	}
+
+	/**
+	 * An object and the epoch in which it was retired.
+	 *
+	 * @param <T>
+	 *            the type of the object
+	 */
+	private static final class Retired<T> {
+		private final T object;
+		private final long epoch;
+
+		private Retired(T object, long epoch) {
+			this.object = object;
+			this.epoch = epoch;
+		}
+	}
+
+	/** The global epoch. */
+	private final AtomicLong epoch = new AtomicLong();
+
+	/** The head of the list of records. */
+	private final AtomicReference<Record> head = new AtomicReference<>();
+
+	/** The record of every thread. */
+	private final ThreadLocal<Record> records = ThreadLocal.withInitial(this::register);
+
+	/** The retired objects, in ascending epoch order, guarded by itself. */
+	private final ArrayDeque<Retired<T>> retired = new ArrayDeque<>();
+
+	/** Reclaims an object once no thread can observe it. */
+	private final Consumer<? super T> reclaim;
+
+	/** The number of objects reclaimed. */
+	private final LongAdder numReclaimed = new LongAdder();
+
+	/**
+	 * Instantiates a new {@link EpochReclaimer}.
+	 *
+	 * @param reclaim
+	 *            reclaims an object once no thread can observe it, called by
+	 *            one thread at a time
+	 */
+	EpochReclaimer(Consumer<? super T> reclaim) {
+		this.reclaim = reclaim;
+	}
+
+	/**
+	 * Enters a section accessing the shared structure. Sections may be
+	 * nested.
+	 */
+	void enter() {
+		Record record = records.get();
+		if (record.depth++ > 0) {
+			return;
+		}
+
+		// Published before the structure is accessed, and checked again so
+		// that an advance racing with the publication is not missed.
+		long observed;
+		do {
+			observed = epoch.get();
+			record.epoch = observed;
+		} while (epoch.get() != observed);
+	}
+
+	/**
+	 * Leaves a section entered with {@link #enter()}.
+	 */
+	void exit() {
+		Record record = records.get();
+		if (--record.depth == 0) {
+			// Only the accesses of the section must not move after it, so a
+			// release store is enough and spares the fence of a volatile one.
+			RECORD_EPOCH.setRelease(record, IDLE);
+		}
+	}
+
+	/**
+	 * Retires an object already unlinked from the shared structure, so that
+	 * it is reclaimed once no thread can observe it.
+	 *
+	 * @param object
+	 *            the object
+	 */
+	void retire(T object) {
+		int numRetired;
+		synchronized (retired) {
+			retired.addLast(new Retired<>(object, epoch.get()));
+			numRetired = retired.size();
+		}
+
+		if (numRetired >= RECLAIM_THRESHOLD) {
+			tryReclaim();
+		}
+	}
+
+	/**
+	 * Advances the global epoch if every thread in a section observed it, and
+	 * reclaims the objects retired two epochs before. Called in a section,
+	 * it cannot advance the epoch past the one of the section.
+	 */
+	void tryReclaim() {
+		synchronized (retired) {
+			long current = epoch.get();
+			if (allObserved(current)) {
+				epoch.compareAndSet(current, current + 1);
+			}
+
+			long safeEpoch = epoch.get() - 2;
+			while (!retired.isEmpty() && retired.peekFirst().epoch <= safeEpoch) {
+				reclaim.accept(retired.removeFirst().object);
+				numReclaimed.increment();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether every thread in a section observed the given epoch, and
+	 * unlinks the records of the terminated threads.
+	 *
+	 * @param current
+	 *            the global epoch
+	 * @return true, if no thread is in a section of an earlier epoch
+	 */
+	private boolean allObserved(long current) {
+		boolean observed = true;
+		Record previous = null;
+
+		for (Record record = head.get(); record != null; record = record.next) {
+			long recordEpoch = record.epoch;
+			if (recordEpoch == IDLE && !record.owner.isAlive()) {
+				// New records are only pushed at the head, so unlinking the
+				// head must race with them, and the others need not.
+				if (previous == null) {
+					if (head.compareAndSet(record, record.next)) {
+						continue;
+					}
+				} else {
+					previous.next = record.next;
+					continue;
+				}
+			} else if (recordEpoch < current) {
+				observed = false;
+			}
+			previous = record;
+		}
+
+		return observed;
+	}
+
+	/**
+	 * Gets the global epoch.
+	 *
+	 * @return the epoch
+	 */
+	long getEpoch() {
+		return epoch.get();
+	}
+
+	/**
+	 * Gets the number of objects retired and not reclaimed yet.
+	 *
+	 * @return the number of objects
+	 */
+	int getNumRetired() {
+		synchronized (retired) {
+			return retired.size();
+		}
+	}
+
+	/**
+	 * Gets the number of objects reclaimed.
+	 *
+	 * @return the number of objects
+	 */
+	long getNumReclaimed() {
+		return numReclaimed.sum();
+	}
+
+	/**
+	 * Gets the number of records in the list, including those of the
+	 * terminated threads which were not unlinked yet.
+	 *
+	 * @return the number of records
+	 */
+	int getNumRecords() {
+		int numRecords = 0;
+		for (Record record = head.get(); record != null; record = record.next) {
+			numRecords++;
+		}
+		return numRecords;
+	}
+
+	/**
+	 * Links the record of the calling thread in the list.
+	 *
+	 * @return the record
+	 */
+	private Record register() {
+		Record record = new Record();
+		Record first;
+		do {
+			first = head.get();
+			record.next = first;
+		} while (!head.compareAndSet(first, record));
+		return record;
+	}
+}
@@ -0,0 +1,128 @@
+package com.acertainbookstore.business;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link EscrowBookStoreBook} is a {@link BookStoreBook} whose copies are
+ * held in an {@link EscrowCounter}, so that concurrent buyers of the same
+ * book can take copies from their per-core quotas instead of serializing on a
+ * single count. The copy count inherited from {@link BookStoreBook} is not
+ * used.
+ *
+ * {@link #tryBuyCopies(int)} and {@link #returnCopies(int)} may run
+ * concurrently with each other. All the other methods reading or writing the
+ * copies must exclude them, and then see the exact count.
+ */
+final class EscrowBookStoreBook extends BookStoreBook {
+
+	/** The copies of the book. */
+	private final EscrowCounter copies;
+
+	/**
+	 * Instantiates a new {@link EscrowBookStoreBook} from a {@link StockBook}
+	 * instance.
+	 *
+	 * @param bookToCopy
+	 *            the book to copy
+	 */
+	EscrowBookStoreBook(StockBook bookToCopy) {
+		super(bookToCopy);
+		copies = new EscrowCounter(bookToCopy.getNumCopies());
+	}
+
+	/**
+	 * Takes <code>numCopies</code> copies from the quota of the calling
+	 * thread, rebalancing the quotas if it runs dry.
+	 *
+	 * @param numCopies
+	 *            the number of copies, positive
+	 * @return true, if the copies were taken, false if the caller must buy
+	 *         them while excluding the other buyers
+	 */
+	boolean tryBuyCopies(int numCopies) {
+		return copies.tryTake(numCopies);
+	}
+
+	/**
+	 * Gives back copies taken by {@link #tryBuyCopies(int)} for a purchase
+	 * which could not be completed. Unlike {@link #addCopies(int)}, the sale
+	 * misses are kept.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	void returnCopies(int numCopies) {
+		copies.add(numCopies);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumCopies()
+	 */
+	@Override
+	public int getNumCopies() {
+		return copies.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#areCopiesInStore(int)
+	 */
+	@Override
+	public boolean areCopiesInStore(int numCopies) {
+		return copies.sum() >= numCopies;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#buyCopies(int)
+	 */
+	@Override
+	public boolean buyCopies(int numCopies) {
+		int numCopiesInStore = copies.sum();
+		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && numCopiesInStore >= numCopies) {
+			copies.set(numCopiesInStore - numCopies);
+			return true;
+		}
+
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#addCopies(int)
+	 */
+	@Override
+	public void addCopies(int numNewCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
+			copies.add(numNewCopies);
+			setNumSaleMisses(0);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#immutableStockBook()
+	 */
+	@Override
+	public StockBook immutableStockBook() {
+		return new ImmutableStockBook(getISBN(), new String(getTitle()), new String(getAuthor()), getPrice(),
+				copies.sum(), getNumSaleMisses(), getNumTimesRated(), getTotalRating(), isEditorPick());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#copy()
+	 */
+	@Override
+	public BookStoreBook copy() {
+		return new BookStoreBook(getISBN(), new String(getTitle()), new String(getAuthor()), getPrice(),
+				copies.sum());
+	}
+}
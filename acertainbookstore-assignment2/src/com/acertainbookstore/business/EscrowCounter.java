@@ -0,0 +1,192 @@
+package com.acertainbookstore.business;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link EscrowCounter} holds the copies of a book in escrow: a non-negative
+ * count split into a base and, once concurrent updates contend on the base,
+ * into per-core quotas. A buyer takes copies from the quota of its core
+ * without touching the others, and only rebalances, by moving the copies of
+ * the other quotas into its own, when its quota runs dry. Like a
+ * {@link java.util.concurrent.atomic.LongAdder}, books that are never
+ * contended only pay for the base.
+ *
+ * The concurrent operations, {@link #tryTake(int)} and {@link #add(int)},
+ * never make the count negative but move copies around, so
+ * {@link #sum()} and {@link #set(int)} are only exact while the caller
+ * excludes them.
+ */
+final class EscrowCounter {
+
+	/** The number of quotas, a power of two at least the number of cores. */
+	private static final int NUM_CELLS;
+
+	/** The distance between two quotas, in ints, so that they do not share a cache line. */
+	private static final int CELL_STRIDE = 16;
+
+	/** The handle used to compare-and-set the base. */
+	private static final VarHandle BASE;
+
+	/** The handle used to inflate the quotas. */
+	private static final VarHandle CELLS;
+
+	static {
+		int numCores = Runtime.getRuntime().availableProcessors();
+		NUM_CELLS = numCores <= 1 ? 1 : Integer.highestOneBit(numCores - 1) << 1;
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			BASE = lookup.findVarHandle(EscrowCounter.class, "base", int.class);
+			CELLS = lookup.findVarHandle(EscrowCounter.class, "cells", AtomicIntegerArray.class);
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	/** The copies which are not in a quota. */
+	private volatile int base;
+
+	/** The quotas, every {@link #CELL_STRIDE} ints, null until contended. */
+	private volatile AtomicIntegerArray cells = null;
+
+	/**
+	 * Instantiates a new {@link EscrowCounter}.
+	 *
+	 * @param count
+	 *            the initial count
+	 */
+	EscrowCounter(int count) {
+		base = count;
+	}
+
+	/**
+	 * Gets the index of the quota of the calling thread.
+	 *
+	 * @return the index
+	 */
+	private static int homeCell() {
+		int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		return ((h ^ (h >>> 16)) & (NUM_CELLS - 1)) * CELL_STRIDE;
+	}
+
+	/**
+	 * Splits the counter into quotas after contention on the base.
+	 *
+	 * @return the quotas
+	 */
+	private AtomicIntegerArray inflate() {
+		AtomicIntegerArray current = cells;
+		if (current == null) {
+			CELLS.compareAndSet(this, null, new AtomicIntegerArray(NUM_CELLS * CELL_STRIDE));
+			current = cells;
+		}
+		return current;
+	}
+
+	/**
+	 * Takes <code>count</code> copies if the calling thread can find them,
+	 * first in its own quota, then by moving the copies of the base and of
+	 * the other quotas into its own. It may fail while copies are being moved
+	 * by another thread, so a failure only means that the caller must decide
+	 * while excluding the other operations.
+	 *
+	 * @param count
+	 *            the number of copies, positive
+	 * @return true, if the copies were taken
+	 */
+	boolean tryTake(int count) {
+		AtomicIntegerArray quotas = cells;
+		if (quotas == null) {
+			int b = base;
+			if (b >= count && BASE.compareAndSet(this, b, b - count)) {
+				return true;
+			}
+			if (b < count) {
+				return false;
+			}
+			// Another thread changed the base, split it from now on.
+			quotas = inflate();
+		}
+
+		int home = homeCell();
+		if (takeFromCell(quotas, home, count)) {
+			return true;
+		}
+
+		// Rebalance: move everything else into the home quota, then retry once.
+		int moved = (int) BASE.getAndSet(this, 0);
+		for (int cell = 0; cell < NUM_CELLS * CELL_STRIDE; cell += CELL_STRIDE) {
+			if (cell != home) {
+				moved += quotas.getAndSet(cell, 0);
+			}
+		}
+		quotas.addAndGet(home, moved);
+
+		return takeFromCell(quotas, home, count);
+	}
+
+	private static boolean takeFromCell(AtomicIntegerArray quotas, int cell, int count) {
+		int quota;
+		do {
+			quota = quotas.get(cell);
+			if (quota < count) {
+				return false;
+			}
+		} while (!quotas.compareAndSet(cell, quota, quota - count));
+		return true;
+	}
+
+	/**
+	 * Adds <code>count</code> copies to the quota of the calling thread, or to
+	 * the base while it is not contended.
+	 *
+	 * @param count
+	 *            the number of copies, positive
+	 */
+	void add(int count) {
+		AtomicIntegerArray quotas = cells;
+		if (quotas == null) {
+			int b = base;
+			if (BASE.compareAndSet(this, b, b + count)) {
+				return;
+			}
+			quotas = inflate();
+		}
+		quotas.addAndGet(homeCell(), count);
+	}
+
+	/**
+	 * Sums the base and the quotas.
+	 *
+	 * @return the count, exact if no other operation runs concurrently
+	 */
+	int sum() {
+		int sum = base;
+		AtomicIntegerArray quotas = cells;
+		if (quotas != null) {
+			for (int cell = 0; cell < NUM_CELLS * CELL_STRIDE; cell += CELL_STRIDE) {
+				sum += quotas.get(cell);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Sets the count, moving all the copies back to the base. The caller must
+	 * exclude every other operation.
+	 *
+	 * @param count
+	 *            the new count
+	 */
+	void set(int count) {
+		AtomicIntegerArray quotas = cells;
+		if (quotas != null) {
+			for (int cell = 0; cell < NUM_CELLS * CELL_STRIDE; cell += CELL_STRIDE) {
+				quotas.set(cell, 0);
+			}
+		}
+		base = count;
+	}
+}
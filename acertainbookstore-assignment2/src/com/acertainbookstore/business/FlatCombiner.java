@@ -0,0 +1,210 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link FlatCombiner} applies the operations of concurrent threads in
+ * batches. A thread publishes its operation in its own slot, then either
+ * becomes the combiner, which applies the pending operations of all the slots
+ * under a single acquisition of the batch lock, or waits until a combiner has
+ * applied its operation and handed back the outcome.
+ *
+ * Under contention on a few objects, this replaces one lock hand-off per
+ * operation and per object by one acquisition per batch, and the operations
+ * of a batch run on the core of the combiner, whose caches already hold the
+ * contended objects.
+ *
+ * The slots are linked in a publication list when their thread first uses
+ * the combiner. Only the combiner unlinks slots, those of the threads which
+ * have terminated, so that a pool of short-lived threads does not grow the
+ * list forever.
+ */
+final class FlatCombiner {
+
+	/**
+	 * An operation applied by the combiner while it holds the batch lock.
+	 */
+	@FunctionalInterface
+	interface Operation {
+
+		/**
+		 * Applies the operation.
+		 *
+		 * @throws BookStoreException
+		 *             if the operation fails, in which case it must not have
+		 *             changed anything
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/** The number of passes over the slots per batch, to catch late arrivals. */
+	private static final int MAX_PASSES_PER_BATCH = 3;
+
+	/** The number of busy spins of a waiting thread before it yields. */
+	private static final int SPINS_BEFORE_YIELD = 64;
+
+	/**
+	 * {@link Slot} is the publication slot of a thread.
+	 */
+	private static final class Slot {
+
+		/** The thread owning the slot. */
+		private final Thread owner = Thread.currentThread();
+
+		/** The pending operation, reset to null once applied. */
+		private volatile Operation operation = null;
+
+		/** The failure of the last operation, written before it is reset. */
+		private Throwable failure = null;
+
+		/** The next slot in the publication list. */
+		private volatile Slot next = null;
+	}
+
+	/** The lock held by the combiner while it applies a batch. */
+	private final Lock batchLock;
+
+	/** Run after every batch, before the batch lock is released. */
+	private final Runnable afterBatch;
+
+	/** Lets a single thread combine at a time. */
+	private final ReentrantLock combinerLock = new ReentrantLock();
+
+	/** The head of the publication list. */
+	private final AtomicReference<Slot> head = new AtomicReference<>();
+
+	/** The slot of every thread. */
+	private final ThreadLocal<Slot> slots = ThreadLocal.withInitial(this::register);
+
+	/**
+	 * Instantiates a new {@link FlatCombiner}.
+	 *
+	 * @param batchLock
+	 *            the lock excluding every other access to the state the
+	 *            operations modify
+	 * @param afterBatch
+	 *            run after every batch, before <code>batchLock</code> is
+	 *            released
+	 */
+	FlatCombiner(Lock batchLock, Runnable afterBatch) {
+		this.batchLock = batchLock;
+		this.afterBatch = afterBatch;
+	}
+
+	/**
+	 * Applies <code>operation</code>, either in the batch of another thread
+	 * or in a batch combined by the calling thread.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @throws BookStoreException
+	 *             if the operation fails
+	 */
+	void execute(Operation operation) throws BookStoreException {
+		Slot slot = slots.get();
+		slot.failure = null;
+		slot.operation = operation;
+
+		int spins = 0;
+		while (slot.operation != null) {
+			if (combinerLock.tryLock()) {
+				try {
+					combine();
+				} finally {
+					combinerLock.unlock();
+				}
+			} else if (++spins < SPINS_BEFORE_YIELD) {
+				Thread.onSpinWait();
+			} else {
+				// Let the combiner run when there are fewer cores than threads.
+				spins = 0;
+				Thread.yield();
+			}
+		}
+
+		Throwable failure = slot.failure;
+		if (failure instanceof BookStoreException) {
+			throw (BookStoreException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	/**
+	 * Applies the pending operations of all the slots in one batch.
+	 */
+	private void combine() {
+		batchLock.lock();
+		try {
+			for (int pass = 0; pass < MAX_PASSES_PER_BATCH; pass++) {
+				if (applyPendingOperations() == 0) {
+					break;
+				}
+			}
+		} finally {
+			afterBatch.run();
+			batchLock.unlock();
+		}
+	}
+
+	/**
+	 * Applies the pending operations once, in the order of the publication
+	 * list, and unlinks the slots of the terminated threads.
+	 *
+	 * @return the number of operations applied
+	 */
+	private int applyPendingOperations() {
+		int numApplied = 0;
+		Slot previous = null;
+
+		for (Slot slot = head.get(); slot != null; slot = slot.next) {
+			Operation operation = slot.operation;
+			if (operation != null) {
+				try {
+					operation.apply();
+				} catch (BookStoreException | RuntimeException | Error ex) {
+					// Hand the failure back instead of failing the batch.
+					slot.failure = ex;
+				}
+				// Publishes the failure along with the completion.
+				slot.operation = null;
+				numApplied++;
+			} else if (!slot.owner.isAlive()) {
+				// New slots are only pushed at the head, so unlinking the
+				// head must race with them, and the others need not.
+				if (previous == null) {
+					if (head.compareAndSet(slot, slot.next)) {
+						continue;
+					}
+				} else {
+					previous.next = slot.next;
+					continue;
+				}
+			}
+			previous = slot;
+		}
+
+		return numApplied;
+	}
+
+	/**
+	 * Links the slot of the calling thread in the publication list.
+	 *
+	 * @return the slot
+	 */
+	private Slot register() {
+		Slot slot = new Slot();
+		Slot first;
+		do {
+			first = head.get();
+			slot.next = first;
+		} while (!head.compareAndSet(first, slot));
+		return slot;
+	}
+}
@@ -0,0 +1,73 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link GlobalLockManager} is the {@link LockManager} of the
+ * {@link LockManager#GLOBAL} policy: every section takes a single read-write
+ * lock, in read mode if it only reads, like the
+ * {@link SingleLockConcurrentCertainBookStore}.
+ */
+final class GlobalLockManager implements LockManager {
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#readBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return readCatalog(section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#writeBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return writeCatalog(section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#readCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readCatalog(Section<T> section) throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			return section.run();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#writeCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeCatalog(Section<T> section) throws BookStoreException {
+		lock.writeLock().lock();
+		try {
+			return section.run();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
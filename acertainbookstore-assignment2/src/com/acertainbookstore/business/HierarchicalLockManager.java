@@ -0,0 +1,264 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.business.MultiGranularityLock.Mode;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link HierarchicalLockManager} is the {@link LockManager} of the
+ * {@link LockManager#HIERARCHICAL} policy: multi-granularity locking over
+ * three levels, the store, the partitions of the ISBNs and the books, with a
+ * {@link MultiGranularityLock} for the store and every partition, and a
+ * read-write lock per book.
+ *
+ * A section on books takes the store and their partitions in IS or IX mode
+ * and the books in read or write mode. Adding or removing books only takes
+ * their partitions in X mode, so that the catalog changes do not block the
+ * other partitions, and a scan takes every partition in S mode instead of
+ * every book lock. Only removing all the books takes the store in X mode.
+ *
+ * The partitions are ranges of {@link #PARTITION_WIDTH} consecutive ISBNs,
+ * assigned to the {@link #NUM_PARTITIONS} partitions in turn. Every level is
+ * locked from the top down, and the partitions and the books in ascending
+ * order, so that two sections cannot deadlock.
+ */
+final class HierarchicalLockManager implements LockManager {
+
+	/** The number of partitions, a power of two. */
+	static final int NUM_PARTITIONS = 64;
+
+	/** The number of consecutive ISBNs in a range of a partition. */
+	static final int PARTITION_WIDTH = 1024;
+
+	private final MultiGranularityLock storeLock = new MultiGranularityLock();
+
+	private final Partition[] partitions = new Partition[NUM_PARTITIONS];
+
+	/**
+	 * A partition of the ISBNs.
+	 */
+	private static final class Partition {
+
+		private final MultiGranularityLock lock = new MultiGranularityLock();
+
+		/**
+		 * The locks of the books of the partition, only changed under the
+		 * partition lock in X mode.
+		 */
+		private final IntObjectHashMap<ReadWriteLock> bookLocks = new IntObjectHashMap<>();
+	}
+
+	/**
+	 * Instantiates a new {@link HierarchicalLockManager}.
+	 */
+	HierarchicalLockManager() {
+		for (int i = 0; i < NUM_PARTITIONS; i++) {
+			partitions[i] = new Partition();
+		}
+	}
+
+	/**
+	 * Gets the partition of an ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the index of the partition
+	 */
+	static int partitionOf(int isbn) {
+		return Math.floorDiv(isbn, PARTITION_WIDTH) & (NUM_PARTITIONS - 1);
+	}
+
+	/**
+	 * Computes the distinct partitions of the given ISBNs in ascending order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the sorted, distinct partition indexes
+	 */
+	private static int[] partitionsOf(int[] isbns) {
+		int[] indexes = new int[isbns.length];
+		for (int i = 0; i < isbns.length; i++) {
+			indexes[i] = partitionOf(isbns[i]);
+		}
+		return BookStoreUtility.sortedDistinct(indexes);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#readBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return runWithBookLocks(isbns, false, section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#writeBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return runWithBookLocks(isbns, true, section);
+	}
+
+	/**
+	 * Runs a section with intention locks on the store and the partitions of
+	 * the given books, and the locks of the books.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @param write
+	 *            whether the books are written
+	 * @param section
+	 *            the section
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	private <T> T runWithBookLocks(int[] isbns, boolean write, Section<T> section) throws BookStoreException {
+		Mode intention = write ? Mode.IX : Mode.IS;
+		int[] sortedIsbns = BookStoreUtility.sortedDistinct(isbns);
+		int[] partitionIndexes = partitionsOf(sortedIsbns);
+		ReadWriteLock[] bookLocks = new ReadWriteLock[sortedIsbns.length];
+
+		storeLock.lock(intention);
+		int numPartitionsLocked = 0;
+		int numBooksLocked = 0;
+		try {
+			for (; numPartitionsLocked < partitionIndexes.length; numPartitionsLocked++) {
+				partitions[partitionIndexes[numPartitionsLocked]].lock.lock(intention);
+			}
+
+			// The ISBNs which are not in the catalog are skipped.
+			for (int isbn : sortedIsbns) {
+				ReadWriteLock bookLock = partitions[partitionOf(isbn)].bookLocks.get(isbn);
+				if (bookLock != null) {
+					(write ? bookLock.writeLock() : bookLock.readLock()).lock();
+					bookLocks[numBooksLocked++] = bookLock;
+				}
+			}
+
+			return section.run();
+		} finally {
+			while (numBooksLocked > 0) {
+				ReadWriteLock bookLock = bookLocks[--numBooksLocked];
+				(write ? bookLock.writeLock() : bookLock.readLock()).unlock();
+			}
+			while (numPartitionsLocked > 0) {
+				partitions[partitionIndexes[--numPartitionsLocked]].lock.unlock(intention);
+			}
+			storeLock.unlock(intention);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#readCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readCatalog(Section<T> section) throws BookStoreException {
+		storeLock.lock(Mode.IS);
+		int numPartitionsLocked = 0;
+		try {
+			for (; numPartitionsLocked < NUM_PARTITIONS; numPartitionsLocked++) {
+				partitions[numPartitionsLocked].lock.lock(Mode.S);
+			}
+			return section.run();
+		} finally {
+			while (numPartitionsLocked > 0) {
+				partitions[--numPartitionsLocked].lock.unlock(Mode.S);
+			}
+			storeLock.unlock(Mode.IS);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#changeCatalog(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T changeCatalog(int[] isbns, Section<T> section) throws BookStoreException {
+		int[] partitionIndexes = partitionsOf(isbns);
+
+		storeLock.lock(Mode.IX);
+		int numPartitionsLocked = 0;
+		try {
+			for (; numPartitionsLocked < partitionIndexes.length; numPartitionsLocked++) {
+				partitions[partitionIndexes[numPartitionsLocked]].lock.lock(Mode.X);
+			}
+			return section.run();
+		} finally {
+			while (numPartitionsLocked > 0) {
+				partitions[partitionIndexes[--numPartitionsLocked]].lock.unlock(Mode.X);
+			}
+			storeLock.unlock(Mode.IX);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#writeCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeCatalog(Section<T> section) throws BookStoreException {
+		storeLock.lock(Mode.X);
+		try {
+			return section.run();
+		} finally {
+			storeLock.unlock(Mode.X);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#bookAdded(int)
+	 */
+	@Override
+	public void bookAdded(int isbn) {
+		IntObjectHashMap<ReadWriteLock> bookLocks = partitions[partitionOf(isbn)].bookLocks;
+		if (!bookLocks.containsKey(isbn)) {
+			bookLocks.put(isbn, new ReentrantReadWriteLock());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#bookRemoved(int)
+	 */
+	@Override
+	public void bookRemoved(int isbn) {
+		partitions[partitionOf(isbn)].bookLocks.remove(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#allBooksRemoved()
+	 */
+	@Override
+	public void allBooksRemoved() {
+		for (Partition partition : partitions) {
+			partition.bookLocks.clear();
+		}
+	}
+}
@@ -0,0 +1,992 @@
+package com.acertainbookstore.business;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link LockFreeConcurrentCertainBookStore} implements the {@link BookStore}
+ * and {@link StockManager} functionalities without locks on the customer path.
+ *
+ * The mutable part of a book (copies, sale misses, rating totals and the
+ * editor pick flag) is an immutable {@link Stock} held in a single word of the
+ * book, which is only ever changed by compare-and-set. Transactions spanning
+ * several books commit through a descriptor-based multi-word compare-and-set:
+ * the descriptor is installed in the words of the books in ascending ISBN
+ * order, then the transaction is decided at once by a compare-and-set of its
+ * status, and finally the words are released to the new or the old values.
+ * Any thread finding a descriptor in its way helps it to completion instead of
+ * waiting, so some transaction always makes progress.
+ *
+ * Scans collect the books twice and succeed if nothing changed in between.
+ * If writers keep scans from succeeding a few times in a row, the scan
+ * installs a descriptor leaving the books unchanged, which succeeds if the
+ * books still hold the collected stock, so that writers in its way help it
+ * rather than wait for it. Catalog mutations are serialized among themselves
+ * by a lock that the customers never take.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class LockFreeConcurrentCertainBookStore implements ConcurrentCertainBookStore {
+
+	/** The status of a descriptor not decided yet. */
+	private static final int UNDECIDED = 0;
+
+	/** The status of a descriptor whose new values were applied. */
+	private static final int SUCCEEDED = 1;
+
+	/** The status of a descriptor whose old values were kept. */
+	private static final int FAILED = 2;
+
+	/**
+	 * The default number of double collects tried before collecting by
+	 * descriptor.
+	 */
+	public static final int MAX_OPTIMISTIC_SCANS = 3;
+
+	/** The number of retries spinning before yielding the processor. */
+	private static final int MAX_SPIN_RETRIES = 8;
+
+	/**
+	 * The mutable state of a book. Every change creates a new instance, and
+	 * only descriptors leaving a stock unchanged put the instance they
+	 * replaced back, so a word holding the same instance at two points in
+	 * time held the same stock in between.
+	 */
+	private static final class Stock {
+		private final int numCopies;
+		private final long numSaleMisses;
+		private final long numTimesRated;
+		private final long totalRating;
+		private final boolean editorPick;
+
+		private Stock(int numCopies, long numSaleMisses, long numTimesRated, long totalRating, boolean editorPick) {
+			this.numCopies = numCopies;
+			this.numSaleMisses = numSaleMisses;
+			this.numTimesRated = numTimesRated;
+			this.totalRating = totalRating;
+			this.editorPick = editorPick;
+		}
+	}
+
+	/** The stock of a book which is not in the catalog. */
+	private static final Stock REMOVED = new Stock(0, 0, 0, 0, false);
+
+	/**
+	 * A book of the catalog, with its immutable attributes and its stock word.
+	 */
+	private static final class Slot {
+
+		private static final VarHandle STATE;
+
+		static {
+			try {
+				STATE = MethodHandles.lookup().findVarHandle(Slot.class, "state", Object.class);
+			} catch (ReflectiveOperationException ex) {
+				throw new ExceptionInInitializerError(ex);
+			}
+		}
+
+		private final int isbn;
+		private final String title;
+		private final String author;
+		private final float price;
+
+		/** Either a {@link Stock} or a {@link Descriptor} owning the word. */
+		private volatile Object state;
+
+		private Slot(StockBook book, Descriptor addition) {
+			this.isbn = book.getISBN();
+			this.title = book.getTitle();
+			this.author = book.getAuthor();
+			this.price = book.getPrice();
+			this.state = addition;
+		}
+
+		/**
+		 * Gets the current stock, i.e. the one a descriptor owning the word
+		 * will leave if it is still undecided.
+		 *
+		 * @return the stock
+		 */
+		private Stock stock() {
+			Object current = state;
+			return current instanceof Descriptor ? ((Descriptor) current).stockOf(this) : (Stock) current;
+		}
+
+		private boolean compareAndSetState(Object expected, Object updated) {
+			return STATE.compareAndSet(this, expected, updated);
+		}
+
+		private ImmutableStockBook toStockBook(Stock stock) {
+			return new ImmutableStockBook(isbn, title, author, price, stock.numCopies, stock.numSaleMisses,
+					stock.numTimesRated, stock.totalRating, stock.editorPick);
+		}
+
+		private ImmutableBook toBook() {
+			return new ImmutableBook(isbn, title, author, price);
+		}
+	}
+
+	/**
+	 * A multi-word compare-and-set of the stock of several books.
+	 */
+	private static final class Descriptor {
+
+		private static final VarHandle STATUS;
+
+		static {
+			try {
+				STATUS = MethodHandles.lookup().findVarHandle(Descriptor.class, "status", int.class);
+			} catch (ReflectiveOperationException ex) {
+				throw new ExceptionInInitializerError(ex);
+			}
+		}
+
+		/** The books, in ascending ISBN order. */
+		private final Slot[] slots;
+		private final Stock[] expected;
+		private final Stock[] updated;
+
+		private volatile int status = UNDECIDED;
+
+		private Descriptor(Slot[] slots, Stock[] expected, Stock[] updated) {
+			this.slots = slots;
+			this.expected = expected;
+			this.updated = updated;
+		}
+
+		private Stock stockOf(Slot slot) {
+			// The slot is owned by the descriptor, so the search finds it.
+			int low = 0;
+			int high = slots.length - 1;
+			int middle = (low + high) >>> 1;
+			while (slots[middle] != slot) {
+				if (slots[middle].isbn < slot.isbn) {
+					low = middle + 1;
+				} else {
+					high = middle - 1;
+				}
+				middle = (low + high) >>> 1;
+			}
+			return status == SUCCEEDED ? updated[middle] : expected[middle];
+		}
+
+		/**
+		 * Runs the compare-and-set to completion, on behalf of its owner or of
+		 * any thread it is in the way of.
+		 *
+		 * @return true, if the new values were applied
+		 */
+		private boolean help() {
+			int outcome = SUCCEEDED;
+
+			acquire: for (int i = 0; i < slots.length; i++) {
+				while (true) {
+					if (status != UNDECIDED) {
+						break acquire;
+					}
+
+					Object current = slots[i].state;
+					if (current == this) {
+						break;
+					}
+					if (current instanceof Descriptor) {
+						// Descriptors acquire in ISBN order, so helping ends.
+						((Descriptor) current).help();
+						continue;
+					}
+					if (current != expected[i]) {
+						outcome = FAILED;
+						break acquire;
+					}
+					if (slots[i].compareAndSetState(current, this)) {
+						break;
+					}
+				}
+			}
+
+			STATUS.compareAndSet(this, UNDECIDED, outcome);
+			boolean succeeded = status == SUCCEEDED;
+
+			// Also releases a word a late helper acquired after the decision.
+			for (int i = 0; i < slots.length; i++) {
+				slots[i].compareAndSetState(this, succeeded ? updated[i] : expected[i]);
+			}
+			return succeeded;
+		}
+	}
+
+	/**
+	 * The computation of the new stock of the books of a transaction.
+	 */
+	@FunctionalInterface
+	private interface StockUpdate {
+
+		/**
+		 * Computes the new stock of the books from their current stock.
+		 *
+		 * @param current
+		 *            the current stock of the books
+		 * @param updated
+		 *            filled with the new stock of the books
+		 * @return true, if the transaction succeeds, false if it only records a
+		 *         failure
+		 * @throws BookStoreException
+		 *             if the transaction fails without changing anything
+		 */
+		boolean apply(Stock[] current, Stock[] updated) throws BookStoreException;
+	}
+
+	/** The mapping of books from ISBN to {@link Slot}. */
+	private final Map<Integer, Slot> bookMap = new ConcurrentHashMap<>();
+
+	/** The lock serializing addBooks, removeBooks and removeAllBooks. */
+	private final Lock catalogLock = new ReentrantLock();
+
+	/** The number of double collects tried before collecting by descriptor. */
+	private final int maxOptimisticScans;
+
+	/** Incremented by addBooks before new books become visible. */
+	private volatile long catalogVersion = 0;
+
+	/** The number of transactions started. */
+	private final LongAdder numTransactions = new LongAdder();
+
+	/** The number of attempts which failed because a book changed. */
+	private final LongAdder numAborts = new LongAdder();
+
+	/** The number of transactions which were retried at least once. */
+	private final LongAdder numRetriedTransactions = new LongAdder();
+
+	/** The number of scans which collected the books by descriptor. */
+	private final LongAdder numDescriptorScans = new LongAdder();
+
+	/**
+	 * Instantiates a new {@link LockFreeConcurrentCertainBookStore}.
+	 */
+	public LockFreeConcurrentCertainBookStore() {
+		this(MAX_OPTIMISTIC_SCANS);
+	}
+
+	/**
+	 * Instantiates a new {@link LockFreeConcurrentCertainBookStore}.
+	 *
+	 * @param maxOptimisticScans
+	 *            the number of double collects a scan tries before collecting
+	 *            by descriptor, 0 to always collect by descriptor
+	 */
+	public LockFreeConcurrentCertainBookStore(int maxOptimisticScans) {
+		this.maxOptimisticScans = maxOptimisticScans;
+	}
+
+	/**
+	 * Gets the number of transactions started.
+	 *
+	 * @return the number of transactions
+	 */
+	public long getNumTransactions() {
+		return numTransactions.sum();
+	}
+
+	/**
+	 * Gets the number of attempts which failed because a book was changed by a
+	 * concurrent transaction.
+	 *
+	 * @return the number of aborts
+	 */
+	public long getNumAborts() {
+		return numAborts.sum();
+	}
+
+	/**
+	 * Gets the number of transactions which were retried at least once.
+	 *
+	 * @return the number of retried transactions
+	 */
+	public long getNumRetriedTransactions() {
+		return numRetriedTransactions.sum();
+	}
+
+	/**
+	 * Gets the number of scans which had to collect the books by descriptor.
+	 *
+	 * @return the number of descriptor scans
+	 */
+	public long getNumDescriptorScans() {
+		return numDescriptorScans.sum();
+	}
+
+	/**
+	 * Runs a transaction over the given books until it commits or fails.
+	 *
+	 * @param slots
+	 *            the books, in ascending ISBN order
+	 * @param update
+	 *            the computation of the new stock
+	 * @return the result of the update which committed
+	 * @throws BookStoreException
+	 *             if a book is not in stock or the update fails
+	 */
+	private boolean update(Slot[] slots, StockUpdate update) throws BookStoreException {
+		numTransactions.increment();
+
+		int retries = 0;
+		while (true) {
+			Stock[] current = new Stock[slots.length];
+			for (int i = 0; i < slots.length; i++) {
+				current[i] = slots[i].stock();
+				if (current[i] == REMOVED) {
+					throw new BookStoreException(BookStoreConstants.ISBN + slots[i].isbn + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			Stock[] updated = new Stock[slots.length];
+			boolean result = update.apply(current, updated);
+			if (new Descriptor(slots, current, updated).help()) {
+				return result;
+			}
+
+			numAborts.increment();
+			if (retries++ == 0) {
+				numRetriedTransactions.increment();
+			}
+
+			if (retries < MAX_SPIN_RETRIES) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Looks up the books with the given ISBNs.
+	 *
+	 * @param isbns
+	 *            the ISBNs, in ascending order
+	 * @return the books, in ascending ISBN order
+	 * @throws BookStoreException
+	 *             if a book is not in the catalog
+	 */
+	private Slot[] lookup(SortedMap<Integer, ?> isbns) throws BookStoreException {
+		Slot[] slots = new Slot[isbns.size()];
+
+		int i = 0;
+		for (Integer ISBN : isbns.keySet()) {
+			slots[i] = bookMap.get(ISBN);
+			if (slots[i++] == null) { // Check if the book is in stock
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			}
+		}
+
+		return slots;
+	}
+
+	/**
+	 * Collects the stock of books at one point in time.
+	 *
+	 * @param books
+	 *            supplies the books, asked again on every attempt
+	 * @return the books and their stock
+	 */
+	private Map.Entry<Slot[], Stock[]> scan(Supplier<Slot[]> books) {
+		for (int attempts = 1;; attempts++) {
+			long version = catalogVersion;
+			Slot[] slots = books.get();
+			Stock[] stocks = new Stock[slots.length];
+			for (int i = 0; i < slots.length; i++) {
+				stocks[i] = slots[i].stock();
+			}
+
+			boolean unchanged;
+			if (attempts <= maxOptimisticScans) {
+				// The same instances mean that nothing changed in between.
+				unchanged = true;
+				for (int i = 0; i < slots.length && unchanged; i++) {
+					unchanged = slots[i].stock() == stocks[i];
+				}
+			} else {
+				if (attempts == maxOptimisticScans + 1) {
+					numDescriptorScans.increment();
+				}
+				unchanged = collectByDescriptor(slots, stocks);
+			}
+
+			if (unchanged && catalogVersion == version) {
+				return Map.entry(slots, stocks);
+			}
+		}
+	}
+
+	/**
+	 * Checks that books hold the collected stock all at once, by a descriptor
+	 * leaving it unchanged. Unlike a second collect, the descriptor cannot be
+	 * outrun by writers: those it gets in the way of help it to completion.
+	 *
+	 * @param slots
+	 *            the books
+	 * @param stocks
+	 *            the collected stock of the books
+	 * @return true, if the books held the collected stock
+	 */
+	private static boolean collectByDescriptor(Slot[] slots, Stock[] stocks) {
+		Integer[] order = new Integer[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingInt(i -> slots[i].isbn));
+
+		Slot[] sortedSlots = new Slot[slots.length];
+		Stock[] sortedStocks = new Stock[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			sortedSlots[i] = slots[order[i]];
+			sortedStocks[i] = stocks[order[i]];
+		}
+		return new Descriptor(sortedSlots, sortedStocks, sortedStocks).help();
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Sums the copies per ISBN, in ascending ISBN order.
+	 *
+	 * @param bookCopies
+	 *            the validated book copies
+	 * @return the copies per ISBN
+	 */
+	private static SortedMap<Integer, Integer> copiesByIsbn(Set<BookCopy> bookCopies) {
+		SortedMap<Integer, Integer> copies = new TreeMap<>();
+		for (BookCopy bookCopy : bookCopies) {
+			copies.merge(bookCopy.getISBN(), bookCopy.getNumCopies(), Integer::sum);
+		}
+		return copies;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			SortedMap<Integer, StockBook> books = new TreeMap<>();
+			for (StockBook book : bookSet) {
+				books.put(book.getISBN(), book);
+			}
+
+			// The new books are published owned by an undecided descriptor, so
+			// that they all appear at once when it is decided.
+			Slot[] slots = new Slot[books.size()];
+			Stock[] absent = new Stock[books.size()];
+			Stock[] added = new Stock[books.size()];
+			Descriptor addition = new Descriptor(slots, absent, added);
+
+			int i = 0;
+			for (StockBook book : books.values()) {
+				slots[i] = new Slot(book, addition);
+				absent[i] = REMOVED;
+				added[i++] = new Stock(book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(),
+						book.getTotalRating(), book.isEditorPick());
+			}
+
+			for (Slot slot : slots) {
+				bookMap.put(slot.isbn, slot);
+			}
+			catalogVersion++;
+			addition.help();
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+		}
+
+		SortedMap<Integer, Integer> copies = copiesByIsbn(bookCopiesSet);
+		int[] numCopies = copies.values().stream().mapToInt(Integer::intValue).toArray();
+
+		// Update the number of copies, which resets the sale misses
+		update(lookup(copies), (current, updated) -> {
+			for (int i = 0; i < current.length; i++) {
+				updated[i] = new Stock(current[i].numCopies + numCopies[i], 0, current[i].numTimesRated,
+						current[i].totalRating, current[i].editorPick);
+			}
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		Map.Entry<Slot[], Stock[]> snapshot = scan(() -> bookMap.values().toArray(new Slot[0]));
+
+		List<StockBook> books = new ArrayList<>();
+		for (int i = 0; i < snapshot.getKey().length; i++) {
+			if (snapshot.getValue()[i] != REMOVED) {
+				books.add(snapshot.getKey()[i].toStockBook(snapshot.getValue()[i]));
+			}
+		}
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Boolean> picks = new TreeMap<>();
+		for (BookEditorPick editorPickArg : editorPicks) {
+			int isbn = editorPickArg.getISBN();
+			if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+			}
+			picks.put(isbn, editorPickArg.isEditorPick());
+		}
+
+		Boolean[] editorPick = picks.values().toArray(new Boolean[0]);
+		update(lookup(picks), (current, updated) -> {
+			for (int i = 0; i < current.length; i++) {
+				updated[i] = new Stock(current[i].numCopies, current[i].numSaleMisses, current[i].numTimesRated,
+						current[i].totalRating, editorPick[i]);
+			}
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			validate(bookCopyToBuy);
+		}
+
+		SortedMap<Integer, Integer> copies = copiesByIsbn(bookCopiesToBuy);
+		int[] numCopies = copies.values().stream().mapToInt(Integer::intValue).toArray();
+
+		boolean bought = update(lookup(copies), (current, updated) -> {
+			boolean saleMiss = false;
+			for (int i = 0; i < current.length; i++) {
+				saleMiss |= current[i].numCopies < numCopies[i];
+			}
+
+			for (int i = 0; i < current.length; i++) {
+				if (!saleMiss) {
+					updated[i] = new Stock(current[i].numCopies - numCopies[i], current[i].numSaleMisses,
+							current[i].numTimesRated, current[i].totalRating, current[i].editorPick);
+				} else if (current[i].numCopies < numCopies[i]) {
+					// If we cannot sell the copies of the book, it is a miss.
+					updated[i] = new Stock(current[i].numCopies,
+							current[i].numSaleMisses + numCopies[i] - current[i].numCopies, current[i].numTimesRated,
+							current[i].totalRating, current[i].editorPick);
+				} else {
+					// Left unchanged, but still checked to be unchanged.
+					updated[i] = current[i];
+				}
+			}
+			return !saleMiss;
+		});
+
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		if (!bought) {
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Gets the books with the given ISBNs at one point in time.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the books and their stock
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or not in stock
+	 */
+	private Map.Entry<Slot[], Stock[]> scan(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Integer> isbns = new TreeMap<>();
+		for (Integer ISBN : isbnSet) {
+			if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+			}
+			isbns.put(ISBN, ISBN);
+		}
+
+		Slot[] slots = lookup(isbns);
+		Map.Entry<Slot[], Stock[]> snapshot = scan(() -> slots);
+		for (int i = 0; i < slots.length; i++) {
+			if (snapshot.getValue()[i] == REMOVED) {
+				throw new BookStoreException(BookStoreConstants.ISBN + slots[i].isbn + BookStoreConstants.NOT_AVAILABLE);
+			}
+		}
+		return snapshot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		Map.Entry<Slot[], Stock[]> snapshot = scan(isbnSet);
+
+		List<StockBook> books = new ArrayList<>();
+		for (int i = 0; i < snapshot.getKey().length; i++) {
+			books.add(snapshot.getKey()[i].toStockBook(snapshot.getValue()[i]));
+		}
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		Map.Entry<Slot[], Stock[]> snapshot = scan(isbnSet);
+
+		List<Book> books = new ArrayList<>();
+		for (Slot slot : snapshot.getKey()) {
+			books.add(slot.toBook());
+		}
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Slot> listAllEditorPicks = new ArrayList<>();
+		for (Slot slot : bookMap.values()) {
+			Stock stock = slot.stock();
+			if (stock != REMOVED && stock.editorPick) {
+				listAllEditorPicks.add(slot);
+			}
+		}
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		List<Book> editorPicks = new ArrayList<>();
+		for (int index : tobePicked) {
+			editorPicks.add(listAllEditorPicks.get(index).toBook());
+		}
+		return editorPicks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Concurrent ratings are not serialized per book, so there is no
+		// rating index to keep in order: select from a consistent scan,
+		// keeping the numBooks best rated in a bounded heap, O(n log k).
+		Map.Entry<Slot[], Stock[]> snapshot = scan(() -> bookMap.values().toArray(new Slot[0]));
+		Slot[] slots = snapshot.getKey();
+		Stock[] stocks = snapshot.getValue();
+		float[] averageRatings = new float[slots.length];
+		Comparator<Integer> order = Comparator.<Integer> comparingDouble(i -> -averageRatings[i])
+				.thenComparingInt(i -> slots[i].isbn);
+
+		PriorityQueue<Integer> best = new PriorityQueue<>(order.reversed());
+		int numAvailable = 0;
+		for (int i = 0; i < slots.length; i++) {
+			if (stocks[i] == REMOVED) {
+				continue;
+			}
+			numAvailable++;
+			averageRatings[i] = stocks[i].numTimesRated == 0 ? -1.0f
+					: (float) stocks[i].totalRating / stocks[i].numTimesRated;
+			best.add(i);
+			if (best.size() > numBooks) {
+				best.poll();
+			}
+		}
+
+		if (numBooks > numAvailable) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		List<Integer> topRated = new ArrayList<>(best);
+		topRated.sort(order);
+		List<Book> books = new ArrayList<>();
+		for (int i : topRated) {
+			books.add(slots[i].toBook());
+		}
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// A sale miss and a replenishment of the same book may commit in
+		// either order before updating an index, so filter a consistent scan.
+		Map.Entry<Slot[], Stock[]> snapshot = scan(() -> bookMap.values().toArray(new Slot[0]));
+
+		List<StockBook> books = new ArrayList<>();
+		for (int i = 0; i < snapshot.getKey().length; i++) {
+			Stock stock = snapshot.getValue()[i];
+			if (stock != REMOVED && stock.numSaleMisses > 0) {
+				books.add(snapshot.getKey()[i].toStockBook(stock));
+			}
+		}
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, long[]> ratings = new TreeMap<>();
+		for (BookRating ratingToAdd : bookRating) {
+			validate(ratingToAdd);
+			long[] rating = ratings.computeIfAbsent(ratingToAdd.getISBN(), isbn -> new long[2]);
+			rating[0]++;
+			rating[1] += ratingToAdd.getRating();
+		}
+
+		long[][] rating = ratings.values().toArray(new long[0][]);
+		update(lookup(ratings), (current, updated) -> {
+			for (int i = 0; i < current.length; i++) {
+				updated[i] = new Stock(current[i].numCopies, current[i].numSaleMisses,
+						current[i].numTimesRated + rating[i][0], current[i].totalRating + rating[i][1],
+						current[i].editorPick);
+			}
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		catalogLock.lock();
+		try {
+			SortedMap<Integer, Slot> books = new TreeMap<>(bookMap);
+			removeSlots(books.values().toArray(new Slot[0]));
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Integer> isbns = new TreeMap<>();
+		for (Integer ISBN : isbnSet) {
+			if (BookStoreUtility.isInvalidISBN(ISBN)) {
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+			}
+			isbns.put(ISBN, ISBN);
+		}
+
+		catalogLock.lock();
+		try {
+			removeSlots(lookup(isbns));
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes books from the catalog, atomically with respect to the
+	 * customers. Must be called with the catalog lock held.
+	 *
+	 * @param slots
+	 *            the books, in ascending ISBN order
+	 * @throws BookStoreException
+	 *             if a book is not in stock
+	 */
+	private void removeSlots(Slot[] slots) throws BookStoreException {
+		update(slots, (current, updated) -> {
+			for (int i = 0; i < current.length; i++) {
+				updated[i] = REMOVED;
+			}
+			return true;
+		});
+
+		for (Slot slot : slots) {
+			bookMap.remove(slot.isbn, slot);
+		}
+	}
+}
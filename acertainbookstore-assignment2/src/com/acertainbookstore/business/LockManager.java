@@ -0,0 +1,240 @@
+package com.acertainbookstore.business;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LockManager} is the concurrency control of the
+ * {@link LockManagerCertainBookStore}: the store runs every operation as a
+ * section, declaring the books it reads or writes, and the lock manager
+ * decides how the section is isolated from the others. The policies are
+ * interchangeable, so that they can be compared against identical business
+ * logic, and are selected by name with {@link #newLockManager(String)}.
+ *
+ * A section may run more than once, e.g. after a failed optimistic
+ * validation or after a no-wait policy gave up its locks, but only sections
+ * which do not write are run without their locks, so a writing section runs
+ * exactly once. Sections on books must not change the catalog, and the
+ * lock manager is told of the catalog changes, made in
+ * {@link #changeCatalog(int[], Section)} and {@link #writeCatalog(Section)}
+ * sections, through {@link #bookAdded(int)}, {@link #bookRemoved(int)} and
+ * {@link #allBooksRemoved()}.
+ */
+public interface LockManager {
+
+	/** The name of the policy with a single read-write lock. */
+	String GLOBAL = "global";
+
+	/** The name of the policy with a global intention lock and a read-write lock per book. */
+	String PER_BOOK = "perbook";
+
+	/**
+	 * The name of the policy with striped read-write locks, all of them taken
+	 * for the whole catalog.
+	 */
+	String STRIPED = "striped";
+
+	/** The name of the policy with a single {@link java.util.concurrent.locks.StampedLock}. */
+	String OPTIMISTIC = "optimistic";
+
+	/**
+	 * The name of the policy with a read-write lock per book, which never
+	 * waits for a book lock but gives up all its locks and retries.
+	 */
+	String NO_WAIT = "nowait";
+
+	/**
+	 * The name of the policy with multi-granularity locks on the store and on
+	 * partitions of the ISBNs, and a read-write lock per book.
+	 */
+	String HIERARCHICAL = "hierarchical";
+
+	/**
+	 * The name of the policy switching online between a single read-write lock
+	 * and a read-write lock per book, depending on the observed contention.
+	 */
+	String ADAPTIVE = "adaptive";
+
+	/** The names of all the policies. */
+	String[] POLICIES = { GLOBAL, PER_BOOK, STRIPED, OPTIMISTIC, NO_WAIT, HIERARCHICAL, ADAPTIVE };
+
+	/**
+	 * A section of an operation of the book store.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 */
+	interface Section<T> {
+
+		/**
+		 * Runs the section.
+		 *
+		 * @return the result
+		 * @throws BookStoreException
+		 *             if the operation fails
+		 */
+		T run() throws BookStoreException;
+	}
+
+	/**
+	 * Runs a section reading the given books, while the catalog does not
+	 * change. The ISBNs which are not in the catalog are ignored, the section
+	 * is expected to reject them.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs of the books, which may be reordered
+	 * @param section
+	 *            the section, which must not write
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	<T> T readBooks(int[] isbns, Section<T> section) throws BookStoreException;
+
+	/**
+	 * Runs a section writing the given books, while the catalog does not
+	 * change. The ISBNs which are not in the catalog are ignored, the section
+	 * is expected to reject them.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs of the books, which may be reordered
+	 * @param section
+	 *            the section
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	<T> T writeBooks(int[] isbns, Section<T> section) throws BookStoreException;
+
+	/**
+	 * Runs a section reading any book of the catalog, while no book is
+	 * written.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param section
+	 *            the section, which must not write
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	<T> T readCatalog(Section<T> section) throws BookStoreException;
+
+	/**
+	 * Runs a section adding or removing the given books, excluding every other
+	 * section on them or on the whole catalog. By default the whole catalog is
+	 * locked, like in {@link #writeCatalog(Section)}.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs of the books, which may be reordered
+	 * @param section
+	 *            the section, which may only add or remove the given books
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	default <T> T changeCatalog(int[] isbns, Section<T> section) throws BookStoreException {
+		return writeCatalog(section);
+	}
+
+	/**
+	 * Runs a section adding or removing books, excluding every other section.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param section
+	 *            the section
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	<T> T writeCatalog(Section<T> section) throws BookStoreException;
+
+	/**
+	 * Called by a {@link #changeCatalog(int[], Section)} or
+	 * {@link #writeCatalog(Section)} section adding a book. Does nothing by
+	 * default.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	default void bookAdded(int isbn) {
+		// No lock per book by default.
+	}
+
+	/**
+	 * Called by a {@link #changeCatalog(int[], Section)} or
+	 * {@link #writeCatalog(Section)} section removing a book. Does nothing by
+	 * default.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	default void bookRemoved(int isbn) {
+		// No lock per book by default.
+	}
+
+	/**
+	 * Called by a {@link #writeCatalog(Section)} section removing all the
+	 * books. Does nothing by default.
+	 */
+	default void allBooksRemoved() {
+		// No lock per book by default.
+	}
+
+	/**
+	 * Gets the number of times a section was retried, after a failed
+	 * optimistic validation or after giving up its locks.
+	 *
+	 * @return the number of retries, 0 by default for the blocking policies
+	 */
+	default long getNumRetries() {
+		return 0;
+	}
+
+	/**
+	 * Creates a new lock manager.
+	 *
+	 * @param policy
+	 *            the name of the policy, one of {@link #POLICIES}
+	 * @return the lock manager
+	 * @throws BookStoreException
+	 *             if the policy is unknown
+	 */
+	static LockManager newLockManager(String policy) throws BookStoreException {
+		if (policy == null) {
+			throw new BookStoreException("null lock policy");
+		}
+
+		switch (policy) {
+		case GLOBAL:
+			return new GlobalLockManager();
+
+		case PER_BOOK:
+			return new PerBookLockManager(false);
+
+		case STRIPED:
+			return new StripedLockManager();
+
+		case OPTIMISTIC:
+			return new OptimisticLockManager();
+
+		case NO_WAIT:
+			return new PerBookLockManager(true);
+
+		case HIERARCHICAL:
+			return new HierarchicalLockManager();
+
+		case ADAPTIVE:
+			return new AdaptiveLockManager();
+
+		default:
+			throw new BookStoreException("Unknown lock policy: " + policy);
+		}
+	}
+}
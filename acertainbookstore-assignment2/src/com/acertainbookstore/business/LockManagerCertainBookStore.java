@@ -0,0 +1,542 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+
+/** {@link LockManagerCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities, leaving all the concurrency control
+ * to a {@link LockManager}: every operation declares the books it reads or
+ * writes, or that it changes the catalog, and runs as a section of the lock
+ * manager. The locking policies can thus be compared on the same business
+ * logic.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see LockManager
+ */
+public class LockManagerCertainBookStore implements ConcurrentCertainBookStore {
+
+	/**
+	 * The mapping of books from ISBN to {@link BookStoreBook}. It is
+	 * thread-safe, since the lock manager may let the books of different
+	 * partitions be added and removed concurrently.
+	 */
+	private final ConcurrentIntObjectHashMap<BookStoreBook> bookMap = new ConcurrentIntObjectHashMap<>();
+
+	/** The concurrency control of the store. */
+	private final LockManager lockManager;
+
+	/** The editor picks of {@link #bookMap}. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+	/**
+	 * Lock on {@link #editorPickIndex}, which is updated by sections on
+	 * different books. It is taken last, so it cannot deadlock with the locks
+	 * of the lock manager.
+	 */
+	private final ReadWriteLock editorPickLock = new ReentrantReadWriteLock();
+
+	/** The books of {@link #bookMap} ordered by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/** The books of {@link #bookMap} with sale misses, by ISBN. */
+	private final ConcurrentIntObjectHashMap<BookStoreBook> inDemandBooks = new ConcurrentIntObjectHashMap<>();
+
+	/**
+	 * Instantiates a new {@link LockManagerCertainBookStore}.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 */
+	public LockManagerCertainBookStore(LockManager lockManager) {
+		this.lockManager = lockManager;
+	}
+
+	/**
+	 * Gets the lock manager.
+	 *
+	 * @return the lock manager
+	 */
+	public LockManager getLockManager() {
+		return lockManager;
+	}
+
+	/**
+	 * Gets the ISBNs of the given elements.
+	 *
+	 * @param <E>
+	 *            the type of the elements
+	 * @param elements
+	 *            the elements
+	 * @param isbnOf
+	 *            gets the ISBN of an element
+	 * @return the ISBNs, in the iteration order of the elements
+	 */
+	private static <E> int[] isbnsOf(Collection<E> elements, ToIntFunction<E> isbnOf) {
+		int[] isbns = new int[elements.size()];
+		int i = 0;
+		for (E element : elements) {
+			isbns[i++] = isbnOf.applyAsInt(element);
+		}
+		return isbns;
+	}
+
+	/**
+	 * Updates {@link #editorPickIndex} under {@link #editorPickLock}.
+	 *
+	 * @param book
+	 *            the book
+	 * @param editorPick
+	 *            whether the book is an editor pick
+	 */
+	private void updateEditorPickIndex(BookStoreBook book, boolean editorPick) {
+		editorPickLock.writeLock().lock();
+		try {
+			editorPickIndex.update(book.getISBN(), book, editorPick);
+		} finally {
+			editorPickLock.writeLock().unlock();
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lockManager.changeCatalog(isbnsOf(bookSet, StockBook::getISBN), () -> {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(isbn, bookStoreBook);
+				lockManager.bookAdded(isbn);
+				updateEditorPickIndex(bookStoreBook, book.isEditorPick());
+				topRatedIndex.add(bookStoreBook.immutableBook(), bookStoreBook.getAverageRating());
+				if (bookStoreBook.hadSaleMiss()) {
+					inDemandBooks.put(isbn, bookStoreBook);
+				}
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lockManager.writeBooks(isbnsOf(bookCopiesSet, BookCopy::getISBN), () -> {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int isbn = bookCopy.getISBN();
+				bookMap.get(isbn).addCopies(bookCopy.getNumCopies());
+
+				// Adding copies resets the sale misses.
+				inDemandBooks.remove(isbn);
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		try {
+			return lockManager.readCatalog(() -> {
+				List<StockBook> books = new ArrayList<>(bookMap.size());
+				for (BookStoreBook book : bookMap.values()) {
+					books.add(book.immutableStockBook());
+				}
+				return books;
+			});
+		} catch (BookStoreException ex) {
+			// The section itself does not throw.
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lockManager.writeBooks(isbnsOf(editorPicks, BookEditorPick::getISBN), () -> {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				updateEditorPickIndex(book, editorPickArg.isEditorPick());
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lockManager.writeBooks(isbnsOf(bookCopiesToBuy, BookCopy::getISBN), () -> {
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+				BookStoreBook book = bookMap.get(bookCopyToBuy.getISBN());
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					BookStoreBook book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+					inDemandBooks.put(saleMissEntry.getKey(), book);
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				bookMap.get(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return lockManager.readBooks(isbnsOf(isbnSet, Integer::intValue), () -> {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+			for (int isbn : isbnSet) {
+				books.add(bookMap.get(isbn).immutableStockBook());
+			}
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return lockManager.readBooks(isbnsOf(isbnSet, Integer::intValue), () -> {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<Book> books = new ArrayList<>(isbnSet.size());
+			for (int isbn : isbnSet) {
+				books.add(bookMap.get(isbn).immutableBook());
+			}
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Sample the index instead of scanning the catalog. The sampled
+		// attributes are immutable, so no book is locked.
+		return lockManager.readBooks(new int[0], () -> {
+			List<BookStoreBook> picks;
+			editorPickLock.readLock().lock();
+			try {
+				picks = editorPickIndex.sample(numBooks);
+			} finally {
+				editorPickLock.readLock().unlock();
+			}
+
+			List<Book> books = new ArrayList<>(picks.size());
+			for (BookStoreBook book : picks) {
+				books.add(book.immutableBook());
+			}
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		} else if (numBooks > topRatedIndex.size()) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		// Read the index without locking, so that the buyers are not blocked.
+		List<Book> topRatedBooks = topRatedIndex.top(numBooks);
+
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < numBooks) {
+			throw new BookStoreException("Not enough books in the store to get top " + numBooks + " rated books.");
+		}
+
+		return topRatedBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// Only the books with sale misses are visited. A book may have been
+		// replenished or removed since, so check again under its lock.
+		int[] isbns = isbnsOf(inDemandBooks.values(), BookStoreBook::getISBN);
+		return lockManager.readBooks(isbns.clone(), () -> {
+			List<StockBook> books = new ArrayList<>(isbns.length);
+			for (int isbn : isbns) {
+				BookStoreBook book = bookMap.get(isbn);
+				if (book != null && book.hadSaleMiss()) {
+					books.add(book.immutableStockBook());
+				}
+			}
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lockManager.writeBooks(isbnsOf(bookRating, BookRating::getISBN), () -> {
+			for (BookRating ratingToValidate : bookRating) {
+				validate(ratingToValidate);
+			}
+
+			for (BookRating ratingToAdd : bookRating) {
+				// Move the book in the index under its lock, so that the index
+				// ends in the same order as the ratings.
+				BookStoreBook book = bookMap.get(ratingToAdd.getISBN());
+				float averageRating = book.getAverageRating();
+				book.addRating(ratingToAdd.getRating());
+				topRatedIndex.update(book.getISBN(), averageRating, book.getAverageRating());
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lockManager.writeCatalog(() -> {
+			bookMap.clear();
+			lockManager.allBooksRemoved();
+			editorPickLock.writeLock().lock();
+			try {
+				editorPickIndex.clear();
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+			topRatedIndex.clear();
+			inDemandBooks.clear();
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lockManager.changeCatalog(isbnsOf(isbnSet, Integer::intValue), () -> {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				topRatedIndex.remove(isbn, bookMap.get(isbn).getAverageRating());
+				bookMap.remove(isbn);
+				lockManager.bookRemoved(isbn);
+				editorPickLock.writeLock().lock();
+				try {
+					editorPickIndex.remove(isbn);
+				} finally {
+					editorPickLock.writeLock().unlock();
+				}
+				inDemandBooks.remove(isbn);
+			}
+			return null;
+		});
+	}
+}
@@ -0,0 +1,172 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link MultiGranularityLock} is the lock of a node in a hierarchy of
+ * granules, e.g. the store, its partitions and their books, with the five
+ * modes of multi-granularity locking: a thread takes a node in S or X mode to
+ * read or write it and all its descendants, and takes the ancestors of the
+ * nodes it locks in the matching intention mode, IS or IX, first. SIX is S
+ * together with IX, for sections scanning a node while writing a few of its
+ * descendants.
+ *
+ * The requests are granted in FIFO order: a request is granted at once when
+ * its mode is compatible with every granted mode and nobody waits, and
+ * otherwise queues, so that a stream of compatible intentions cannot starve
+ * an S or X request. The lock is not reentrant, and a thread takes every
+ * node at most once.
+ */
+final class MultiGranularityLock {
+
+	/**
+	 * The modes of a {@link MultiGranularityLock}.
+	 */
+	enum Mode {
+		/** Intention to read descendants. */
+		IS,
+		/** Intention to write descendants. */
+		IX,
+		/** Read the node and its descendants. */
+		S,
+		/** Read the node and its descendants, with the intention to write some. */
+		SIX,
+		/** Write the node and its descendants. */
+		X;
+
+		/** The modes compatible with each mode, as bit sets of ordinals. */
+		private static final int[] COMPATIBLE = {
+				// IS: all but X
+				bits(IS, IX, S, SIX),
+				// IX: only intentions
+				bits(IS, IX),
+				// S: readers
+				bits(IS, S),
+				// SIX: only intentions to read
+				bits(IS),
+				// X: none
+				0 };
+
+		private static int bits(Mode... modes) {
+			int bits = 0;
+			for (Mode mode : modes) {
+				bits |= 1 << mode.ordinal();
+			}
+			return bits;
+		}
+
+		/**
+		 * Checks whether two modes may be granted together.
+		 *
+		 * @param other
+		 *            the other mode
+		 * @return true, if the modes are compatible
+		 */
+		boolean isCompatibleWith(Mode other) {
+			return (COMPATIBLE[ordinal()] & (1 << other.ordinal())) != 0;
+		}
+	}
+
+	private static final Mode[] MODES = Mode.values();
+
+	/**
+	 * A queued request.
+	 */
+	private static final class Request {
+
+		private final Mode mode;
+
+		/** Whether the request was granted, guarded by the monitor. */
+		private boolean granted = false;
+
+		/**
+		 * Instantiates a new {@link Request}.
+		 *
+		 * @param mode
+		 *            the requested mode
+		 */
+		Request(Mode mode) {
+			this.mode = mode;
+		}
+	}
+
+	private final ReentrantLock monitor = new ReentrantLock();
+	private final Condition grantedCondition = monitor.newCondition();
+
+	/** The number of threads holding the lock in each mode. */
+	private final int[] granted = new int[MODES.length];
+
+	/** The requests waiting for the lock, in arrival order. */
+	private final Queue<Request> waiting = new ArrayDeque<>();
+
+	/**
+	 * Checks whether a mode is compatible with all the granted modes.
+	 *
+	 * @param mode
+	 *            the mode
+	 * @return true, if no thread holds an incompatible mode
+	 */
+	private boolean isGrantable(Mode mode) {
+		for (Mode other : MODES) {
+			if (granted[other.ordinal()] > 0 && !mode.isCompatibleWith(other)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the lock, waiting until the mode is compatible with the modes
+	 * granted and all the requests before it are granted.
+	 *
+	 * @param mode
+	 *            the mode
+	 */
+	void lock(Mode mode) {
+		monitor.lock();
+		try {
+			if (waiting.isEmpty() && isGrantable(mode)) {
+				granted[mode.ordinal()]++;
+				return;
+			}
+
+			Request request = new Request(mode);
+			waiting.add(request);
+			while (!request.granted) {
+				grantedCondition.awaitUninterruptibly();
+			}
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Releases the lock, and grants the waiting requests at the head of the
+	 * queue which became compatible.
+	 *
+	 * @param mode
+	 *            the mode in which it was taken
+	 */
+	void unlock(Mode mode) {
+		monitor.lock();
+		try {
+			granted[mode.ordinal()]--;
+
+			boolean grantedAny = false;
+			for (Request head = waiting.peek(); head != null && isGrantable(head.mode); head = waiting.peek()) {
+				waiting.remove();
+				head.granted = true;
+				granted[head.mode.ordinal()]++;
+				grantedAny = true;
+			}
+			if (grantedAny) {
+				grantedCondition.signalAll();
+			}
+		} finally {
+			monitor.unlock();
+		}
+	}
+}
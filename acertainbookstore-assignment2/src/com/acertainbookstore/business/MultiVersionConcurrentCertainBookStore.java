@@ -0,0 +1,903 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link MultiVersionConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities using
+ * multi-version concurrency control.
+ *
+ * Every book is a chain of immutable versions, newest first, each stamped with
+ * the timestamp of the write that installed it. Writers lock the books they
+ * modify (in ascending ISBN order), and install all their new versions under
+ * one commit timestamp. Readers never lock: they read the current commit
+ * timestamp and see, for every book, the newest version that is not newer
+ * than it, so they get a consistent point-in-time snapshot of the whole
+ * catalog regardless of concurrent writers.
+ *
+ * Readers announce their snapshot timestamp, and versions which are older
+ * than the newest version visible to the oldest active snapshot are unlinked
+ * on the next write of the book, so that they can be garbage collected.
+ *
+ * The editor picks and the rating order are kept apart in indexes updated
+ * with every commit, which getEditorPicks and getTopRatedBooks read instead of
+ * scanning a snapshot. The indexes reflect the latest commit rather than a
+ * snapshot, and the lock of the editor picks is only taken by the writers
+ * changing a pick.
+ *
+ * getBooksInDemand only reads the chains which had a version with sale misses,
+ * as of its snapshot, and drops those which no snapshot can see in demand.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class MultiVersionConcurrentCertainBookStore implements ConcurrentCertainBookStore {
+
+	/** The snapshot timestamp of a reader slot which is not in use. */
+	private static final long IDLE = Long.MAX_VALUE;
+
+	/**
+	 * A version of a book.
+	 */
+	private static final class Version {
+
+		/** The book, null if the book was removed by this version. */
+		private final ImmutableStockBook book;
+
+		/** The commit timestamp of the version. */
+		private final long timestamp;
+
+		/** The previous version, null once it is no longer needed. */
+		private volatile Version previous;
+
+		private Version(ImmutableStockBook book, long timestamp, Version previous) {
+			this.book = book;
+			this.timestamp = timestamp;
+			this.previous = previous;
+		}
+	}
+
+	/**
+	 * The versions of the book with a given ISBN.
+	 */
+	private static final class VersionChain {
+
+		/** The lock held by writers of the book. */
+		private final Lock lock = new ReentrantLock();
+
+		/** The newest version, null until the book is first committed. */
+		private volatile Version head;
+
+		/**
+		 * Gets the book as of a snapshot.
+		 *
+		 * @param snapshot
+		 *            the snapshot timestamp
+		 * @return the book, or null if it did not exist
+		 */
+		private ImmutableStockBook bookAt(long snapshot) {
+			Version version = head;
+			while (version != null && version.timestamp > snapshot) {
+				version = version.previous;
+			}
+			return version == null ? null : version.book;
+		}
+
+		/**
+		 * Gets the newest version of the book, only to be used by writers.
+		 *
+		 * @return the book, or null if it does not exist
+		 */
+		private ImmutableStockBook latest() {
+			Version version = head;
+			return version == null ? null : version.book;
+		}
+
+		/**
+		 * Unlinks the versions which no snapshot newer than
+		 * <code>watermark</code> can see.
+		 *
+		 * @param watermark
+		 *            the oldest snapshot timestamp in use
+		 */
+		private void prune(long watermark) {
+			Version version = head;
+			while (version != null && version.timestamp > watermark) {
+				version = version.previous;
+			}
+			if (version != null) {
+				version.previous = null;
+			}
+		}
+	}
+
+	/**
+	 * The snapshot timestamp announced by a reader thread.
+	 */
+	private static final class ReaderSlot {
+
+		/** The snapshot timestamp in use, {@link #IDLE} if none. */
+		private volatile long snapshot = IDLE;
+	}
+
+	/** The mapping of books from ISBN to their versions. */
+	private final Map<Integer, VersionChain> bookMap = new ConcurrentHashMap<>();
+
+	/** The timestamp of the last commit. */
+	private volatile long lastCommitTimestamp = 0;
+
+	/** The lock serializing the installation of the versions of a commit. */
+	private final Lock commitLock = new ReentrantLock();
+
+	/** The lock serializing addBooks, removeBooks and removeAllBooks. */
+	private final Lock catalogLock = new ReentrantLock();
+
+	/** The editor picks of the latest commit. */
+	private final EditorPickIndex<ImmutableBook> editorPickIndex = new EditorPickIndex<>();
+
+	/**
+	 * The lock of {@link #editorPickIndex}. Writers take it under the commit
+	 * lock, so that the index ends in the same state as the books.
+	 */
+	private final ReadWriteLock editorPickLock = new ReentrantReadWriteLock();
+
+	/** The books of the latest commit ordered by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/**
+	 * The chains which had a version with sale misses, by ISBN. Commits only
+	 * add chains, which are dropped by getBooksInDemand once no snapshot can
+	 * see them in demand anymore.
+	 */
+	private final Map<Integer, VersionChain> inDemandChains = new ConcurrentHashMap<>();
+
+	/** The reader slots of all the threads which have read from the store. */
+	private final List<ReaderSlot> readerSlots = new CopyOnWriteArrayList<>();
+
+	/** The reader slot of the current thread. */
+	private final ThreadLocal<ReaderSlot> readerSlot = ThreadLocal.withInitial(() -> {
+		ReaderSlot slot = new ReaderSlot();
+		readerSlots.add(slot);
+		return slot;
+	});
+
+	/** The removed books which may still be visible to some snapshot. */
+	private final List<Map.Entry<Integer, VersionChain>> removedChains = new ArrayList<>();
+
+	/**
+	 * Instantiates a new {@link MultiVersionConcurrentCertainBookStore}.
+	 */
+	public MultiVersionConcurrentCertainBookStore() {
+		// Nothing to initialize.
+	}
+
+	/**
+	 * Starts a snapshot and announces it, so that the versions it needs are
+	 * kept. Must be followed by {@link #endSnapshot()}.
+	 *
+	 * @return the snapshot timestamp
+	 */
+	private long beginSnapshot() {
+		ReaderSlot slot = readerSlot.get();
+		long snapshot;
+
+		// A writer computing the watermark before the announcement could not
+		// see it, so retry until no commit happened in between.
+		do {
+			snapshot = lastCommitTimestamp;
+			slot.snapshot = snapshot;
+		} while (lastCommitTimestamp != snapshot);
+
+		return snapshot;
+	}
+
+	/**
+	 * Ends the snapshot of the current thread.
+	 */
+	private void endSnapshot() {
+		readerSlot.get().snapshot = IDLE;
+	}
+
+	/**
+	 * Computes the oldest snapshot timestamp which is or may come in use. Must
+	 * be called with the commit lock held.
+	 *
+	 * @return the watermark
+	 */
+	private long watermark() {
+		long watermark = lastCommitTimestamp;
+		for (ReaderSlot slot : readerSlots) {
+			watermark = Math.min(watermark, slot.snapshot);
+		}
+		return watermark;
+	}
+
+	/**
+	 * Installs new versions of books under one commit timestamp. The chains
+	 * must be locked by the caller.
+	 *
+	 * @param chains
+	 *            the chains
+	 * @param books
+	 *            the new versions, null to remove a book
+	 * @return the commit timestamp
+	 */
+	private long commit(List<VersionChain> chains, List<ImmutableStockBook> books) {
+		commitLock.lock();
+		try {
+			long timestamp = lastCommitTimestamp + 1;
+			long watermark = watermark();
+
+			for (int i = 0; i < chains.size(); i++) {
+				VersionChain chain = chains.get(i);
+				updateIndexes(chain, books.get(i));
+				chain.head = new Version(books.get(i), timestamp, chain.head);
+				chain.prune(watermark);
+			}
+
+			// Publishing the timestamp makes all the versions visible at once.
+			lastCommitTimestamp = timestamp;
+			return timestamp;
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Updates the indexes with a new version of a book. Must be called with
+	 * the commit lock held.
+	 *
+	 * @param chain
+	 *            the chain of the book, not yet updated
+	 * @param newBook
+	 *            the new version, null if the book is removed
+	 */
+	private void updateIndexes(VersionChain chain, ImmutableStockBook newBook) {
+		ImmutableStockBook oldBook = chain.latest();
+		if (newBook != null && newBook.getNumSaleMisses() > 0) {
+			inDemandChains.put(newBook.getISBN(), chain);
+		}
+
+		if (oldBook == null) {
+			topRatedIndex.add(toBook(newBook), newBook.getAverageRating());
+		} else if (newBook == null) {
+			topRatedIndex.remove(oldBook.getISBN(), oldBook.getAverageRating());
+		} else {
+			topRatedIndex.update(oldBook.getISBN(), oldBook.getAverageRating(), newBook.getAverageRating());
+		}
+
+		boolean oldEditorPick = oldBook != null && oldBook.isEditorPick();
+		boolean newEditorPick = newBook != null && newBook.isEditorPick();
+		if (oldEditorPick != newEditorPick) {
+			editorPickLock.writeLock().lock();
+			try {
+				if (newEditorPick) {
+					editorPickIndex.add(newBook.getISBN(), toBook(newBook));
+				} else {
+					editorPickIndex.remove(oldBook.getISBN());
+				}
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Looks up and locks the chains of the given ISBNs in ascending ISBN order.
+	 * All of them must denote books in stock, otherwise nothing is left locked.
+	 *
+	 * @param isbns
+	 *            the ISBNs, in the order of the returned chains
+	 * @return the locked chains
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or not in stock
+	 */
+	private List<VersionChain> lockChains(List<Integer> isbns) throws BookStoreException {
+		for (Integer ISBN : isbns) {
+			if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+			}
+		}
+
+		Integer[] sortedIsbns = isbns.toArray(new Integer[0]);
+		Arrays.sort(sortedIsbns);
+
+		Map<Integer, VersionChain> locked = new HashMap<>();
+		try {
+			for (Integer ISBN : sortedIsbns) {
+				VersionChain chain = bookMap.get(ISBN);
+				if (chain == null) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+
+				chain.lock.lock();
+				locked.put(ISBN, chain);
+				if (chain.latest() == null) { // Check if the book is in stock
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+		} catch (BookStoreException ex) {
+			unlockChains(locked.values());
+			throw ex;
+		}
+
+		List<VersionChain> chains = new ArrayList<>();
+		for (Integer ISBN : isbns) {
+			chains.add(locked.get(ISBN));
+		}
+		return chains;
+	}
+
+	private static void unlockChains(Iterable<VersionChain> chains) {
+		for (VersionChain chain : chains) {
+			chain.lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops the chains of removed books once no snapshot can see them anymore.
+	 * Must be called with the catalog lock held.
+	 */
+	private void sweepRemovedChains() {
+		if (removedChains.isEmpty()) {
+			return;
+		}
+
+		long watermark;
+		commitLock.lock();
+		try {
+			watermark = watermark();
+		} finally {
+			commitLock.unlock();
+		}
+
+		removedChains.removeIf(entry -> {
+			VersionChain chain = entry.getValue();
+			Version head = chain.head;
+			if (head != null && head.book != null) {
+				return true; // The book was added again.
+			}
+			if (head != null && head.timestamp <= watermark) {
+				bookMap.remove(entry.getKey(), chain);
+				return true;
+			}
+			return false;
+		});
+	}
+
+	private static ImmutableStockBook withStock(ImmutableStockBook book, int numCopies, long numSaleMisses) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(), numCopies,
+				numSaleMisses, book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick());
+	}
+
+	private static ImmutableStockBook withRating(ImmutableStockBook book, int rating) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated() + 1,
+				book.getTotalRating() + rating, book.isEditorPick());
+	}
+
+	private static ImmutableBook toBook(ImmutableStockBook book) {
+		return new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice());
+	}
+
+	private static ImmutableStockBook withEditorPick(ImmutableStockBook book, boolean editorPick) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(),
+				editorPick);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		VersionChain chain = bookMap.get(isbn);
+		if (chain != null && chain.latest() != null) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			List<VersionChain> chains = new ArrayList<>();
+			List<ImmutableStockBook> books = new ArrayList<>();
+			for (StockBook book : bookSet) {
+				// Chains of removed books are reused, new chains are invisible
+				// to readers until the commit.
+				VersionChain chain = bookMap.computeIfAbsent(book.getISBN(), isbn -> new VersionChain());
+				chain.lock.lock();
+				chains.add(chain);
+				books.add(new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+						book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(),
+						book.isEditorPick()));
+			}
+
+			try {
+				commit(chains, books);
+			} finally {
+				unlockChains(chains);
+			}
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Integer> isbns = new ArrayList<>();
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+			isbns.add(bookCopy.getISBN());
+		}
+
+		List<VersionChain> chains = lockChains(isbns);
+		try {
+			// Update the number of copies, which resets the sale misses
+			List<ImmutableStockBook> books = new ArrayList<>();
+			int i = 0;
+			for (BookCopy bookCopy : bookCopiesSet) {
+				ImmutableStockBook book = chains.get(i++).latest();
+				books.add(withStock(book, book.getNumCopies() + bookCopy.getNumCopies(), 0));
+			}
+
+			commit(chains, books);
+		} finally {
+			unlockChains(chains);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		long snapshot = beginSnapshot();
+		try {
+			List<StockBook> books = new ArrayList<>();
+			for (VersionChain chain : bookMap.values()) {
+				ImmutableStockBook book = chain.bookAt(snapshot);
+				if (book != null) {
+					books.add(book);
+				}
+			}
+			return books;
+		} finally {
+			endSnapshot();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Integer> isbns = new ArrayList<>();
+		for (BookEditorPick editorPickArg : editorPicks) {
+			isbns.add(editorPickArg.getISBN());
+		}
+
+		List<VersionChain> chains = lockChains(isbns);
+		try {
+			List<ImmutableStockBook> books = new ArrayList<>();
+			int i = 0;
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books.add(withEditorPick(chains.get(i++).latest(), editorPickArg.isEditorPick()));
+			}
+
+			commit(chains, books);
+		} finally {
+			unlockChains(chains);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Integer> isbns = new ArrayList<>();
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			validate(bookCopyToBuy);
+			isbns.add(bookCopyToBuy.getISBN());
+		}
+
+		List<VersionChain> chains = lockChains(isbns);
+		try {
+			List<VersionChain> missedChains = new ArrayList<>();
+			List<ImmutableStockBook> missedBooks = new ArrayList<>();
+			List<ImmutableStockBook> boughtBooks = new ArrayList<>();
+
+			int i = 0;
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				VersionChain chain = chains.get(i++);
+				ImmutableStockBook book = chain.latest();
+				int numCopies = bookCopyToBuy.getNumCopies();
+
+				if (book.getNumCopies() < numCopies) {
+					// If we cannot sell the copies of the book, it is a miss.
+					missedChains.add(chain);
+					missedBooks.add(withStock(book, book.getNumCopies(),
+							book.getNumSaleMisses() + numCopies - book.getNumCopies()));
+				} else {
+					boughtBooks.add(withStock(book, book.getNumCopies() - numCopies, book.getNumSaleMisses()));
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!missedChains.isEmpty()) {
+				commit(missedChains, missedBooks);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			commit(chains, boughtBooks);
+		} finally {
+			unlockChains(chains);
+		}
+	}
+
+	/**
+	 * Gets the books with the given ISBNs from one snapshot.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the books
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or not in stock
+	 */
+	private List<ImmutableStockBook> getSnapshotBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long snapshot = beginSnapshot();
+		try {
+			List<ImmutableStockBook> books = new ArrayList<>();
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				VersionChain chain = bookMap.get(ISBN);
+				ImmutableStockBook book = chain == null ? null : chain.bookAt(snapshot);
+				if (book == null) {// Check if the book is in stock
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+				books.add(book);
+			}
+			return books;
+		} finally {
+			endSnapshot();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		return new ArrayList<>(getSnapshotBooks(isbnSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		List<Book> books = new ArrayList<>();
+		for (ImmutableStockBook book : getSnapshotBooks(isbnSet)) {
+			books.add(toBook(book));
+		}
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Sample the index instead of scanning a snapshot.
+		editorPickLock.readLock().lock();
+		try {
+			return new ArrayList<>(editorPickIndex.sample(numBooks));
+		} finally {
+			editorPickLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		} else if (numBooks > topRatedIndex.size()) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		// Read the index instead of sorting a snapshot.
+		List<Book> topRatedBooks = topRatedIndex.top(numBooks);
+
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < numBooks) {
+			throw new BookStoreException("Not enough books in the store to get top " + numBooks + " rated books.");
+		}
+
+		return topRatedBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		long snapshot = beginSnapshot();
+		try {
+			long watermark;
+			commitLock.lock();
+			try {
+				watermark = watermark();
+			} finally {
+				commitLock.unlock();
+			}
+
+			List<StockBook> booksInDemand = new ArrayList<>();
+			for (Map.Entry<Integer, VersionChain> entry : inDemandChains.entrySet()) {
+				VersionChain chain = entry.getValue();
+				ImmutableStockBook book = chain.bookAt(snapshot);
+				if (book != null && book.getNumSaleMisses() > 0) {
+					booksInDemand.add(book);
+				} else {
+					pruneInDemandChain(entry.getKey(), chain, watermark);
+				}
+			}
+			return booksInDemand;
+		} finally {
+			endSnapshot();
+		}
+	}
+
+	/**
+	 * Drops a chain from the books in demand if its newest version has no
+	 * sale misses and every snapshot in use sees that version. A chain being
+	 * written is skipped, and left for a later call.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @param chain
+	 *            the chain
+	 * @param watermark
+	 *            the oldest snapshot timestamp in use
+	 */
+	private void pruneInDemandChain(int isbn, VersionChain chain, long watermark) {
+		if (!chain.lock.tryLock()) {
+			return;
+		}
+
+		try {
+			Version head = chain.head;
+			if (head.timestamp <= watermark && (head.book == null || head.book.getNumSaleMisses() == 0)) {
+				inDemandChains.remove(isbn, chain);
+			}
+		} finally {
+			chain.lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Integer> isbns = new ArrayList<>();
+		for (BookRating ratingToValidate : bookRating) {
+			validate(ratingToValidate);
+			isbns.add(ratingToValidate.getISBN());
+		}
+
+		List<VersionChain> chains = lockChains(isbns);
+		try {
+			List<ImmutableStockBook> books = new ArrayList<>();
+			int i = 0;
+			for (BookRating ratingToAdd : bookRating) {
+				books.add(withRating(chains.get(i++).latest(), ratingToAdd.getRating()));
+			}
+
+			commit(chains, books);
+		} finally {
+			unlockChains(chains);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		catalogLock.lock();
+		try {
+			List<Integer> isbns = new ArrayList<>();
+			for (Map.Entry<Integer, VersionChain> entry : bookMap.entrySet()) {
+				if (entry.getValue().latest() != null) {
+					isbns.add(entry.getKey());
+				}
+			}
+
+			removeChains(isbns);
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock();
+		try {
+			removeChains(new ArrayList<>(isbnSet));
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the books with the given ISBNs by committing versions marking
+	 * them removed. Must be called with the catalog lock held.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or not in stock
+	 */
+	private void removeChains(List<Integer> isbns) throws BookStoreException {
+		List<VersionChain> chains = lockChains(isbns);
+		try {
+			List<ImmutableStockBook> removed = new ArrayList<>();
+			for (int i = 0; i < chains.size(); i++) {
+				removed.add(null);
+				removedChains.add(Map.entry(isbns.get(i), chains.get(i)));
+			}
+
+			commit(chains, removed);
+		} finally {
+			unlockChains(chains);
+		}
+
+		sweepRemovedChains();
+	}
+}
@@ -0,0 +1,477 @@
+package com.acertainbookstore.business;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * {@link OffHeapBookTable} stores books outside of the Java heap, so that a
+ * catalog of millions of books costs the garbage collector a few dozen objects
+ * instead of several objects per book.
+ *
+ * Every attribute is a column in a direct buffer, indexed by the slot of the
+ * book. The ISBN column doubles as the occupancy marker (0 is never a valid
+ * ISBN), and free slots are chained through the copies column. Titles and
+ * authors are UTF-8 encoded in an append-only arena of direct chunks, which is
+ * compacted once more than half of it is garbage. ISBNs are mapped to slots by
+ * an open-addressing hash index with linear probing, also in a direct buffer. The
+ * slots of the books with sale misses are kept in a small on-heap bit set.
+ *
+ * The table is not thread-safe.
+ */
+final class OffHeapBookTable {
+
+	/** The ISBN of a free slot. */
+	private static final int FREE = 0;
+
+	/** The end of the free slot chain. */
+	private static final int NO_SLOT = -1;
+
+	/** The initial number of slots. */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** The size of a string arena chunk. */
+	private static final int CHUNK_SIZE = 1 << 24;
+
+	/** The bytes per index entry: the ISBN and the slot. */
+	private static final int INDEX_ENTRY_BYTES = 8;
+
+	// The columns, cf. the accessors for their types.
+	private ByteBuffer isbns;
+	private ByteBuffer prices;
+	private ByteBuffer numCopies;
+	private ByteBuffer numSaleMisses;
+	private ByteBuffer numTimesRated;
+	private ByteBuffer totalRatings;
+	private ByteBuffer editorPicks;
+	private ByteBuffer titles;
+	private ByteBuffer authors;
+
+	/** The number of slots of the columns. */
+	private int capacity;
+
+	/** The slots below are used or free, the slots above never used. */
+	private int highWaterMark;
+
+	/** The first free slot below the high-water mark. */
+	private int firstFreeSlot = NO_SLOT;
+
+	/** The number of books. */
+	private int size;
+
+	/** The slots of the books with sale misses. */
+	private final BitSet inDemandSlots = new BitSet();
+
+	/** The index entries, an ISBN of 0 marking an empty entry. */
+	private ByteBuffer index;
+
+	/** The number of index entries, a power of two. */
+	private int indexCapacity;
+
+	/** The string arena chunks. */
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+
+	/** The bytes of the arena used by removed books. */
+	private long garbageBytes;
+
+	/** The bytes of the arena in use, including garbage. */
+	private long arenaBytes;
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapBookTable}.
+	 */
+	OffHeapBookTable() {
+		clear();
+	}
+
+	/**
+	 * Removes all the books and releases the memory.
+	 */
+	void clear() {
+		capacity = INITIAL_CAPACITY;
+		isbns = allocate(capacity * Integer.BYTES);
+		prices = allocate(capacity * Float.BYTES);
+		numCopies = allocate(capacity * Integer.BYTES);
+		numSaleMisses = allocate(capacity * Long.BYTES);
+		numTimesRated = allocate(capacity * Long.BYTES);
+		totalRatings = allocate(capacity * Long.BYTES);
+		editorPicks = allocate(capacity);
+		titles = allocate(capacity * Long.BYTES);
+		authors = allocate(capacity * Long.BYTES);
+		highWaterMark = 0;
+		firstFreeSlot = NO_SLOT;
+		size = 0;
+		inDemandSlots.clear();
+
+		indexCapacity = 2 * INITIAL_CAPACITY;
+		index = allocate(indexCapacity * INDEX_ENTRY_BYTES);
+
+		chunks.clear();
+		garbageBytes = 0;
+		arenaBytes = 0;
+	}
+
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	private static ByteBuffer grow(ByteBuffer column, int bytes) {
+		ByteBuffer grown = allocate(bytes);
+		grown.put(column.duplicate().clear());
+		return grown.clear();
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the upper bound of the used slots, for iterating over the books
+	 * together with {@link #isUsed(int)}.
+	 *
+	 * @return the high-water mark
+	 */
+	int slotLimit() {
+		return highWaterMark;
+	}
+
+	/**
+	 * Checks whether a slot below {@link #slotLimit()} holds a book.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return true, if the slot holds a book
+	 */
+	boolean isUsed(int slot) {
+		return getIsbn(slot) != FREE;
+	}
+
+	/*
+	 * The ISBN index.
+	 */
+
+	private int indexPosition(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (indexCapacity - 1);
+	}
+
+	/**
+	 * Finds the slot of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot, or -1 if the book is not in the table
+	 */
+	int slotOf(int isbn) {
+		for (int i = indexPosition(isbn);; i = (i + 1) & (indexCapacity - 1)) {
+			int key = index.getInt(i * INDEX_ENTRY_BYTES);
+			if (key == isbn) {
+				return index.getInt(i * INDEX_ENTRY_BYTES + Integer.BYTES);
+			}
+			if (key == FREE) {
+				return NO_SLOT;
+			}
+		}
+	}
+
+	private void indexPut(int isbn, int slot) {
+		int i = indexPosition(isbn);
+		while (index.getInt(i * INDEX_ENTRY_BYTES) != FREE) {
+			i = (i + 1) & (indexCapacity - 1);
+		}
+		index.putInt(i * INDEX_ENTRY_BYTES, isbn);
+		index.putInt(i * INDEX_ENTRY_BYTES + Integer.BYTES, slot);
+	}
+
+	private void indexRemove(int isbn) {
+		int i = indexPosition(isbn);
+		while (index.getInt(i * INDEX_ENTRY_BYTES) != isbn) {
+			i = (i + 1) & (indexCapacity - 1);
+		}
+
+		// Shift the following entries of the cluster back instead of leaving
+		// a tombstone, so that lookups stay short.
+		for (int j = (i + 1) & (indexCapacity - 1);; j = (j + 1) & (indexCapacity - 1)) {
+			int key = index.getInt(j * INDEX_ENTRY_BYTES);
+			if (key == FREE) {
+				break;
+			}
+
+			int home = indexPosition(key);
+			if (((j - home) & (indexCapacity - 1)) >= ((j - i) & (indexCapacity - 1))) {
+				index.putLong(i * INDEX_ENTRY_BYTES, index.getLong(j * INDEX_ENTRY_BYTES));
+				i = j;
+			}
+		}
+		index.putLong(i * INDEX_ENTRY_BYTES, 0L);
+	}
+
+	private void growIndex() {
+		ByteBuffer oldIndex = index;
+		int oldCapacity = indexCapacity;
+
+		indexCapacity *= 2;
+		index = allocate(indexCapacity * INDEX_ENTRY_BYTES);
+		for (int i = 0; i < oldCapacity; i++) {
+			int key = oldIndex.getInt(i * INDEX_ENTRY_BYTES);
+			if (key != FREE) {
+				indexPut(key, oldIndex.getInt(i * INDEX_ENTRY_BYTES + Integer.BYTES));
+			}
+		}
+	}
+
+	/*
+	 * The string arena.
+	 */
+
+	/**
+	 * Appends a string to the arena.
+	 *
+	 * @param string
+	 *            the string
+	 * @return the reference to the string: the chunk in the upper and the
+	 *         offset in the lower 32 bits
+	 */
+	private long putString(String string) {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		int length = Integer.BYTES + bytes.length;
+
+		ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+		if (chunk == null || chunk.remaining() < length) {
+			chunk = allocate(Math.max(CHUNK_SIZE, length));
+			chunks.add(chunk);
+		}
+
+		long reference = ((long) (chunks.size() - 1) << 32) | chunk.position();
+		chunk.putInt(bytes.length);
+		chunk.put(bytes);
+		arenaBytes += length;
+		return reference;
+	}
+
+	private String getString(long reference) {
+		ByteBuffer chunk = chunks.get((int) (reference >>> 32));
+		int offset = (int) reference;
+		byte[] bytes = new byte[chunk.getInt(offset)];
+		chunk.get(offset + Integer.BYTES, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int stringBytes(long reference) {
+		return Integer.BYTES + chunks.get((int) (reference >>> 32)).getInt((int) reference);
+	}
+
+	/**
+	 * Rewrites the strings of the books into a new arena, dropping the ones
+	 * of removed books.
+	 */
+	private void compactArena() {
+		List<String> liveTitles = new ArrayList<>();
+		List<String> liveAuthors = new ArrayList<>();
+		for (int slot = 0; slot < highWaterMark; slot++) {
+			if (isUsed(slot)) {
+				liveTitles.add(getTitle(slot));
+				liveAuthors.add(getAuthor(slot));
+			}
+		}
+
+		chunks.clear();
+		garbageBytes = 0;
+		arenaBytes = 0;
+
+		int i = 0;
+		for (int slot = 0; slot < highWaterMark; slot++) {
+			if (isUsed(slot)) {
+				titles.putLong(slot * Long.BYTES, putString(liveTitles.get(i)));
+				authors.putLong(slot * Long.BYTES, putString(liveAuthors.get(i++)));
+			}
+		}
+	}
+
+	/*
+	 * Inserting and removing books.
+	 */
+
+	/**
+	 * Inserts a book which is not in the table.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the slot of the book
+	 */
+	int insert(StockBook book) {
+		int slot;
+		if (firstFreeSlot != NO_SLOT) {
+			slot = firstFreeSlot;
+			firstFreeSlot = getNumCopies(slot);
+		} else {
+			if (highWaterMark == capacity) {
+				growColumns();
+			}
+			slot = highWaterMark++;
+		}
+
+		if (2 * (size + 1) > indexCapacity) {
+			growIndex();
+		}
+
+		isbns.putInt(slot * Integer.BYTES, book.getISBN());
+		prices.putFloat(slot * Float.BYTES, book.getPrice());
+		setNumCopies(slot, book.getNumCopies());
+		setNumSaleMisses(slot, book.getNumSaleMisses());
+		setNumTimesRated(slot, book.getNumTimesRated());
+		setTotalRating(slot, book.getTotalRating());
+		setEditorPick(slot, book.isEditorPick());
+		titles.putLong(slot * Long.BYTES, putString(book.getTitle()));
+		authors.putLong(slot * Long.BYTES, putString(book.getAuthor()));
+
+		indexPut(book.getISBN(), slot);
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Removes the book in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	void remove(int slot) {
+		indexRemove(getIsbn(slot));
+		garbageBytes += stringBytes(titles.getLong(slot * Long.BYTES))
+				+ stringBytes(authors.getLong(slot * Long.BYTES));
+
+		isbns.putInt(slot * Integer.BYTES, FREE);
+		inDemandSlots.clear(slot);
+		setNumCopies(slot, firstFreeSlot);
+		firstFreeSlot = slot;
+		size--;
+
+		if (2 * garbageBytes > arenaBytes && arenaBytes > CHUNK_SIZE) {
+			compactArena();
+		}
+	}
+
+	private void growColumns() {
+		capacity *= 2;
+		isbns = grow(isbns, capacity * Integer.BYTES);
+		prices = grow(prices, capacity * Float.BYTES);
+		numCopies = grow(numCopies, capacity * Integer.BYTES);
+		numSaleMisses = grow(numSaleMisses, capacity * Long.BYTES);
+		numTimesRated = grow(numTimesRated, capacity * Long.BYTES);
+		totalRatings = grow(totalRatings, capacity * Long.BYTES);
+		editorPicks = grow(editorPicks, capacity);
+		titles = grow(titles, capacity * Long.BYTES);
+		authors = grow(authors, capacity * Long.BYTES);
+	}
+
+	/*
+	 * The columns.
+	 */
+
+	int getIsbn(int slot) {
+		return isbns.getInt(slot * Integer.BYTES);
+	}
+
+	String getTitle(int slot) {
+		return getString(titles.getLong(slot * Long.BYTES));
+	}
+
+	String getAuthor(int slot) {
+		return getString(authors.getLong(slot * Long.BYTES));
+	}
+
+	float getPrice(int slot) {
+		return prices.getFloat(slot * Float.BYTES);
+	}
+
+	int getNumCopies(int slot) {
+		return numCopies.getInt(slot * Integer.BYTES);
+	}
+
+	void setNumCopies(int slot, int copies) {
+		numCopies.putInt(slot * Integer.BYTES, copies);
+	}
+
+	long getNumSaleMisses(int slot) {
+		return numSaleMisses.getLong(slot * Long.BYTES);
+	}
+
+	void setNumSaleMisses(int slot, long saleMisses) {
+		numSaleMisses.putLong(slot * Long.BYTES, saleMisses);
+		inDemandSlots.set(slot, saleMisses > 0);
+	}
+
+	/**
+	 * Gets the first slot of a book with sale misses from a slot on.
+	 *
+	 * @param fromSlot
+	 *            the first slot to check
+	 * @return the slot, or -1 if there is none
+	 */
+	int nextInDemandSlot(int fromSlot) {
+		return inDemandSlots.nextSetBit(fromSlot);
+	}
+
+	long getNumTimesRated(int slot) {
+		return numTimesRated.getLong(slot * Long.BYTES);
+	}
+
+	void setNumTimesRated(int slot, long timesRated) {
+		numTimesRated.putLong(slot * Long.BYTES, timesRated);
+	}
+
+	long getTotalRating(int slot) {
+		return totalRatings.getLong(slot * Long.BYTES);
+	}
+
+	void setTotalRating(int slot, long totalRating) {
+		totalRatings.putLong(slot * Long.BYTES, totalRating);
+	}
+
+	float getAverageRating(int slot) {
+		long timesRated = getNumTimesRated(slot);
+		return timesRated == 0 ? -1.0f : (float) getTotalRating(slot) / timesRated;
+	}
+
+	boolean isEditorPick(int slot) {
+		return editorPicks.get(slot) != 0;
+	}
+
+	void setEditorPick(int slot, boolean editorPick) {
+		editorPicks.put(slot, (byte) (editorPick ? 1 : 0));
+	}
+
+	/**
+	 * Copies the book in a slot onto the heap.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the book
+	 */
+	ImmutableStockBook toStockBook(int slot) {
+		return new ImmutableStockBook(getIsbn(slot), getTitle(slot), getAuthor(slot), getPrice(slot),
+				getNumCopies(slot), getNumSaleMisses(slot), getNumTimesRated(slot), getTotalRating(slot),
+				isEditorPick(slot));
+	}
+
+	/**
+	 * Copies the customer-visible attributes of the book in a slot onto the
+	 * heap.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the book
+	 */
+	ImmutableBook toBook(int slot) {
+		return new ImmutableBook(getIsbn(slot), getTitle(slot), getAuthor(slot), getPrice(slot));
+	}
+}
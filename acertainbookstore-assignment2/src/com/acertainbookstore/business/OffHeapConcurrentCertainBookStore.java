@@ -0,0 +1,487 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link OffHeapConcurrentCertainBookStore} implements the {@link BookStore}
+ * and {@link StockManager} functionalities on an {@link OffHeapBookTable}, so
+ * that the catalog does not live on the Java heap. Books are only copied onto
+ * the heap when they are returned. Like
+ * {@link SingleLockConcurrentCertainBookStore}, it is protected by a single
+ * read/write lock.
+ *
+ * The editor picks are kept in an {@link EditorPickIndex} of slots on the
+ * heap, so that getEditorPicks does not scan the table.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class OffHeapConcurrentCertainBookStore implements ConcurrentCertainBookStore {
+
+	/** The books. */
+	private final OffHeapBookTable table = new OffHeapBookTable();
+
+	/**
+	 * The slots of the editor picks of {@link #table}, which do not move while
+	 * the book is in the table.
+	 */
+	private final EditorPickIndex<Integer> editorPickIndex = new EditorPickIndex<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Instantiates a new {@link OffHeapConcurrentCertainBookStore}.
+	 */
+	public OffHeapConcurrentCertainBookStore() {
+		// Nothing to initialize.
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (table.slotOf(isbn) >= 0) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private int validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		int slot = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	private int validate(BookRating bookRating) throws BookStoreException {
+		int rating = bookRating.getRating();
+
+		int slot = validateISBNInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Validates an ISBN and finds the slot of the book.
+	 *
+	 * @param ISBN
+	 *            the ISBN
+	 * @return the slot of the book
+	 * @throws BookStoreException
+	 *             if the ISBN is invalid or not in stock
+	 */
+	private int validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		int slot = table.slotOf(ISBN);
+		if (slot < 0) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return slot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				editorPickIndex.update(book.getISBN(), table.insert(book), book.isEditorPick());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies, which resets the sale misses
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int slot = table.slotOf(bookCopy.getISBN());
+				table.setNumCopies(slot, table.getNumCopies(slot) + bookCopy.getNumCopies());
+				table.setNumSaleMisses(slot, 0);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.readLock().lock();
+		try {
+			List<StockBook> books = new ArrayList<>(table.size());
+			for (int slot = 0; slot < table.slotLimit(); slot++) {
+				if (table.isUsed(slot)) {
+					books.add(table.toStockBook(slot));
+				}
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				int slot = table.slotOf(editorPickArg.getISBN());
+				table.setEditorPick(slot, editorPickArg.isEditorPick());
+				editorPickIndex.update(editorPickArg.getISBN(), slot, editorPickArg.isEditorPick());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = validate(bookCopyToBuy);
+
+				if (table.getNumCopies(slot) < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(slot, bookCopyToBuy.getNumCopies() - table.getNumCopies(slot));
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					int slot = saleMissEntry.getKey();
+					table.setNumSaleMisses(slot, table.getNumSaleMisses(slot) + saleMissEntry.getValue());
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = table.slotOf(bookCopyToBuy.getISBN());
+				table.setNumCopies(slot, table.getNumCopies(slot) - bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<StockBook> books = new ArrayList<>();
+			for (Integer ISBN : isbnSet) {
+				books.add(table.toStockBook(table.slotOf(ISBN)));
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<Book> books = new ArrayList<>();
+			for (Integer ISBN : isbnSet) {
+				books.add(table.toBook(table.slotOf(ISBN)));
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+		try {
+			// Sample the index instead of scanning the table.
+			List<Book> editorPicks = new ArrayList<>();
+			for (int slot : editorPickIndex.sample(numBooks)) {
+				editorPicks.add(table.toBook(slot));
+			}
+			return editorPicks;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+		try {
+			if (numBooks > table.size()) {
+				throw new BookStoreException(
+						"numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+			}
+
+			// A rating index would hold every book on the heap, so select from
+			// the rating columns instead, keeping the numBooks best rated slots
+			// in a bounded heap, O(n log k).
+			Comparator<Integer> order = Comparator.<Integer> comparingDouble(slot -> -table.getAverageRating(slot))
+					.thenComparingInt(slot -> table.getIsbn(slot));
+			PriorityQueue<Integer> best = new PriorityQueue<>(order.reversed());
+			for (int slot = 0; slot < table.slotLimit(); slot++) {
+				if (table.isUsed(slot)) {
+					best.add(slot);
+					if (best.size() > numBooks) {
+						best.poll();
+					}
+				}
+			}
+
+			List<Integer> topRated = new ArrayList<>(best);
+			topRated.sort(order);
+			List<Book> books = new ArrayList<>();
+			for (int slot : topRated) {
+				books.add(table.toBook(slot));
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			List<StockBook> booksInDemand = new ArrayList<>();
+			for (int slot = table.nextInDemandSlot(0); slot >= 0; slot = table.nextInDemandSlot(slot + 1)) {
+				booksInDemand.add(table.toStockBook(slot));
+			}
+			return booksInDemand;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (BookRating ratingToValidate : bookRating) {
+				validate(ratingToValidate);
+			}
+
+			for (BookRating ratingToAdd : bookRating) {
+				int slot = table.slotOf(ratingToAdd.getISBN());
+				table.setNumTimesRated(slot, table.getNumTimesRated(slot) + 1);
+				table.setTotalRating(slot, table.getTotalRating(slot) + ratingToAdd.getRating());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.writeLock().lock();
+		try {
+			table.clear();
+			editorPickIndex.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (Integer ISBN : isbnSet) {
+				table.remove(table.slotOf(ISBN));
+				editorPickIndex.remove(ISBN);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
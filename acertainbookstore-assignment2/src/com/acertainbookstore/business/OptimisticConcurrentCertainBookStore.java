@@ -0,0 +1,822 @@
+package com.acertainbookstore.business;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+
+/**
+ * {@link OptimisticConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities using optimistic
+ * (validate-at-commit) concurrency control.
+ *
+ * Transactions read the books without locks, remembering the version stamp of
+ * every book they read. At commit, the books written are locked by a
+ * compare-and-set of their version from the one read, and the books only read
+ * are checked to still have the version read. If any book changed in the
+ * meantime, nothing is applied and the transaction is retried, so no
+ * transaction ever waits for a lock held by another. Catalog mutations are
+ * serialized among themselves by a lock that the customers never take.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see BookStoreBook#tryLockVersion(long)
+ */
+public class OptimisticConcurrentCertainBookStore implements ConcurrentCertainBookStore {
+
+	/** The number of retries spinning before yielding the processor. */
+	private static final int MAX_SPIN_RETRIES = 8;
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final ConcurrentIntObjectHashMap<BookStoreBook> bookMap = new ConcurrentIntObjectHashMap<>();
+
+	/** The editor picks of {@link #bookMap}. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/**
+	 * The lock of {@link #editorPickIndex}. Writers take it while holding the
+	 * books they update, so that the index ends in the same state as the
+	 * books.
+	 */
+	private final ReadWriteLock editorPickLock = new ReentrantReadWriteLock();
+
+	/**
+	 * The books of {@link #bookMap} ordered by average rating, updated while
+	 * the book is locked.
+	 */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/**
+	 * The books of {@link #bookMap} with sale misses, by ISBN, updated while
+	 * the book is locked.
+	 */
+	private final ConcurrentIntObjectHashMap<BookStoreBook> inDemandBooks = new ConcurrentIntObjectHashMap<>();
+
+	/** The lock serializing addBooks, removeBooks and removeAllBooks. */
+	private final Lock catalogLock = new ReentrantLock();
+
+	/** The number of transactions started. */
+	private final LongAdder numTransactions = new LongAdder();
+
+	/** The number of attempts aborted because validation failed. */
+	private final LongAdder numAborts = new LongAdder();
+
+	/** The number of transactions which were retried at least once. */
+	private final LongAdder numRetriedTransactions = new LongAdder();
+
+	/**
+	 * One attempt at running a transaction.
+	 */
+	@FunctionalInterface
+	private interface Transaction {
+
+		/**
+		 * Runs the transaction once.
+		 *
+		 * @return true, if the transaction committed, false if it must be retried
+		 * @throws BookStoreException
+		 *             if the transaction fails
+		 */
+		boolean tryCommit() throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link OptimisticConcurrentCertainBookStore}.
+	 */
+	public OptimisticConcurrentCertainBookStore() {
+		// Nothing to initialize.
+	}
+
+	/**
+	 * Gets the number of transactions started.
+	 *
+	 * @return the number of transactions
+	 */
+	public long getNumTransactions() {
+		return numTransactions.sum();
+	}
+
+	/**
+	 * Gets the number of attempts aborted because a book was changed by a
+	 * concurrent transaction.
+	 *
+	 * @return the number of aborts
+	 */
+	public long getNumAborts() {
+		return numAborts.sum();
+	}
+
+	/**
+	 * Gets the number of transactions which were retried at least once.
+	 *
+	 * @return the number of retried transactions
+	 */
+	public long getNumRetriedTransactions() {
+		return numRetriedTransactions.sum();
+	}
+
+	/**
+	 * Runs <code>transaction</code> until it commits or fails.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @throws BookStoreException
+	 *             if the transaction fails
+	 */
+	private void runOptimistically(Transaction transaction) throws BookStoreException {
+		numTransactions.increment();
+
+		int retries = 0;
+		while (!transaction.tryCommit()) {
+			numAborts.increment();
+			if (retries++ == 0) {
+				numRetriedTransactions.increment();
+			}
+
+			if (retries < MAX_SPIN_RETRIES) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Locks the books written by a transaction and validates the books it only
+	 * read. Either all written books are locked and all versions are unchanged,
+	 * or nothing is left locked.
+	 *
+	 * @param books
+	 *            the books read by the transaction
+	 * @param versions
+	 *            the versions read
+	 * @param writes
+	 *            which of the books are written, null if all are
+	 * @return true, if the transaction may apply its writes
+	 */
+	private static boolean lockAndValidate(List<BookStoreBook> books, long[] versions, boolean[] writes) {
+		int numLocked = 0;
+		boolean valid = true;
+
+		for (; numLocked < books.size(); numLocked++) {
+			if ((writes == null || writes[numLocked]) && !books.get(numLocked).tryLockVersion(versions[numLocked])) {
+				valid = false;
+				break;
+			}
+		}
+
+		if (valid && writes != null) {
+			// Make sure that the reads are not reordered after the validation.
+			VarHandle.acquireFence();
+			for (int i = 0; i < books.size(); i++) {
+				if (!writes[i] && books.get(i).getVersion() != versions[i]) {
+					valid = false;
+					break;
+				}
+			}
+		}
+
+		if (!valid) {
+			for (int i = 0; i < numLocked; i++) {
+				if (writes == null || writes[i]) {
+					books.get(i).unlockVersion(false);
+				}
+			}
+		}
+
+		return valid;
+	}
+
+	/**
+	 * Unlocks the books written by a committed transaction.
+	 *
+	 * @param books
+	 *            the books read by the transaction
+	 * @param writes
+	 *            which of the books are written, null if all are
+	 */
+	private static void unlockWrites(List<BookStoreBook> books, boolean[] writes) {
+		for (int i = 0; i < books.size(); i++) {
+			if (writes == null || writes[i]) {
+				books.get(i).unlockVersion(true);
+			}
+		}
+	}
+
+	/**
+	 * Checks that none of the books read by a read-only transaction changed.
+	 *
+	 * @param books
+	 *            the books read
+	 * @param versions
+	 *            the versions read
+	 * @return true, if the reads are consistent
+	 */
+	private static boolean validateReads(List<BookStoreBook> books, long[] versions) {
+		VarHandle.acquireFence();
+		for (int i = 0; i < books.size(); i++) {
+			if (books.get(i).getVersion() != versions[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a consistent copy of a single book without locking it.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the copy, or null if the book was removed
+	 */
+	private StockBook snapshot(BookStoreBook book) {
+		while (true) {
+			long version = book.getVersion();
+
+			if (BookStoreBook.isLocked(version)) {
+				// Removed books stay locked, do not wait for them.
+				if (bookMap.get(book.getISBN()) != book) {
+					return null;
+				}
+				Thread.onSpinWait();
+				continue;
+			}
+
+			StockBook copy = book.immutableStockBook();
+			VarHandle.acquireFence();
+			if (book.getVersion() == version) {
+				return copy;
+			}
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		BookStoreBook book = getBookInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int rating = bookRating.getRating();
+
+		BookStoreBook book = getBookInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private BookStoreBook getBookInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			// The new books are published locked, so that no transaction can
+			// see some of them but not the others.
+			List<BookStoreBook> newBooks = new ArrayList<>();
+			for (StockBook book : bookSet) {
+				BookStoreBook newBook = new BookStoreBook(book);
+				newBook.tryLockVersion(newBook.getVersion());
+				newBooks.add(newBook);
+				bookMap.put(book.getISBN(), newBook);
+			}
+
+			editorPickLock.writeLock().lock();
+			try {
+				for (BookStoreBook newBook : newBooks) {
+					editorPickIndex.update(newBook.getISBN(), newBook, newBook.isEditorPick());
+					topRatedIndex.add(newBook.immutableBook(), newBook.getAverageRating());
+					if (newBook.hadSaleMiss()) {
+						inDemandBooks.put(newBook.getISBN(), newBook);
+					}
+				}
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+
+			unlockWrites(newBooks, null);
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		runOptimistically(() -> {
+			List<BookStoreBook> books = new ArrayList<>();
+			long[] versions = new long[bookCopiesSet.size()];
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = validate(bookCopy);
+				versions[books.size()] = book.getVersion();
+				books.add(book);
+			}
+
+			if (!lockAndValidate(books, versions, null)) {
+				return false;
+			}
+
+			// Update the number of copies, which resets the sale misses
+			int i = 0;
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books.get(i++).addCopies(bookCopy.getNumCopies());
+				inDemandBooks.remove(bookCopy.getISBN());
+			}
+
+			unlockWrites(books, null);
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		List<StockBook> books = new ArrayList<>();
+
+		for (BookStoreBook book : bookMap.values()) {
+			StockBook copy = snapshot(book);
+			if (copy != null) {
+				books.add(copy);
+			}
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		runOptimistically(() -> {
+			List<BookStoreBook> books = new ArrayList<>();
+			long[] versions = new long[editorPicks.size()];
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = getBookInStock(editorPickArg.getISBN());
+				versions[books.size()] = book.getVersion();
+				books.add(book);
+			}
+
+			if (!lockAndValidate(books, versions, null)) {
+				return false;
+			}
+
+			editorPickLock.writeLock().lock();
+			try {
+				int i = 0;
+				for (BookEditorPick editorPickArg : editorPicks) {
+					BookStoreBook book = books.get(i++);
+					book.setEditorPick(editorPickArg.isEditorPick());
+					editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+				}
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+
+			unlockWrites(books, null);
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		runOptimistically(() -> {
+			List<BookStoreBook> books = new ArrayList<>();
+			long[] versions = new long[bookCopiesToBuy.size()];
+			boolean[] misses = new boolean[bookCopiesToBuy.size()];
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			// Check that all ISBNs that we buy are there first.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				BookStoreBook book = validate(bookCopyToBuy);
+				long version = book.getVersion();
+
+				if (BookStoreBook.isLocked(version)) {
+					return false;
+				}
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					misses[books.size()] = true;
+				}
+
+				versions[books.size()] = version;
+				books.add(book);
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand; only the
+			// missed books are written, but all of them must be unchanged.
+			if (!salesMisses.isEmpty()) {
+				if (!lockAndValidate(books, versions, misses)) {
+					return false;
+				}
+
+				for (int i = 0; i < books.size(); i++) {
+					if (misses[i]) {
+						BookStoreBook book = books.get(i);
+						book.addSaleMiss(salesMisses.get(book.getISBN()));
+						inDemandBooks.put(book.getISBN(), book);
+					}
+				}
+
+				unlockWrites(books, misses);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			if (!lockAndValidate(books, versions, null)) {
+				return false;
+			}
+
+			// Then make the purchase.
+			int i = 0;
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				books.get(i++).buyCopies(bookCopyToBuy.getNumCopies());
+			}
+
+			unlockWrites(books, null);
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<StockBook> result = new ArrayList<>();
+		runOptimistically(() -> {
+			List<BookStoreBook> books = new ArrayList<>();
+			long[] versions = new long[isbnSet.size()];
+			result.clear();
+
+			for (Integer ISBN : isbnSet) {
+				BookStoreBook book = getBookInStock(ISBN);
+				long version = book.getVersion();
+
+				if (BookStoreBook.isLocked(version)) {
+					return false;
+				}
+
+				versions[books.size()] = version;
+				books.add(book);
+				result.add(book.immutableStockBook());
+			}
+
+			return validateReads(books, versions);
+		});
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Only the immutable parts of the books are returned, so the books
+		// merely have to be in stock.
+		List<Book> result = new ArrayList<>();
+		for (Integer ISBN : isbnSet) {
+			result.add(getBookInStock(ISBN).immutableBook());
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Sample the index instead of scanning the catalog. The sampled
+		// attributes are immutable, so the books need not be validated.
+		List<BookStoreBook> picks;
+		editorPickLock.readLock().lock();
+		try {
+			picks = editorPickIndex.sample(numBooks);
+		} finally {
+			editorPickLock.readLock().unlock();
+		}
+
+		return picks.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		} else if (numBooks > topRatedIndex.size()) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		// Read the index without locking, so that the buyers are not blocked.
+		List<Book> topRatedBooks = topRatedIndex.top(numBooks);
+
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < numBooks) {
+			throw new BookStoreException("Not enough books in the store to get top " + numBooks + " rated books.");
+		}
+
+		return topRatedBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// Only the books with sale misses are read, and validated like in
+		// getBooksByISBN. A book may have been replenished since, so check
+		// again.
+		List<StockBook> result = new ArrayList<>();
+		runOptimistically(() -> {
+			List<BookStoreBook> candidates = inDemandBooks.values();
+			List<BookStoreBook> books = new ArrayList<>();
+			long[] versions = new long[candidates.size()];
+			result.clear();
+
+			for (BookStoreBook book : candidates) {
+				long version = book.getVersion();
+
+				if (BookStoreBook.isLocked(version)) {
+					// Removed books stay locked, do not wait for them.
+					if (bookMap.get(book.getISBN()) != book) {
+						continue;
+					}
+					return false;
+				}
+
+				versions[books.size()] = version;
+				books.add(book);
+				StockBook copy = book.immutableStockBook();
+				if (copy.getNumSaleMisses() > 0) {
+					result.add(copy);
+				}
+			}
+
+			return validateReads(books, versions);
+		});
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		runOptimistically(() -> {
+			List<BookStoreBook> books = new ArrayList<>();
+			long[] versions = new long[bookRating.size()];
+
+			for (BookRating ratingToValidate : bookRating) {
+				BookStoreBook book = validate(ratingToValidate);
+				versions[books.size()] = book.getVersion();
+				books.add(book);
+			}
+
+			if (!lockAndValidate(books, versions, null)) {
+				return false;
+			}
+
+			// The index entry of a book only moves while the book is locked.
+			int i = 0;
+			for (BookRating ratingToAdd : bookRating) {
+				BookStoreBook book = books.get(i++);
+				float averageRating = book.getAverageRating();
+				book.addRating(ratingToAdd.getRating());
+				topRatedIndex.update(book.getISBN(), averageRating, book.getAverageRating());
+			}
+
+			unlockWrites(books, null);
+			return true;
+		});
+	}
+
+	/**
+	 * Locks a book which is about to be removed. The book is never unlocked, so
+	 * that transactions which still hold a reference to it cannot commit.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private static void lockForRemoval(BookStoreBook book) {
+		while (!book.tryLockVersion(book.getVersion())) {
+			Thread.onSpinWait();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		catalogLock.lock();
+		try {
+			for (BookStoreBook book : bookMap.values()) {
+				lockForRemoval(book);
+			}
+			bookMap.clear();
+
+			editorPickLock.writeLock().lock();
+			try {
+				editorPickIndex.clear();
+				topRatedIndex.clear();
+				inDemandBooks.clear();
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				lockForRemoval(bookMap.get(isbn));
+			}
+
+			editorPickLock.writeLock().lock();
+			try {
+				for (int isbn : isbnSet) {
+					topRatedIndex.remove(isbn, bookMap.remove(isbn).getAverageRating());
+					editorPickIndex.remove(isbn);
+					inDemandBooks.remove(isbn);
+				}
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+}
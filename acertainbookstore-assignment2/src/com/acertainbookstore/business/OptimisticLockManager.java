@@ -0,0 +1,104 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OptimisticLockManager} is the {@link LockManager} of the
+ * {@link LockManager#OPTIMISTIC} policy: a single {@link StampedLock}, taken
+ * in write mode by the writing sections, while the reading sections first run
+ * optimistically, without writing to the lock, and validate their stamp
+ * afterwards. A reading section which raced with a writer, whether it
+ * returned or threw, is run again under the read lock.
+ */
+final class OptimisticLockManager implements LockManager {
+
+	private final StampedLock lock = new StampedLock();
+
+	/** The number of optimistic reads which failed to validate. */
+	private final LongAdder numRetries = new LongAdder();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#readBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return readCatalog(section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#writeBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return writeCatalog(section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#readCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readCatalog(Section<T> section) throws BookStoreException {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				T result = section.run();
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			} catch (BookStoreException | RuntimeException ex) {
+				// A torn read may throw anything, so only trust validated failures.
+				if (lock.validate(stamp)) {
+					throw ex;
+				}
+			}
+			numRetries.increment();
+		}
+
+		stamp = lock.readLock();
+		try {
+			return section.run();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#writeCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeCatalog(Section<T> section) throws BookStoreException {
+		long stamp = lock.writeLock();
+		try {
+			return section.run();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#getNumRetries()
+	 */
+	@Override
+	public long getNumRetries() {
+		return numRetries.sum();
+	}
+}
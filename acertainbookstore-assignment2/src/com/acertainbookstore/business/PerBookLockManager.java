@@ -0,0 +1,358 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link PerBookLockManager} is the {@link LockManager} of the
+ * {@link LockManager#PER_BOOK} and {@link LockManager#NO_WAIT} policies: the
+ * two-level locking of {@link TwoLevelLockingConcurrentCertainBookStore},
+ * with a global lock taken in read mode as an intention lock by the sections
+ * on books and in write mode by the catalog changes, and a read-write lock
+ * per book.
+ *
+ * The book locks are taken in ascending ISBN order, so that two sections
+ * cannot deadlock. In no-wait mode a section never waits for a book lock:
+ * when one is taken, it gives up all its locks, global lock included, backs
+ * off and starts again.
+ *
+ * The {@link AdaptiveLockManager} may put it in single-lock mode, where the
+ * global lock is the only one: the sections writing books take it in write
+ * mode, like the {@link GlobalLockManager}, and the sections reading take it
+ * in read mode without any book lock. The mode only changes under the global
+ * write lock, so every section sees the same mode while it holds the global
+ * lock.
+ */
+final class PerBookLockManager implements LockManager {
+
+	/** The number of attempts after which a no-wait section parks instead of yielding. */
+	private static final int YIELDS_BEFORE_PARK = 8;
+
+	/** The maximum back-off of a no-wait section, in nanoseconds. */
+	private static final long MAX_BACK_OFF_NANOS = 100_000;
+
+	private static final BookLock[] NO_BOOK_LOCKS = new BookLock[0];
+
+	/**
+	 * The global lock. It only excludes the catalog changes, and the writers
+	 * in single-lock mode, so it does not need the reader bias of the
+	 * two-level locking implementation.
+	 */
+	private final ReadWriteLock globalLock = new ReentrantReadWriteLock();
+
+	/** The lock of every book, only changed under the global write lock. */
+	private final IntObjectHashMap<BookLock> bookLocks = new IntObjectHashMap<>();
+
+	/**
+	 * The locks of {@link #bookLocks} in ascending ISBN order, for the
+	 * sections reading the whole catalog, rebuilt after the catalog changes.
+	 */
+	private BookLock[] sortedBookLocks = NO_BOOK_LOCKS;
+
+	/** Whether {@link #sortedBookLocks} is out of date. */
+	private boolean catalogChanged = false;
+
+	/** Whether the sections give up their locks instead of waiting for a book lock. */
+	private final boolean noWait;
+
+	/** Whether the global lock is the only lock, only changed under the global write lock. */
+	private volatile boolean singleLock = false;
+
+	/** The number of times a no-wait section started again. */
+	private final LongAdder numRetries = new LongAdder();
+
+	/**
+	 * The lock of a book, which knows its ISBN so that the locks of the whole
+	 * catalog can be sorted.
+	 */
+	@SuppressWarnings("serial")
+	private static final class BookLock extends ReentrantReadWriteLock {
+
+		private final int isbn;
+
+		/**
+		 * Instantiates a new {@link BookLock}.
+		 *
+		 * @param isbn
+		 *            the ISBN of the book
+		 */
+		BookLock(int isbn) {
+			this.isbn = isbn;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link PerBookLockManager}.
+	 *
+	 * @param noWait
+	 *            whether the sections give up their locks instead of waiting
+	 *            for a book lock
+	 */
+	PerBookLockManager(boolean noWait) {
+		this.noWait = noWait;
+	}
+
+	/**
+	 * Switches between single-lock and per-book mode, once the sections in
+	 * flight have drained.
+	 *
+	 * @param singleLock
+	 *            whether the global lock becomes the only lock
+	 * @return the time the sections in flight took to drain, in nanoseconds
+	 */
+	long setSingleLock(boolean singleLock) {
+		long startNanos = System.nanoTime();
+		globalLock.writeLock().lock();
+		try {
+			long drainNanos = System.nanoTime() - startNanos;
+			this.singleLock = singleLock;
+			if (catalogChanged && !singleLock) {
+				sortBookLocks();
+			}
+			return drainNanos;
+		} finally {
+			globalLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#readBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return runWithBookLocks(isbns, false, section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#writeBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return runWithBookLocks(isbns, true, section);
+	}
+
+	/**
+	 * Runs a section under the global read lock and the locks of the given
+	 * books, or in single-lock mode under the global lock alone.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @param write
+	 *            whether the book locks are taken in write mode
+	 * @param section
+	 *            the section
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	private <T> T runWithBookLocks(int[] isbns, boolean write, Section<T> section) throws BookStoreException {
+		int[] sortedIsbns = BookStoreUtility.sortedDistinct(isbns);
+		List<Lock> locks = new ArrayList<>(sortedIsbns.length);
+
+		for (int attempt = 0;; attempt++) {
+			if (write && singleLock) {
+				// Isolated in both modes, should the mode change meanwhile.
+				return writeCatalog(section);
+			}
+
+			boolean bookLockTaken = false;
+			globalLock.readLock().lock();
+			try {
+				if (singleLock) {
+					if (!write) {
+						return section.run();
+					}
+					// Switched to single-lock mode meanwhile, so start again.
+				} else if (lockBooks(sortedIsbns, write, locks)) {
+					return section.run();
+				} else {
+					bookLockTaken = true;
+				}
+			} finally {
+				for (int i = locks.size() - 1; i >= 0; i--) {
+					locks.get(i).unlock();
+				}
+				locks.clear();
+				globalLock.readLock().unlock();
+			}
+
+			if (bookLockTaken) {
+				numRetries.increment();
+				backOff(attempt);
+			}
+		}
+	}
+
+	/**
+	 * Takes the locks of the given books in ascending ISBN order, skipping the
+	 * ISBNs which are not in the catalog.
+	 *
+	 * @param sortedIsbns
+	 *            the sorted, distinct ISBNs of the books
+	 * @param write
+	 *            whether the locks are taken in write mode
+	 * @param locks
+	 *            where the locks taken are added, to be released by the caller
+	 * @return true, unless a lock was taken by another section in no-wait mode
+	 */
+	private boolean lockBooks(int[] sortedIsbns, boolean write, List<Lock> locks) {
+		for (int isbn : sortedIsbns) {
+			BookLock bookLock = bookLocks.get(isbn);
+			if (bookLock == null) {
+				continue;
+			}
+
+			Lock lock = write ? bookLock.writeLock() : bookLock.readLock();
+			if (!noWait) {
+				lock.lock();
+			} else if (!lock.tryLock()) {
+				return false;
+			}
+			locks.add(lock);
+		}
+		return true;
+	}
+
+	/**
+	 * Backs off before a no-wait section starts again, by yielding at first
+	 * and then parking for a random time growing with the attempts.
+	 *
+	 * @param attempt
+	 *            the number of failed attempts so far, minus one
+	 */
+	private static void backOff(int attempt) {
+		if (attempt < YIELDS_BEFORE_PARK) {
+			Thread.yield();
+		} else {
+			long maxNanos = Math.min(MAX_BACK_OFF_NANOS, 1_000L << Math.min(attempt - YIELDS_BEFORE_PARK, 20));
+			LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxNanos) + 1);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#readCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readCatalog(Section<T> section) throws BookStoreException {
+		globalLock.readLock().lock();
+		try {
+			// Every book lock, in ascending ISBN order like the other sections,
+			// unless the global lock is the only one.
+			BookLock[] locks = singleLock ? NO_BOOK_LOCKS : sortedBookLocks;
+			int numLocked = 0;
+			try {
+				for (BookLock bookLock : locks) {
+					bookLock.readLock().lock();
+					numLocked++;
+				}
+				return section.run();
+			} finally {
+				for (int i = numLocked - 1; i >= 0; i--) {
+					locks[i].readLock().unlock();
+				}
+			}
+		} finally {
+			globalLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#writeCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeCatalog(Section<T> section) throws BookStoreException {
+		globalLock.writeLock().lock();
+		try {
+			return section.run();
+		} finally {
+			// Not needed until the per-book mode is back.
+			if (catalogChanged && !singleLock) {
+				sortBookLocks();
+			}
+			globalLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rebuilds {@link #sortedBookLocks} under the global write lock.
+	 */
+	private void sortBookLocks() {
+		BookLock[] locks = bookLocks.values().toArray(new BookLock[0]);
+		Arrays.sort(locks, (a, b) -> Integer.compare(a.isbn, b.isbn));
+		sortedBookLocks = locks;
+		catalogChanged = false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#bookAdded(int)
+	 */
+	@Override
+	public void bookAdded(int isbn) {
+		if (!bookLocks.containsKey(isbn)) {
+			bookLocks.put(isbn, new BookLock(isbn));
+			catalogChanged = true;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#bookRemoved(int)
+	 */
+	@Override
+	public void bookRemoved(int isbn) {
+		if (bookLocks.remove(isbn) != null) {
+			catalogChanged = true;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#allBooksRemoved()
+	 */
+	@Override
+	public void allBooksRemoved() {
+		bookLocks.clear();
+		catalogChanged = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#getNumRetries()
+	 */
+	@Override
+	public long getNumRetries() {
+		return numRetries.sum();
+	}
+}
@@ -0,0 +1,1139 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link ShardedCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities.
+ *
+ * The ISBN space is partitioned across a fixed number of shards, each owned
+ * by a dedicated thread which is the only one to read and write the books of
+ * the shard, so that they need no lock at all. The callers submit their
+ * operations to the shards through lock-free queues and wait for the
+ * outcome.
+ *
+ * An operation touching a single shard runs there at once. An operation
+ * touching several shards runs a two-phase protocol: it prepares its part on
+ * every shard, in ascending shard order, which validates and reads the books
+ * of the shard and locks them against the other operations until the second
+ * phase commits or releases them. Since the shards are prepared in the same
+ * order by every operation, two operations cannot wait for each other. The
+ * operations which find their books locked are deferred by the shard until
+ * the books are released, so the shard thread never blocks. Full-catalog
+ * operations lock whole shards.
+ *
+ * The top-rated index is shared by the shards and read without any shard,
+ * like in the other implementations, and editor picks are sampled from every
+ * shard without locking it. The shard threads are daemons, and
+ * {@link #close()} stops them.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class ShardedCertainBookStore implements ConcurrentCertainBookStore, Closeable {
+
+	/** The default number of shards, one per core. */
+	public static final int DEFAULT_NUM_SHARDS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The number of times a shard thread, or a caller waiting for a shard,
+	 * yields before parking, since a park and unpark cost more than a short
+	 * operation.
+	 */
+	private static final int YIELDS_BEFORE_PARK = 64;
+
+	/**
+	 * Validates and reads the part of an operation on a shard, without
+	 * modifying it.
+	 */
+	@FunctionalInterface
+	private interface Prepare {
+
+		/**
+		 * Prepares the part.
+		 *
+		 * @param shard
+		 *            the shard
+		 * @return the result of the part
+		 * @throws BookStoreException
+		 *             if the part is invalid, which aborts the operation
+		 */
+		Object prepare(Shard shard) throws BookStoreException;
+	}
+
+	/**
+	 * Applies the part of an operation on a shard once all the parts are
+	 * prepared.
+	 */
+	@FunctionalInterface
+	private interface Commit {
+
+		/**
+		 * Commits the part. It must not fail.
+		 *
+		 * @param shard
+		 *            the shard
+		 * @param prepared
+		 *            the result of the prepare phase on the shard
+		 * @param decision
+		 *            the decision taken from the results of all the parts
+		 */
+		void commit(Shard shard, Object prepared, Object decision);
+	}
+
+	/** The result of a {@link TaskKind#TRY_PREPARE} task finding its books locked. */
+	private static final Object BUSY = new Object();
+
+	/** A commit which does nothing but release the part. */
+	private static final Commit NO_COMMIT = (shard, prepared, decision) -> {
+		// Nothing to apply.
+	};
+
+	/**
+	 * {@link Part} is the part of an operation on one shard.
+	 */
+	private static final class Part {
+
+		/** The ISBNs of the shard the part touches, null for the whole shard. */
+		private final int[] isbns;
+
+		private final Prepare prepare;
+
+		private final Commit commit;
+
+		private Part(int[] isbns, Prepare prepare, Commit commit) {
+			this.isbns = isbns;
+			this.prepare = prepare;
+			this.commit = commit;
+		}
+
+		/**
+		 * Checks whether two parts touch a common book.
+		 *
+		 * @param other
+		 *            the other part
+		 * @return true, if they conflict
+		 */
+		private boolean conflictsWith(Part other) {
+			if (isbns == null || other.isbns == null) {
+				return true;
+			}
+			for (int isbn : isbns) {
+				for (int otherIsbn : other.isbns) {
+					if (isbn == otherIsbn) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	/** The kinds of the messages of the shards. */
+	private enum TaskKind {
+		/** Prepare and commit at once, for an operation on a single shard. */
+		RUN,
+		/** Prepare and lock the part, the first phase. */
+		PREPARE,
+		/**
+		 * Prepare and lock the part unless its books are locked, in which case
+		 * it completes with {@link ShardedCertainBookStore#BUSY} at once.
+		 */
+		TRY_PREPARE,
+		/** Commit or abort a prepared part and release it, the second phase. */
+		FINISH
+	}
+
+	/**
+	 * {@link Task} is a message to a shard.
+	 */
+	private static final class Task {
+		private final TaskKind kind;
+		private final Part part;
+
+		/** Takes the decision of a {@link TaskKind#RUN} task. */
+		private final Function<List<Object>, Object> decide;
+
+		/** Whether a {@link TaskKind#FINISH} task commits the part. */
+		private final boolean commit;
+		private final Object prepared;
+		private final Object decision;
+
+		private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+		private Task(TaskKind kind, Part part, Function<List<Object>, Object> decide, boolean commit,
+				Object prepared, Object decision) {
+			this.kind = kind;
+			this.part = part;
+			this.decide = decide;
+			this.commit = commit;
+			this.prepared = prepared;
+			this.decision = decision;
+		}
+	}
+
+	/**
+	 * {@link Shard} owns a partition of the books and the thread which
+	 * applies the tasks submitted to it.
+	 */
+	private final class Shard implements Runnable {
+
+		/** The mapping of the books of the shard from ISBN to {@link BookStoreBook}. */
+		private final IntObjectHashMap<BookStoreBook> books = new IntObjectHashMap<>();
+
+		/** The editor picks of {@link #books}. */
+		private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+		/** The books of {@link #books} with sale misses, by ISBN. */
+		private final IntObjectHashMap<BookStoreBook> inDemandBooks = new IntObjectHashMap<>();
+
+		/** The ISBNs locked by prepared parts, with their part. */
+		private final IntObjectHashMap<Part> lockedIsbns = new IntObjectHashMap<>();
+
+		/** The prepared part locking the whole shard, if any. */
+		private Part shardLockedBy = null;
+
+		/** The tasks waiting for locked books, in arrival order. */
+		private ArrayDeque<Task> deferredTasks = new ArrayDeque<>();
+
+		/** The tasks submitted to the shard. */
+		private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+
+		/** Whether the thread is about to park or parked on an empty queue. */
+		private volatile boolean waiting = false;
+
+		private final Thread thread;
+
+		private Shard(int index) {
+			thread = new Thread(this, "bookstore-shard-" + index);
+			thread.setDaemon(true);
+		}
+
+		/**
+		 * Submits a task to the shard.
+		 *
+		 * @param task
+		 *            the task
+		 */
+		private void submit(Task task) {
+			queue.offer(task);
+			if (waiting) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			int numYields = 0;
+			while (running) {
+				Task task = queue.poll();
+				if (task != null) {
+					dispatch(task);
+					numYields = 0;
+					continue;
+				} else if (numYields++ < YIELDS_BEFORE_PARK) {
+					Thread.yield();
+					continue;
+				}
+				numYields = 0;
+
+				// Announce the wait before checking the queue again, so that a
+				// submitter either sees it and unparks, or is seen.
+				waiting = true;
+				if (queue.isEmpty() && running) {
+					LockSupport.park(this);
+				}
+				waiting = false;
+			}
+		}
+
+		private void dispatch(Task task) {
+			if (task.kind == TaskKind.FINISH) {
+				try {
+					if (task.commit) {
+						task.part.commit.commit(this, task.prepared, task.decision);
+					}
+					task.result.complete(null);
+				} catch (RuntimeException ex) {
+					// Nobody waits for a commit, but the shard must survive it.
+					task.result.completeExceptionally(ex);
+				} finally {
+					unlock(task.part);
+				}
+				runDeferredTasks();
+			} else if (isBlocked(task.part, deferredTasks)) {
+				if (task.kind == TaskKind.TRY_PREPARE) {
+					task.result.complete(BUSY);
+				} else {
+					deferredTasks.add(task);
+				}
+			} else {
+				runTask(task);
+			}
+		}
+
+		private void runTask(Task task) {
+			try {
+				Object prepared = task.part.prepare.prepare(this);
+				if (task.kind != TaskKind.RUN) {
+					lock(task.part);
+				} else {
+					Object decision = task.decide == null ? null : task.decide.apply(List.of(prepared));
+					task.part.commit.commit(this, prepared, decision);
+				}
+				task.result.complete(prepared);
+			} catch (BookStoreException | RuntimeException ex) {
+				task.result.completeExceptionally(ex);
+			}
+		}
+
+		/**
+		 * Runs the deferred tasks which are no longer blocked, in arrival
+		 * order. A task stays blocked behind an earlier deferred task it
+		 * conflicts with, so that the tasks on the same books keep their
+		 * order and whole-shard tasks are not starved.
+		 */
+		private void runDeferredTasks() {
+			ArrayDeque<Task> stillDeferredTasks = new ArrayDeque<>();
+			for (Task task : deferredTasks) {
+				if (isBlocked(task.part, stillDeferredTasks)) {
+					stillDeferredTasks.add(task);
+				} else {
+					runTask(task);
+				}
+			}
+			deferredTasks = stillDeferredTasks;
+		}
+
+		private boolean isBlocked(Part part, Collection<Task> earlierTasks) {
+			if (shardLockedBy != null) {
+				return true;
+			}
+			if (part.isbns == null) {
+				if (!lockedIsbns.isEmpty()) {
+					return true;
+				}
+			} else {
+				for (int isbn : part.isbns) {
+					if (lockedIsbns.containsKey(isbn)) {
+						return true;
+					}
+				}
+			}
+			for (Task earlierTask : earlierTasks) {
+				if (part.conflictsWith(earlierTask.part)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void lock(Part part) {
+			if (part.isbns == null) {
+				shardLockedBy = part;
+			} else {
+				for (int isbn : part.isbns) {
+					lockedIsbns.put(isbn, part);
+				}
+			}
+		}
+
+		private void unlock(Part part) {
+			if (part.isbns == null) {
+				shardLockedBy = null;
+			} else {
+				for (int isbn : part.isbns) {
+					lockedIsbns.remove(isbn);
+				}
+			}
+		}
+
+		private void validateISBNInStock(int isbn) throws BookStoreException {
+			if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+			}
+			if (!books.containsKey(isbn)) { // Check if the book is in stock
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+			}
+		}
+
+		private void validate(BookCopy bookCopy) throws BookStoreException {
+			int numCopies = bookCopy.getNumCopies();
+
+			validateISBNInStock(bookCopy.getISBN()); // Check if the book has valid ISBN and in stock
+
+			if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+				throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+			}
+		}
+
+		private void remove(BookStoreBook book) {
+			topRatedIndex.remove(book.getISBN(), book.getAverageRating());
+			books.remove(book.getISBN());
+			editorPickIndex.remove(book.getISBN());
+			inDemandBooks.remove(book.getISBN());
+		}
+	}
+
+	/** The shards. */
+	private final Shard[] shards;
+
+	/** The books of all the shards ordered by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/** Whether the shard threads run, until {@link #close()}. */
+	private volatile boolean running = true;
+
+	/**
+	 * Instantiates a new {@link ShardedCertainBookStore} with
+	 * {@link #DEFAULT_NUM_SHARDS} shards.
+	 */
+	public ShardedCertainBookStore() {
+		this(DEFAULT_NUM_SHARDS);
+	}
+
+	/**
+	 * Instantiates a new {@link ShardedCertainBookStore} and starts the
+	 * threads of its shards.
+	 *
+	 * @param numShards
+	 *            the number of shards
+	 */
+	public ShardedCertainBookStore(int numShards) {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("numShards = " + numShards + ", but it must be positive");
+		}
+
+		shards = new Shard[numShards];
+		for (int i = 0; i < numShards; i++) {
+			shards[i] = new Shard(i);
+		}
+		for (Shard shard : shards) {
+			shard.thread.start();
+		}
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return shards.length;
+	}
+
+	/**
+	 * Maps an ISBN to its shard. The hash is spread so that consecutive ISBNs
+	 * do not all end up in the same shard.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the shard index
+	 */
+	private int shardOf(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return Math.floorMod(h ^ (h >>> 16), shards.length);
+	}
+
+	/**
+	 * Groups items by the shard of their ISBN.
+	 *
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the ISBN of an item
+	 * @return the items of every shard, null for the shards without any
+	 */
+	private <T> List<List<T>> groupByShard(Collection<T> items, ToIntFunction<T> isbnOf) {
+		List<List<T>> groups = new ArrayList<>(Collections.nCopies(shards.length, null));
+		for (T item : items) {
+			int shard = shardOf(isbnOf.applyAsInt(item));
+			if (groups.get(shard) == null) {
+				groups.set(shard, new ArrayList<>());
+			}
+			groups.get(shard).add(item);
+		}
+		return groups;
+	}
+
+	/**
+	 * Creates the parts of an operation on the items of every shard.
+	 *
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the ISBN of an item
+	 * @param newPart
+	 *            creates the part of a shard from its ISBNs and items
+	 * @return the parts, null for the shards without any item
+	 */
+	private <T> Part[] partsOf(Collection<T> items, ToIntFunction<T> isbnOf,
+			BiFunction<int[], List<T>, Part> newPart) {
+		List<List<T>> groups = groupByShard(items, isbnOf);
+		Part[] parts = new Part[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			List<T> group = groups.get(i);
+			if (group != null) {
+				parts[i] = newPart.apply(group.stream().mapToInt(isbnOf).toArray(), group);
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Creates the parts of an operation on every whole shard.
+	 *
+	 * @param prepare
+	 *            the prepare phase
+	 * @param commit
+	 *            the commit phase
+	 * @return the parts
+	 */
+	private Part[] wholeShardParts(Prepare prepare, Commit commit) {
+		Part[] parts = new Part[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			parts[i] = new Part(null, prepare, commit);
+		}
+		return parts;
+	}
+
+	/**
+	 * Executes an operation: at once on its shard if it touches a single one,
+	 * otherwise with the two-phase protocol.
+	 *
+	 * @param parts
+	 *            the parts of the operation, by shard, null for the shards it
+	 *            does not touch
+	 * @param decide
+	 *            takes the decision passed to the commits from the results of
+	 *            the prepare phase, null for none
+	 * @return the results of the prepare phase, in shard order
+	 * @throws BookStoreException
+	 *             if a part is invalid, in which case nothing is committed
+	 */
+	private List<Object> execute(Part[] parts, Function<List<Object>, Object> decide) throws BookStoreException {
+		int[] shardIndexes = new int[parts.length];
+		int numShards = 0;
+		for (int i = 0; i < parts.length; i++) {
+			if (parts[i] != null) {
+				shardIndexes[numShards++] = i;
+			}
+		}
+
+		if (numShards == 0) {
+			return List.of();
+		} else if (numShards == 1) {
+			Task task = new Task(TaskKind.RUN, parts[shardIndexes[0]], decide, false, null, null);
+			submit(shardIndexes[0], task);
+			return Collections.singletonList(await(task));
+		}
+
+		// Prepare all the shards at once, unless one of them has its books
+		// locked. Then prepare them again in ascending shard order, waiting
+		// for every shard before the next, so that two operations never wait
+		// for each other.
+		List<Object> prepared = prepare(parts, shardIndexes, numShards, false);
+		if (prepared == null) {
+			prepared = prepare(parts, shardIndexes, numShards, true);
+		}
+
+		// The later tasks on the same books are queued behind the commits, so
+		// there is no need to wait for them.
+		Object decision = decide == null ? null : decide.apply(prepared);
+		for (int k = 0; k < numShards; k++) {
+			submit(shardIndexes[k],
+					new Task(TaskKind.FINISH, parts[shardIndexes[k]], null, true, prepared.get(k), decision));
+		}
+		return prepared;
+	}
+
+	/**
+	 * Runs the prepare phase of an operation on several shards.
+	 *
+	 * @param parts
+	 *            the parts of the operation, by shard
+	 * @param shardIndexes
+	 *            the shards of the parts, in ascending order
+	 * @param numShards
+	 *            the number of shards
+	 * @param wait
+	 *            whether to wait for the locked books, one shard after the
+	 *            other, or to try all the shards at once
+	 * @return the results of the prepare phase, in shard order, or null if
+	 *         the books of a shard were locked, in which case no part is left
+	 *         prepared
+	 * @throws BookStoreException
+	 *             if a part is invalid, in which case no part is left prepared
+	 */
+	private List<Object> prepare(Part[] parts, int[] shardIndexes, int numShards, boolean wait)
+			throws BookStoreException {
+		Task[] tasks = new Task[numShards];
+		List<Object> prepared = new ArrayList<>(numShards);
+		Exception failure = null;
+		boolean busy = false;
+
+		for (int k = 0; k < numShards; k++) {
+			tasks[k] = new Task(wait ? TaskKind.PREPARE : TaskKind.TRY_PREPARE, parts[shardIndexes[k]], null,
+					false, null, null);
+			submit(shardIndexes[k], tasks[k]);
+			if (wait) {
+				try {
+					prepared.add(await(tasks[k]));
+				} catch (BookStoreException | RuntimeException ex) {
+					failure = ex;
+					break;
+				}
+			}
+		}
+		if (!wait) {
+			for (int k = 0; k < numShards; k++) {
+				try {
+					Object result = await(tasks[k]);
+					busy |= result == BUSY;
+					prepared.add(result);
+				} catch (BookStoreException | RuntimeException ex) {
+					// Keep the first failure, and release the parts prepared after it.
+					failure = failure == null ? ex : failure;
+					prepared.add(BUSY);
+				}
+			}
+		}
+
+		if (failure != null || busy) {
+			for (int k = 0; k < prepared.size(); k++) {
+				if (prepared.get(k) != BUSY) {
+					submit(shardIndexes[k], new Task(TaskKind.FINISH, parts[shardIndexes[k]], null, false, null, null));
+				}
+			}
+		}
+
+		if (failure instanceof BookStoreException) {
+			throw (BookStoreException) failure;
+		} else if (failure != null) {
+			throw (RuntimeException) failure;
+		}
+		return busy ? null : prepared;
+	}
+
+	private void submit(int shardIndex, Task task) throws BookStoreException {
+		if (!running) {
+			throw new BookStoreException("The book store is closed");
+		}
+		shards[shardIndex].submit(task);
+	}
+
+	/**
+	 * Waits for the outcome of a task, without being interruptible, since a
+	 * prepared part must always be finished.
+	 *
+	 * @param task
+	 *            the task
+	 * @return the result
+	 * @throws BookStoreException
+	 *             if the task failed
+	 */
+	private static Object await(Task task) throws BookStoreException {
+		for (int i = 0; i < YIELDS_BEFORE_PARK && !task.result.isDone(); i++) {
+			Thread.yield();
+		}
+
+		try {
+			return task.result.join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof BookStoreException) {
+				throw (BookStoreException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new BookStoreException(cause);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> concat(List<Object> lists) {
+		List<T> result = new ArrayList<>();
+		for (Object list : lists) {
+			result.addAll((List<T>) list);
+		}
+		return result;
+	}
+
+	/**
+	 * Orders the books read from the shards like the given ISBNs.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @param books
+	 *            the books, in shard order
+	 * @return the books
+	 */
+	private static <T extends Book> List<T> inOrderOf(Set<Integer> isbnSet, List<T> books) {
+		Map<Integer, T> booksByIsbn = new HashMap<>();
+		for (T book : books) {
+			booksByIsbn.put(book.getISBN(), book);
+		}
+
+		List<T> result = new ArrayList<>(isbnSet.size());
+		for (int isbn : isbnSet) {
+			result.add(booksByIsbn.get(isbn));
+		}
+		return result;
+	}
+
+	private static void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+	}
+
+	private static void validate(BookRating bookRating, Shard shard) throws BookStoreException {
+		int rating = bookRating.getRating();
+
+		shard.validateISBNInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(partsOf(bookSet, StockBook::getISBN, (isbns, books) -> new Part(isbns, shard -> {
+			// Check if all are there
+			for (StockBook book : books) {
+				validate(book);
+				if (shard.books.containsKey(book.getISBN())) { // Check if the book is not in stock
+					throw new BookStoreException(
+							BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+				}
+			}
+			return null;
+		}, (shard, prepared, decision) -> {
+			for (StockBook book : books) {
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				shard.books.put(book.getISBN(), bookStoreBook);
+				shard.editorPickIndex.update(book.getISBN(), bookStoreBook, book.isEditorPick());
+				topRatedIndex.add(bookStoreBook.immutableBook(), bookStoreBook.getAverageRating());
+				if (bookStoreBook.hadSaleMiss()) {
+					shard.inDemandBooks.put(book.getISBN(), bookStoreBook);
+				}
+			}
+		})), null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(partsOf(bookCopiesSet, BookCopy::getISBN, (isbns, bookCopies) -> new Part(isbns, shard -> {
+			for (BookCopy bookCopy : bookCopies) {
+				shard.validate(bookCopy);
+			}
+			return null;
+		}, (shard, prepared, decision) -> {
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopies) {
+				shard.books.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+
+				// Adding copies resets the sale misses.
+				shard.inDemandBooks.remove(bookCopy.getISBN());
+			}
+		})), null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return concat(execute(wholeShardParts(shard -> {
+			List<StockBook> books = new ArrayList<>(shard.books.size());
+			for (BookStoreBook book : shard.books.values()) {
+				books.add(book.immutableStockBook());
+			}
+			return books;
+		}, NO_COMMIT), null));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(partsOf(editorPicks, BookEditorPick::getISBN, (isbns, picks) -> new Part(isbns, shard -> {
+			for (BookEditorPick editorPickArg : picks) {
+				shard.validateISBNInStock(editorPickArg.getISBN());
+			}
+			return null;
+		}, (shard, prepared, decision) -> {
+			for (BookEditorPick editorPickArg : picks) {
+				BookStoreBook book = shard.books.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				shard.editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+			}
+		})), null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@SuppressWarnings("unchecked")
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Every shard reports its sale misses, and the books are only bought
+		// if there are none on any shard.
+		Function<List<Object>, Object> anySaleMiss = prepared -> prepared.stream()
+				.anyMatch(salesMisses -> !((Map<Integer, Integer>) salesMisses).isEmpty());
+
+		List<Object> prepared = execute(partsOf(bookCopiesToBuy, BookCopy::getISBN,
+				(isbns, bookCopies) -> new Part(isbns, shard -> {
+					Map<Integer, Integer> salesMisses = new HashMap<>();
+					for (BookCopy bookCopyToBuy : bookCopies) {
+						shard.validate(bookCopyToBuy);
+
+						BookStoreBook book = shard.books.get(bookCopyToBuy.getISBN());
+						if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+							// If we cannot sell the copies of the book, it is a miss.
+							salesMisses.put(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+						}
+					}
+					return salesMisses;
+				}, (shard, salesMisses, saleMiss) -> {
+					if ((Boolean) saleMiss) {
+						for (Map.Entry<Integer, Integer> saleMissEntry : ((Map<Integer, Integer>) salesMisses)
+								.entrySet()) {
+							BookStoreBook book = shard.books.get(saleMissEntry.getKey());
+							book.addSaleMiss(saleMissEntry.getValue());
+							shard.inDemandBooks.put(saleMissEntry.getKey(), book);
+						}
+					} else {
+						for (BookCopy bookCopyToBuy : bookCopies) {
+							shard.books.get(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+						}
+					}
+				})), anySaleMiss);
+
+		if ((Boolean) anySaleMiss.apply(prepared)) {
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<StockBook> books = concat(execute(partsOf(isbnSet, isbn -> isbn, (isbns, group) -> new Part(isbns, shard -> {
+			List<StockBook> shardBooks = new ArrayList<>(isbns.length);
+			for (int isbn : isbns) {
+				shard.validateISBNInStock(isbn);
+				shardBooks.add(shard.books.get(isbn).immutableStockBook());
+			}
+			return shardBooks;
+		}, NO_COMMIT)), null));
+		return inOrderOf(isbnSet, books);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Book> books = concat(execute(partsOf(isbnSet, isbn -> isbn, (isbns, group) -> new Part(isbns, shard -> {
+			List<Book> shardBooks = new ArrayList<>(isbns.length);
+			for (int isbn : isbns) {
+				shard.validateISBNInStock(isbn);
+				shardBooks.add(shard.books.get(isbn).immutableBook());
+			}
+			return shardBooks;
+		}, NO_COMMIT)), null));
+		return inOrderOf(isbnSet, books);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Every shard samples up to numBooks of its picks and counts them,
+		// without locking any book since the sampled attributes are immutable.
+		Part part = new Part(new int[0], shard -> {
+			List<Book> picks = new ArrayList<>();
+			for (BookStoreBook pick : shard.editorPickIndex.sample(numBooks)) {
+				picks.add(pick.immutableBook());
+			}
+			return Map.entry(shard.editorPickIndex.size(), picks);
+		}, NO_COMMIT);
+
+		Task[] tasks = new Task[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			tasks[i] = new Task(TaskKind.RUN, part, null, false, null, null);
+			submit(i, tasks[i]);
+		}
+		int[] numPicks = new int[shards.length];
+		List<List<Book>> samples = new ArrayList<>(shards.length);
+		int totalNumPicks = 0;
+		for (int i = 0; i < shards.length; i++) {
+			Map.Entry<Integer, List<Book>> sample = (Map.Entry<Integer, List<Book>>) await(tasks[i]);
+			numPicks[i] = sample.getKey();
+			samples.add(sample.getValue());
+			totalNumPicks += numPicks[i];
+		}
+
+		if (totalNumPicks <= numBooks) {
+			List<Book> picks = new ArrayList<>(totalNumPicks);
+			samples.forEach(picks::addAll);
+			return picks;
+		}
+
+		// Draw numBooks distinct positions among all the picks, then take as
+		// many picks from the uniform sample of every shard as positions fall
+		// in its range, so that every subset of picks is equally likely.
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int[] numDrawn = new int[shards.length];
+		Set<Integer> positions = new HashSet<>();
+		for (int bound = totalNumPicks - numBooks; bound < totalNumPicks; bound++) {
+			int position = random.nextInt(bound + 1);
+			if (!positions.add(position)) {
+				positions.add(bound);
+				position = bound;
+			}
+			int shard = 0;
+			while (position >= numPicks[shard]) {
+				position -= numPicks[shard++];
+			}
+			numDrawn[shard]++;
+		}
+
+		List<Book> picks = new ArrayList<>(numBooks);
+		for (int i = 0; i < shards.length; i++) {
+			List<Book> sample = samples.get(i);
+			Collections.shuffle(sample, random);
+			picks.addAll(sample.subList(0, numDrawn[i]));
+		}
+		return picks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		} else if (numBooks > topRatedIndex.size()) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		// Read the index without going through the shards.
+		List<Book> topRatedBooks = topRatedIndex.top(numBooks);
+
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < numBooks) {
+			throw new BookStoreException("Not enough books in the store to get top " + numBooks + " rated books.");
+		}
+
+		return topRatedBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return concat(execute(wholeShardParts(shard -> {
+			List<StockBook> books = new ArrayList<>();
+			for (BookStoreBook book : shard.inDemandBooks.values()) {
+				books.add(book.immutableStockBook());
+			}
+			return books;
+		}, NO_COMMIT), null));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(partsOf(bookRating, BookRating::getISBN, (isbns, ratings) -> new Part(isbns, shard -> {
+			for (BookRating ratingToValidate : ratings) {
+				validate(ratingToValidate, shard);
+			}
+			return null;
+		}, (shard, prepared, decision) -> {
+			for (BookRating ratingToAdd : ratings) {
+				BookStoreBook book = shard.books.get(ratingToAdd.getISBN());
+				float averageRating = book.getAverageRating();
+				book.addRating(ratingToAdd.getRating());
+				topRatedIndex.update(book.getISBN(), averageRating, book.getAverageRating());
+			}
+		})), null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		execute(wholeShardParts(shard -> null, (shard, prepared, decision) -> {
+			for (BookStoreBook book : new ArrayList<>(shard.books.values())) {
+				shard.remove(book);
+			}
+		}), null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(partsOf(isbnSet, isbn -> isbn, (isbns, group) -> new Part(isbns, shard -> {
+			for (int isbn : isbns) {
+				shard.validateISBNInStock(isbn);
+			}
+			return null;
+		}, (shard, prepared, decision) -> {
+			for (int isbn : isbns) {
+				shard.remove(shard.books.get(isbn));
+			}
+		})), null);
+	}
+
+	/**
+	 * Stops the threads of the shards. The book store must not be used
+	 * afterwards.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		for (Shard shard : shards) {
+			LockSupport.unpark(shard.thread);
+		}
+		for (Shard shard : shards) {
+			try {
+				shard.thread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+}
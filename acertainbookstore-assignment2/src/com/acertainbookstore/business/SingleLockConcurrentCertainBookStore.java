@@ -5,39 +5,94 @@ import java.util.Collection;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntObjectHashMap;
 
 /** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
  * 
+ * In the snapshot mode, getBooks and getBooksInDemand are served from a
+ * {@link CatalogSnapshot} without taking the lock, and the snapshot is copied
+ * again once per burst of writes.
+ * 
  * @see BookStore
  * @see StockManager
  */
-public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager {
+public class SingleLockConcurrentCertainBookStore implements ConcurrentCertainBookStore {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntObjectHashMap<BookStoreBook> bookMap = null;
+
+	/** The editor picks of {@link #bookMap}. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/** The books of {@link #bookMap} ordered by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/** The books of {@link #bookMap} with sale misses, by ISBN. */
+	private final IntObjectHashMap<BookStoreBook> inDemandBooks = new IntObjectHashMap<>();
 	private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
+	/** The publisher of the catalog snapshots, null unless in snapshot mode. */
+	private final CatalogSnapshot.Publisher snapshotPublisher;
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public SingleLockConcurrentCertainBookStore() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param snapshotReads
+	 *            whether the full-catalog reads are served from a snapshot
+	 */
+	public SingleLockConcurrentCertainBookStore(boolean snapshotReads) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntObjectHashMap<>();
+		snapshotPublisher = snapshotReads ? new CatalogSnapshot.Publisher() : null;
+	}
+
+	/**
+	 * Releases the write lock, once the snapshot is marked as outdated.
+	 */
+	private void unlockWrite() {
+		if (snapshotPublisher != null) {
+			snapshotPublisher.invalidate();
+		}
+		lock.writeLock().unlock();
+	}
+
+	/**
+	 * Copies the catalog under the read lock.
+	 *
+	 * @return the snapshot
+	 */
+	private CatalogSnapshot buildSnapshot() {
+		lock.readLock().lock();
+		try {
+			List<StockBook> books = new ArrayList<>(bookMap.size());
+			for (BookStoreBook book : bookMap.values()) {
+				books.add(book.immutableStockBook());
+			}
+			return new CatalogSnapshot(snapshotPublisher.getVersion(), books);
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	private void validate(StockBook book) throws BookStoreException {
@@ -66,10 +121,6 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		if (bookPrice < 0.0) { // Check if the price of the book is valid
 			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
 		}
-
-		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
-			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
-		}
 	}	
 	
 	private void validate(BookCopy bookCopy) throws BookStoreException {
@@ -88,6 +139,17 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 	
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
 	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
@@ -108,20 +170,37 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		if (bookSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
+
+		// Validate and copy the books before locking, so that only the checks
+		// against the catalog and the inserts hold the lock.
+		List<BookStoreBook> bookStoreBooks = new ArrayList<>(bookSet.size());
+		for (StockBook book : bookSet) {
+			validate(book);
+			bookStoreBooks.add(new BookStoreBook(book));
+		}
+
 		lock.writeLock().lock();
 		try {
 
 			// Check if all are there
-			for (StockBook book : bookSet) {
-				validate(book);
+			for (BookStoreBook bookStoreBook : bookStoreBooks) {
+				if (bookMap.containsKey(bookStoreBook.getISBN())) {// Check if the book is not in stock
+					throw new BookStoreException(
+							BookStoreConstants.ISBN + bookStoreBook.getISBN() + BookStoreConstants.DUPLICATED);
+				}
 			}
 
-			for (StockBook book : bookSet) {
-				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
+			for (BookStoreBook bookStoreBook : bookStoreBooks) {
+				int isbn = bookStoreBook.getISBN();
+				bookMap.put(isbn, bookStoreBook);
+				editorPickIndex.update(isbn, bookStoreBook, bookStoreBook.isEditorPick());
+				topRatedIndex.add(bookStoreBook.immutableBook(), bookStoreBook.getAverageRating());
+				if (bookStoreBook.hadSaleMiss()) {
+					inDemandBooks.put(isbn, bookStoreBook);
+				}
 			}
 		} finally {
-			lock.writeLock().unlock();
+			unlockWrite();
 		}
 	}
 
@@ -154,9 +233,12 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 				numCopies = bookCopy.getNumCopies();
 				book = bookMap.get(isbn);
 				book.addCopies(numCopies);
+
+				// Adding copies resets the sale misses.
+				inDemandBooks.remove(isbn);
 			}
 		} finally {
-			lock.writeLock().unlock();
+			unlockWrite();
 		}
 	}
 
@@ -166,6 +248,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
 	public List<StockBook> getBooks() {
+		if (snapshotPublisher != null) {
+			return snapshotPublisher.get(this::buildSnapshot).getBooks();
+		}
+
 		lock.readLock().lock();
 		try {
 		Collection<BookStoreBook> bookMapValues = bookMap.values();
@@ -200,10 +286,12 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			}
 
 			for (BookEditorPick editorPickArg : editorPicks) {
-				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
 			}
 		} finally {
-			lock.writeLock().unlock();
+			unlockWrite();
 		}
 	}
 
@@ -244,6 +332,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
 					book = bookMap.get(saleMissEntry.getKey());
 					book.addSaleMiss(saleMissEntry.getValue());
+					inDemandBooks.put(saleMissEntry.getKey(), book);
 				}
 				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 			}
@@ -254,7 +343,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 				book.buyCopies(bookCopyToBuy.getNumCopies());
 			}
 		} finally { 
-			lock.writeLock().unlock(); 
+			unlockWrite(); 
 		}
 	}
 
@@ -320,37 +409,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-                .map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
-                .collect(Collectors.toList());
-
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-
-		if (rangePicks <= numBooks) {
-
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
-
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
-		}
-
-        // Return all the books by the randomly chosen indices.
-        return tobePicked.stream()
-                .map(index -> listAllEditorPicks.get(index).immutableBook())
-                .collect(Collectors.toList());
+		// Sample the index instead of scanning the catalog.
+		return editorPickIndex.sample(numBooks).stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
 		} finally { lock.readLock().unlock(); }
 	}
 
@@ -361,7 +423,21 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		} else if (numBooks > topRatedIndex.size()) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		// Read the index without locking, so that the buyers are not blocked.
+		List<Book> topRatedBooks = topRatedIndex.top(numBooks);
+
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < numBooks) {
+			throw new BookStoreException("Not enough books in the store to get top " + numBooks + " rated books.");
+		}
+
+		return topRatedBooks;
 	}
 
 	/*
@@ -371,7 +447,19 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		if (snapshotPublisher != null) {
+			return snapshotPublisher.get(this::buildSnapshot).getBooksInDemand();
+		}
+
+		lock.readLock().lock();
+		try {
+			// Only the books with sale misses are visited.
+			return inDemandBooks.values().stream()
+					.map(BookStoreBook::immutableStockBook)
+					.collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/*
@@ -381,7 +469,24 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+		lock.writeLock().lock();
+		try {
+			for (BookRating ratingToValidate : bookRating) {
+				validate(ratingToValidate);
+			}
+
+			for (BookRating ratingToAdd : bookRating) {
+				BookStoreBook book = bookMap.get(ratingToAdd.getISBN());
+				float averageRating = book.getAverageRating();
+				book.addRating(ratingToAdd.getRating());
+				topRatedIndex.update(book.getISBN(), averageRating, book.getAverageRating());
+			}
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/*
@@ -393,8 +498,11 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		lock.writeLock().lock();
 		try {
 			bookMap.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			inDemandBooks.clear();
 		} finally { 
-			lock.writeLock().unlock();
+			unlockWrite();
 		}
 	}
 
@@ -405,25 +513,31 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-		lock.writeLock().lock();
-		try {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
+		// The ISBNs are checked before locking, only their presence under the lock.
 		for (Integer ISBN : isbnSet) {
 			if (BookStoreUtility.isInvalidISBN(ISBN)) {
 				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 			}
+		}
 
+		lock.writeLock().lock();
+		try {
+		for (Integer ISBN : isbnSet) {
 			if (!bookMap.containsKey(ISBN)) {
 				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 			}
 		}
 
 		for (int isbn : isbnSet) {
+			topRatedIndex.remove(isbn, bookMap.get(isbn).getAverageRating());
 			bookMap.remove(isbn);
+			editorPickIndex.remove(isbn);
+			inDemandBooks.remove(isbn);
 		}
-		} finally { lock.writeLock().unlock(); }
+		} finally { unlockWrite(); }
 	}
 }
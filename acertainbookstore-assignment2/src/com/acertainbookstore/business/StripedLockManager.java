@@ -0,0 +1,151 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StripedLockManager} is the {@link LockManager} of the
+ * {@link LockManager#STRIPED} policy: a fixed array of read-write locks, the
+ * stripes, each guarding the books whose ISBN hashes to it, like the
+ * {@link StripedLockingConcurrentCertainBookStore}. There is no global lock,
+ * the sections on the whole catalog take every stripe instead, and the
+ * stripes are always taken in ascending order, so that two sections cannot
+ * deadlock.
+ */
+final class StripedLockManager implements LockManager {
+
+	/** The number of stripes, a power of two. */
+	private static final int NUM_STRIPES = 256;
+
+	private final ReadWriteLock[] stripes = new ReadWriteLock[NUM_STRIPES];
+
+	/**
+	 * Instantiates a new {@link StripedLockManager}.
+	 */
+	StripedLockManager() {
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			stripes[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Maps an ISBN to its stripe, with the hash of the striped locking
+	 * implementation.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe index
+	 */
+	private static int stripeOf(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (NUM_STRIPES - 1);
+	}
+
+	/**
+	 * Computes the distinct stripes of the given ISBNs in ascending order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the sorted, distinct stripe indexes
+	 */
+	private static int[] stripesOf(int[] isbns) {
+		boolean[] used = new boolean[NUM_STRIPES];
+		int numUsed = 0;
+		for (int isbn : isbns) {
+			int stripe = stripeOf(isbn);
+			if (!used[stripe]) {
+				used[stripe] = true;
+				numUsed++;
+			}
+		}
+
+		int[] indexes = new int[numUsed];
+		for (int stripe = 0, i = 0; i < numUsed; stripe++) {
+			if (used[stripe]) {
+				indexes[i++] = stripe;
+			}
+		}
+		return indexes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#readBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return runWithStripes(stripesOf(isbns), false, section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.LockManager#writeBooks(int[],
+	 * com.acertainbookstore.business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeBooks(int[] isbns, Section<T> section) throws BookStoreException {
+		return runWithStripes(stripesOf(isbns), true, section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#readCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T readCatalog(Section<T> section) throws BookStoreException {
+		return runWithStripes(null, false, section);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.business.LockManager#writeCatalog(com.acertainbookstore
+	 * .business.LockManager.Section)
+	 */
+	@Override
+	public <T> T writeCatalog(Section<T> section) throws BookStoreException {
+		return runWithStripes(null, true, section);
+	}
+
+	/**
+	 * Runs a section under the given stripes.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param indexes
+	 *            the sorted, distinct stripe indexes, or null for all of them
+	 * @param write
+	 *            whether the stripes are taken in write mode
+	 * @param section
+	 *            the section
+	 * @return the result of the section
+	 * @throws BookStoreException
+	 *             if the section fails
+	 */
+	private <T> T runWithStripes(int[] indexes, boolean write, Section<T> section) throws BookStoreException {
+		int numStripes = indexes == null ? NUM_STRIPES : indexes.length;
+		int numLocked = 0;
+		try {
+			for (; numLocked < numStripes; numLocked++) {
+				ReadWriteLock stripe = stripes[indexes == null ? numLocked : indexes[numLocked]];
+				(write ? stripe.writeLock() : stripe.readLock()).lock();
+			}
+			return section.run();
+		} finally {
+			while (numLocked > 0) {
+				numLocked--;
+				ReadWriteLock stripe = stripes[indexes == null ? numLocked : indexes[numLocked]];
+				(write ? stripe.writeLock() : stripe.readLock()).unlock();
+			}
+		}
+	}
+}
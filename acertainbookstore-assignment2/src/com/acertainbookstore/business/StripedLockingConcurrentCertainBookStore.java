@@ -0,0 +1,698 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+
+/**
+ * {@link StripedLockingConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities.
+ *
+ * Instead of one lock per book, the books are guarded by a fixed-size,
+ * power-of-two table of lock stripes (ISBN hash to stripe), so the memory used
+ * for locking does not grow with the catalog. Every operation locks only the
+ * stripes of the ISBNs it touches, always in ascending stripe order, so
+ * catalog mutations do not stall buyers of unrelated books and there are no
+ * deadlocks. Full-catalog operations lock all stripes.
+ *
+ * In escrow mode, the copies of every book are held in an
+ * {@link EscrowCounter}: buyBooks takes its stripes in read mode and the
+ * copies from the per-core quotas of the books, so that the buyers of the same
+ * bestseller do not serialize on its count. A purchase which cannot take all
+ * its copies gives back those it took and is run again under the stripes in
+ * write mode, which decides the sale misses on the exact counts. The
+ * operations reading the copies then take their stripes in write mode too.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class StripedLockingConcurrentCertainBookStore implements ConcurrentCertainBookStore {
+
+	/** The default number of lock stripes. */
+	public static final int DEFAULT_NUM_STRIPES = 256;
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final ConcurrentIntObjectHashMap<BookStoreBook> bookMap = new ConcurrentIntObjectHashMap<>();
+
+	/** The editor picks of {@link #bookMap}. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/**
+	 * The lock of {@link #editorPickIndex}. Writers take it last, while
+	 * holding the stripes of the books they update, so that the index ends in
+	 * the same state as the books.
+	 */
+	private final ReadWriteLock editorPickLock = new ReentrantReadWriteLock();
+
+	/** The books of {@link #bookMap} ordered by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/** The books of {@link #bookMap} with sale misses, by ISBN. */
+	private final ConcurrentIntObjectHashMap<BookStoreBook> inDemandBooks = new ConcurrentIntObjectHashMap<>();
+
+	/** The lock stripes, the length is a power of two. */
+	private final ReadWriteLock[] stripes;
+
+	/** The mask used to map a hashed ISBN to its stripe. */
+	private final int stripeMask;
+
+	/** Whether the copies of the books are held in escrow. */
+	private final boolean escrow;
+
+	/**
+	 * Instantiates a new {@link StripedLockingConcurrentCertainBookStore} with
+	 * {@link #DEFAULT_NUM_STRIPES} lock stripes.
+	 */
+	public StripedLockingConcurrentCertainBookStore() {
+		this(DEFAULT_NUM_STRIPES);
+	}
+
+	/**
+	 * Instantiates a new {@link StripedLockingConcurrentCertainBookStore}.
+	 *
+	 * @param numStripes
+	 *            the number of lock stripes, rounded up to a power of two
+	 */
+	public StripedLockingConcurrentCertainBookStore(int numStripes) {
+		this(numStripes, false);
+	}
+
+	/**
+	 * Instantiates a new {@link StripedLockingConcurrentCertainBookStore}.
+	 *
+	 * @param numStripes
+	 *            the number of lock stripes, rounded up to a power of two
+	 * @param escrow
+	 *            whether the copies of the books are held in escrow
+	 */
+	public StripedLockingConcurrentCertainBookStore(int numStripes, boolean escrow) {
+		if (numStripes < 1) {
+			throw new IllegalArgumentException("numStripes = " + numStripes + ", but it must be positive");
+		}
+
+		int size = Integer.highestOneBit(numStripes);
+		if (size < numStripes) {
+			size <<= 1;
+		}
+
+		stripes = new ReadWriteLock[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantReadWriteLock();
+		}
+		stripeMask = size - 1;
+		this.escrow = escrow;
+	}
+
+	/**
+	 * Gets the number of lock stripes.
+	 *
+	 * @return the number of stripes
+	 */
+	public int getNumStripes() {
+		return stripes.length;
+	}
+
+	/**
+	 * Maps an ISBN to its stripe. The hash is spread so that ISBNs that only
+	 * differ in their high bits do not all end up in the same stripe.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe index
+	 */
+	private int stripeOf(int isbn) {
+		int h = isbn * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & stripeMask;
+	}
+
+	/**
+	 * Computes the distinct stripes of the given ISBNs in ascending order, which
+	 * is the order in which they must be locked.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the sorted, distinct stripe indexes
+	 */
+	private int[] stripesOf(Iterable<Integer> isbns) {
+		int[] indexes = new int[stripes.length];
+		int count = 0;
+		boolean[] seen = new boolean[stripes.length];
+
+		for (int isbn : isbns) {
+			int stripe = stripeOf(isbn);
+			if (!seen[stripe]) {
+				seen[stripe] = true;
+				indexes[count++] = stripe;
+			}
+		}
+
+		int[] result = Arrays.copyOf(indexes, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private void lockStripes(int[] indexes, boolean write) {
+		for (int index : indexes) {
+			if (write) {
+				stripes[index].writeLock().lock();
+			} else {
+				stripes[index].readLock().lock();
+			}
+		}
+	}
+
+	private void unlockStripes(int[] indexes, boolean write) {
+		for (int i = indexes.length - 1; i >= 0; i--) {
+			if (write) {
+				stripes[indexes[i]].writeLock().unlock();
+			} else {
+				stripes[indexes[i]].readLock().unlock();
+			}
+		}
+	}
+
+	private int[] allStripes() {
+		int[] indexes = new int[stripes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = i;
+		}
+		return indexes;
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList()));
+		lockStripes(lockedStripes, true);
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			editorPickLock.writeLock().lock();
+			try {
+				for (StockBook book : bookSet) {
+					BookStoreBook bookStoreBook = escrow ? new EscrowBookStoreBook(book) : new BookStoreBook(book);
+					bookMap.put(book.getISBN(), bookStoreBook);
+					editorPickIndex.update(book.getISBN(), bookStoreBook, book.isEditorPick());
+					topRatedIndex.add(bookStoreBook.immutableBook(), bookStoreBook.getAverageRating());
+					if (bookStoreBook.hadSaleMiss()) {
+						inDemandBooks.put(book.getISBN(), bookStoreBook);
+					}
+				}
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
+		lockStripes(lockedStripes, true);
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				bookMap.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+
+				// Adding copies resets the sale misses.
+				inDemandBooks.remove(bookCopy.getISBN());
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		// The counts held in escrow are only exact without concurrent buyers.
+		int[] lockedStripes = allStripes();
+		lockStripes(lockedStripes, escrow);
+		try {
+			return bookMap.values().stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			unlockStripes(lockedStripes, escrow);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()));
+		lockStripes(lockedStripes, true);
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			editorPickLock.writeLock().lock();
+			try {
+				for (BookEditorPick editorPickArg : editorPicks) {
+					BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+					book.setEditorPick(editorPickArg.isEditorPick());
+					editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+				}
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(bookCopiesToBuy.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
+		if (escrow && tryBuyBooksInEscrow(bookCopiesToBuy, lockedStripes)) {
+			return;
+		}
+
+		lockStripes(lockedStripes, true);
+		try {
+			// Check that all ISBNs that we buy are there first.
+			int isbn;
+			BookStoreBook book;
+			Boolean saleMiss = false;
+
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
+
+				validate(bookCopyToBuy);
+
+				book = bookMap.get(isbn);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+					inDemandBooks.put(saleMissEntry.getKey(), book);
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
+	}
+
+	/**
+	 * Tries to buy the books from the escrow quotas, under the stripes in
+	 * read mode. If a copy cannot be taken, the copies taken so far are given
+	 * back, so that the purchase has no effect and can be run again under the
+	 * stripes in write mode.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @param lockedStripes
+	 *            the stripes of the books
+	 * @return true, if the books were bought
+	 * @throws BookStoreException
+	 *             if a copy is invalid, in which case none is bought
+	 */
+	private boolean tryBuyBooksInEscrow(Set<BookCopy> bookCopiesToBuy, int[] lockedStripes)
+			throws BookStoreException {
+		lockStripes(lockedStripes, false);
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+			}
+
+			List<BookCopy> boughtCopies = new ArrayList<>(bookCopiesToBuy.size());
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				EscrowBookStoreBook book = (EscrowBookStoreBook) bookMap.get(bookCopyToBuy.getISBN());
+				if (!book.tryBuyCopies(bookCopyToBuy.getNumCopies())) {
+					for (BookCopy boughtCopy : boughtCopies) {
+						((EscrowBookStoreBook) bookMap.get(boughtCopy.getISBN())).returnCopies(boughtCopy.getNumCopies());
+					}
+					return false;
+				}
+				boughtCopies.add(bookCopyToBuy);
+			}
+			return true;
+		} finally {
+			unlockStripes(lockedStripes, false);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(isbnSet);
+		lockStripes(lockedStripes, escrow);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			unlockStripes(lockedStripes, escrow);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(isbnSet);
+		lockStripes(lockedStripes, false);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			unlockStripes(lockedStripes, false);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Sample the index instead of locking and scanning the catalog. The
+		// sampled attributes are immutable, so no stripe is needed.
+		List<BookStoreBook> picks;
+		editorPickLock.readLock().lock();
+		try {
+			picks = editorPickIndex.sample(numBooks);
+		} finally {
+			editorPickLock.readLock().unlock();
+		}
+
+		return picks.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		} else if (numBooks > topRatedIndex.size()) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		// Read the index without locking, so that the buyers are not blocked.
+		List<Book> topRatedBooks = topRatedIndex.top(numBooks);
+
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < numBooks) {
+			throw new BookStoreException("Not enough books in the store to get top " + numBooks + " rated books.");
+		}
+
+		return topRatedBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// Only the books with sale misses are visited, under the stripes of
+		// their ISBNs. A book may have been replenished since, so check again.
+		List<BookStoreBook> candidates = inDemandBooks.values();
+		int[] lockedStripes = stripesOf(candidates.stream().map(BookStoreBook::getISBN).collect(Collectors.toList()));
+		lockStripes(lockedStripes, escrow);
+		try {
+			return candidates.stream()
+					.filter(book -> bookMap.get(book.getISBN()) == book && book.hadSaleMiss())
+					.map(BookStoreBook::immutableStockBook)
+					.collect(Collectors.toList());
+		} finally {
+			unlockStripes(lockedStripes, escrow);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(bookRating.stream().map(BookRating::getISBN).collect(Collectors.toList()));
+		lockStripes(lockedStripes, true);
+		try {
+			for (BookRating ratingToValidate : bookRating) {
+				validate(ratingToValidate);
+			}
+
+			for (BookRating ratingToAdd : bookRating) {
+				BookStoreBook book = bookMap.get(ratingToAdd.getISBN());
+				float averageRating = book.getAverageRating();
+				book.addRating(ratingToAdd.getRating());
+				topRatedIndex.update(book.getISBN(), averageRating, book.getAverageRating());
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		int[] lockedStripes = allStripes();
+		lockStripes(lockedStripes, true);
+		try {
+			bookMap.clear();
+
+			editorPickLock.writeLock().lock();
+			try {
+				editorPickIndex.clear();
+				topRatedIndex.clear();
+				inDemandBooks.clear();
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int[] lockedStripes = stripesOf(isbnSet);
+		lockStripes(lockedStripes, true);
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			editorPickLock.writeLock().lock();
+			try {
+				for (int isbn : isbnSet) {
+					topRatedIndex.remove(isbn, bookMap.get(isbn).getAverageRating());
+					bookMap.remove(isbn);
+					editorPickIndex.remove(isbn);
+					inDemandBooks.remove(isbn);
+				}
+			} finally {
+				editorPickLock.writeLock().unlock();
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
+	}
+}
@@ -0,0 +1,944 @@
+package com.acertainbookstore.business;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+
+/**
+ * {@link TimestampOrderingConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities using
+ * timestamp-ordering concurrency control.
+ *
+ * Every attempt at a transaction draws a timestamp from a global clock, and
+ * the transactions are serialized in timestamp order: a transaction may not
+ * read a book written by a later one, nor write a book read or written by a
+ * later one (cf. {@link TimestampedBookStoreBook}). A transaction breaking the
+ * order is restarted with a new timestamp, and so is one finding a book
+ * latched by another, so no transaction ever waits. With the Thomas write
+ * rule, the blind writes of updateEditorPicks overwritten by a later
+ * transaction are skipped instead of restarting.
+ *
+ * Catalog mutations are serialized among themselves by a lock that the
+ * customers never take, and full-catalog reads restart if the catalog changed
+ * under them.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class TimestampOrderingConcurrentCertainBookStore implements ConcurrentCertainBookStore {
+
+	/** The number of restarts spinning before yielding the processor. */
+	private static final int MAX_SPIN_RESTARTS = 8;
+
+	/** Whether the obsolete blind writes are skipped instead of restarting. */
+	private final boolean thomasWriteRule;
+
+	/** The clock issuing the timestamps. */
+	private final AtomicLong clock = new AtomicLong();
+
+	/** The mapping of books from ISBN to {@link TimestampedBookStoreBook}. */
+	private final ConcurrentIntObjectHashMap<TimestampedBookStoreBook> bookMap = new ConcurrentIntObjectHashMap<>();
+
+	/** The lock serializing addBooks, removeBooks and removeAllBooks. */
+	private final Lock catalogLock = new ReentrantLock();
+
+	/**
+	 * The version stamp of the catalog, odd while a book is added or removed.
+	 * Only written under {@link #catalogLock}.
+	 */
+	private volatile long catalogVersion = 0;
+
+	/** The timestamp of the last catalog mutation. */
+	private volatile long catalogTimestamp = 0;
+
+	/** The editor picks of the catalog. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/** Lock on {@link #editorPickIndex}, only held to access it. */
+	private final ReadWriteLock editorPickLock = new ReentrantReadWriteLock();
+
+	/** The books of the catalog by descending average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/** The books which may have had a sale miss, checked when read. */
+	private final ConcurrentIntObjectHashMap<TimestampedBookStoreBook> inDemandBooks = new ConcurrentIntObjectHashMap<>();
+
+	/** The number of transactions started. */
+	private final LongAdder numTransactions = new LongAdder();
+
+	/** The number of attempts restarted because they broke the order. */
+	private final LongAdder numRestarts = new LongAdder();
+
+	/** The number of transactions which were restarted at least once. */
+	private final LongAdder numRestartedTransactions = new LongAdder();
+
+	/** The number of writes skipped under the Thomas write rule. */
+	private final LongAdder numSkippedWrites = new LongAdder();
+
+	/**
+	 * One attempt at running a transaction.
+	 */
+	@FunctionalInterface
+	private interface Transaction {
+
+		/**
+		 * Runs the transaction once.
+		 *
+		 * @param timestamp
+		 *            the timestamp of the attempt
+		 * @return true, if the transaction committed, false if it must be
+		 *         restarted
+		 * @throws BookStoreException
+		 *             if the transaction fails
+		 */
+		boolean tryCommit(long timestamp) throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link TimestampOrderingConcurrentCertainBookStore}
+	 * following the basic timestamp-ordering rules.
+	 */
+	public TimestampOrderingConcurrentCertainBookStore() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link TimestampOrderingConcurrentCertainBookStore}.
+	 *
+	 * @param thomasWriteRule
+	 *            whether the blind writes overwritten by a later transaction
+	 *            are skipped instead of restarting
+	 */
+	public TimestampOrderingConcurrentCertainBookStore(boolean thomasWriteRule) {
+		this.thomasWriteRule = thomasWriteRule;
+	}
+
+	/**
+	 * Checks whether the Thomas write rule is applied.
+	 *
+	 * @return true, if the obsolete blind writes are skipped
+	 */
+	public boolean isThomasWriteRule() {
+		return thomasWriteRule;
+	}
+
+	/**
+	 * Gets the number of transactions started.
+	 *
+	 * @return the number of transactions
+	 */
+	public long getNumTransactions() {
+		return numTransactions.sum();
+	}
+
+	/**
+	 * Gets the number of attempts restarted because they accessed a book out
+	 * of timestamp order, or found it latched by another transaction.
+	 *
+	 * @return the number of restarts
+	 */
+	public long getNumRestarts() {
+		return numRestarts.sum();
+	}
+
+	/**
+	 * Gets the number of transactions which were restarted at least once.
+	 *
+	 * @return the number of restarted transactions
+	 */
+	public long getNumRestartedTransactions() {
+		return numRestartedTransactions.sum();
+	}
+
+	/**
+	 * Gets the number of writes skipped under the Thomas write rule.
+	 *
+	 * @return the number of skipped writes
+	 */
+	public long getNumSkippedWrites() {
+		return numSkippedWrites.sum();
+	}
+
+	/**
+	 * Gets the mean number of restarts per transaction.
+	 *
+	 * @return the restart rate, 0 if no transaction was started
+	 */
+	public double getRestartRate() {
+		long transactions = numTransactions.sum();
+		return transactions == 0 ? 0 : (double) numRestarts.sum() / transactions;
+	}
+
+	/**
+	 * Runs <code>transaction</code> until it commits or fails, with a new
+	 * timestamp for every attempt.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @throws BookStoreException
+	 *             if the transaction fails
+	 */
+	private void runWithTimestamps(Transaction transaction) throws BookStoreException {
+		numTransactions.increment();
+
+		int restarts = 0;
+		while (!transaction.tryCommit(clock.incrementAndGet())) {
+			numRestarts.increment();
+			if (restarts++ == 0) {
+				numRestartedTransactions.increment();
+			}
+
+			if (restarts < MAX_SPIN_RESTARTS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Latches all the books, or none of them.
+	 *
+	 * @param books
+	 *            the distinct books
+	 * @return true, if all the books were latched
+	 */
+	private static boolean tryLatchAll(List<TimestampedBookStoreBook> books) {
+		for (int i = 0; i < books.size(); i++) {
+			if (!books.get(i).tryLatch()) {
+				for (int j = 0; j < i; j++) {
+					books.get(j).unlatch(false);
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Unlatches the books of an attempt which must be restarted.
+	 *
+	 * @param books
+	 *            the latched books, none modified
+	 * @return false
+	 */
+	private static boolean restart(List<TimestampedBookStoreBook> books) {
+		for (TimestampedBookStoreBook book : books) {
+			book.unlatch(false);
+		}
+		return false;
+	}
+
+	/**
+	 * Latches the books read and written by a transaction, and checks that it
+	 * may read and write them all.
+	 *
+	 * @param books
+	 *            the distinct books
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 * @return true, if the books are latched and writable, false if nothing
+	 *         is latched
+	 */
+	private static boolean tryLatchForWrite(List<TimestampedBookStoreBook> books, long timestamp) {
+		if (!tryLatchAll(books)) {
+			return false;
+		}
+		for (TimestampedBookStoreBook book : books) {
+			if (!book.isWritable(timestamp)) {
+				return restart(books);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records the reads and writes of a transaction which read and wrote all
+	 * its books, and unlatches them.
+	 *
+	 * @param books
+	 *            the latched books
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 */
+	private static void commitWrites(List<TimestampedBookStoreBook> books, long timestamp) {
+		for (TimestampedBookStoreBook book : books) {
+			book.recordRead(timestamp);
+			book.recordWrite(timestamp);
+			book.unlatch(true);
+		}
+	}
+
+	/**
+	 * Reads a copy of a single book.
+	 *
+	 * @param book
+	 *            the book
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 * @return the copy, or null if the transaction must be restarted
+	 */
+	private static StockBook tryRead(TimestampedBookStoreBook book, long timestamp) {
+		if (!book.tryLatch()) {
+			return null;
+		}
+		try {
+			if (!book.isReadable(timestamp)) {
+				return null;
+			}
+			book.recordRead(timestamp);
+			return book.immutableStockBook();
+		} finally {
+			book.unlatch(false);
+		}
+	}
+
+	/**
+	 * Starts a catalog mutation, under {@link #catalogLock}.
+	 */
+	private void beginCatalogChange() {
+		catalogVersion = catalogVersion + 1;
+	}
+
+	/**
+	 * Ends a catalog mutation started by {@link #beginCatalogChange()}.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the mutation
+	 */
+	private void endCatalogChange(long timestamp) {
+		catalogTimestamp = timestamp;
+		catalogVersion = catalogVersion + 1;
+	}
+
+	/**
+	 * Reads the catalog version at the start of a full-catalog read.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 * @return the version, or -1 if a mutation is in progress or comes later
+	 *         in timestamp order, so that the transaction must be restarted
+	 */
+	private long beginCatalogRead(long timestamp) {
+		long version = catalogVersion;
+		if (BookStoreBook.isLocked(version) || catalogTimestamp > timestamp) {
+			return -1;
+		}
+		return version;
+	}
+
+	/**
+	 * Checks that the catalog did not change during a full-catalog read.
+	 *
+	 * @param version
+	 *            the version returned by {@link #beginCatalogRead(long)}
+	 * @return true, if the read is consistent
+	 */
+	private boolean validateCatalogRead(long version) {
+		// Make sure that the reads are not reordered after the validation.
+		VarHandle.acquireFence();
+		return catalogVersion == version;
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private TimestampedBookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		TimestampedBookStoreBook book = getBookInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private TimestampedBookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		TimestampedBookStoreBook book = getBookInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private TimestampedBookStoreBook getBookInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		TimestampedBookStoreBook book = bookMap.get(ISBN);
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			// The new books are written by the addition, so the transactions
+			// with an earlier timestamp restart if they find them.
+			numTransactions.increment();
+			long timestamp = clock.incrementAndGet();
+			List<TimestampedBookStoreBook> newBooks = new ArrayList<>(bookSet.size());
+
+			beginCatalogChange();
+			try {
+				for (StockBook book : bookSet) {
+					TimestampedBookStoreBook newBook = new TimestampedBookStoreBook(book, timestamp);
+					newBook.tryLatch();
+					newBooks.add(newBook);
+					bookMap.put(book.getISBN(), newBook);
+				}
+
+				for (TimestampedBookStoreBook book : newBooks) {
+					editorPickLock.writeLock().lock();
+					try {
+						editorPickIndex.update(book.getISBN(), book, book.isEditorPick());
+					} finally {
+						editorPickLock.writeLock().unlock();
+					}
+					topRatedIndex.add(book.immutableBook(), book.getAverageRating());
+					if (book.hadSaleMiss()) {
+						inDemandBooks.put(book.getISBN(), book);
+					}
+				}
+			} finally {
+				endCatalogChange(timestamp);
+			}
+
+			for (TimestampedBookStoreBook book : newBooks) {
+				book.unlatch(true);
+			}
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		runWithTimestamps(timestamp -> {
+			Map<Integer, TimestampedBookStoreBook> books = new LinkedHashMap<>();
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books.put(bookCopy.getISBN(), validate(bookCopy));
+			}
+
+			List<TimestampedBookStoreBook> latched = new ArrayList<>(books.values());
+			if (!tryLatchForWrite(latched, timestamp)) {
+				return false;
+			}
+
+			// Update the number of copies, which resets the sale misses.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+				inDemandBooks.remove(bookCopy.getISBN());
+			}
+
+			commitWrites(latched, timestamp);
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		List<StockBook> result = new ArrayList<>();
+
+		runWithTimestamps(timestamp -> {
+			result.clear();
+			long version = beginCatalogRead(timestamp);
+			if (version < 0) {
+				return false;
+			}
+
+			for (TimestampedBookStoreBook book : bookMap.values()) {
+				StockBook copy = tryRead(book, timestamp);
+				if (copy == null) {
+					return false;
+				}
+				result.add(copy);
+			}
+
+			return validateCatalogRead(version);
+		});
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		runWithTimestamps(timestamp -> {
+			Map<Integer, TimestampedBookStoreBook> books = new LinkedHashMap<>();
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books.put(editorPickArg.getISBN(), getBookInStock(editorPickArg.getISBN()));
+			}
+
+			List<TimestampedBookStoreBook> latched = new ArrayList<>(books.values());
+			if (!tryLatchAll(latched)) {
+				return false;
+			}
+
+			// The picks are blind writes: under the Thomas write rule, a pick
+			// overwritten by a later transaction is obsolete and skipped.
+			Set<Integer> obsolete = new HashSet<>();
+			for (TimestampedBookStoreBook book : latched) {
+				if (thomasWriteRule && book.isObsoleteWrite(timestamp)) {
+					obsolete.add(book.getISBN());
+				} else if (!book.isWritable(timestamp)) {
+					return restart(latched);
+				}
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				if (obsolete.contains(editorPickArg.getISBN())) {
+					continue;
+				}
+				BookStoreBook book = books.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				editorPickLock.writeLock().lock();
+				try {
+					editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+				} finally {
+					editorPickLock.writeLock().unlock();
+				}
+			}
+
+			for (TimestampedBookStoreBook book : latched) {
+				boolean written = !obsolete.contains(book.getISBN());
+				if (written) {
+					book.recordWrite(timestamp);
+				}
+				book.unlatch(written);
+			}
+			numSkippedWrites.add(obsolete.size());
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		runWithTimestamps(timestamp -> {
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, TimestampedBookStoreBook> books = new LinkedHashMap<>();
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				books.put(bookCopyToBuy.getISBN(), validate(bookCopyToBuy));
+			}
+
+			List<TimestampedBookStoreBook> latched = new ArrayList<>(books.values());
+			if (!tryLatchAll(latched)) {
+				return false;
+			}
+			for (TimestampedBookStoreBook book : latched) {
+				if (!book.isReadable(timestamp)) {
+					return restart(latched);
+				}
+			}
+
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				BookStoreBook book = books.get(bookCopyToBuy.getISBN());
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				}
+			}
+
+			// Only the missed books are written if any, but all are read.
+			for (TimestampedBookStoreBook book : latched) {
+				if ((salesMisses.isEmpty() || salesMisses.containsKey(book.getISBN()))
+						&& !book.isWritable(timestamp)) {
+					return restart(latched);
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (TimestampedBookStoreBook book : latched) {
+					boolean missed = salesMisses.containsKey(book.getISBN());
+					book.recordRead(timestamp);
+					if (missed) {
+						book.addSaleMiss(salesMisses.get(book.getISBN()));
+						inDemandBooks.put(book.getISBN(), book);
+						book.recordWrite(timestamp);
+					}
+					book.unlatch(missed);
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				books.get(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+			}
+
+			commitWrites(latched, timestamp);
+			return true;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<StockBook> result = new ArrayList<>();
+		runWithTimestamps(timestamp -> {
+			result.clear();
+
+			for (Integer ISBN : isbnSet) {
+				StockBook copy = tryRead(getBookInStock(ISBN), timestamp);
+				if (copy == null) {
+					return false;
+				}
+				result.add(copy);
+			}
+
+			return true;
+		});
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Only the immutable parts of the books are returned, so the books
+		// merely have to be in stock.
+		List<Book> result = new ArrayList<>();
+		for (Integer ISBN : isbnSet) {
+			result.add(getBookInStock(ISBN).immutableBook());
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Sample the index instead of scanning the catalog. The sampled
+		// attributes are immutable, so no timestamp is needed.
+		List<BookStoreBook> picks;
+		editorPickLock.readLock().lock();
+		try {
+			picks = editorPickIndex.sample(numBooks);
+		} finally {
+			editorPickLock.readLock().unlock();
+		}
+
+		return picks.stream()
+			.map(BookStoreBook::immutableBook)
+			.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		} else if (numBooks > topRatedIndex.size()) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		List<Book> topRatedBooks = topRatedIndex.top(numBooks);
+
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < numBooks) {
+			throw new BookStoreException("Not enough books in the store to get top " + numBooks + " rated books.");
+		}
+
+		return topRatedBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		List<StockBook> result = new ArrayList<>();
+
+		runWithTimestamps(timestamp -> {
+			result.clear();
+			long version = beginCatalogRead(timestamp);
+			if (version < 0) {
+				return false;
+			}
+
+			// Only the books with sale misses are visited. A book may have
+			// been replenished since, so check again once read.
+			for (TimestampedBookStoreBook book : inDemandBooks.values()) {
+				StockBook copy = tryRead(book, timestamp);
+				if (copy == null) {
+					return false;
+				}
+				if (copy.getNumSaleMisses() > 0) {
+					result.add(copy);
+				}
+			}
+
+			return validateCatalogRead(version);
+		});
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		runWithTimestamps(timestamp -> {
+			Map<Integer, TimestampedBookStoreBook> books = new LinkedHashMap<>();
+			for (BookRating ratingToValidate : bookRating) {
+				books.put(ratingToValidate.getISBN(), validate(ratingToValidate));
+			}
+
+			List<TimestampedBookStoreBook> latched = new ArrayList<>(books.values());
+			if (!tryLatchForWrite(latched, timestamp)) {
+				return false;
+			}
+
+			for (BookRating ratingToAdd : bookRating) {
+				// Move the book in the index under its latch, so that the
+				// index ends in the same order as the ratings.
+				BookStoreBook book = books.get(ratingToAdd.getISBN());
+				float averageRating = book.getAverageRating();
+				book.addRating(ratingToAdd.getRating());
+				topRatedIndex.update(book.getISBN(), averageRating, book.getAverageRating());
+			}
+
+			commitWrites(latched, timestamp);
+			return true;
+		});
+	}
+
+	/**
+	 * Removes latched books from the catalog and the indexes. The books are
+	 * never unlatched, so that transactions which still hold a reference to
+	 * them restart and find them gone.
+	 *
+	 * @param books
+	 *            the books, latched and writable
+	 * @param timestamp
+	 *            the timestamp of the removal
+	 */
+	private void removeLatched(List<TimestampedBookStoreBook> books, long timestamp) {
+		beginCatalogChange();
+		try {
+			for (TimestampedBookStoreBook book : books) {
+				int isbn = book.getISBN();
+				book.recordWrite(timestamp);
+				topRatedIndex.remove(isbn, book.getAverageRating());
+				editorPickLock.writeLock().lock();
+				try {
+					editorPickIndex.remove(isbn);
+				} finally {
+					editorPickLock.writeLock().unlock();
+				}
+				inDemandBooks.remove(isbn);
+				bookMap.remove(isbn);
+			}
+		} finally {
+			endCatalogChange(timestamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		catalogLock.lock();
+		try {
+			runWithTimestamps(timestamp -> {
+				List<TimestampedBookStoreBook> books = new ArrayList<>(bookMap.values());
+				if (!tryLatchForWrite(books, timestamp)) {
+					return false;
+				}
+
+				removeLatched(books, timestamp);
+				return true;
+			});
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		catalogLock.lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			runWithTimestamps(timestamp -> {
+				List<TimestampedBookStoreBook> books = new ArrayList<>(isbnSet.size());
+				for (int isbn : isbnSet) {
+					books.add(bookMap.get(isbn));
+				}
+				if (!tryLatchForWrite(books, timestamp)) {
+					return false;
+				}
+
+				removeLatched(books, timestamp);
+				return true;
+			});
+		} finally {
+			catalogLock.unlock();
+		}
+	}
+}
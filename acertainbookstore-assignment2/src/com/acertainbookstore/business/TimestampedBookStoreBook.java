@@ -0,0 +1,112 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link TimestampedBookStoreBook} is a {@link BookStoreBook} carrying the
+ * read and write timestamps of timestamp-ordering concurrency control: the
+ * largest timestamp of a transaction which read the book, and the timestamp
+ * of the transaction which last wrote it.
+ *
+ * The timestamps are guarded by the version stamp inherited from
+ * {@link BookStoreBook}, used as a latch taken with {@link #tryLatch()} and
+ * never waited for. A transaction latches the books it accesses, checks its
+ * timestamp against theirs, and only then reads or writes them.
+ */
+final class TimestampedBookStoreBook extends BookStoreBook {
+
+	/** The largest timestamp of a transaction which read the book. */
+	private long readTimestamp;
+
+	/** The timestamp of the transaction which last wrote the book. */
+	private long writeTimestamp;
+
+	/**
+	 * Instantiates a new {@link TimestampedBookStoreBook} from a
+	 * {@link StockBook} instance, written by the transaction adding it.
+	 *
+	 * @param bookToCopy
+	 *            the book to copy
+	 * @param timestamp
+	 *            the timestamp of the transaction adding the book
+	 */
+	TimestampedBookStoreBook(StockBook bookToCopy, long timestamp) {
+		super(bookToCopy);
+		writeTimestamp = timestamp;
+	}
+
+	/**
+	 * Latches the book. Never blocks.
+	 *
+	 * @return true, if the book was latched, false if another transaction
+	 *         holds the latch or the book was removed
+	 */
+	boolean tryLatch() {
+		return tryLockVersion(getVersion());
+	}
+
+	/**
+	 * Releases the latch taken by {@link #tryLatch()}.
+	 *
+	 * @param modified
+	 *            whether the book was written
+	 */
+	void unlatch(boolean modified) {
+		unlockVersion(modified);
+	}
+
+	/**
+	 * Checks whether a transaction may read the latched book: it must not
+	 * have been written by a later transaction.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 * @return true, if the read is allowed
+	 */
+	boolean isReadable(long timestamp) {
+		return timestamp >= writeTimestamp;
+	}
+
+	/**
+	 * Checks whether a transaction may write the latched book: it must not
+	 * have been read or written by a later transaction.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 * @return true, if the write is allowed
+	 */
+	boolean isWritable(long timestamp) {
+		return timestamp >= readTimestamp && timestamp >= writeTimestamp;
+	}
+
+	/**
+	 * Checks whether a blind write to the latched book is obsolete, that is
+	 * the book was written by a later transaction but not read by one, so
+	 * that the write can be skipped under the Thomas write rule.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 * @return true, if the write can be skipped
+	 */
+	boolean isObsoleteWrite(long timestamp) {
+		return timestamp >= readTimestamp && timestamp < writeTimestamp;
+	}
+
+	/**
+	 * Records a read of the latched book.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 */
+	void recordRead(long timestamp) {
+		readTimestamp = Math.max(readTimestamp, timestamp);
+	}
+
+	/**
+	 * Records a write of the latched book.
+	 *
+	 * @param timestamp
+	 *            the timestamp of the transaction
+	 */
+	void recordWrite(long timestamp) {
+		writeTimestamp = timestamp;
+	}
+}
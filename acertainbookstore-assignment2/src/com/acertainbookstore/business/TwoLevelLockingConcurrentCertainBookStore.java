@@ -1,46 +1,493 @@
 package com.acertainbookstore.business;
 
+import java.io.Closeable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BiasedReadWriteLock;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+import com.acertainbookstore.utils.IntObjectHashMap;
 
 /** {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
  * 
+ * addBooks and removeBooks only take the global lock in read mode, like the
+ * operations on books, so that loading new titles does not stop the
+ * customers. The catalog is a concurrent index of entries, each holding a
+ * book and its lock: new entries are published write-locked and unlocked
+ * once the whole set is added, and removed entries are marked as tombstones
+ * under their write locks before they are unlinked. Every operation thus
+ * checks that its books were not removed once it holds their locks. The
+ * unlinked entries are recycled through epoch-based reclamation, once no
+ * operation can still hold them.
+ * 
  * @see BookStore
  * @see StockManager
  */
-public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager {
+public class TwoLevelLockingConcurrentCertainBookStore implements ConcurrentCertainBookStore, Closeable {
+
+	/**
+	 * The policies with which buyBooks and getBooks take the locks of all
+	 * their books without deadlocking (cf. {@link BookLockAcquirer}).
+	 */
+	public enum AcquisitionPolicy {
+		/** Wait for the locks in ascending ISBN order. */
+		ORDERED("ordered"),
+		/** Never wait for a lock, but give up all of them and start again. */
+		NO_WAIT("nowait"),
+		/** Wait for younger holders only, and start again otherwise. */
+		WAIT_DIE("waitdie"),
+		/** Make younger holders start again, and wait for older ones. */
+		WOUND_WAIT("woundwait");
+
+		private final String name;
+
+		AcquisitionPolicy(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Gets the name of the policy, as given to
+		 * {@link BookStoreConstants#PROPERTY_KEY_LOCK_ACQUISITION}.
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets a policy by name.
+		 *
+		 * @param name
+		 *            the name of the policy, case insensitive
+		 * @return the policy
+		 * @throws BookStoreException
+		 *             if the policy is unknown
+		 */
+		public static AcquisitionPolicy forName(String name) throws BookStoreException {
+			for (AcquisitionPolicy policy : values()) {
+				if (policy.name.equals(name.toLowerCase(Locale.ROOT))) {
+					return policy;
+				}
+			}
+			throw new BookStoreException("Unknown lock acquisition policy: " + name);
+		}
+	}
+
+	/** The maximum number of unlinked entries kept for reuse. */
+	private static final int MAX_FREE_ENTRIES = 1024;
+
+	/**
+	 * A book of the catalog and its lock. A removed entry is marked as a
+	 * tombstone under its write lock before it is unlinked from
+	 * {@link #bookMap}, so that the operations which found it before see that
+	 * it is gone once they hold its lock.
+	 */
+	private static final class CatalogEntry {
+
+		/** The lock of the book. */
+		private final BookLockAcquirer.BookLock lock = new BookLockAcquirer.BookLock();
+
+		/** The book, set under the write lock before the entry is published. */
+		private BookStoreBook book;
 
-	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
-	/** The global lock */
-	private final ReadWriteLock globalLock = new ReentrantReadWriteLock();
-	/** Lock on individual books (rows in the table, instances of object, whatever..) */
-	private final Map<Integer, ReadWriteLock> lockMap = new HashMap<>();
+		/** Whether the book was removed, set under the write lock. */
+		private volatile boolean removed;
+	}
+
+	/** The mapping of books from ISBN to their {@link CatalogEntry}. */
+	private final ConcurrentIntObjectHashMap<CatalogEntry> bookMap = new ConcurrentIntObjectHashMap<>();
+	/**
+	 * The global lock, taken in read mode as an intention lock by every
+	 * operation on books, and in write mode by the catalog changes. It is
+	 * biased towards the readers, so that they do not write to a shared
+	 * reader count.
+	 */
+	private final ReadWriteLock globalLock = new BiasedReadWriteLock();
+	/**
+	 * Recycles the entries unlinked from {@link #bookMap} once no operation,
+	 * which all enter it under the global lock, can still hold them.
+	 */
+	private final EpochReclaimer<CatalogEntry> reclaimer = new EpochReclaimer<>(this::recycle);
+	/** The reclaimed entries, reused by addBooks, guarded by itself. */
+	private final ArrayDeque<CatalogEntry> freeEntries = new ArrayDeque<>();
+	/** Takes the locks of the books of buyBooks and getBooks all at once. */
+	private final BookLockAcquirer bookLockAcquirer;
+	/** The editor picks of {@link #bookMap}. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+	/**
+	 * Lock on {@link #editorPickIndex} while holding only the global read lock.
+	 * It is taken last, so it cannot deadlock with the book locks.
+	 */
+	private final ReadWriteLock editorPickLock = new ReentrantReadWriteLock();
+
+	/** The books of {@link #bookMap} ordered by average rating. */
+	private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+	/** The books of {@link #bookMap} with sale misses, by ISBN. */
+	private final ConcurrentIntObjectHashMap<BookStoreBook> inDemandBooks = new ConcurrentIntObjectHashMap<>();
+
+	/** The publisher of the catalog snapshots, null unless in snapshot mode. */
+	private final CatalogSnapshot.Publisher snapshotPublisher;
+
+	/**
+	 * Applies buyBooks and addCopies in batches under the global write lock,
+	 * null unless in flat-combining mode.
+	 */
+	private final FlatCombiner combiner;
+
+	/**
+	 * Sequences buyBooks and addCopies into epochs and runs them in a
+	 * deterministic order, null unless in deterministic mode.
+	 */
+	private final DeterministicScheduler scheduler;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public TwoLevelLockingConcurrentCertainBookStore() {
-		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param snapshotReads
+	 *            whether the full-catalog reads are served from a snapshot
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(boolean snapshotReads) {
+		this(snapshotReads, false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * In flat-combining mode, concurrent buyBooks and addCopies calls publish
+	 * their request and a single combining thread applies the whole batch
+	 * under one acquisition of the global write lock, instead of handing the
+	 * write locks of the same bestsellers from thread to thread.
+	 *
+	 * @param snapshotReads
+	 *            whether the full-catalog reads are served from a snapshot
+	 * @param flatCombining
+	 *            whether buyBooks and addCopies are applied in combined
+	 *            batches
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(boolean snapshotReads, boolean flatCombining) {
+		this(snapshotReads, flatCombining, -1);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * In deterministic mode, buyBooks and addCopies calls are sequenced into
+	 * epochs of <code>epochMicros</code> microseconds by a
+	 * {@link DeterministicScheduler}, and each runs on its calling thread once
+	 * the earlier calls on the same books completed. They still take the global
+	 * read lock and the book write locks, but never wait for each other on
+	 * them, so cross-book carts cannot deadlock whatever their iteration
+	 * order.
+	 *
+	 * @param snapshotReads
+	 *            whether the full-catalog reads are served from a snapshot
+	 * @param flatCombining
+	 *            whether buyBooks and addCopies are applied in combined
+	 *            batches
+	 * @param epochMicros
+	 *            the length of the epochs of the deterministic mode in
+	 *            microseconds, 0 to sequence every call as it arrives, or
+	 *            negative to disable the mode
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(boolean snapshotReads, boolean flatCombining, long epochMicros) {
+		this(snapshotReads, flatCombining, epochMicros, AcquisitionPolicy.ORDERED);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param snapshotReads
+	 *            whether the full-catalog reads are served from a snapshot
+	 * @param flatCombining
+	 *            whether buyBooks and addCopies are applied in combined
+	 *            batches
+	 * @param epochMicros
+	 *            the length of the epochs of the deterministic mode in
+	 *            microseconds, 0 to sequence every call as it arrives, or
+	 *            negative to disable the mode
+	 * @param acquisitionPolicy
+	 *            how buyBooks and getBooks take the locks of their books
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(boolean snapshotReads, boolean flatCombining, long epochMicros,
+			AcquisitionPolicy acquisitionPolicy) {
+		if (flatCombining && epochMicros >= 0) {
+			throw new IllegalArgumentException("The flat-combining and deterministic modes are exclusive");
+		}
+
+		snapshotPublisher = snapshotReads ? new CatalogSnapshot.Publisher() : null;
+		combiner = flatCombining ? new FlatCombiner(globalLock.writeLock(), this::invalidateSnapshot) : null;
+		scheduler = epochMicros >= 0 ? new DeterministicScheduler(epochMicros) : null;
+		bookLockAcquirer = new BookLockAcquirer(acquisitionPolicy);
+	}
+
+	/**
+	 * Gets the policy with which buyBooks and getBooks take their book locks.
+	 *
+	 * @return the policy
+	 */
+	public AcquisitionPolicy getAcquisitionPolicy() {
+		return bookLockAcquirer.getPolicy();
+	}
+
+	/**
+	 * Gets the number of times buyBooks or getBooks gave up their book locks
+	 * and started again, under the no-wait, wait-die and wound-wait policies.
+	 *
+	 * @return the number of aborts
+	 */
+	public long getNumAborts() {
+		return bookLockAcquirer.getNumAborts();
+	}
+
+	/**
+	 * Gets the number of buyBooks and getBooks calls which started again at
+	 * least once.
+	 *
+	 * @return the number of retried calls
+	 */
+	public long getNumRetries() {
+		return bookLockAcquirer.getNumRetries();
+	}
+
+	/**
+	 * Gets the total time buyBooks and getBooks waited for book locks held by
+	 * other operations.
+	 *
+	 * @return the wait time in nanoseconds
+	 */
+	public long getLockWaitNanos() {
+		return bookLockAcquirer.getLockWaitNanos();
+	}
+
+	/**
+	 * Gets the average number of buyBooks and addCopies calls sequenced per
+	 * epoch in deterministic mode.
+	 *
+	 * @return the average epoch size, 0 if no epoch was sequenced or not in
+	 *         deterministic mode
+	 */
+	public double getAverageEpochSize() {
+		long numEpochs = scheduler == null ? 0 : scheduler.getNumEpochs();
+		return numEpochs == 0 ? 0 : (double) scheduler.getNumTransactions() / numEpochs;
+	}
+
+	/**
+	 * Gets the number of entries of removed books recycled once no operation
+	 * could observe them any more.
+	 *
+	 * @return the number of recycled entries
+	 */
+	public long getNumReclaimedEntries() {
+		return reclaimer.getNumReclaimed();
+	}
+
+	/**
+	 * Stops the sequencer thread of the deterministic mode, after sequencing
+	 * the calls already submitted.
+	 */
+	@Override
+	public void close() {
+		if (scheduler != null) {
+			scheduler.close();
+		}
+	}
+
+	/**
+	 * Gets the ISBNs of a set of copies, the keys of a deterministic call.
+	 *
+	 * @param bookCopies
+	 *            the copies
+	 * @return the ISBNs
+	 */
+	private static int[] isbnsOf(Set<BookCopy> bookCopies) {
+		int[] isbns = new int[bookCopies.size()];
+		int i = 0;
+		for (BookCopy bookCopy : bookCopies) {
+			isbns[i++] = bookCopy.getISBN();
+		}
+		return isbns;
+	}
+
+	/**
+	 * Marks the snapshot as outdated. Writers call it once their writes are
+	 * applied, before they release the global lock.
+	 */
+	private void invalidateSnapshot() {
+		if (snapshotPublisher != null) {
+			snapshotPublisher.invalidate();
+		}
+	}
+
+	/**
+	 * Takes the global read lock and enters an epoch of the reclaimer, so
+	 * that the entries found in {@link #bookMap} are not recycled before
+	 * {@link #unlockShared()}.
+	 */
+	private void lockShared() {
+		globalLock.readLock().lock();
+		reclaimer.enter();
+	}
+
+	/**
+	 * Leaves the epoch and releases the global read lock taken by
+	 * {@link #lockShared()}.
+	 */
+	private void unlockShared() {
+		reclaimer.exit();
+		globalLock.readLock().unlock();
+	}
+
+	/**
+	 * Gets the entry of a book, unless it was removed.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry, or null if the book is not in the catalog
+	 */
+	private CatalogEntry liveEntry(int isbn) {
+		CatalogEntry entry = bookMap.get(isbn);
+		return entry == null || entry.removed ? null : entry;
+	}
+
+	/**
+	 * Checks, under the locks of the given entries, that none of their books
+	 * was removed, so that the operation applies to all of them or to none.
+	 *
+	 * @param entries
+	 *            the entries by ISBN
+	 * @throws BookStoreException
+	 *             if a book was removed
+	 */
+	private static void checkNotRemoved(IntObjectHashMap<CatalogEntry> entries) throws BookStoreException {
+		for (CatalogEntry entry : entries.values()) {
+			if (entry.removed) {
+				throw new BookStoreException(
+						BookStoreConstants.ISBN + entry.book.getISBN() + BookStoreConstants.NOT_AVAILABLE);
+			}
+		}
+	}
+
+	/**
+	 * Gets a write-locked entry for a new book, reusing a reclaimed entry if
+	 * there is one.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the entry, not published yet
+	 */
+	private CatalogEntry newEntry(BookStoreBook book) {
+		CatalogEntry entry;
+		synchronized (freeEntries) {
+			entry = freeEntries.pollFirst();
+		}
+		if (entry == null) {
+			entry = new CatalogEntry();
+		}
+
+		entry.lock.writeLock().lock();
+		entry.book = book;
+		entry.removed = false;
+		return entry;
+	}
+
+	/**
+	 * Publishes a new entry in {@link #bookMap}, in place of the tombstone of
+	 * a removed book with the same ISBN if it is not unlinked yet.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @return true, unless the book is already in the catalog
+	 */
+	private boolean publish(CatalogEntry entry) {
+		int isbn = entry.book.getISBN();
+		for (;;) {
+			CatalogEntry current = bookMap.putIfAbsent(isbn, entry);
+			if (current == null || (current.removed && bookMap.replace(isbn, current, entry))) {
+				return true;
+			} else if (!current.removed) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Keeps a reclaimed entry for reuse, dropping its book.
+	 *
+	 * @param entry
+	 *            the entry, which no operation can observe any more
+	 */
+	private void recycle(CatalogEntry entry) {
+		entry.book = null;
+		synchronized (freeEntries) {
+			if (freeEntries.size() < MAX_FREE_ENTRIES) {
+				freeEntries.addLast(entry);
+			}
+		}
+	}
+
+	/**
+	 * Copies the catalog like {@link #getBooks()}, under the global read lock
+	 * and the read lock of every book in turn. The version is read first, so
+	 * a write racing with the copy outdates it.
+	 *
+	 * @return the snapshot
+	 */
+	private CatalogSnapshot buildSnapshot() {
+		lockShared();
+		try {
+			long version = snapshotPublisher.getVersion();
+			return new CatalogSnapshot(version, copyCatalog());
+		} finally {
+			unlockShared();
+		}
+	}
+
+	/**
+	 * Copies the books of the catalog under the read lock of every book in
+	 * turn, skipping the removed ones. Called under {@link #lockShared()}.
+	 *
+	 * @return the copies of the books
+	 */
+	private List<StockBook> copyCatalog() {
+		List<CatalogEntry> entries = bookMap.values();
+		List<StockBook> books = new ArrayList<>(entries.size());
+		for (CatalogEntry entry : entries) {
+			entry.lock.readLock().lock();
+			try {
+				if (!entry.removed) {
+					books.add(entry.book.immutableStockBook());
+				}
+			} finally {
+				entry.lock.readLock().unlock();
+			}
+		}
+		return books;
 	}
 	
 	private void validate(StockBook book) throws BookStoreException {
@@ -70,34 +517,60 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
 		}
 
-		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+		if (liveEntry(isbn) != null) {// Check if the book is not in stock
 			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
 		}
 	}	
 	
-	private void validate(BookCopy bookCopy) throws BookStoreException {
+	private CatalogEntry validate(BookCopy bookCopy) throws BookStoreException {
 		int isbn = bookCopy.getISBN();
 		int numCopies = bookCopy.getNumCopies();
 
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		CatalogEntry entry = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 
 		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
 			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
 		}
+		return entry;
 	}
 	
-	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+	private CatalogEntry validate(BookEditorPick editorPickArg) throws BookStoreException {
 		int isbn = editorPickArg.getISBN();
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		return validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private CatalogEntry validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		CatalogEntry entry = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid (in 0-5)
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+		return entry;
+	}
+
+	/**
+	 * Validates an ISBN and gets the entry of its book in the same lookup. The
+	 * book may be removed before its lock is taken, which
+	 * {@link #checkNotRemoved(IntObjectHashMap)} then detects.
+	 *
+	 * @param ISBN
+	 *            the ISBN
+	 * @return the entry of the book
+	 * @throws BookStoreException
+	 *             if the ISBN is invalid or the book is not in the catalog
+	 */
+	private CatalogEntry validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
-		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+		CatalogEntry entry = liveEntry(ISBN);
+		if (entry == null) {// Check if the book is in stock
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 		}
+		return entry;
 	}
 
 	/*
@@ -107,24 +580,61 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
-		globalLock.writeLock().lock();
-		try {
-			if (bookSet == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
+		lockShared();
+		List<CatalogEntry> entries = new ArrayList<>(bookSet.size());
+		boolean added = false;
+		try {
 			// Check if all are there
 			for (StockBook book : bookSet) {
 				validate(book);
 			}
 
+			// Publish the entries write-locked, so that the operations finding
+			// them wait until the whole set is added or given up. Another
+			// addBooks may have added one of the books since the validation.
 			for (StockBook book : bookSet) {
-				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
-				lockMap.put(isbn, new ReentrantReadWriteLock());
+				CatalogEntry entry = newEntry(new BookStoreBook(book));
+				if (!publish(entry)) {
+					entry.lock.writeLock().unlock();
+					recycle(entry);
+					throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+				}
+				entries.add(entry);
+			}
+
+			for (CatalogEntry entry : entries) {
+				BookStoreBook bookStoreBook = entry.book;
+				int isbn = bookStoreBook.getISBN();
+				editorPickLock.writeLock().lock();
+				try {
+					editorPickIndex.update(isbn, bookStoreBook, bookStoreBook.isEditorPick());
+				} finally {
+					editorPickLock.writeLock().unlock();
+				}
+				topRatedIndex.add(bookStoreBook.immutableBook(), bookStoreBook.getAverageRating());
+				if (bookStoreBook.hadSaleMiss()) {
+					inDemandBooks.put(isbn, bookStoreBook);
+				}
 			}
+			added = true;
 		} finally {
-			globalLock.writeLock().unlock();
+			for (CatalogEntry entry : entries) {
+				if (!added) {
+					// Given up, so the operations waiting for it find a tombstone.
+					entry.removed = true;
+					bookMap.remove(entry.book.getISBN(), entry);
+				}
+				entry.lock.writeLock().unlock();
+			}
+			if (!added) {
+				entries.forEach(reclaimer::retire);
+			}
+			invalidateSnapshot();
+			unlockShared();
 		}
 	}
 
@@ -135,37 +645,64 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		globalLock.readLock().lock();
-		try {
-			int isbn;
-			int numCopies;
+		if (combiner != null) {
+			if (bookCopiesSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+			combiner.execute(() -> addCopiesExclusively(bookCopiesSet));
+			return;
+		}
+		if (scheduler != null) {
+			if (bookCopiesSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+			scheduler.execute(isbnsOf(bookCopiesSet), () -> addCopiesWithBookLocks(bookCopiesSet));
+			return;
+		}
+		addCopiesWithBookLocks(bookCopiesSet);
+	}
 
+	/**
+	 * Adds copies like {@link #addCopies(Set)}, under the global read lock and
+	 * the write locks of the books, taken following the acquisition policy so
+	 * that a concurrent removal cannot interleave.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies to add
+	 * @throws BookStoreException
+	 *             if a copy is invalid, in which case none is added
+	 */
+	private void addCopiesWithBookLocks(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		lockShared();
+		try {
 			if (bookCopiesSet == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
+			int[] isbns = new int[bookCopiesSet.size()];
+			int i = 0;
+			IntObjectHashMap<CatalogEntry> entries = new IntObjectHashMap<>(isbns.length);
 			for (BookCopy bookCopy : bookCopiesSet) {
-				validate(bookCopy);
+				entries.put(bookCopy.getISBN(), validate(bookCopy));
+				isbns[i++] = bookCopy.getISBN();
 			}
 
-			BookStoreBook book;
+			bookLockAcquirer.runWithBookLocks(isbns, isbn -> entries.get(isbn).lock, true, () -> {
+				checkNotRemoved(entries);
 
-			// Update the number of copies
-			for (BookCopy bookCopy : bookCopiesSet) {
-				isbn = bookCopy.getISBN();
-				var bookLock = lockMap.get(isbn);
-				try {
-					// Lock book
-					bookLock.writeLock().lock();
-					numCopies = bookCopy.getNumCopies();
-					book = bookMap.get(isbn);
-					book.addCopies(numCopies);
-				} finally { 
-					bookLock.writeLock().unlock(); 
+				// Update the number of copies
+				for (BookCopy bookCopy : bookCopiesSet) {
+					int isbn = bookCopy.getISBN();
+					entries.get(isbn).book.addCopies(bookCopy.getNumCopies());
+
+					// Adding copies resets the sale misses.
+					inDemandBooks.remove(isbn);
 				}
-			}
+				return null;
+			});
 		} finally {
-			globalLock.readLock().unlock();
+			invalidateSnapshot();
+			unlockShared();
 		}
 	}
 
@@ -175,22 +712,15 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
 	public List<StockBook> getBooks() {
-		globalLock.readLock().lock();
+		if (snapshotPublisher != null) {
+			return snapshotPublisher.get(this::buildSnapshot).getBooks();
+		}
+
+		lockShared();
 		try {
-			Collection<BookStoreBook> bookMapValues = bookMap.values();
-			return bookMapValues.stream().map(book -> {
-				int isbn = book.getISBN();
-				var bookLock = lockMap.get(isbn);
-				bookLock.readLock().lock();
-				try {
-					return book.immutableStockBook();
-				} finally { 
-					bookLock.readLock().unlock(); 
-				}
-			})
-			.collect(Collectors.toList());
+			return copyCatalog();
 		} finally { 
-			globalLock.readLock().unlock(); 
+			unlockShared(); 
 		}
 	}
 
@@ -206,24 +736,37 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (editorPicks == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-		globalLock.readLock().lock();
+		lockShared();
 		try {
-
+			int[] isbns = new int[editorPicks.size()];
+			int i = 0;
+			IntObjectHashMap<CatalogEntry> entries = new IntObjectHashMap<>(isbns.length);
 			for (BookEditorPick editorPickArg : editorPicks) {
-				validate(editorPickArg);
+				entries.put(editorPickArg.getISBN(), validate(editorPickArg));
+				isbns[i++] = editorPickArg.getISBN();
 			}
 
-			for (BookEditorPick editorPickArg : editorPicks) {
-				var bookLock = lockMap.get(editorPickArg.getISBN());
-				bookLock.writeLock().lock();
-				try {
-					bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
-				} finally {
-					bookLock.writeLock().unlock();
+			bookLockAcquirer.runWithBookLocks(isbns, isbn -> entries.get(isbn).lock, true, () -> {
+				checkNotRemoved(entries);
+
+				for (BookEditorPick editorPickArg : editorPicks) {
+					BookStoreBook book = entries.get(editorPickArg.getISBN()).book;
+					book.setEditorPick(editorPickArg.isEditorPick());
+
+					// Update the index under the book lock, so that it ends in
+					// the same state as the book.
+					editorPickLock.writeLock().lock();
+					try {
+						editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+					} finally {
+						editorPickLock.writeLock().unlock();
+					}
 				}
-			}
+				return null;
+			});
 		} finally { 
-			globalLock.readLock().unlock(); 
+			invalidateSnapshot();
+			unlockShared(); 
 		}
 	}
 
@@ -236,62 +779,134 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (bookCopiesToBuy == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
+		if (combiner != null) {
+			combiner.execute(() -> buyBooksExclusively(bookCopiesToBuy));
+			return;
+		}
+		if (scheduler != null) {
+			scheduler.execute(isbnsOf(bookCopiesToBuy), () -> buyBooksWithBookLocks(bookCopiesToBuy));
+			return;
+		}
+		buyBooksWithBookLocks(bookCopiesToBuy);
+	}
+
+	/**
+	 * Buys books like {@link #buyBooks(Set)}, under the global read lock and
+	 * the write locks of the books, taken following the acquisition policy.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @throws BookStoreException
+	 *             if a copy is invalid or not in stock, in which case none is
+	 *             bought and the sale misses are recorded
+	 */
+	private void buyBooksWithBookLocks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
 		// Simulate global intention
-		globalLock.readLock().lock();
+		lockShared();
 		try {
-			// Check that all ISBNs that we buy are there first.
-			int isbn;
-			BookStoreBook book;
-			Boolean saleMiss = false;
+			// Check that all ISBNs that we buy are there first, then again
+			// under the book locks, should a book be removed meanwhile.
+			int[] isbns = new int[bookCopiesToBuy.size()];
+			int i = 0;
+			IntObjectHashMap<CatalogEntry> entries = new IntObjectHashMap<>(isbns.length);
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				entries.put(bookCopyToBuy.getISBN(), validate(bookCopyToBuy));
+				isbns[i++] = bookCopyToBuy.getISBN();
+			}
 
-			Map<Integer, Integer> salesMisses = new HashMap<>();
-            List<Integer> LockedBookISBNs = new ArrayList<Integer>();
+			bookLockAcquirer.runWithBookLocks(isbns, isbn -> entries.get(isbn).lock, true, () -> {
+				checkNotRemoved(entries);
 
-			try {
-				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-					isbn = bookCopyToBuy.getISBN();
-
-					// Validate before locking, i.e. don't return null
-					validate(bookCopyToBuy);
-					var bookLock = lockMap.get(isbn);
-					bookLock.writeLock().lock();
-                    LockedBookISBNs.add(isbn);
-					book = bookMap.get(isbn);
+				BookStoreBook book;
+				Map<Integer, Integer> salesMisses = new HashMap<>();
 
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					book = entries.get(bookCopyToBuy.getISBN()).book;
 					if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
 						// If we cannot sell the copies of the book, it is a miss.
-						salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-						saleMiss = true;
+						salesMisses.put(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
 					}
 				}
 
 				// We throw exception now since we want to see how many books in the
 				// order incurred misses which is used by books in demand
-				if (saleMiss) {
+				if (!salesMisses.isEmpty()) {
 					for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-						book = bookMap.get(saleMissEntry.getKey());
+						book = entries.get(saleMissEntry.getKey()).book;
 						book.addSaleMiss(saleMissEntry.getValue());
+						inDemandBooks.put(saleMissEntry.getKey(), book);
 					}
 					throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 				}
 
 				// Then make the purchase.
 				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-					book = bookMap.get(bookCopyToBuy.getISBN());
+					book = entries.get(bookCopyToBuy.getISBN()).book;
 					book.buyCopies(bookCopyToBuy.getNumCopies());
 				}
-			} finally {
-				// Release all locks
-				for (var lockedISBN : LockedBookISBNs) {
-					var bookLock = lockMap.get(lockedISBN);
-                    if (bookLock == null) {
-                        System.out.println(bookCopiesToBuy);
-                    }
-					bookLock.writeLock().unlock();
-				}
-			}
+				return null;
+			});
 		} finally { 
-			globalLock.readLock().unlock(); 
+			invalidateSnapshot();
+			unlockShared(); 
+		}
+	}
+
+	/**
+	 * Adds copies like {@link #addCopies(Set)}, for the combiner holding the
+	 * global write lock, so without any book lock. No catalog change is in
+	 * progress, so every entry of {@link #bookMap} is live.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies to add
+	 * @throws BookStoreException
+	 *             if a copy is invalid, in which case none is added
+	 */
+	private void addCopiesExclusively(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+		}
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			bookMap.get(bookCopy.getISBN()).book.addCopies(bookCopy.getNumCopies());
+
+			// Adding copies resets the sale misses.
+			inDemandBooks.remove(bookCopy.getISBN());
+		}
+	}
+
+	/**
+	 * Buys books like {@link #buyBooks(Set)}, for the combiner holding the
+	 * global write lock, so without any book lock.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @throws BookStoreException
+	 *             if a copy is invalid or not in stock, in which case none is
+	 *             bought and the sale misses are recorded
+	 */
+	private void buyBooksExclusively(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		Map<Integer, Integer> salesMisses = new HashMap<>();
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			validate(bookCopyToBuy);
+			BookStoreBook book = bookMap.get(bookCopyToBuy.getISBN()).book;
+			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+				salesMisses.put(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+			}
+		}
+
+		if (!salesMisses.isEmpty()) {
+			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+				BookStoreBook book = bookMap.get(saleMissEntry.getKey()).book;
+				book.addSaleMiss(saleMissEntry.getValue());
+				inDemandBooks.put(saleMissEntry.getKey(), book);
+			}
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			bookMap.get(bookCopyToBuy.getISBN()).book.buyCopies(bookCopyToBuy.getNumCopies());
 		}
 	}
 
@@ -306,23 +921,29 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-		globalLock.readLock().lock();
+		lockShared();
 		try {
+			CatalogEntry[] entries = new CatalogEntry[isbnSet.size()];
+			int i = 0;
 			for (Integer ISBN : isbnSet) {
-				validateISBNInStock(ISBN);
+				entries[i++] = validateISBNInStock(ISBN);
 			}
-			return isbnSet.stream().map(isbn -> {
-				var bookLock = lockMap.get(isbn);
-				bookLock.readLock().lock();
+			List<StockBook> books = new ArrayList<>(entries.length);
+			for (CatalogEntry entry : entries) {
+				entry.lock.readLock().lock();
 				try {
-					return bookMap.get(isbn).immutableStockBook();
+					if (entry.removed) {
+						throw new BookStoreException(
+								BookStoreConstants.ISBN + entry.book.getISBN() + BookStoreConstants.NOT_AVAILABLE);
+					}
+					books.add(entry.book.immutableStockBook());
 				} finally { 
-					bookLock.readLock().unlock();
+					entry.lock.readLock().unlock();
 				}
-			})
-			.collect(Collectors.toList());
+			}
+			return books;
 		} finally { 
-			globalLock.readLock().unlock(); 
+			unlockShared(); 
 		}
 	}
 
@@ -335,31 +956,26 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-		globalLock.readLock().lock();
+		lockShared();
 		try {
-            List<Integer> LockedBookISBNs = new ArrayList<Integer>();
+			// Validate before locking, then check again under the book locks
+			// that no book was removed meanwhile.
+			int[] isbns = new int[isbnSet.size()];
+			int i = 0;
+			IntObjectHashMap<CatalogEntry> entries = new IntObjectHashMap<>(isbns.length);
+			for (int isbn : isbnSet) {
+				entries.put(isbn, validateISBNInStock(isbn));
+				isbns[i++] = isbn;
+			}
 
-			// Lock all books first, then validate
-			try {
-				for (int isbn : isbnSet) {
-					validateISBNInStock(isbn); // val before lock
-					var bookLock = lockMap.get(isbn);
-					bookLock.readLock().lock();
-                    LockedBookISBNs.add(isbn);
-				}
-				
+			return bookLockAcquirer.runWithBookLocks(isbns, isbn -> entries.get(isbn).lock, false, () -> {
+				checkNotRemoved(entries);
 				return isbnSet.stream()
-						.map(isbn -> bookMap.get(isbn).immutableBook())
+						.map(isbn -> entries.get(isbn).book.immutableBook())
 						.collect(Collectors.toList());
-			} finally {
-				// Release all locks
-				for (int isbn : LockedBookISBNs) {
-					var bookLock = lockMap.get(isbn);
-					bookLock.readLock().unlock();
-				}
-			}
+			});
 		} finally {
-			globalLock.readLock().unlock();
+			unlockShared();
 		}
 	}
 
@@ -375,53 +991,19 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		
 		globalLock.readLock().lock();
 		try {
-			// Identify which books are editor picks (only need ISBNs)
-			List<Integer> editorPickIsbns = bookMap.entrySet().stream()
-				.map(Entry::getKey)  // Get ISBN
-				.filter(isbn -> {
-					var bookLock = lockMap.get(isbn);
-					bookLock.readLock().lock();
-					try {
-						return bookMap.get(isbn).isEditorPick();
-					} finally {
-						bookLock.readLock().unlock();
-					}
-				})
-				.collect(Collectors.toList());
-			
-			// Find numBooks random indices of books that will be picked
-			Random rand = new Random();
-			Set<Integer> tobePicked = new HashSet<>();
-			int rangePicks = editorPickIsbns.size();
-			
-			if (rangePicks <= numBooks) {
-				// We need to add all books
-				for (int i = 0; i < editorPickIsbns.size(); i++) {
-					tobePicked.add(i);
-				}
-			} else {
-				// We need to pick randomly the books that need to be returned
-				int randNum;
-				while (tobePicked.size() < numBooks) {
-					randNum = rand.nextInt(rangePicks);
-					tobePicked.add(randNum);
-				}
+			// Sample the index instead of scanning the catalog. The sampled
+			// attributes are immutable, so no book lock is needed.
+			List<BookStoreBook> picks;
+			editorPickLock.readLock().lock();
+			try {
+				picks = editorPickIndex.sample(numBooks);
+			} finally {
+				editorPickLock.readLock().unlock();
 			}
-			
-			// Get the actual book data for selected indices
-			return tobePicked.stream()
-				.map(index -> {
-					int isbn = editorPickIsbns.get(index);
-					var bookLock = lockMap.get(isbn);
-					bookLock.readLock().lock();
-					try {
-						return bookMap.get(isbn).immutableBook();
-					} finally {
-						bookLock.readLock().unlock();
-					}
-				})
+
+			return picks.stream()
+				.map(BookStoreBook::immutableBook)
 				.collect(Collectors.toList());
-				
 		} finally { 
 			globalLock.readLock().unlock(); 
 		}
@@ -434,7 +1016,21 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		} else if (numBooks > topRatedIndex.size()) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it exceeds the number of books in the store");
+		}
+
+		// Read the index without locking, so that the buyers are not blocked.
+		List<Book> topRatedBooks = topRatedIndex.top(numBooks);
+
+		// Books may have been removed in the meantime.
+		if (topRatedBooks.size() < numBooks) {
+			throw new BookStoreException("Not enough books in the store to get top " + numBooks + " rated books.");
+		}
+
+		return topRatedBooks;
 	}
 
 	/*
@@ -444,7 +1040,33 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		if (snapshotPublisher != null) {
+			return snapshotPublisher.get(this::buildSnapshot).getBooksInDemand();
+		}
+
+		lockShared();
+		try {
+			// Only the books with sale misses are visited. A book may have
+			// been replenished or removed since, so check again under its lock.
+			List<StockBook> books = new ArrayList<>();
+			for (BookStoreBook book : inDemandBooks.values()) {
+				CatalogEntry entry = bookMap.get(book.getISBN());
+				if (entry == null) {
+					continue;
+				}
+				entry.lock.readLock().lock();
+				try {
+					if (entry.book == book && !entry.removed && book.hadSaleMiss()) {
+						books.add(book.immutableStockBook());
+					}
+				} finally {
+					entry.lock.readLock().unlock();
+				}
+			}
+			return books;
+		} finally {
+			unlockShared();
+		}
 	}
 
 	/*
@@ -454,7 +1076,36 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+		lockShared();
+		try {
+			int[] isbns = new int[bookRating.size()];
+			int i = 0;
+			IntObjectHashMap<CatalogEntry> entries = new IntObjectHashMap<>(isbns.length);
+			for (BookRating ratingToValidate : bookRating) {
+				entries.put(ratingToValidate.getISBN(), validate(ratingToValidate));
+				isbns[i++] = ratingToValidate.getISBN();
+			}
+
+			bookLockAcquirer.runWithBookLocks(isbns, isbn -> entries.get(isbn).lock, true, () -> {
+				checkNotRemoved(entries);
+
+				for (BookRating ratingToAdd : bookRating) {
+					// Move the book in the index under its lock, so that the
+					// index ends in the same order as the ratings.
+					BookStoreBook book = entries.get(ratingToAdd.getISBN()).book;
+					float averageRating = book.getAverageRating();
+					book.addRating(ratingToAdd.getRating());
+					topRatedIndex.update(book.getISBN(), averageRating, book.getAverageRating());
+				}
+				return null;
+			});
+		} finally {
+			invalidateSnapshot();
+			unlockShared();
+		}
 	}
 
 	/*
@@ -465,9 +1116,14 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	public void removeAllBooks() throws BookStoreException {
 		globalLock.writeLock().lock();
 		try {
+			// No operation holds an entry under the global write lock, so they
+			// are dropped without going through the reclaimer.
 			bookMap.clear();
-			lockMap.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			inDemandBooks.clear();
 		} finally {
+			invalidateSnapshot();
 			globalLock.writeLock().unlock();
 		}
 	}
@@ -483,24 +1139,44 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		globalLock.writeLock().lock();
+		lockShared();
 		try {
+			int[] isbns = new int[isbnSet.size()];
+			int i = 0;
+			IntObjectHashMap<CatalogEntry> entries = new IntObjectHashMap<>(isbns.length);
 			for (Integer ISBN : isbnSet) {
-				if (BookStoreUtility.isInvalidISBN(ISBN)) {
-					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-				}
+				entries.put(ISBN, validateISBNInStock(ISBN));
+				isbns[i++] = ISBN;
+			}
+
+			// Unindex the books under their write locks, so that no operation
+			// on them interleaves, then mark them as removed and unlink them.
+			// The tombstone is set last: an add of the same ISBN replaces it
+			// at once, and its index entries must not be removed here.
+			bookLockAcquirer.runWithBookLocks(isbns, isbn -> entries.get(isbn).lock, true, () -> {
+				checkNotRemoved(entries);
 
-				if (!bookMap.containsKey(ISBN)) {
-					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				for (CatalogEntry entry : entries.values()) {
+					int isbn = entry.book.getISBN();
+					topRatedIndex.remove(isbn, entry.book.getAverageRating());
+					editorPickLock.writeLock().lock();
+					try {
+						editorPickIndex.remove(isbn);
+					} finally {
+						editorPickLock.writeLock().unlock();
+					}
+					inDemandBooks.remove(isbn);
+					entry.removed = true;
+					bookMap.remove(isbn, entry);
 				}
-			}
+				return null;
+			});
 
-			for (int isbn : isbnSet) {
-				bookMap.remove(isbn);
-				lockMap.remove(isbn);
-			} 
+			entries.values().forEach(reclaimer::retire);
 		} finally {
-			globalLock.writeLock().unlock();
+			invalidateSnapshot();
+			unlockShared();
 		}
+		reclaimer.tryReclaim();
 	}
 }
@@ -0,0 +1,493 @@
+package com.acertainbookstore.business;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLog} is an append-only log of records in a file. Every
+ * record is framed by its length and a CRC32 of its bytes, so that a record
+ * torn by a crash is detected, and truncated, when the log is opened again.
+ *
+ * Appended records are buffered in memory and written to the file, then
+ * forced to disk, according to the {@link Durability} of the log. With group
+ * commit, the first committer waiting for its record becomes the leader: it
+ * takes the whole buffer and writes and forces it outside the lock, while the
+ * next committers append to a fresh buffer and wait, so that many concurrent
+ * commits share one {@link FileChannel#force(boolean)}.
+ *
+ * Records are numbered by their log sequence number (LSN), starting at 1 with
+ * the first record appended after opening the log, and located by their
+ * offset in the file, which a checkpoint uses to resume the replay after the
+ * records it covers.
+ */
+public class WriteAheadLog implements Closeable {
+
+	/**
+	 * When a committed record is on disk.
+	 */
+	public enum Durability {
+
+		/** Every commit writes and forces its own record before returning. */
+		COMMIT,
+
+		/** Concurrent commits wait for one force of all their records. */
+		GROUP,
+
+		/**
+		 * Commits return at once, and a background thread forces the log every
+		 * {@link WriteAheadLog#ASYNC_FORCE_INTERVAL_MILLIS} milliseconds, so a
+		 * crash may lose the last commits.
+		 */
+		ASYNC;
+	}
+
+	/**
+	 * Applies the records of a log when it is opened.
+	 */
+	@FunctionalInterface
+	public interface RecordConsumer {
+
+		/**
+		 * Applies a record.
+		 *
+		 * @param record
+		 *            the record
+		 * @throws BookStoreException
+		 *             if the record cannot be applied
+		 */
+		void accept(byte[] record) throws BookStoreException;
+	}
+
+	/** The interval at which an asynchronous log is forced. */
+	public static final long ASYNC_FORCE_INTERVAL_MILLIS = 10;
+
+	/** The length and CRC32 before every record. */
+	private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+	private final FileChannel channel;
+	private final Durability durability;
+
+	/** Guards the fields below, and the writes of the COMMIT durability. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled when a force completes. */
+	private final Condition forced = lock.newCondition();
+
+	/** The framed records appended but not yet written. */
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	/** The LSN of the last appended record. */
+	private long appendedLsn = 0;
+
+	/** The offset in the file after the last appended record. */
+	private long appendedOffset;
+
+	/** The LSN of the last record on disk. */
+	private long durableLsn = 0;
+
+	/** Whether a leader is writing and forcing a batch. */
+	private boolean forcing = false;
+
+	private boolean closed = false;
+
+	/**
+	 * The first write or force failure. The records of the failed batch are
+	 * lost, so the log refuses any further commit.
+	 */
+	private IOException failure = null;
+
+	/** The number of forces, to measure how many commits share one. */
+	private final AtomicLong numForces = new AtomicLong();
+
+	/** The background thread forcing an ASYNC log, otherwise null. */
+	private final Thread forcer;
+
+	private WriteAheadLog(FileChannel channel, Durability durability, long size) {
+		this.channel = channel;
+		this.durability = durability;
+		this.appendedOffset = size;
+
+		if (durability == Durability.ASYNC) {
+			forcer = new Thread(this::forceContinuously, "WriteAheadLog-forcer");
+			forcer.setDaemon(true);
+			forcer.start();
+		} else {
+			forcer = null;
+		}
+	}
+
+	/**
+	 * Opens a log, creating its file if needed. The records already in the
+	 * log are passed to <code>consumer</code> in order, up to the first torn or
+	 * corrupt record, where the file is truncated. New records are appended
+	 * after the last valid one.
+	 *
+	 * @param path
+	 *            the file of the log
+	 * @param durability
+	 *            the durability of the commits
+	 * @param consumer
+	 *            the consumer of the records already in the log
+	 * @return the log
+	 * @throws IOException
+	 *             if the file cannot be read, truncated or opened
+	 * @throws BookStoreException
+	 *             if the consumer fails to apply a record
+	 */
+	public static WriteAheadLog open(Path path, Durability durability, RecordConsumer consumer)
+			throws IOException, BookStoreException {
+		return open(path, durability, 0, consumer);
+	}
+
+	/**
+	 * Opens a log like {@link #open(Path, Durability, RecordConsumer)}, but
+	 * only passes the records from <code>fromOffset</code> on to the consumer,
+	 * e.g. the records after a checkpoint.
+	 *
+	 * @param path
+	 *            the file of the log
+	 * @param durability
+	 *            the durability of the commits
+	 * @param fromOffset
+	 *            the offset of the first record to replay
+	 * @param consumer
+	 *            the consumer of the records from the offset on
+	 * @return the log
+	 * @throws IOException
+	 *             if the file cannot be read, truncated or opened, or ends
+	 *             before the offset
+	 * @throws BookStoreException
+	 *             if the consumer fails to apply a record
+	 */
+	public static WriteAheadLog open(Path path, Durability durability, long fromOffset, RecordConsumer consumer)
+			throws IOException, BookStoreException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		long position = fromOffset;
+		try {
+			long size = channel.size();
+			if (fromOffset > size) {
+				throw new IOException("The log ends at " + size + ", before the offset " + fromOffset);
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			CRC32 crc = new CRC32();
+
+			while (position + HEADER_BYTES <= size) {
+				header.clear();
+				readFully(channel, header, position);
+				header.flip();
+				int length = header.getInt();
+				int checksum = header.getInt();
+				if (length < 0 || position + HEADER_BYTES + length > size) {
+					break;
+				}
+
+				ByteBuffer record = ByteBuffer.allocate(length);
+				readFully(channel, record, position + HEADER_BYTES);
+				crc.reset();
+				crc.update(record.array());
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+
+				consumer.accept(record.array());
+				position += HEADER_BYTES + length;
+			}
+
+			// Drop the torn tail, if any, so that new records follow valid ones.
+			channel.truncate(position);
+			channel.position(position);
+			channel.force(true);
+		} catch (IOException | BookStoreException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+
+		return new WriteAheadLog(channel, durability, position);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of log");
+			}
+		}
+	}
+
+	/**
+	 * Gets the durability of the commits.
+	 *
+	 * @return the durability
+	 */
+	public Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * Gets the number of forces since the log was opened.
+	 *
+	 * @return the number of forces
+	 */
+	public long getNumForces() {
+		return numForces.get();
+	}
+
+	/**
+	 * Gets the offset in the file after the last appended record, whether it
+	 * is on disk or not.
+	 *
+	 * @return the offset
+	 */
+	public long getAppendedOffset() {
+		lock.lock();
+		try {
+			return appendedOffset;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends a record. With the COMMIT durability the record is on disk when
+	 * this method returns, otherwise {@link #awaitDurable(long)} must be called
+	 * with the returned LSN to commit it. Records are logged in the order of
+	 * the calls, so the caller must append conflicting records in the order it
+	 * applied them.
+	 *
+	 * @param record
+	 *            the record
+	 * @return the LSN of the record
+	 * @throws IOException
+	 *             if the record cannot be written or forced
+	 */
+	public long append(byte[] record) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(record.length).putInt((int) crc.getValue());
+
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IOException("The log is closed");
+			}
+			checkFailure();
+
+			pending.write(header.array(), 0, HEADER_BYTES);
+			pending.write(record, 0, record.length);
+			appendedOffset += HEADER_BYTES + record.length;
+			long lsn = ++appendedLsn;
+
+			if (durability == Durability.COMMIT) {
+				// Write and force under the lock: every commit pays its own force.
+				ByteArrayOutputStream batch = pending;
+				pending = new ByteArrayOutputStream();
+				writeAndForce(batch);
+				durableLsn = lsn;
+			}
+			return lsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the record with the given LSN is on disk. Returns at once for
+	 * the COMMIT durability, whose records are on disk when appended, and for
+	 * the ASYNC durability, whose records are forced in the background, unless
+	 * a background force failed since.
+	 *
+	 * @param lsn
+	 *            the LSN returned by {@link #append(byte[])}
+	 * @throws IOException
+	 *             if the log cannot be written or forced
+	 */
+	public void awaitDurable(long lsn) throws IOException {
+		if (durability == Durability.GROUP) {
+			awaitForced(lsn);
+		} else if (durability == Durability.ASYNC) {
+			lock.lock();
+			try {
+				checkFailure();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all the records appended so far are on disk, whatever the
+	 * durability of the log.
+	 *
+	 * @throws IOException
+	 *             if the log cannot be written or forced
+	 */
+	public void force() throws IOException {
+		long lsn;
+		lock.lock();
+		try {
+			lsn = appendedLsn;
+		} finally {
+			lock.unlock();
+		}
+		awaitForced(lsn);
+	}
+
+	/**
+	 * Waits until the record with the given LSN is on disk, forcing the log as
+	 * the leader if no force is running.
+	 *
+	 * @param lsn
+	 *            the LSN
+	 * @throws IOException
+	 *             if the log cannot be written or forced
+	 */
+	private void awaitForced(long lsn) throws IOException {
+		lock.lock();
+		try {
+			while (durableLsn < lsn) {
+				checkFailure();
+				if (forcing) {
+					forced.awaitUninterruptibly();
+				} else {
+					forceBatch();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes and forces the pending records as the leader. Must be called
+	 * holding {@link #lock}, which is released during the I/O so that the
+	 * next commits can append, and is held again on return.
+	 *
+	 * @throws IOException
+	 *             if the records cannot be written or forced
+	 */
+	private void forceBatch() throws IOException {
+		ByteArrayOutputStream batch = pending;
+		long batchLsn = appendedLsn;
+		pending = new ByteArrayOutputStream();
+		forcing = true;
+
+		boolean done = false;
+		lock.unlock();
+		try {
+			writeAndForce(batch);
+			done = true;
+		} finally {
+			lock.lock();
+			forcing = false;
+			if (done) {
+				durableLsn = batchLsn;
+			}
+			forced.signalAll();
+		}
+	}
+
+	private void writeAndForce(ByteArrayOutputStream batch) throws IOException {
+		try {
+			if (batch.size() > 0) {
+				ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			channel.force(false);
+			numForces.incrementAndGet();
+		} catch (IOException ex) {
+			lock.lock();
+			try {
+				if (failure == null) {
+					failure = ex;
+				}
+			} finally {
+				lock.unlock();
+			}
+			throw ex;
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("The log failed", failure);
+		}
+	}
+
+	/**
+	 * Forces the log every {@link #ASYNC_FORCE_INTERVAL_MILLIS} milliseconds,
+	 * until it is closed. The thread is never interrupted, since an interrupt
+	 * during I/O would close the channel.
+	 */
+	private void forceContinuously() {
+		lock.lock();
+		try {
+			while (!closed) {
+				forced.await(ASYNC_FORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				if (!closed && !forcing && failure == null && durableLsn < appendedLsn) {
+					try {
+						forceBatch();
+					} catch (IOException ex) {
+						// The failure is recorded by writeAndForce, and thrown
+						// by the next append, awaitDurable or force.
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forces the records appended so far and closes the log.
+	 *
+	 * @throws IOException
+	 *             if the records cannot be written or forced
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			forced.signalAll();
+			while (forcing) {
+				forced.awaitUninterruptibly();
+			}
+
+			ByteArrayOutputStream batch = pending;
+			pending = new ByteArrayOutputStream();
+			writeAndForce(batch);
+			durableLsn = appendedLsn;
+		} finally {
+			lock.unlock();
+		}
+
+		if (forcer != null) {
+			try {
+				forcer.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		channel.close();
+	}
+}
@@ -0,0 +1,136 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acertainbookstore.business.AdaptiveLockManager;
+import com.acertainbookstore.business.LockManager;
+import com.acertainbookstore.business.LockManagerCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link AdaptiveEngineBenchmark} alternates catalog maintenance windows,
+ * where most operations add and remove books, with shopping peaks, where
+ * most operations buy books or get the editor picks, and compares the
+ * throughput of every phase under the global, per-book and adaptive lock
+ * policies (cf. {@link LockManager}). After the adaptive policy, it prints
+ * its transitions between single-lock and per-book mode. Optionally pass the
+ * number of threads as argument.
+ */
+public class AdaptiveEngineBenchmark {
+
+	/** The policies compared. */
+	private static final String[] POLICIES = { LockManager.GLOBAL, LockManager.PER_BOOK, LockManager.ADAPTIVE };
+
+	/** The default number of threads. */
+	private static final int DEFAULT_NUM_THREADS = 16;
+
+	/** The number of books in the catalog bought from. */
+	private static final int NUM_BOOKS = 10_000;
+
+	/** The number of books in a cart. */
+	private static final int CART_SIZE = 5;
+
+	/** The first ISBN of the books added and removed during maintenance. */
+	private static final int MAINTENANCE_FIRST_ISBN = 1_000_000;
+
+	/** The number of books added and removed at once during maintenance. */
+	private static final int MAINTENANCE_BATCH_SIZE = 10;
+
+	/** The number of maintenance windows and shopping peaks, each. */
+	private static final int NUM_CYCLES = 3;
+
+	/** The duration of a phase. */
+	private static final long PHASE_MILLIS = 2_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link AdaptiveEngineBenchmark}.
+	 */
+	private AdaptiveEngineBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the number of threads
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_THREADS;
+
+		System.out.println("policy,cycle,phase,operations_per_sec,mode");
+		for (String policy : POLICIES) {
+			LockManagerCertainBookStore store = new LockManagerCertainBookStore(LockManager.newLockManager(policy));
+			store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+					BenchmarkUtility.PLENTY_OF_COPIES));
+
+			AtomicInteger nextIsbn = new AtomicInteger(MAINTENANCE_FIRST_ISBN);
+			BenchmarkUtility.Operation maintenance = random -> {
+				if (random.nextInt(10) < 8) {
+					// Give every batch fresh ISBNs, so that the threads do not
+					// add the same books.
+					int firstIsbn = nextIsbn.getAndAdd(MAINTENANCE_BATCH_SIZE);
+					Set<StockBook> books = BenchmarkUtility.newStockBooks(firstIsbn, MAINTENANCE_BATCH_SIZE, 1);
+					Set<Integer> isbns = new HashSet<>();
+					for (StockBook book : books) {
+						isbns.add(book.getISBN());
+					}
+					store.addBooks(books);
+					store.removeBooks(isbns);
+				} else {
+					store.buyBooks(BenchmarkUtility.newCart(random, NUM_BOOKS, CART_SIZE));
+				}
+			};
+			BenchmarkUtility.Operation shopping = random -> {
+				if (random.nextInt(10) < 9) {
+					store.buyBooks(BenchmarkUtility.newCart(random, NUM_BOOKS, CART_SIZE));
+				} else {
+					store.getEditorPicks(CART_SIZE);
+				}
+			};
+
+			for (int cycle = 0; cycle < NUM_CYCLES; cycle++) {
+				measure(store, policy, cycle, "maintenance", numThreads, maintenance);
+				measure(store, policy, cycle, "shopping", numThreads, shopping);
+			}
+
+			if (store.getLockManager() instanceof AdaptiveLockManager) {
+				for (AdaptiveLockManager.Transition transition : ((AdaptiveLockManager) store.getLockManager())
+						.getTransitions()) {
+					System.out.println("# " + transition);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures and prints the throughput of a phase.
+	 *
+	 * @param store
+	 *            the book store
+	 * @param policy
+	 *            the name of the policy
+	 * @param cycle
+	 *            the number of the cycle
+	 * @param phase
+	 *            the name of the phase
+	 * @param numThreads
+	 *            the number of threads
+	 * @param operation
+	 *            the operation of the phase
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void measure(LockManagerCertainBookStore store, String policy, int cycle, String phase,
+			int numThreads, BenchmarkUtility.Operation operation) throws Exception {
+		double throughput = BenchmarkUtility.measureThroughput(numThreads, PHASE_MILLIS, operation);
+		String mode = store.getLockManager() instanceof AdaptiveLockManager
+				? ((AdaptiveLockManager) store.getLockManager()).getMode().toString()
+				: "";
+		System.out.println(policy + "," + cycle + "," + phase + "," + String.format("%.0f", throughput) + "," + mode);
+	}
+}
@@ -0,0 +1,204 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BenchmarkUtility} implements the helpers shared by the in-process
+ * benchmarks of the book store implementations: generating catalogs, measuring
+ * the heap and running an operation from many threads for a fixed time.
+ */
+public final class BenchmarkUtility {
+
+	/** The first ISBN of a generated catalog. */
+	public static final int FIRST_ISBN = 1;
+
+	/** The number of copies of each generated book, enough to never run out. */
+	public static final int PLENTY_OF_COPIES = Integer.MAX_VALUE / 2;
+
+	/** The thread counts used for the scaling benchmarks. */
+	public static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+
+	/**
+	 * An operation run by a benchmark thread.
+	 */
+	@FunctionalInterface
+	public interface Operation {
+
+		/**
+		 * Runs the operation once.
+		 *
+		 * @param random
+		 *            the random number generator of the thread
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void run(ThreadLocalRandom random) throws BookStoreException;
+	}
+
+	/**
+	 * Prevents the instantiation of a new {@link BenchmarkUtility}.
+	 */
+	private BenchmarkUtility() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Generates <code>num</code> books with consecutive ISBNs starting at
+	 * <code>firstIsbn</code>. Every fourth book is an editor pick.
+	 *
+	 * @param firstIsbn
+	 *            the first ISBN
+	 * @param num
+	 *            the number of books
+	 * @param numCopies
+	 *            the number of copies of every book
+	 * @return the books
+	 */
+	public static Set<StockBook> newStockBooks(int firstIsbn, int num, int numCopies) {
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = firstIsbn; isbn < firstIsbn + num; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title_" + Integer.toString(isbn, 36),
+					"Author_" + Integer.toString(isbn, 36), 10.0f, numCopies, 0, 0, 0, isbn % 4 == 0));
+		}
+
+		return books;
+	}
+
+	/**
+	 * Generates a cart of <code>cartSize</code> distinct books, uniformly
+	 * sampled from a catalog generated by {@link #newStockBooks}.
+	 *
+	 * @param random
+	 *            the random number generator
+	 * @param catalogSize
+	 *            the catalog size
+	 * @param cartSize
+	 *            the number of distinct books in the cart
+	 * @return the cart
+	 */
+	public static Set<BookCopy> newCart(ThreadLocalRandom random, int catalogSize, int cartSize) {
+		Set<BookCopy> cart = new HashSet<>();
+
+		while (cart.size() < Math.min(cartSize, catalogSize)) {
+			cart.add(new BookCopy(FIRST_ISBN + random.nextInt(catalogSize), 1));
+		}
+
+		return cart;
+	}
+
+	/**
+	 * Gets the number of bytes used on the heap after garbage collection.
+	 *
+	 * @return the used heap in bytes
+	 */
+	public static long usedHeapBytes() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+
+		// A few rounds since a single System.gc() is only a hint.
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+
+		return used;
+	}
+
+	/**
+	 * Runs <code>operation</code> from <code>numThreads</code> threads for
+	 * <code>durationMillis</code> milliseconds and reports the throughput.
+	 * Operations failing with a {@link BookStoreException} are not counted.
+	 *
+	 * @param numThreads
+	 *            the number of threads
+	 * @param durationMillis
+	 *            the duration of the measurement
+	 * @param operation
+	 *            the operation
+	 * @return the throughput in successful operations per second
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public static double measureThroughput(int numThreads, long durationMillis, Operation operation)
+			throws InterruptedException {
+		LongAdder successfulOperations = new LongAdder();
+		AtomicBoolean running = new AtomicBoolean(true);
+		CountDownLatch started = new CountDownLatch(numThreads);
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < numThreads; i++) {
+			Thread thread = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				started.countDown();
+
+				while (running.get()) {
+					try {
+						operation.run(random);
+						successfulOperations.increment();
+					} catch (BookStoreException ex) {
+						// Failed operations do not count.
+					}
+				}
+			});
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+
+		started.await();
+		long startTimeInNanoSecs = System.nanoTime();
+		successfulOperations.reset();
+		Thread.sleep(durationMillis);
+		long operations = successfulOperations.sum();
+		long elapsedTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+		running.set(false);
+
+		// Threads stuck in a deadlock are daemons, so do not wait for them forever.
+		int numStuckThreads = 0;
+		for (Thread thread : threads) {
+			thread.join(durationMillis);
+			if (thread.isAlive()) {
+				numStuckThreads++;
+			}
+		}
+		if (numStuckThreads > 0) {
+			System.err.println(numStuckThreads + " of " + numThreads + " threads did not finish, possible deadlock");
+		}
+
+		return operations * 1_000_000_000.0 / elapsedTimeInNanoSecs;
+	}
+
+	/**
+	 * Buys one copy of each book in a random cart.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param catalogSize
+	 *            the catalog size
+	 * @param cartSize
+	 *            the number of books in the cart
+	 * @return the operation
+	 */
+	public static Operation buyBooks(BookStore bookStore, int catalogSize, int cartSize) {
+		return random -> bookStore.buyBooks(newCart(random, catalogSize, cartSize));
+	}
+}
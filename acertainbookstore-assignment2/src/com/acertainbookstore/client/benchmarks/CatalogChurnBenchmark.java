@@ -0,0 +1,79 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+
+/**
+ * {@link CatalogChurnBenchmark} measures the buyBooks throughput from 1 to 64
+ * threads, alone and while a stock manager keeps adding and removing other
+ * books (cf. {@link LockPolicyBenchmark#churnCatalog}), to compare the
+ * single-lock implementation, where the catalog changes stop the customers,
+ * with the two-level implementation, where they only lock their own books.
+ * Optionally pass the engine names as arguments.
+ */
+public class CatalogChurnBenchmark {
+
+	/** The number of books in the catalog bought from. */
+	private static final int NUM_BOOKS = 10_000;
+
+	/** The number of books in a cart. */
+	private static final int CART_SIZE = 5;
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link CatalogChurnBenchmark}.
+	 */
+	private CatalogChurnBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines, cf. {@link CertainBookStoreFactory}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] engines = args.length > 0 ? args
+				: new String[] { CertainBookStoreFactory.SINGLE_LOCK, CertainBookStoreFactory.TWO_LEVEL_LOCKING };
+
+		System.out.println("engine,churn,threads,operations_per_sec");
+		for (String engine : engines) {
+			for (boolean churn : new boolean[] { false, true }) {
+				for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+					ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+					store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+							BenchmarkUtility.PLENTY_OF_COPIES));
+
+					AtomicBoolean running = new AtomicBoolean(true);
+					Thread churnThread = null;
+					if (churn) {
+						churnThread = new Thread(() -> LockPolicyBenchmark.churnCatalog(store, running));
+						churnThread.setDaemon(true);
+						churnThread.start();
+					}
+
+					BenchmarkUtility.Operation buyBooks = BenchmarkUtility.buyBooks(store, NUM_BOOKS, CART_SIZE);
+					BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, buyBooks);
+					double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, buyBooks);
+
+					running.set(false);
+					if (churnThread != null) {
+						churnThread.join(DURATION_MILLIS);
+					}
+					System.out.println(
+							engine + "," + churn + "," + numThreads + "," + String.format("%.0f", throughput));
+				}
+			}
+		}
+	}
+}
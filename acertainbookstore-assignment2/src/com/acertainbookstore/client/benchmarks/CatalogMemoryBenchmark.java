@@ -0,0 +1,146 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+
+/**
+ * {@link CatalogMemoryBenchmark} compares the cost of a large catalog for the
+ * garbage collector between the off-heap implementation and the ones keeping
+ * a <code>HashMap</code> of book objects: the heap and direct memory used
+ * after loading the catalog, the collections during the loading and during a
+ * buyBooks workload, and the duration of a full collection.
+ *
+ * Run it with a fixed heap large enough for the on-heap implementations, e.g.
+ * <code>java -Xms8g -Xmx8g ...</code>, and pass the catalog sizes as
+ * arguments, e.g. <code>100000 1000000 10000000</code>.
+ */
+public class CatalogMemoryBenchmark {
+
+	/** The catalog sizes measured if none are passed. */
+	private static final int[] DEFAULT_CATALOG_SIZES = { 100_000, 1_000_000 };
+
+	/** The engines compared. */
+	private static final String[] ENGINES = { CertainBookStoreFactory.SINGLE_LOCK,
+			CertainBookStoreFactory.OFF_HEAP };
+
+	/** The number of books added per addBooks call. */
+	private static final int BATCH_SIZE = 100_000;
+
+	/** The number of threads running the workload. */
+	private static final int NUM_THREADS = 4;
+
+	/** The number of books bought per buyBooks call. */
+	private static final int CART_SIZE = 5;
+
+	/** The duration of the workload. */
+	private static final long DURATION_MILLIS = 5_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link CatalogMemoryBenchmark}.
+	 */
+	private CatalogMemoryBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the catalog sizes
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int[] catalogSizes = DEFAULT_CATALOG_SIZES;
+		if (args.length > 0) {
+			catalogSizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				catalogSizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("engine,books,heap_mb,direct_mb,load_gcs,load_gc_ms,workload_gcs,workload_gc_ms,"
+				+ "buys_per_sec,full_gc_ms");
+		for (int catalogSize : catalogSizes) {
+			for (String engine : ENGINES) {
+				measure(engine, catalogSize);
+			}
+		}
+	}
+
+	/**
+	 * Measures an engine with a catalog of <code>catalogSize</code> books and
+	 * prints a result line.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param catalogSize
+	 *            the number of books
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void measure(String engine, int catalogSize) throws Exception {
+		long heapBefore = BenchmarkUtility.usedHeapBytes();
+		long directBefore = directBytes();
+		ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+
+		long[] gcBefore = collections();
+		for (int first = 0; first < catalogSize; first += BATCH_SIZE) {
+			store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN + first,
+					Math.min(BATCH_SIZE, catalogSize - first), BenchmarkUtility.PLENTY_OF_COPIES));
+		}
+		long[] gcLoaded = collections();
+
+		long heap = BenchmarkUtility.usedHeapBytes() - heapBefore;
+		long direct = directBytes() - directBefore;
+
+		long[] gcWorkloadBefore = collections();
+		double throughput = BenchmarkUtility.measureThroughput(NUM_THREADS, DURATION_MILLIS,
+				BenchmarkUtility.buyBooks(store, catalogSize, CART_SIZE));
+		long[] gcWorkload = collections();
+
+		long fullGcStartTimeInNanoSecs = System.nanoTime();
+		System.gc();
+		long fullGcMillis = (System.nanoTime() - fullGcStartTimeInNanoSecs) / 1_000_000;
+
+		System.out.println(engine + "," + catalogSize + "," + heap / (1 << 20) + "," + direct / (1 << 20) + ","
+				+ (gcLoaded[0] - gcBefore[0]) + "," + (gcLoaded[1] - gcBefore[1]) + ","
+				+ (gcWorkload[0] - gcWorkloadBefore[0]) + "," + (gcWorkload[1] - gcWorkloadBefore[1]) + ","
+				+ String.format("%.0f", throughput) + "," + fullGcMillis);
+
+		// Keep the store reachable until after the measurement.
+		store.removeAllBooks();
+	}
+
+	/**
+	 * Gets the number of garbage collections and their total duration so far.
+	 *
+	 * @return the count and the milliseconds
+	 */
+	private static long[] collections() {
+		long[] collections = new long[2];
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			collections[0] += Math.max(0, gc.getCollectionCount());
+			collections[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return collections;
+	}
+
+	/**
+	 * Gets the memory used by direct buffers.
+	 *
+	 * @return the bytes
+	 */
+	private static long directBytes() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (pool.getName().equals("direct")) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,141 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CatalogScanBenchmark} measures the latency of full-catalog scans
+ * (StockManager.getBooks) while an increasing number of threads keeps buying
+ * books and adding copies, i.e. how much the readers are slowed down by the
+ * writers of each implementation.
+ */
+public class CatalogScanBenchmark {
+
+	/** The number of books in the catalog. */
+	private static final int NUM_BOOKS = 10_000;
+
+	/** The number of books bought or replenished per write. */
+	private static final int CART_SIZE = 5;
+
+	/** The numbers of writing threads. */
+	private static final int[] WRITER_COUNTS = { 0, 1, 2, 4, 8, 16 };
+
+	/** The number of scans measured per configuration. */
+	private static final int NUM_SCANS = 200;
+
+	/** The number of scans run before measuring. */
+	private static final int NUM_WARM_UP_SCANS = 50;
+
+	/**
+	 * Prevents the instantiation of a new {@link CatalogScanBenchmark}.
+	 */
+	private CatalogScanBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method. The engines to compare can be restricted by passing
+	 * their names as arguments. The two-level locking implementations are left
+	 * out by default, since their writers can deadlock and then block the
+	 * scans forever.
+	 *
+	 * @param args
+	 *            the names of the engines, cf. {@link CertainBookStoreFactory}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] engines = args.length > 0 ? args
+				: Arrays.stream(CertainBookStoreFactory.ENGINES)
+						.filter(engine -> !engine.equals(CertainBookStoreFactory.TWO_LEVEL_LOCKING)
+								&& !engine.equals(CertainBookStoreFactory.TWO_LEVEL_LOCKING_SNAPSHOT))
+						.toArray(String[]::new);
+
+		System.out.println("engine,writers,scan_p50_us,scan_p99_us,scan_max_us,writes_per_sec");
+		for (String engine : engines) {
+			for (int numWriters : WRITER_COUNTS) {
+				measure(engine, numWriters);
+			}
+		}
+	}
+
+	/**
+	 * Measures the scan latency with <code>numWriters</code> concurrent
+	 * writers and prints a result line.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param numWriters
+	 *            the number of writing threads
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void measure(String engine, int numWriters) throws Exception {
+		ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+		store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+				BenchmarkUtility.PLENTY_OF_COPIES / 2));
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		LongAdder numWrites = new LongAdder();
+		List<Thread> writers = new ArrayList<>();
+		for (int i = 0; i < numWriters; i++) {
+			// Half of the writes buy a cart, half replenish one.
+			Thread writer = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (running.get()) {
+					Set<BookCopy> cart = BenchmarkUtility.newCart(random, NUM_BOOKS, CART_SIZE);
+					try {
+						if (random.nextBoolean()) {
+							store.buyBooks(cart);
+						} else {
+							store.addCopies(cart);
+						}
+						numWrites.increment();
+					} catch (BookStoreException ex) {
+						// Failed writes do not count.
+					}
+				}
+			});
+			writer.setDaemon(true);
+			writers.add(writer);
+			writer.start();
+		}
+
+		long[] latencies = new long[NUM_SCANS];
+		long startTimeInNanoSecs = 0;
+		for (int i = -NUM_WARM_UP_SCANS; i < NUM_SCANS; i++) {
+			if (i == 0) {
+				numWrites.reset();
+				startTimeInNanoSecs = System.nanoTime();
+			}
+
+			long scanStartTimeInNanoSecs = System.nanoTime();
+			store.getBooks();
+			if (i >= 0) {
+				latencies[i] = System.nanoTime() - scanStartTimeInNanoSecs;
+			}
+		}
+		long elapsedTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+		double writeThroughput = numWrites.sum() * 1_000_000_000.0 / elapsedTimeInNanoSecs;
+
+		running.set(false);
+		for (Thread writer : writers) {
+			writer.join(1_000);
+		}
+
+		Arrays.sort(latencies);
+		System.out.println(engine + "," + numWriters + "," + latencies[NUM_SCANS / 2] / 1_000 + ","
+				+ latencies[NUM_SCANS * 99 / 100] / 1_000 + "," + latencies[NUM_SCANS - 1] / 1_000 + ","
+				+ String.format("%.0f", writeThroughput));
+	}
+}
@@ -0,0 +1,60 @@
+package com.acertainbookstore.client.benchmarks;
+
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+
+/**
+ * {@link DeterministicEpochBenchmark} measures the throughput and latency of
+ * the interaction mix of the assignment 3 workload (cf.
+ * {@link WorkloadMixBenchmark}) against the deterministic mode of the
+ * two-level locking implementation, from 1 to 64 threads, for several epoch
+ * lengths, and against the plain two-level locking.
+ *
+ * The clients run in a closed loop, so the mean latency of an interaction is
+ * derived from the throughput by Little's law. Optionally pass the epoch
+ * lengths in microseconds as arguments, a negative length standing for the
+ * plain two-level locking.
+ */
+public class DeterministicEpochBenchmark {
+
+	/** The epoch lengths compared by default, in microseconds. */
+	private static final long[] EPOCH_MICROS = { -1, 0, 100, 1_000, 5_000 };
+
+	/**
+	 * Prevents the instantiation of a new {@link DeterministicEpochBenchmark}.
+	 */
+	private DeterministicEpochBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the epoch lengths in microseconds
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		long[] epochs = EPOCH_MICROS;
+		if (args.length > 0) {
+			epochs = new long[args.length];
+			for (int i = 0; i < args.length; i++) {
+				epochs[i] = Long.parseLong(args[i]);
+			}
+		}
+
+		System.out.println("epoch_micros,threads,interactions_per_sec,mean_latency_micros,calls_per_epoch");
+		for (long epochMicros : epochs) {
+			for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+				try (TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(false, false, epochMicros)) {
+					double throughput = WorkloadMixBenchmark.measureThroughput(store, numThreads);
+					double latencyMicros = numThreads * 1_000_000 / throughput;
+
+					System.out.println((epochMicros < 0 ? "none" : epochMicros) + "," + numThreads + ","
+							+ String.format("%.0f", throughput) + "," + String.format("%.1f", latencyMicros) + ","
+							+ String.format("%.1f", store.getAverageEpochSize()));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+
+/**
+ * {@link DurabilityBenchmark} measures the throughput of buyBooks from 1 to 64
+ * threads on an in-memory implementation, and on the same implementation made
+ * durable by a {@link WriteAheadLog} in each
+ * {@link WriteAheadLog.Durability}. For the logged runs it also reports the
+ * number of commits per force of the log, which shows how many concurrent
+ * buyers share one fsync with group commit.
+ *
+ * The log is written to a temporary file, so run it with the temporary
+ * directory on the disk to measure, e.g. <code>-Djava.io.tmpdir=...</code>,
+ * and optionally pass the engine name as an argument (striped by default).
+ */
+public class DurabilityBenchmark {
+
+	/** The number of books in the catalog. */
+	private static final int NUM_BOOKS = 10_000;
+
+	/** The number of books bought per buyBooks call. */
+	private static final int CART_SIZE = 5;
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link DurabilityBenchmark}.
+	 */
+	private DurabilityBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the name of the engine, cf. {@link CertainBookStoreFactory}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String engine = args.length > 0 ? args[0] : CertainBookStoreFactory.STRIPED_LOCKING;
+
+		System.out.println("engine,durability,threads,buys_per_sec,commits_per_force");
+		for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+			ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+			store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+					BenchmarkUtility.PLENTY_OF_COPIES));
+			BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS,
+					BenchmarkUtility.buyBooks(store, NUM_BOOKS, CART_SIZE));
+			double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS,
+					BenchmarkUtility.buyBooks(store, NUM_BOOKS, CART_SIZE));
+			System.out.println(engine + ",none," + numThreads + "," + String.format("%.0f", throughput) + ",");
+		}
+
+		for (WriteAheadLog.Durability durability : WriteAheadLog.Durability.values()) {
+			for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+				measureDurable(engine, durability, numThreads);
+			}
+		}
+	}
+
+	/**
+	 * Measures the buy throughput of a durable engine and prints a result
+	 * line.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param durability
+	 *            the durability of the log
+	 * @param numThreads
+	 *            the number of threads
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void measureDurable(String engine, WriteAheadLog.Durability durability, int numThreads)
+			throws Exception {
+		Path logFile = Files.createTempFile("bookstore", ".wal");
+		try {
+			ConcurrentCertainBookStore inMemoryStore = CertainBookStoreFactory.newBookStore(engine);
+			try (DurableCertainBookStore store = DurableCertainBookStore.open(inMemoryStore, inMemoryStore, logFile,
+					durability)) {
+				store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+						BenchmarkUtility.PLENTY_OF_COPIES));
+				BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS,
+						BenchmarkUtility.buyBooks(store, NUM_BOOKS, CART_SIZE));
+
+				long forcesBefore = store.getLog().getNumForces();
+				double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS,
+						BenchmarkUtility.buyBooks(store, NUM_BOOKS, CART_SIZE));
+				long forces = store.getLog().getNumForces() - forcesBefore;
+				double commitsPerForce = forces > 0 ? throughput * DURATION_MILLIS / 1_000 / forces : 0;
+
+				System.out.println(engine + "," + durability.name().toLowerCase() + "," + numThreads + ","
+						+ String.format("%.0f", throughput) + "," + String.format("%.1f", commitsPerForce));
+			}
+		} finally {
+			Files.deleteIfExists(logFile);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+
+/**
+ * {@link EditorPicksBenchmark} measures the latency of getEditorPicks and
+ * updateEditorPicks as the catalog grows. The implementations keeping an
+ * editor-pick index sample it in O(k), while the others still scan the whole
+ * catalog, so the optimistic implementation is measured as the baseline.
+ *
+ * Run it with a heap large enough for the largest catalog, e.g.
+ * <code>java -Xms8g -Xmx8g ...</code>, and optionally pass the catalog sizes
+ * as arguments, e.g. <code>1000 10000 100000 1000000 10000000</code>.
+ */
+public class EditorPicksBenchmark {
+
+	/** The catalog sizes measured if none are passed. */
+	private static final int[] DEFAULT_CATALOG_SIZES = { 1_000, 10_000, 100_000, 1_000_000 };
+
+	/** The engines compared. */
+	private static final String[] ENGINES = { CertainBookStoreFactory.SINGLE_LOCK,
+			CertainBookStoreFactory.TWO_LEVEL_LOCKING, CertainBookStoreFactory.STRIPED_LOCKING,
+			CertainBookStoreFactory.OPTIMISTIC };
+
+	/** The number of books added per addBooks call. */
+	private static final int BATCH_SIZE = 100_000;
+
+	/** The number of editor picks requested per getEditorPicks call. */
+	private static final int NUM_PICKS = 10;
+
+	/** The number of calls measured per configuration. */
+	private static final int NUM_CALLS = 100;
+
+	/** The number of calls run before measuring. */
+	private static final int NUM_WARM_UP_CALLS = 10;
+
+	/**
+	 * Prevents the instantiation of a new {@link EditorPicksBenchmark}.
+	 */
+	private EditorPicksBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the catalog sizes
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int[] catalogSizes = DEFAULT_CATALOG_SIZES;
+		if (args.length > 0) {
+			catalogSizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				catalogSizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("engine,books,get_p50_us,get_p99_us,update_p50_us,update_p99_us");
+		for (int catalogSize : catalogSizes) {
+			for (String engine : ENGINES) {
+				measure(engine, catalogSize);
+			}
+		}
+	}
+
+	/**
+	 * Measures an engine with a catalog of <code>catalogSize</code> books and
+	 * prints a result line.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param catalogSize
+	 *            the number of books
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void measure(String engine, int catalogSize) throws Exception {
+		ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+		for (int first = 0; first < catalogSize; first += BATCH_SIZE) {
+			store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN + first,
+					Math.min(BATCH_SIZE, catalogSize - first), BenchmarkUtility.PLENTY_OF_COPIES));
+		}
+
+		long[] getLatencies = new long[NUM_CALLS];
+		long[] updateLatencies = new long[NUM_CALLS];
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = -NUM_WARM_UP_CALLS; i < NUM_CALLS; i++) {
+			long startTimeInNanoSecs = System.nanoTime();
+			store.getEditorPicks(NUM_PICKS);
+			long getTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+
+			// Flip a random book, so that the number of picks stays about the
+			// same.
+			int isbn = BenchmarkUtility.FIRST_ISBN + random.nextInt(catalogSize);
+			startTimeInNanoSecs = System.nanoTime();
+			store.updateEditorPicks(Collections.singleton(new BookEditorPick(isbn, random.nextInt(4) == 0)));
+			long updateTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+
+			if (i >= 0) {
+				getLatencies[i] = getTimeInNanoSecs;
+				updateLatencies[i] = updateTimeInNanoSecs;
+			}
+		}
+
+		Arrays.sort(getLatencies);
+		Arrays.sort(updateLatencies);
+		System.out.println(engine + "," + catalogSize + "," + micros(percentile(getLatencies, 50)) + ","
+				+ micros(percentile(getLatencies, 99)) + "," + micros(percentile(updateLatencies, 50)) + ","
+				+ micros(percentile(updateLatencies, 99)));
+
+		store.removeAllBooks();
+	}
+
+	private static long percentile(long[] sortedLatencies, int percentile) {
+		return sortedLatencies[Math.min(sortedLatencies.length - 1, sortedLatencies.length * percentile / 100)];
+	}
+
+	private static String micros(long nanos) {
+		return String.format("%.1f", nanos / 1_000.0);
+	}
+}
@@ -0,0 +1,114 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.utils.BiasedReadWriteLock;
+
+/**
+ * {@link GlobalLockBenchmark} measures how the global lock of the two-level
+ * locking implementation scales from 1 to 64 threads: first the lock alone,
+ * comparing the {@link BiasedReadWriteLock} with a
+ * {@link ReentrantReadWriteLock}, with read sections as short as those of the
+ * intention locks and a varying share of write sections, then the
+ * getBooksByISBN throughput of the two-level locking implementation, which
+ * uses the biased lock.
+ */
+public class GlobalLockBenchmark {
+
+	/** The shares of write sections, in per mille. */
+	private static final int[] PER_MILLE_WRITES = { 0, 1, 10 };
+
+	/** The number of books in the catalog. */
+	private static final int NUM_BOOKS = 10_000;
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/** Written in the critical sections, so that they are not optimized away. */
+	private static long sink = 0;
+
+	/**
+	 * Prevents the instantiation of a new {@link GlobalLockBenchmark}.
+	 */
+	private GlobalLockBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            not used
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		System.out.println("lock,per_mille_writes,threads,sections_per_sec");
+		measureLock("reentrant", ReentrantReadWriteLock::new);
+		measureLock("biased", BiasedReadWriteLock::new);
+
+		System.out.println();
+		System.out.println("engine,threads,lookups_per_sec");
+		for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+			ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(CertainBookStoreFactory.TWO_LEVEL_LOCKING);
+			store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS, 1));
+
+			BenchmarkUtility.Operation lookup = random -> store
+					.getBooksByISBN(Set.of(BenchmarkUtility.FIRST_ISBN + random.nextInt(NUM_BOOKS)));
+			BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, lookup);
+			double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, lookup);
+			System.out.println(CertainBookStoreFactory.TWO_LEVEL_LOCKING + "," + numThreads + ","
+					+ String.format("%.0f", throughput));
+		}
+	}
+
+	/**
+	 * Measures the throughput of the critical sections of a lock.
+	 *
+	 * @param name
+	 *            the name of the lock
+	 * @param newLock
+	 *            creates the lock
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void measureLock(String name, Supplier<ReadWriteLock> newLock) throws Exception {
+		for (int perMilleWrites : PER_MILLE_WRITES) {
+			for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+				ReadWriteLock lock = newLock.get();
+				BenchmarkUtility.Operation section = random -> {
+					if (random.nextInt(1000) < perMilleWrites) {
+						lock.writeLock().lock();
+						try {
+							sink++;
+						} finally {
+							lock.writeLock().unlock();
+						}
+					} else {
+						lock.readLock().lock();
+						try {
+							if (sink < 0) {
+								throw new IllegalStateException();
+							}
+						} finally {
+							lock.readLock().unlock();
+						}
+					}
+				};
+
+				BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, section);
+				double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, section);
+				System.out.println(name + "," + perMilleWrites + "," + numThreads + ","
+						+ String.format("%.0f", throughput));
+			}
+		}
+	}
+}
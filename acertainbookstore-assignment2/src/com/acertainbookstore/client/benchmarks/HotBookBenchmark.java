@@ -0,0 +1,117 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+
+/**
+ * {@link HotBookBenchmark} measures the throughput of buyBooks and addCopies
+ * from 1 to 64 threads on a skewed workload, where a handful of bestsellers
+ * are in most carts, to compare the flat-combining mode of the two-level
+ * locking implementation with its plain two-phase locking, and the escrow
+ * mode of the striped locking implementation with its plain stripes.
+ *
+ * Every book of a cart is a bestseller with probability
+ * {@link #HOT_PROBABILITY}, and otherwise uniformly sampled from the catalog.
+ * The books of a cart are iterated in ascending ISBN order, so that the plain
+ * two-phase locking, which locks the books in the iteration order of the
+ * cart, cannot deadlock. Optionally pass the engine names as arguments.
+ */
+public class HotBookBenchmark {
+
+	/** The number of books in the catalog. */
+	private static final int NUM_BOOKS = 10_000;
+
+	/** The number of bestsellers, the books with the lowest ISBNs. */
+	private static final int NUM_HOT_BOOKS = 8;
+
+	/** The probability that a book of a cart is a bestseller. */
+	private static final double HOT_PROBABILITY = 0.8;
+
+	/** The number of books bought or replenished per call. */
+	private static final int CART_SIZE = 3;
+
+	/** The percentage of calls which replenish the cart instead of buying it. */
+	private static final int PERCENT_ADD_COPIES = 10;
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link HotBookBenchmark}.
+	 */
+	private HotBookBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines, cf. {@link CertainBookStoreFactory}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] engines = args.length > 0 ? args : new String[] { CertainBookStoreFactory.TWO_LEVEL_LOCKING,
+				CertainBookStoreFactory.TWO_LEVEL_LOCKING_COMBINING, CertainBookStoreFactory.STRIPED_LOCKING,
+				CertainBookStoreFactory.STRIPED_LOCKING_ESCROW };
+
+		System.out.println("engine,threads,calls_per_sec");
+		for (String engine : engines) {
+			for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+				ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+				store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+						BenchmarkUtility.PLENTY_OF_COPIES));
+
+				BenchmarkUtility.Operation operation = random -> {
+					Set<BookCopy> cart = newSkewedCart(random);
+					if (random.nextInt(100) < PERCENT_ADD_COPIES) {
+						store.addCopies(cart);
+					} else {
+						store.buyBooks(cart);
+					}
+				};
+				BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, operation);
+				double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, operation);
+				System.out.println(engine + "," + numThreads + "," + String.format("%.0f", throughput));
+			}
+		}
+	}
+
+	/**
+	 * Generates a cart of {@link #CART_SIZE} distinct books, most of them
+	 * bestsellers, iterated in ascending ISBN order.
+	 *
+	 * @param random
+	 *            the random number generator
+	 * @return the cart
+	 */
+	private static Set<BookCopy> newSkewedCart(ThreadLocalRandom random) {
+		int[] isbns = new int[CART_SIZE];
+		int size = 0;
+
+		while (size < CART_SIZE) {
+			int isbn = BenchmarkUtility.FIRST_ISBN
+					+ (random.nextDouble() < HOT_PROBABILITY ? random.nextInt(NUM_HOT_BOOKS) : random.nextInt(NUM_BOOKS));
+			if (Arrays.stream(isbns, 0, size).noneMatch(other -> other == isbn)) {
+				isbns[size++] = isbn;
+			}
+		}
+		Arrays.sort(isbns);
+
+		Set<BookCopy> cart = new LinkedHashSet<>();
+		for (int isbn : isbns) {
+			cart.add(new BookCopy(isbn, 1));
+		}
+		return cart;
+	}
+}
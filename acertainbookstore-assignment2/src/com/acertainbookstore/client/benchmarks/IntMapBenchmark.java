@@ -0,0 +1,152 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link IntMapBenchmark} compares the book index maps keyed by ISBN:
+ * {@link IntObjectHashMap} and {@link ConcurrentIntObjectHashMap} against
+ * <code>HashMap&lt;Integer, V&gt;</code> and
+ * <code>ConcurrentHashMap&lt;Integer, V&gt;</code>. For every map and size it
+ * reports the heap used per entry (excluding the values, which are shared)
+ * and the average latency of a lookup of a random present key.
+ *
+ * Run it with a fixed heap, e.g. <code>java -Xms4g -Xmx4g ...</code>, and
+ * optionally pass the sizes as arguments, e.g.
+ * <code>100000 1000000 10000000</code>.
+ */
+public class IntMapBenchmark {
+
+	/** The sizes measured if none are passed. */
+	private static final int[] DEFAULT_SIZES = { 100_000, 1_000_000, 10_000_000 };
+
+	/** The number of lookups per round. */
+	private static final int NUM_LOOKUPS = 1 << 22;
+
+	/** The number of rounds run before measuring. */
+	private static final int NUM_WARM_UP_ROUNDS = 5;
+
+	/** The number of rounds measured. */
+	private static final int NUM_ROUNDS = 10;
+
+	/** The value of all the entries. */
+	private static final Object VALUE = new Object();
+
+	/** Consumes the lookup results, so that they are not optimized away. */
+	private static long sink;
+
+	/**
+	 * Prevents the instantiation of a new {@link IntMapBenchmark}.
+	 */
+	private IntMapBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the sizes
+	 */
+	public static void main(String[] args) {
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("map,entries,bytes_per_entry,lookup_ns");
+		for (int size : sizes) {
+			int[] lookups = new int[NUM_LOOKUPS];
+			for (int i = 0; i < NUM_LOOKUPS; i++) {
+				lookups[i] = BenchmarkUtility.FIRST_ISBN + ThreadLocalRandom.current().nextInt(size);
+			}
+
+			long before = BenchmarkUtility.usedHeapBytes();
+			Map<Integer, Object> hashMap = new HashMap<>();
+			for (int isbn = BenchmarkUtility.FIRST_ISBN; isbn < BenchmarkUtility.FIRST_ISBN + size; isbn++) {
+				hashMap.put(isbn, VALUE);
+			}
+			report("HashMap", size, before, key -> hashMap.get(key), lookups);
+			hashMap.clear();
+
+			before = BenchmarkUtility.usedHeapBytes();
+			Map<Integer, Object> concurrentHashMap = new ConcurrentHashMap<>();
+			for (int isbn = BenchmarkUtility.FIRST_ISBN; isbn < BenchmarkUtility.FIRST_ISBN + size; isbn++) {
+				concurrentHashMap.put(isbn, VALUE);
+			}
+			report("ConcurrentHashMap", size, before, key -> concurrentHashMap.get(key), lookups);
+			concurrentHashMap.clear();
+
+			before = BenchmarkUtility.usedHeapBytes();
+			IntObjectHashMap<Object> intMap = new IntObjectHashMap<>();
+			for (int isbn = BenchmarkUtility.FIRST_ISBN; isbn < BenchmarkUtility.FIRST_ISBN + size; isbn++) {
+				intMap.put(isbn, VALUE);
+			}
+			report("IntObjectHashMap", size, before, intMap::get, lookups);
+			intMap.clear();
+
+			before = BenchmarkUtility.usedHeapBytes();
+			ConcurrentIntObjectHashMap<Object> concurrentIntMap = new ConcurrentIntObjectHashMap<>();
+			for (int isbn = BenchmarkUtility.FIRST_ISBN; isbn < BenchmarkUtility.FIRST_ISBN + size; isbn++) {
+				concurrentIntMap.put(isbn, VALUE);
+			}
+			report("ConcurrentIntObjectHashMap", size, before, concurrentIntMap::get, lookups);
+			concurrentIntMap.clear();
+		}
+
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Measures the footprint and the lookup latency of a filled map and prints
+	 * a result line.
+	 *
+	 * @param name
+	 *            the name of the map
+	 * @param size
+	 *            the number of entries
+	 * @param heapBefore
+	 *            the heap used before filling the map
+	 * @param map
+	 *            the lookup of the map
+	 * @param lookups
+	 *            the keys to look up
+	 */
+	private static void report(String name, int size, long heapBefore, IntFunction<Object> map, int[] lookups) {
+		long bytes = BenchmarkUtility.usedHeapBytes() - heapBefore;
+
+		for (int round = 0; round < NUM_WARM_UP_ROUNDS; round++) {
+			sink += lookUp(map, lookups);
+		}
+
+		long startTimeInNanoSecs = System.nanoTime();
+		for (int round = 0; round < NUM_ROUNDS; round++) {
+			sink += lookUp(map, lookups);
+		}
+		long elapsedTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+
+		System.out.println(name + "," + size + "," + String.format("%.1f", (double) bytes / size) + ","
+				+ String.format("%.1f", (double) elapsedTimeInNanoSecs / NUM_ROUNDS / lookups.length));
+	}
+
+	private static long lookUp(IntFunction<Object> map, int[] lookups) {
+		long found = 0;
+		for (int key : lookups) {
+			if (map.apply(key) != null) {
+				found++;
+			}
+		}
+		return found;
+	}
+}
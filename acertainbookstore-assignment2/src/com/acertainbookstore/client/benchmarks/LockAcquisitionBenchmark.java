@@ -0,0 +1,94 @@
+package com.acertainbookstore.client.benchmarks;
+
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore.AcquisitionPolicy;
+
+/**
+ * {@link LockAcquisitionBenchmark} compares the policies with which the
+ * two-level locking implementation takes the book locks of buyBooks, from 1
+ * to 64 threads and for several cart sizes, on a small catalog so that the
+ * carts overlap. Besides the throughput, it prints the aborts per buy, the
+ * share of the buys which had to start again, and the mean time a buy waited
+ * for book locks. Optionally pass the policy names as arguments.
+ */
+public class LockAcquisitionBenchmark {
+
+	/** The number of books in the catalog. */
+	private static final int NUM_BOOKS = 100;
+
+	/** The numbers of books in a cart. */
+	private static final int[] CART_SIZES = { 2, 5, 10 };
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link LockAcquisitionBenchmark}.
+	 */
+	private LockAcquisitionBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the policies
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		AcquisitionPolicy[] policies = AcquisitionPolicy.values();
+		if (args.length > 0) {
+			policies = new AcquisitionPolicy[args.length];
+			for (int i = 0; i < args.length; i++) {
+				policies[i] = AcquisitionPolicy.forName(args[i]);
+			}
+		}
+
+		System.out.println("policy,cart_size,threads,buys_per_sec,aborts_per_buy,retried_share,wait_micros_per_buy");
+		for (AcquisitionPolicy policy : policies) {
+			for (int cartSize : CART_SIZES) {
+				for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+					measure(policy, cartSize, numThreads);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures and prints the throughput and the conflicts of buyBooks.
+	 *
+	 * @param policy
+	 *            the acquisition policy
+	 * @param cartSize
+	 *            the number of books in a cart
+	 * @param numThreads
+	 *            the number of buying threads
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void measure(AcquisitionPolicy policy, int cartSize, int numThreads) throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(false, false, -1, policy);
+		store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+				BenchmarkUtility.PLENTY_OF_COPIES));
+
+		BenchmarkUtility.Operation buyBooks = BenchmarkUtility.buyBooks(store, NUM_BOOKS, cartSize);
+		BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, buyBooks);
+
+		long abortsBefore = store.getNumAborts();
+		long retriesBefore = store.getNumRetries();
+		long waitNanosBefore = store.getLockWaitNanos();
+		double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, buyBooks);
+		double numBuys = throughput * DURATION_MILLIS / 1_000;
+
+		double abortsPerBuy = (store.getNumAborts() - abortsBefore) / numBuys;
+		double retriedShare = (store.getNumRetries() - retriesBefore) / numBuys;
+		double waitMicrosPerBuy = (store.getLockWaitNanos() - waitNanosBefore) / numBuys / 1_000;
+		System.out.println(policy.getName() + "," + cartSize + "," + numThreads + ","
+				+ String.format("%.0f,%.3f,%.3f,%.1f", throughput, abortsPerBuy, retriedShare, waitMicrosPerBuy));
+	}
+}
@@ -0,0 +1,165 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.acertainbookstore.business.LockManager;
+import com.acertainbookstore.business.LockManagerCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LockPolicyBenchmark} compares the {@link LockManager} policies on the
+ * same business logic, that of the {@link LockManagerCertainBookStore}, from 1
+ * to 64 threads: first the buyBooks throughput on random carts, alone and
+ * while a stock manager keeps adding and removing other books, then the
+ * interaction mix of the assignment 3 workload (cf.
+ * {@link WorkloadMixBenchmark}). It also prints how many sections the
+ * optimistic and no-wait policies had to run again. Optionally pass the
+ * policy names as arguments.
+ */
+public class LockPolicyBenchmark {
+
+	/** The number of books in the catalog of the buyBooks measurement. */
+	private static final int NUM_BOOKS = 10_000;
+
+	/** The number of books in a cart. */
+	private static final int CART_SIZE = 5;
+
+	/**
+	 * The first ISBN of the books added and removed by the stock manager, far
+	 * from those bought, so that they fall in another partition of the
+	 * hierarchical policy.
+	 */
+	private static final int CHURN_FIRST_ISBN = 1_000_000;
+
+	/** The number of books added and removed at once by the stock manager. */
+	private static final int CHURN_BATCH_SIZE = 10;
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link LockPolicyBenchmark}.
+	 */
+	private LockPolicyBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the policies
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] policies = args.length > 0 ? args : LockManager.POLICIES;
+
+		System.out.println("workload,policy,threads,operations_per_sec,retries");
+		for (boolean churn : new boolean[] { false, true }) {
+			for (String policy : policies) {
+				for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+					measureBuyThroughput(policy, numThreads, churn);
+				}
+			}
+		}
+
+		for (String policy : policies) {
+			for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+				LockManagerCertainBookStore store = new LockManagerCertainBookStore(LockManager.newLockManager(policy));
+				double throughput = WorkloadMixBenchmark.measureThroughput(store, numThreads);
+				print("mix", policy, numThreads, throughput, store.getLockManager().getNumRetries());
+			}
+		}
+	}
+
+	/**
+	 * Measures and prints the throughput of buyBooks.
+	 *
+	 * @param policy
+	 *            the name of the policy
+	 * @param numThreads
+	 *            the number of buying threads
+	 * @param churn
+	 *            whether a stock manager adds and removes books concurrently
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void measureBuyThroughput(String policy, int numThreads, boolean churn) throws Exception {
+		LockManagerCertainBookStore store = new LockManagerCertainBookStore(LockManager.newLockManager(policy));
+		store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+				BenchmarkUtility.PLENTY_OF_COPIES));
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread churnThread = null;
+		if (churn) {
+			churnThread = new Thread(() -> churnCatalog(store, running));
+			churnThread.setDaemon(true);
+			churnThread.start();
+		}
+
+		BenchmarkUtility.Operation buyBooks = BenchmarkUtility.buyBooks(store, NUM_BOOKS, CART_SIZE);
+		BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, buyBooks);
+		long retriesBefore = store.getLockManager().getNumRetries();
+		double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, buyBooks);
+		long numRetries = store.getLockManager().getNumRetries() - retriesBefore;
+
+		running.set(false);
+		if (churnThread != null) {
+			churnThread.join(DURATION_MILLIS);
+		}
+		print(churn ? "buybooks_churn" : "buybooks", policy, numThreads, throughput, numRetries);
+	}
+
+	/**
+	 * Keeps adding and removing batches of books outside of the ISBN range
+	 * bought by the customers.
+	 *
+	 * @param stockManager
+	 *            the stock manager
+	 * @param running
+	 *            cleared to stop
+	 */
+	static void churnCatalog(StockManager stockManager, AtomicBoolean running) {
+		Set<StockBook> books = BenchmarkUtility.newStockBooks(CHURN_FIRST_ISBN, CHURN_BATCH_SIZE, 1);
+		Set<Integer> isbns = new HashSet<>();
+		for (StockBook book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		try {
+			while (running.get()) {
+				stockManager.addBooks(books);
+				stockManager.removeBooks(isbns);
+			}
+		} catch (BookStoreException ex) {
+			System.err.println("Catalog churn failed: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Prints a measurement.
+	 *
+	 * @param workload
+	 *            the name of the workload
+	 * @param policy
+	 *            the name of the policy
+	 * @param numThreads
+	 *            the number of threads
+	 * @param throughput
+	 *            the operations per second
+	 * @param numRetries
+	 *            the number of sections run again
+	 */
+	private static void print(String workload, String policy, int numThreads, double throughput, long numRetries) {
+		System.out.println(workload + "," + policy + "," + numThreads + "," + String.format("%.0f", throughput) + ","
+				+ numRetries);
+	}
+}
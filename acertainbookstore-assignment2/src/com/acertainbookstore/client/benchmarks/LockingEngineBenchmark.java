@@ -0,0 +1,165 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LockingEngineBenchmark} compares the locking implementations of the
+ * book store, and the lock-free one, in-process: the heap used per book, and the throughput of
+ * buyBooks from 1 to 64 threads, both on a static catalog and while a stock
+ * manager keeps adding and removing books.
+ *
+ * Run it with a fixed heap, e.g. <code>java -Xms2g -Xmx2g ...</code>, so that
+ * the memory numbers are comparable between implementations.
+ */
+public class LockingEngineBenchmark {
+
+	/** The number of books loaded for the memory measurement. */
+	private static final int NUM_BOOKS_MEMORY = 200_000;
+
+	/** The number of books in the catalog for the throughput measurement. */
+	private static final int NUM_BOOKS_THROUGHPUT = 10_000;
+
+	/** The number of books bought per buyBooks call. */
+	private static final int CART_SIZE = 5;
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/** The number of books added and removed per catalog mutation. */
+	private static final int CHURN_BATCH_SIZE = 10;
+
+	/**
+	 * Prevents the instantiation of a new {@link LockingEngineBenchmark}.
+	 */
+	private LockingEngineBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method. The engines to compare can be restricted by passing
+	 * their names as arguments.
+	 *
+	 * @param args
+	 *            the names of the engines, cf. {@link CertainBookStoreFactory}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] engines = args.length > 0 ? args : new String[] { CertainBookStoreFactory.SINGLE_LOCK,
+				CertainBookStoreFactory.TWO_LEVEL_LOCKING, CertainBookStoreFactory.STRIPED_LOCKING,
+				CertainBookStoreFactory.LOCK_FREE };
+
+		System.out.println("engine,bytes_per_book");
+		for (String engine : engines) {
+			System.out.println(engine + "," + String.format("%.1f", measureBytesPerBook(engine)));
+		}
+
+		System.out.println();
+		System.out.println("engine,catalog_churn,threads,buys_per_sec");
+		for (String engine : engines) {
+			for (boolean churn : new boolean[] { false, true }) {
+				for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+					double throughput = measureBuyThroughput(engine, numThreads, churn);
+					System.out.println(engine + "," + churn + "," + numThreads + "," + String.format("%.0f", throughput));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures the heap used per book, including the locking structures.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @return the bytes per book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static double measureBytesPerBook(String engine) throws BookStoreException {
+		Set<StockBook> books = BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS_MEMORY, 10);
+		ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+
+		long before = BenchmarkUtility.usedHeapBytes();
+		store.addBooks(books);
+		long after = BenchmarkUtility.usedHeapBytes();
+
+		// Keep the store reachable until after the measurement.
+		store.removeAllBooks();
+		return (double) (after - before) / NUM_BOOKS_MEMORY;
+	}
+
+	/**
+	 * Measures the throughput of buyBooks.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param numThreads
+	 *            the number of buying threads
+	 * @param churn
+	 *            whether a stock manager adds and removes books concurrently
+	 * @return the buys per second
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static double measureBuyThroughput(String engine, int numThreads, boolean churn) throws Exception {
+		ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+		store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS_THROUGHPUT,
+				BenchmarkUtility.PLENTY_OF_COPIES));
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread churnThread = null;
+		if (churn) {
+			churnThread = new Thread(() -> churnCatalog(store, running));
+			churnThread.setDaemon(true);
+			churnThread.start();
+		}
+
+		BenchmarkUtility.Operation buyBooks = BenchmarkUtility.buyBooks(store, NUM_BOOKS_THROUGHPUT, CART_SIZE);
+		BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, buyBooks);
+		double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, buyBooks);
+
+		running.set(false);
+		if (churnThread != null) {
+			churnThread.join(DURATION_MILLIS);
+		}
+		return throughput;
+	}
+
+	/**
+	 * Keeps adding and removing batches of books outside of the ISBN range
+	 * bought by the customers.
+	 *
+	 * @param stockManager
+	 *            the stock manager
+	 * @param running
+	 *            cleared to stop
+	 */
+	private static void churnCatalog(StockManager stockManager, AtomicBoolean running) {
+		int firstIsbn = BenchmarkUtility.FIRST_ISBN + NUM_BOOKS_THROUGHPUT;
+		Set<StockBook> books = BenchmarkUtility.newStockBooks(firstIsbn, CHURN_BATCH_SIZE, 1);
+		Set<Integer> isbns = new HashSet<>();
+		for (StockBook book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		try {
+			while (running.get()) {
+				stockManager.addBooks(books);
+				stockManager.removeBooks(isbns);
+			}
+		} catch (BookStoreException ex) {
+			System.err.println("Catalog churn failed: " + ex.getMessage());
+		}
+	}
+}
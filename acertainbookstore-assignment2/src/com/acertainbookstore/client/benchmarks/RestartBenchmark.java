@@ -0,0 +1,139 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+
+/**
+ * {@link RestartBenchmark} measures how long a durable book store takes to be
+ * back online after a restart: once by restoring the latest checkpoint and
+ * replaying the log tail after it, and once by replaying the whole log, which
+ * costs about as much as loading the catalog again with addBooks.
+ *
+ * The catalog is loaded, checkpointed, then modified by a tail of buys before
+ * the store is closed. Run it with a heap large enough for the catalog, e.g.
+ * <code>java -Xms4g -Xmx4g ...</code>, and optionally pass the catalog size
+ * and the engine name as arguments (1000000 and striped by default).
+ */
+public class RestartBenchmark {
+
+	/** The default number of books in the catalog. */
+	private static final int DEFAULT_NUM_BOOKS = 1_000_000;
+
+	/** The number of books added per addBooks call. */
+	private static final int BATCH_SIZE = 100_000;
+
+	/** The number of buys logged after the checkpoint. */
+	private static final int NUM_TAIL_BUYS = 10_000;
+
+	/** The number of books bought per buyBooks call. */
+	private static final int CART_SIZE = 5;
+
+	/** The number of restarts measured per configuration. */
+	private static final int NUM_RESTARTS = 3;
+
+	/**
+	 * Prevents the instantiation of a new {@link RestartBenchmark}.
+	 */
+	private RestartBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the number of books and the name of the engine
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int numBooks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_BOOKS;
+		String engine = args.length > 1 ? args[1] : CertainBookStoreFactory.STRIPED_LOCKING;
+
+		Path directory = Files.createTempDirectory("bookstore");
+		Path logFile = directory.resolve("bookstore.wal");
+		Path checkpointFile = directory.resolve("bookstore.ckpt");
+		Path missingCheckpointFile = directory.resolve("missing.ckpt");
+
+		try {
+			ConcurrentCertainBookStore inMemoryStore = CertainBookStoreFactory.newBookStore(engine);
+			try (DurableCertainBookStore store = DurableCertainBookStore.open(inMemoryStore, inMemoryStore, logFile,
+					WriteAheadLog.Durability.ASYNC)) {
+				for (int first = 0; first < numBooks; first += BATCH_SIZE) {
+					store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN + first,
+							Math.min(BATCH_SIZE, numBooks - first), BenchmarkUtility.PLENTY_OF_COPIES));
+				}
+
+				long startTimeInNanoSecs = System.nanoTime();
+				long checkpointBytes = store.checkpoint(checkpointFile);
+				long checkpointTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+				System.out.println("engine,books,checkpoint_mb,checkpoint_ms,log_mb");
+				System.out.println(engine + "," + numBooks + "," + String.format("%.1f", checkpointBytes / 1e6) + ","
+						+ millis(checkpointTimeInNanoSecs) + ","
+						+ String.format("%.1f", Files.size(logFile) / 1e6));
+
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < NUM_TAIL_BUYS; i++) {
+					store.buyBooks(BenchmarkUtility.newCart(random, numBooks, CART_SIZE));
+				}
+			}
+
+			System.out.println();
+			System.out.println("engine,books,restart,restore_ms");
+			for (int i = 0; i < NUM_RESTARTS; i++) {
+				System.out.println(engine + "," + numBooks + ",checkpoint_and_log_tail,"
+						+ millis(measureRestart(engine, logFile, checkpointFile, numBooks)));
+				System.out.println(engine + "," + numBooks + ",whole_log,"
+						+ millis(measureRestart(engine, logFile, missingCheckpointFile, numBooks)));
+			}
+		} finally {
+			Files.deleteIfExists(logFile);
+			Files.deleteIfExists(checkpointFile);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	/**
+	 * Restarts a durable book store and measures the time until it is back
+	 * online.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param logFile
+	 *            the file of the log
+	 * @param checkpointFile
+	 *            the file of the checkpoint
+	 * @param numBooks
+	 *            the number of books expected after the restart
+	 * @return the restart time in nanoseconds
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static long measureRestart(String engine, Path logFile, Path checkpointFile, int numBooks)
+			throws Exception {
+		BenchmarkUtility.usedHeapBytes();
+
+		long startTimeInNanoSecs = System.nanoTime();
+		ConcurrentCertainBookStore inMemoryStore = CertainBookStoreFactory.newBookStore(engine);
+		try (DurableCertainBookStore store = DurableCertainBookStore.open(inMemoryStore, inMemoryStore, logFile,
+				WriteAheadLog.Durability.ASYNC, checkpointFile)) {
+			long restartTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+
+			int numRestoredBooks = store.getBooks().size();
+			if (numRestoredBooks != numBooks) {
+				throw new IllegalStateException("Restored " + numRestoredBooks + " books, expected " + numBooks);
+			}
+			return restartTimeInNanoSecs;
+		}
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.0f", nanos / 1e6);
+	}
+}
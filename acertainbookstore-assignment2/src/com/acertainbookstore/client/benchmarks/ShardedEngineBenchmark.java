@@ -0,0 +1,75 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.io.Closeable;
+
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+
+/**
+ * {@link ShardedEngineBenchmark} compares the throughput of buyBooks of the
+ * thread-per-shard implementation with the two-level locking one, from 1 to
+ * 64 threads. Carts of a single book are served by one shard thread, while
+ * larger carts mostly span several shards and go through the two-phase
+ * protocol, so the cart sizes measure both paths.
+ *
+ * The sharded implementation runs one shard per core by default; the
+ * benchmark is only meaningful on a machine with several cores. Optionally
+ * pass the engine names as arguments.
+ */
+public class ShardedEngineBenchmark {
+
+	/** The number of books in the catalog. */
+	private static final int NUM_BOOKS = 10_000;
+
+	/** The numbers of books bought per buyBooks call. */
+	private static final int[] CART_SIZES = { 1, 5 };
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link ShardedEngineBenchmark}.
+	 */
+	private ShardedEngineBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines, cf. {@link CertainBookStoreFactory}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] engines = args.length > 0 ? args
+				: new String[] { CertainBookStoreFactory.TWO_LEVEL_LOCKING, CertainBookStoreFactory.SHARDED };
+
+		System.out.println("engine,cart_size,threads,buys_per_sec");
+		for (String engine : engines) {
+			for (int cartSize : CART_SIZES) {
+				for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+					ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+					try {
+						store.addBooks(BenchmarkUtility.newStockBooks(BenchmarkUtility.FIRST_ISBN, NUM_BOOKS,
+								BenchmarkUtility.PLENTY_OF_COPIES));
+
+						BenchmarkUtility.Operation buyBooks = BenchmarkUtility.buyBooks(store, NUM_BOOKS, cartSize);
+						BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, buyBooks);
+						double throughput = BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, buyBooks);
+						System.out.println(
+								engine + "," + cartSize + "," + numThreads + "," + String.format("%.0f", throughput));
+					} finally {
+						if (store instanceof Closeable) {
+							((Closeable) store).close();
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.business.LockFreeConcurrentCertainBookStore;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TimestampOrderingConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WorkloadMixBenchmark} runs the interaction mix of the assignment 3
+ * workload (cf. its <code>Worker</code>) in-process against the book store
+ * implementations, so that they can be compared without the HTTP overhead:
+ * <ul>
+ * <li>10% new stock acquisition: list the catalog and add new books,</li>
+ * <li>30% stock replenishment: list the catalog and add copies to the books
+ * with the least copies,</li>
+ * <li>60% customer interaction: get editor picks and buy some of them.</li>
+ * </ul>
+ */
+public class WorkloadMixBenchmark {
+
+	/** The number of books in the initial catalog. */
+	private static final int NUM_INITIAL_BOOKS = 100;
+
+	/** The number of copies of each initial book. */
+	private static final int NUM_INITIAL_COPIES = 50;
+
+	/** The percentage of new stock acquisitions. */
+	private static final float PERCENT_RARE_STOCK_MANAGER_INTERACTION = 10f;
+
+	/** The percentage of stock replenishments. */
+	private static final float PERCENT_FREQUENT_STOCK_MANAGER_INTERACTION = 30f;
+
+	/** The number of new books per stock acquisition. */
+	private static final int NUM_BOOKS_TO_ADD = 5;
+
+	/** The number of books replenished per stock replenishment. */
+	private static final int NUM_BOOKS_WITH_LEAST_COPIES = 5;
+
+	/** The number of copies added per replenished book. */
+	private static final int NUM_ADD_COPIES = 10;
+
+	/** The number of editor picks requested by a customer. */
+	private static final int NUM_EDITOR_PICKS_TO_GET = 10;
+
+	/** The number of books bought by a customer. */
+	private static final int NUM_BOOKS_TO_BUY = 5;
+
+	/** The warm-up time per measurement. */
+	private static final long WARM_UP_MILLIS = 500;
+
+	/** The duration of a measurement. */
+	private static final long DURATION_MILLIS = 2_000;
+
+	/**
+	 * Prevents the instantiation of a new {@link WorkloadMixBenchmark}.
+	 */
+	private WorkloadMixBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method. The engines to compare can be restricted by passing
+	 * their names as arguments.
+	 *
+	 * @param args
+	 *            the names of the engines, cf. {@link CertainBookStoreFactory}
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] engines = args.length > 0 ? args : CertainBookStoreFactory.ENGINES;
+
+		System.out.println("engine,threads,interactions_per_sec,statistics");
+		for (String engine : engines) {
+			for (int numThreads : BenchmarkUtility.THREAD_COUNTS) {
+				ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+				double throughput = measureThroughput(store, numThreads);
+
+				System.out.println(engine + "," + numThreads + "," + String.format("%.0f", throughput) + ","
+						+ statistics(store));
+			}
+		}
+	}
+
+	/**
+	 * Loads the initial catalog into an empty store and measures the
+	 * throughput of the interaction mix.
+	 *
+	 * @param store
+	 *            the book store, empty
+	 * @param numThreads
+	 *            the number of clients
+	 * @return the interactions per second
+	 * @throws Exception
+	 *             the exception
+	 */
+	static double measureThroughput(ConcurrentCertainBookStore store, int numThreads) throws Exception {
+		AtomicInteger nextIsbn = new AtomicInteger(BenchmarkUtility.FIRST_ISBN);
+		store.addBooks(BenchmarkUtility.newStockBooks(nextIsbn.getAndAdd(NUM_INITIAL_BOOKS), NUM_INITIAL_BOOKS,
+				NUM_INITIAL_COPIES));
+
+		BenchmarkUtility.Operation interaction = random -> runInteraction(store, store, nextIsbn, random);
+		BenchmarkUtility.measureThroughput(numThreads, WARM_UP_MILLIS, interaction);
+		return BenchmarkUtility.measureThroughput(numThreads, DURATION_MILLIS, interaction);
+	}
+
+	/**
+	 * Describes the concurrency control statistics of the engines which keep
+	 * them, including the warm-up.
+	 *
+	 * @param store
+	 *            the book store
+	 * @return the statistics
+	 */
+	private static String statistics(Object store) {
+		if (store instanceof OptimisticConcurrentCertainBookStore) {
+			OptimisticConcurrentCertainBookStore optimistic = (OptimisticConcurrentCertainBookStore) store;
+			return "transactions=" + optimistic.getNumTransactions() + " aborts=" + optimistic.getNumAborts()
+					+ " retried=" + optimistic.getNumRetriedTransactions();
+		}
+		if (store instanceof TimestampOrderingConcurrentCertainBookStore) {
+			TimestampOrderingConcurrentCertainBookStore timestampOrdering = (TimestampOrderingConcurrentCertainBookStore) store;
+			return "transactions=" + timestampOrdering.getNumTransactions() + " restarts="
+					+ timestampOrdering.getNumRestarts() + " restarted=" + timestampOrdering.getNumRestartedTransactions()
+					+ " restart_rate=" + String.format("%.4f", timestampOrdering.getRestartRate()) + " skipped_writes="
+					+ timestampOrdering.getNumSkippedWrites();
+		}
+		if (store instanceof LockFreeConcurrentCertainBookStore) {
+			LockFreeConcurrentCertainBookStore lockFree = (LockFreeConcurrentCertainBookStore) store;
+			return "transactions=" + lockFree.getNumTransactions() + " aborts=" + lockFree.getNumAborts()
+					+ " retried=" + lockFree.getNumRetriedTransactions() + " descriptor_scans="
+					+ lockFree.getNumDescriptorScans();
+		}
+		return "";
+	}
+
+	/**
+	 * Runs one interaction chosen according to the mix.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param nextIsbn
+	 *            the next unused ISBN
+	 * @param random
+	 *            the random number generator
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void runInteraction(BookStore bookStore, StockManager stockManager, AtomicInteger nextIsbn,
+			ThreadLocalRandom random) throws BookStoreException {
+		float chooseInteraction = random.nextFloat() * 100f;
+
+		if (chooseInteraction < PERCENT_RARE_STOCK_MANAGER_INTERACTION) {
+			runRareStockManagerInteraction(stockManager, nextIsbn);
+		} else if (chooseInteraction < PERCENT_RARE_STOCK_MANAGER_INTERACTION
+				+ PERCENT_FREQUENT_STOCK_MANAGER_INTERACTION) {
+			runFrequentStockManagerInteraction(stockManager);
+		} else {
+			runFrequentBookStoreInteraction(bookStore, random);
+		}
+	}
+
+	private static void runRareStockManagerInteraction(StockManager stockManager, AtomicInteger nextIsbn)
+			throws BookStoreException {
+		// The workload lists the catalog to filter out existing ISBNs; fresh
+		// ISBNs are used here, but the catalog is still listed.
+		stockManager.getBooks();
+		stockManager.addBooks(BenchmarkUtility.newStockBooks(nextIsbn.getAndAdd(NUM_BOOKS_TO_ADD), NUM_BOOKS_TO_ADD,
+				NUM_INITIAL_COPIES));
+	}
+
+	private static void runFrequentStockManagerInteraction(StockManager stockManager) throws BookStoreException {
+		List<StockBook> existingBooks = stockManager.getBooks();
+
+		Set<BookCopy> bookCopiesToAdd = existingBooks.stream()
+				.sorted((b1, b2) -> Integer.compare(b1.getNumCopies(), b2.getNumCopies()))
+				.limit(NUM_BOOKS_WITH_LEAST_COPIES)
+				.map(book -> new BookCopy(book.getISBN(), NUM_ADD_COPIES))
+				.collect(Collectors.toSet());
+		stockManager.addCopies(bookCopiesToAdd);
+	}
+
+	private static void runFrequentBookStoreInteraction(BookStore bookStore, ThreadLocalRandom random)
+			throws BookStoreException {
+		List<Book> editorPicks = bookStore.getEditorPicks(NUM_EDITOR_PICKS_TO_GET);
+
+		List<Integer> isbns = new ArrayList<>();
+		for (Book book : editorPicks) {
+			isbns.add(book.getISBN());
+		}
+		Collections.shuffle(isbns, random);
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		for (Integer isbn : isbns.subList(0, Math.min(NUM_BOOKS_TO_BUY, isbns.size()))) {
+			booksToBuy.add(new BookCopy(isbn, 1));
+		}
+		bookStore.buyBooks(booksToBuy);
+	}
+}
@@ -0,0 +1,194 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.AdaptiveLockManager;
+import com.acertainbookstore.business.AdaptiveLockManager.Mode;
+import com.acertainbookstore.business.AdaptiveLockManager.Transition;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link AdaptiveLockManagerTest} tests that the {@link AdaptiveLockManager}
+ * actually switches: to per-book mode when sections on different books
+ * contend for the single lock, and back to single-lock mode when the catalog
+ * sections come back.
+ *
+ * @see AdaptiveLockManager
+ */
+public class AdaptiveLockManagerTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant SAMPLE_PERIOD_MILLIS, short so that the tests switch fast. */
+	private static final long SAMPLE_PERIOD_MILLIS = 10;
+
+	/** The Constant SECTION_NANOS, the time a contended section holds its locks. */
+	private static final long SECTION_NANOS = 20_000;
+
+	/** The Constant TIMEOUT_MILLIS, after which a switch is deemed missing. */
+	private static final long TIMEOUT_MILLIS = 30000;
+
+	/** The Constant NUM_OPERATIONS, for the tests which must not switch. */
+	private static final int NUM_OPERATIONS = 20000;
+
+	/**
+	 * Adds books to the catalog of a lock manager.
+	 *
+	 * @param manager
+	 *            the lock manager
+	 * @param numBooks
+	 *            the number of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void addBooks(AdaptiveLockManager manager, int numBooks) throws BookStoreException {
+		manager.writeCatalog(() -> {
+			for (int i = 0; i < numBooks; i++) {
+				manager.bookAdded(TEST_ISBN + i);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Writes a book, holding its locks for {@link #SECTION_NANOS}.
+	 *
+	 * @param manager
+	 *            the lock manager
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void writeBook(AdaptiveLockManager manager, int isbn) throws BookStoreException {
+		manager.writeBooks(new int[] { isbn }, () -> {
+			long end = System.nanoTime() + SECTION_NANOS;
+			while (System.nanoTime() < end) {
+				Thread.onSpinWait();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Checks that sections writing different books, which contend for the
+	 * single lock, switch the lock manager to per-book mode, and that the
+	 * transition records the sample which caused it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSwitchToPerBook() throws Exception {
+		AdaptiveLockManager manager = new AdaptiveLockManager(Mode.SINGLE_LOCK, SAMPLE_PERIOD_MILLIS);
+		addBooks(manager, NUM_THREADS);
+		AtomicBoolean done = new AtomicBoolean();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			final int isbn = TEST_ISBN + t;
+			threads.add(new Thread(() -> {
+				try {
+					while (!done.get()) {
+						writeBook(manager, isbn);
+					}
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+		while (manager.getMode() == Mode.SINGLE_LOCK && System.nanoTime() < deadline) {
+			Thread.sleep(SAMPLE_PERIOD_MILLIS);
+		}
+		done.set(true);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+
+		assertEquals(Mode.PER_BOOK, manager.getMode());
+		assertEquals(1, manager.getNumTransitions());
+		Transition transition = manager.getTransitions().get(0);
+		assertEquals(Mode.SINGLE_LOCK, transition.getFrom());
+		assertEquals(Mode.PER_BOOK, transition.getTo());
+		assertTrue(transition.getCatalogShare() <= 0.01);
+		assertTrue(transition.getMeanWaitNanos() > 0);
+	}
+
+	/**
+	 * Checks that catalog scans among the sections on books switch the lock
+	 * manager back to single-lock mode.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSwitchToSingleLock() throws Exception {
+		AdaptiveLockManager manager = new AdaptiveLockManager(Mode.PER_BOOK, SAMPLE_PERIOD_MILLIS);
+		addBooks(manager, NUM_THREADS);
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+		for (int i = 0; manager.getMode() == Mode.PER_BOOK && System.nanoTime() < deadline; i++) {
+			if (i % 4 == 0) {
+				manager.readCatalog(() -> null);
+			} else {
+				manager.readBooks(new int[] { TEST_ISBN + i % NUM_THREADS }, () -> null);
+			}
+		}
+
+		assertEquals(Mode.SINGLE_LOCK, manager.getMode());
+		Transition transition = manager.getTransitions().get(0);
+		assertEquals(Mode.PER_BOOK, transition.getFrom());
+		assertEquals(Mode.SINGLE_LOCK, transition.getTo());
+		assertTrue(transition.getCatalogShare() > 0.2);
+		assertTrue(transition.getNumSections() > 0);
+	}
+
+	/**
+	 * Checks that the lock manager keeps its mode while the sample does not
+	 * call for a switch: single-lock mode with catalog scans among the
+	 * sections on books, and per-book mode with sections on books only.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testNoSwitch() throws Exception {
+		AdaptiveLockManager singleLock = new AdaptiveLockManager(Mode.SINGLE_LOCK, SAMPLE_PERIOD_MILLIS);
+		AdaptiveLockManager perBook = new AdaptiveLockManager(Mode.PER_BOOK, SAMPLE_PERIOD_MILLIS);
+		addBooks(singleLock, NUM_THREADS);
+		addBooks(perBook, NUM_THREADS);
+
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			if (i % 10 == 0) {
+				singleLock.readCatalog(() -> null);
+			} else {
+				writeBook(singleLock, TEST_ISBN + i % NUM_THREADS);
+			}
+			writeBook(perBook, TEST_ISBN + i % NUM_THREADS);
+		}
+
+		assertEquals(Mode.SINGLE_LOCK, singleLock.getMode());
+		assertEquals(Mode.PER_BOOK, perBook.getMode());
+		assertEquals(0, singleLock.getNumTransitions());
+		assertEquals(0, perBook.getNumTransitions());
+		assertTrue(singleLock.getTransitions().isEmpty());
+	}
+}
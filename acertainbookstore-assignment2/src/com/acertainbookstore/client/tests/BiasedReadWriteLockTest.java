@@ -0,0 +1,232 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.utils.BiasedReadWriteLock;
+
+/**
+ * {@link BiasedReadWriteLockTest} tests that the {@link BiasedReadWriteLock}
+ * excludes the writers from the readers which took the lock through the bias
+ * as well as from those which took the underlying lock, and that a writer
+ * revokes the bias, sending the next readers to the underlying lock.
+ *
+ * @see BiasedReadWriteLock
+ */
+public class BiasedReadWriteLockTest {
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 20000;
+
+	/** The Constant BLOCKED_MILLIS, during which a blocked thread must not proceed. */
+	private static final long BLOCKED_MILLIS = 100;
+
+	/** The Constant INHIBITION_MILLIS, longer than the inhibition of the bias. */
+	private static final long INHIBITION_MILLIS = 50;
+
+	/** The lock. */
+	private BiasedReadWriteLock lock;
+
+	/**
+	 * Creates a new lock, executed before every test case is run.
+	 */
+	@Before
+	public void initializeLock() {
+		lock = new BiasedReadWriteLock();
+	}
+
+	/**
+	 * Starts a thread trying to take the write lock without waiting for the
+	 * underlying lock, and releasing it at once if it got it.
+	 *
+	 * @param acquired
+	 *            set once the thread got the write lock
+	 * @param done
+	 *            counted down once the attempt returned
+	 * @return the thread
+	 */
+	private Thread startWriter(AtomicBoolean acquired, CountDownLatch done) {
+		Thread writer = new Thread(() -> {
+			if (lock.writeLock().tryLock()) {
+				acquired.set(true);
+				lock.writeLock().unlock();
+			}
+			done.countDown();
+		});
+		writer.start();
+		return writer;
+	}
+
+	/**
+	 * Checks that a writer waits for a reader holding the lock through the
+	 * bias, which never touches the underlying lock, including while the
+	 * reader reenters it.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testWriterWaitsForBiasedReader() throws InterruptedException {
+		lock.readLock().lock();
+		lock.readLock().lock();
+
+		AtomicBoolean acquired = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+		Thread writer = new Thread(() -> {
+			lock.writeLock().lock();
+			acquired.set(true);
+			lock.writeLock().unlock();
+			done.countDown();
+		});
+		writer.start();
+
+		Thread.sleep(BLOCKED_MILLIS);
+		assertFalse(acquired.get());
+		lock.readLock().unlock();
+		Thread.sleep(BLOCKED_MILLIS);
+		assertFalse(acquired.get());
+
+		lock.readLock().unlock();
+		done.await();
+		writer.join();
+		assertTrue(acquired.get());
+	}
+
+	/**
+	 * Checks that a writer revokes the bias: the next reader takes the
+	 * underlying read lock, which a writer then fails to try, and the bias is
+	 * only restored by a reader once its inhibition is over.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testRevocation() throws InterruptedException {
+		lock.writeLock().lock();
+		lock.writeLock().unlock();
+
+		// The bias is revoked: the reader takes the underlying lock, and a
+		// writer trying the lock gives up at once.
+		lock.readLock().lock();
+		AtomicBoolean acquired = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+		Thread writer = startWriter(acquired, done);
+		done.await();
+		writer.join();
+		assertFalse(acquired.get());
+		lock.readLock().unlock();
+
+		// Once the inhibition is over, a reader restores the bias, and the
+		// next one bypasses the underlying lock: a writer trying the lock then
+		// waits for it to leave instead of giving up.
+		Thread.sleep(INHIBITION_MILLIS);
+		lock.readLock().lock();
+		lock.readLock().unlock();
+		lock.readLock().lock();
+		done = new CountDownLatch(1);
+		writer = startWriter(acquired, done);
+		Thread.sleep(BLOCKED_MILLIS);
+		assertEquals(1, done.getCount());
+		lock.readLock().unlock();
+		done.await();
+		writer.join();
+		assertTrue(acquired.get());
+	}
+
+	/**
+	 * Checks that a thread holding the write lock may take the read lock,
+	 * without restoring the bias, and that readers wait for the writer.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testReadersWaitForWriter() throws InterruptedException {
+		lock.writeLock().lock();
+		Thread.sleep(INHIBITION_MILLIS);
+		lock.readLock().lock();
+		lock.readLock().unlock();
+
+		AtomicBoolean acquired = new AtomicBoolean();
+		Thread reader = new Thread(() -> {
+			lock.readLock().lock();
+			acquired.set(true);
+			lock.readLock().unlock();
+		});
+		reader.start();
+		Thread.sleep(BLOCKED_MILLIS);
+		assertFalse(acquired.get());
+
+		lock.writeLock().unlock();
+		reader.join();
+		assertTrue(acquired.get());
+	}
+
+	/**
+	 * Checks that concurrent readers never see a writer halfway through an
+	 * update, and that the writers exclude each other, while the bias is
+	 * revoked and restored over and over.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testConcurrentReadersAndWriters() throws InterruptedException {
+		// Not atomic: only the lock protects the pair.
+		long[] pair = new long[2];
+		AtomicInteger numWrites = new AtomicInteger();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			final boolean writer = t < 2;
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < NUM_OPERATIONS; i++) {
+						if (writer && i % 10 == 0) {
+							lock.writeLock().lock();
+							try {
+								pair[0]++;
+								Thread.yield();
+								pair[1]++;
+							} finally {
+								lock.writeLock().unlock();
+							}
+							numWrites.incrementAndGet();
+						} else {
+							lock.readLock().lock();
+							try {
+								assertEquals(pair[0], pair[1]);
+							} finally {
+								lock.readLock().unlock();
+							}
+						}
+					}
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(numWrites.get(), pair[0]);
+		assertEquals(numWrites.get(), pair[1]);
+	}
+}
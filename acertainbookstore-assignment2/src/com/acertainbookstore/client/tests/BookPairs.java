@@ -0,0 +1,246 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookPairs} is the fixture shared by the tests of the engines which
+ * write several books in one operation: pairs of books which are always
+ * written together, the pair i being made of the ISBNs TEST_ISBN + 2i and
+ * TEST_ISBN + 2i + 1, so that a read seeing half of an operation finds the
+ * two books of a pair apart.
+ */
+public final class BookPairs {
+
+	/** The Constant TEST_ISBN. */
+	public static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES, of every book initially. */
+	public static final int NUM_COPIES = 10;
+
+	/** The Constant NUM_OPERATIONS. */
+	public static final int NUM_OPERATIONS = 2000;
+
+	/** The number of pairs. */
+	private final int numPairs;
+
+	/**
+	 * Instantiates a new fixture.
+	 *
+	 * @param numPairs
+	 *            the number of pairs
+	 */
+	public BookPairs(int numPairs) {
+		this.numPairs = numPairs;
+	}
+
+	/**
+	 * Helper method to get a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numCopies
+	 *            the number of copies
+	 * @return the book
+	 */
+	public static StockBook getBook(int isbn, int numCopies) {
+		return new ImmutableStockBook(isbn, "Harry Potter and JUnit", "JK Unit", (float) 10, numCopies, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Adds the books of every pair to a store, with {@link #NUM_COPIES}
+	 * copies each.
+	 *
+	 * @param store
+	 *            the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void addTo(StockManager store) throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		for (int isbn = TEST_ISBN; isbn < TEST_ISBN + 2 * numPairs; isbn++) {
+			booksToAdd.add(getBook(isbn, NUM_COPIES));
+		}
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Gets the ISBNs of the books of every pair.
+	 *
+	 * @return the ISBNs
+	 */
+	public Set<Integer> getISBNs() {
+		Set<Integer> isbns = new HashSet<Integer>();
+		for (int isbn = TEST_ISBN; isbn < TEST_ISBN + 2 * numPairs; isbn++) {
+			isbns.add(isbn);
+		}
+		return isbns;
+	}
+
+	/**
+	 * Gets copies of each book of a pair.
+	 *
+	 * @param pair
+	 *            the pair
+	 * @param numCopies
+	 *            the number of copies of each book
+	 * @return the copies
+	 */
+	public static Set<BookCopy> copiesOf(int pair, int numCopies) {
+		Set<BookCopy> copies = new HashSet<BookCopy>();
+		copies.add(new BookCopy(TEST_ISBN + 2 * pair, numCopies));
+		copies.add(new BookCopy(TEST_ISBN + 2 * pair + 1, numCopies));
+		return copies;
+	}
+
+	/**
+	 * Checks that the books hold every pair, and that the books of every pair
+	 * have the same copies and sale misses.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	public void assertConsistent(List<StockBook> books) {
+		Map<Integer, StockBook> booksByISBN = new HashMap<Integer, StockBook>();
+		for (StockBook book : books) {
+			booksByISBN.put(book.getISBN(), book);
+		}
+		assertEquals(2 * numPairs, booksByISBN.size());
+		for (int isbn = TEST_ISBN; isbn < TEST_ISBN + 2 * numPairs; isbn += 2) {
+			assertEquals(booksByISBN.get(isbn).getNumCopies(), booksByISBN.get(isbn + 1).getNumCopies());
+			assertEquals(booksByISBN.get(isbn).getNumSaleMisses(), booksByISBN.get(isbn + 1).getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Checks that every book has the given number of copies.
+	 *
+	 * @param books
+	 *            the books
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public static void assertNumCopies(List<StockBook> books, int numCopies) {
+		for (StockBook book : books) {
+			assertEquals(numCopies, book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Runs two writers, which restock and buy the pairs, along with a reader,
+	 * which checks that the books read by ISBN, and the catalog if asked,
+	 * never show half of an operation. Once they are done, checks that every
+	 * book is back to {@link #NUM_COPIES} copies.
+	 *
+	 * @param store
+	 *            the store, holding the pairs
+	 * @param numOperations
+	 *            the number of operations of each writer, ten times those of
+	 *            the reader
+	 * @param checkCatalog
+	 *            whether the catalog reads are checked as well, for the
+	 *            engines reading the catalog in one snapshot
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void runWritersAndReader(ConcurrentCertainBookStore store, int numOperations, boolean checkCatalog)
+			throws InterruptedException, BookStoreException {
+		runWritersAndReader(store, numOperations, checkCatalog, 0);
+	}
+
+	/**
+	 * Runs two writers and a reader as
+	 * {@link #runWritersAndReader(ConcurrentCertainBookStore, int, boolean)}
+	 * does, the writers also missing sales of both books of a pair at once
+	 * now and then.
+	 *
+	 * @param store
+	 *            the store, holding the pairs
+	 * @param numOperations
+	 *            the number of operations of each writer, ten times those of
+	 *            the reader
+	 * @param checkCatalog
+	 *            whether the catalog reads are checked as well, for the
+	 *            engines reading the catalog in one snapshot
+	 * @param missPeriod
+	 *            the number of operations of a writer between two buys of
+	 *            more copies than in stock, or 0 for none
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void runWritersAndReader(ConcurrentCertainBookStore store, int numOperations, boolean checkCatalog,
+			int missPeriod) throws InterruptedException, BookStoreException {
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 2; t++) {
+			final int writer = t;
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < numOperations; i++) {
+						int pair = (i + writer) % numPairs;
+						store.addCopies(copiesOf(pair, 1));
+						store.buyBooks(copiesOf(pair, 1));
+						if (missPeriod > 0 && i % missPeriod == 0) {
+							try {
+								store.buyBooks(copiesOf(pair, 100 * NUM_COPIES));
+								fail();
+							} catch (BookStoreException ex) {
+								;
+							}
+						}
+					}
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+		threads.add(new Thread(() -> {
+			try {
+				Set<Integer> isbns = getISBNs();
+				for (int i = 0; i < numOperations / 10; i++) {
+					List<StockBook> books = store.getBooksByISBN(isbns);
+					assertConsistent(books);
+					for (StockBook book : books) {
+						assertTrue(book.getNumCopies() >= NUM_COPIES);
+					}
+					if (checkCatalog) {
+						assertConsistent(store.getBooks());
+					}
+				}
+			} catch (Throwable ex) {
+				failures.add(ex);
+			}
+		}));
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+
+		List<StockBook> books = store.getBooks();
+		assertConsistent(books);
+		assertNumCopies(books, NUM_COPIES);
+	}
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStoreFactory;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -21,6 +22,7 @@ import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
@@ -63,8 +65,14 @@ public class BookStoreTest {
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
+			String engineProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_ENGINE);
+
 			if (localTest) {
-				if (singleLock) {
+				if (engineProperty != null) {
+					ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engineProperty);
+					storeManager = store;
+					client = store;
+				} else if (singleLock) {
 					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 					storeManager = store;
 					client = store;
@@ -375,7 +383,7 @@ public class BookStoreTest {
 	 */
 	@Test
 	public void testBuyOneAndAddManyBooksConcurrently() throws BookStoreException {
-		var threadBuyer = new Thread(() -> {
+		Thread threadBuyer = new Thread(() -> {
 			try {
 				// Buy one book
 				Set<BookCopy> booksToBuy = new HashSet<>();
@@ -386,7 +394,7 @@ public class BookStoreTest {
 			}
 		});
 
-		var threadAdder = new Thread(() -> {
+		Thread threadAdder = new Thread(() -> {
 			try {
 				// Add one book
 				Set<BookCopy> booksToAdd = new HashSet<>();
@@ -421,7 +429,7 @@ public class BookStoreTest {
 	 */
 	@Test
 	public void testBuyAndAddBooksConcurrently() throws BookStoreException {
-		var threadBuyer = new Thread(() -> {
+		Thread threadBuyer = new Thread(() -> {
 			try {
 				// Buy one book
 				Set<BookCopy> booksToBuy = new HashSet<>();
@@ -432,7 +440,7 @@ public class BookStoreTest {
 			}
 		});
 
-		var threadAdder = new Thread(() -> {
+		Thread threadAdder = new Thread(() -> {
 			try {
 				// Add one book
 				Set<BookCopy> booksToAdd = new HashSet<>();
@@ -476,7 +484,7 @@ public class BookStoreTest {
 		// Add two more to the selection of books
 		storeManager.addBooks(stockBooksToAdd);
 
-		var C1 = new Thread(() -> {
+		Thread C1 = new Thread(() -> {
 			try {
 				Set<BookCopy> booksToBuy = new HashSet<>();
 				Set<BookCopy> booksToAdd = new HashSet<>();
@@ -496,7 +504,7 @@ public class BookStoreTest {
 			}
 		});
 
-		var C2 = new Thread(() -> {
+		Thread C2 = new Thread(() -> {
 			try {
 				for (int i = 0; i < numIterations; i++) {
 					List<StockBook> storeBooks = storeManager.getBooks();
@@ -535,7 +543,7 @@ public class BookStoreTest {
 	@Test
 	public void testBuyAndSalesMissConcurrently() throws BookStoreException {
 		int numCopiesToBuy = (NUM_COPIES / 2) + 1; // buying twice will result in miss
-		var C1 = new Thread(() -> {
+		Thread C1 = new Thread(() -> {
 			try {
 				// Buy books
 				Set<BookCopy> booksToBuy = new HashSet<>();
@@ -546,7 +554,7 @@ public class BookStoreTest {
 			}
 		});
 
-		var C2 = new Thread(() -> {
+		Thread C2 = new Thread(() -> {
 			try {
 				// Buy books
 				Set<BookCopy> booksToBuy = new HashSet<>();
@@ -606,14 +614,14 @@ public class BookStoreTest {
 				for (int i = 0; i < numIterations; i++) {
 					// Randomly select a book to buy/add
 					Set<BookCopy> booksToBuy = new HashSet<>();
-					var bookToBuy = TEST_ISBN + (int)(Math.random() * numBooks);
+					int bookToBuy = TEST_ISBN + (int)(Math.random() * numBooks);
 					booksToBuy.add(new BookCopy(bookToBuy, 1));
                     try {
                         client.buyBooks(booksToBuy);
 
                         Set<Integer> isbn = new HashSet<>();
                         isbn.add(bookToBuy);
-                        var book = storeManager.getBooksByISBN(isbn).get(0);
+                        StockBook book = storeManager.getBooksByISBN(isbn).get(0);
                         if (book.getNumCopies() > numClients * 10) fail("Too many books");
                     }
 					catch (BookStoreException e) {
@@ -629,7 +637,7 @@ public class BookStoreTest {
 		};
 
 		// Initialize threads
-		var threadList = new Thread[numClients];
+		Thread[] threadList = new Thread[numClients];
 		for (int i = 0; i < numClients; i++) {
 			threadList[i] = new Thread(deadLockFunction);
 		}
@@ -704,7 +712,7 @@ public class BookStoreTest {
 
 							Set<Integer> isbn = new HashSet<>();
 							isbn.add(bookToBuy);
-							var book = storeManager.getBooksByISBN(isbn).get(0);
+							StockBook book = storeManager.getBooksByISBN(isbn).get(0);
 							if (book.getNumCopies() > numClients * 10) fail("Too many books");
 
 							Set<BookCopy> booksToAdd = new HashSet<>();
@@ -724,7 +732,7 @@ public class BookStoreTest {
 		};
 
 		// Initialize threads
-		var threadList = new Thread[numClients];
+		Thread[] threadList = new Thread[numClients];
 		for (int i = 0; i < numClients; i++) {
 			threadList[i] = new Thread(deadLockFunction);
 		}
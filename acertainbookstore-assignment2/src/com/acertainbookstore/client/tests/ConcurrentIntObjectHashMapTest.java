@@ -0,0 +1,195 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.ConcurrentIntObjectHashMap;
+
+/**
+ * {@link ConcurrentIntObjectHashMapTest} tests the
+ * {@link ConcurrentIntObjectHashMap}, alone and under concurrent updates.
+ *
+ * @see ConcurrentIntObjectHashMap
+ */
+public class ConcurrentIntObjectHashMapTest {
+
+	/** The Constant NUM_KEYS. */
+	private static final int NUM_KEYS = 10000;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/**
+	 * Runs a task in several threads and waits for them.
+	 *
+	 * @param task
+	 *            the task, given the index of its thread
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private static void runConcurrently(IntConsumer task) throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		for (int t = 0; t < NUM_THREADS; t++) {
+			final int thread = t;
+			threads.add(new Thread(() -> {
+				try {
+					task.accept(thread);
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	/**
+	 * Checks random updates against a {@link HashMap}, over a single segment
+	 * and over several, so that the segments grow and remove entries from
+	 * their clusters.
+	 */
+	@Test
+	public void testRandomOperations() {
+		for (int numSegments : new int[] { 1, 16 }) {
+			ConcurrentIntObjectHashMap<String> map = new ConcurrentIntObjectHashMap<String>(numSegments);
+			Map<Integer, String> expected = new HashMap<Integer, String>();
+			Random random = new Random(42);
+
+			for (int i = 0; i < 10 * NUM_KEYS; i++) {
+				int key = random.nextInt(NUM_KEYS) - NUM_KEYS / 2;
+				String value = "v" + i;
+				switch (random.nextInt(4)) {
+				case 0:
+					assertEquals(expected.remove(key), map.remove(key));
+					break;
+				case 1:
+					assertEquals(expected.putIfAbsent(key, value), map.putIfAbsent(key, value));
+					break;
+				case 2:
+					String current = expected.getOrDefault(key, value);
+					assertEquals(expected.remove(key, current), map.remove(key, current));
+					break;
+				default:
+					assertEquals(expected.put(key, value), map.put(key, value));
+					break;
+				}
+			}
+
+			assertEquals(expected.size(), map.size());
+			for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+				assertEquals(entry.getValue(), map.get(entry.getKey()));
+			}
+			List<String> values = map.values();
+			assertEquals(expected.size(), values.size());
+			assertTrue(values.containsAll(expected.values()));
+
+			map.clear();
+			assertEquals(0, map.size());
+			assertFalse(map.containsKey(0));
+		}
+	}
+
+	/**
+	 * Checks that a value is only replaced or removed if it is still the
+	 * expected one.
+	 */
+	@Test
+	public void testConditionalUpdates() {
+		ConcurrentIntObjectHashMap<String> map = new ConcurrentIntObjectHashMap<String>();
+		String first = "first";
+		String second = "second";
+
+		assertFalse(map.replace(1, first, second));
+		map.put(1, first);
+		assertFalse(map.replace(1, second, first));
+		assertTrue(map.replace(1, first, second));
+		assertSame(second, map.get(1));
+
+		assertFalse(map.remove(1, first));
+		assertTrue(map.remove(1, second));
+		assertFalse(map.containsKey(1));
+	}
+
+	/**
+	 * Checks that concurrent putIfAbsent calls of the same keys install one
+	 * value per key, and that every other call sees it.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testConcurrentPutIfAbsent() throws InterruptedException {
+		ConcurrentIntObjectHashMap<Integer> map = new ConcurrentIntObjectHashMap<Integer>();
+		AtomicInteger numInstalled = new AtomicInteger();
+
+		runConcurrently(thread -> {
+			for (int key = 0; key < NUM_KEYS; key++) {
+				Integer value = thread;
+				Integer current = map.putIfAbsent(key, value);
+				if (current == null) {
+					numInstalled.incrementAndGet();
+				} else {
+					assertEquals(current, map.get(key));
+				}
+			}
+		});
+
+		assertEquals(NUM_KEYS, numInstalled.get());
+		assertEquals(NUM_KEYS, map.size());
+	}
+
+	/**
+	 * Checks that lookups of keys nobody updates always find them while other
+	 * threads insert and remove keys of the same segments.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testLookupsDuringUpdates() throws InterruptedException {
+		ConcurrentIntObjectHashMap<Integer> map = new ConcurrentIntObjectHashMap<Integer>(4);
+		for (int key = 0; key < NUM_KEYS; key += 2) {
+			map.put(key, key);
+		}
+
+		runConcurrently(thread -> {
+			if (thread % 2 == 0) {
+				// Insert and remove odd keys, which grows the segments and
+				// shifts their clusters under the readers.
+				for (int round = 0; round < 5; round++) {
+					for (int key = 1 + 2 * thread; key < NUM_KEYS; key += 2 * NUM_THREADS) {
+						map.put(key, key);
+					}
+					for (int key = 1 + 2 * thread; key < NUM_KEYS; key += 2 * NUM_THREADS) {
+						assertEquals(Integer.valueOf(key), map.remove(key));
+					}
+				}
+			} else {
+				for (int round = 0; round < 5; round++) {
+					for (int key = 0; key < NUM_KEYS; key += 2) {
+						assertEquals(Integer.valueOf(key), map.get(key));
+					}
+				}
+			}
+		});
+
+		assertEquals(NUM_KEYS / 2, map.size());
+	}
+}
@@ -0,0 +1,386 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CheckpointFile;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link DurableCertainBookStoreTest} tests the {@link DurableCertainBookStore}
+ * over a {@link SingleLockConcurrentCertainBookStore}, since the log does not
+ * depend on the in-memory engine.
+ *
+ * @see DurableCertainBookStore
+ */
+public class DurableCertainBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 30345650;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The directory of the log. */
+	private Path directory;
+
+	/** The file of the log. */
+	private Path logFile;
+
+	/** The file of the checkpoint. */
+	private Path checkpointFile;
+
+	/**
+	 * Creates the directory of the log, executed before every test case is
+	 * run.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("bookstore");
+		logFile = directory.resolve("bookstore.log");
+		checkpointFile = directory.resolve("bookstore.checkpoint");
+	}
+
+	/**
+	 * Deletes the directory of the log, executed after every test case is run.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	/**
+	 * Opens a durable book store over a new in-memory store.
+	 *
+	 * @return the durable book store
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private DurableCertainBookStore openStore() throws IOException, BookStoreException {
+		return openStore(WriteAheadLog.Durability.COMMIT);
+	}
+
+	/**
+	 * Opens a durable book store over a new in-memory store.
+	 *
+	 * @param durability
+	 *            the durability of the commits
+	 * @return the durable book store
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private DurableCertainBookStore openStore(WriteAheadLog.Durability durability)
+			throws IOException, BookStoreException {
+		SingleLockConcurrentCertainBookStore inMemoryStore = new SingleLockConcurrentCertainBookStore();
+		return DurableCertainBookStore.open(inMemoryStore, inMemoryStore, logFile, durability);
+	}
+
+	/**
+	 * Opens a durable book store over a new in-memory store from its
+	 * checkpoint.
+	 *
+	 * @return the durable book store
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private DurableCertainBookStore openStoreFromCheckpoint() throws IOException, BookStoreException {
+		SingleLockConcurrentCertainBookStore inMemoryStore = new SingleLockConcurrentCertainBookStore();
+		return DurableCertainBookStore.open(inMemoryStore, inMemoryStore, logFile, WriteAheadLog.Durability.COMMIT,
+				checkpointFile);
+	}
+
+	/**
+	 * Helper method to get a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 */
+	private static StockBook getBook(int isbn) {
+		return new ImmutableStockBook(isbn, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Runs one mutation of every kind against a store: adds books, buys one
+	 * of them out, misses a sale, rates, picks and removes books.
+	 *
+	 * @param store
+	 *            the store
+	 * @param firstISBN
+	 *            the first ISBN of the books added
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void mutate(DurableCertainBookStore store, int firstISBN) throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		for (int i = 0; i < 4; i++) {
+			booksToAdd.add(getBook(firstISBN + i));
+		}
+		store.addBooks(booksToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(firstISBN, NUM_COPIES));
+		booksToBuy.add(new BookCopy(firstISBN + 1, 2));
+		store.buyBooks(booksToBuy);
+
+		// The buy fails, but records a sale miss.
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(firstISBN, 1));
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<BookCopy> booksToCopy = new HashSet<BookCopy>();
+		booksToCopy.add(new BookCopy(firstISBN + 1, 3));
+		store.addCopies(booksToCopy);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(firstISBN + 1, 4));
+		ratings.add(new BookRating(firstISBN + 2, 2));
+		store.rateBooks(ratings);
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(firstISBN + 2, true));
+		store.updateEditorPicks(editorPicks);
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(firstISBN + 3);
+		store.removeBooks(isbnsToRemove);
+	}
+
+	/**
+	 * Checks that two lists hold the same books, with the same stock.
+	 *
+	 * @param expectedBooks
+	 *            the expected books
+	 * @param actualBooks
+	 *            the actual books
+	 */
+	private static void assertSameBooks(List<StockBook> expectedBooks, List<StockBook> actualBooks) {
+		assertEquals(expectedBooks.size(), actualBooks.size());
+		for (StockBook expected : expectedBooks) {
+			StockBook actual = actualBooks.get(actualBooks.indexOf(expected));
+			assertEquals(expected.getNumCopies(), actual.getNumCopies());
+			assertEquals(expected.getNumSaleMisses(), actual.getNumSaleMisses());
+			assertEquals(expected.getNumTimesRated(), actual.getNumTimesRated());
+			assertEquals(expected.getTotalRating(), actual.getTotalRating());
+			assertEquals(expected.isEditorPick(), actual.isEditorPick());
+		}
+	}
+
+	/**
+	 * Checks that a store closed cleanly is restored by the replay of its log.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReplayAfterClose() throws IOException, BookStoreException {
+		List<StockBook> booksBeforeClose;
+		try (DurableCertainBookStore store = openStore()) {
+			mutate(store, TEST_ISBN);
+			booksBeforeClose = store.getBooks();
+		}
+
+		try (DurableCertainBookStore store = openStore()) {
+			assertSameBooks(booksBeforeClose, store.getBooks());
+			assertEquals(1, store.getEditorPicks(1).size());
+		}
+	}
+
+	/**
+	 * Checks that a store is restored from its checkpoint, with its sold out
+	 * and rated books, and the replay of the log after the checkpoint.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testCheckpointRoundTrip() throws IOException, BookStoreException {
+		List<StockBook> booksAtCheckpoint;
+		List<StockBook> booksBeforeClose;
+		try (DurableCertainBookStore store = openStore()) {
+			mutate(store, TEST_ISBN);
+			booksAtCheckpoint = store.getBooks();
+			store.checkpoint(checkpointFile);
+
+			mutate(store, TEST_ISBN + 10);
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+			store.buyBooks(booksToBuy);
+			booksBeforeClose = store.getBooks();
+		}
+
+		// The checkpoint alone holds the books as of the checkpoint.
+		SingleLockConcurrentCertainBookStore inMemoryStore = new SingleLockConcurrentCertainBookStore();
+		CheckpointFile.restore(checkpointFile, inMemoryStore, inMemoryStore);
+		assertSameBooks(booksAtCheckpoint, inMemoryStore.getBooks());
+
+		try (DurableCertainBookStore store = openStoreFromCheckpoint()) {
+			assertSameBooks(booksBeforeClose, store.getBooks());
+			assertEquals(2, store.getEditorPicks(2).size());
+		}
+	}
+
+	/**
+	 * Checks that checkpoints taken while writers buy and restock books reflect
+	 * the books as of their log offset, so that the replay of the log after
+	 * the last one restores the books the writers left.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCheckpointWhileWriting() throws Exception {
+		final int numBooks = 2000;
+		final int numWriters = 2;
+		final int numOperations = 1000;
+
+		List<StockBook> booksBeforeClose;
+		// Asynchronous commits keep the writers running during the copies.
+		try (DurableCertainBookStore store = openStore(WriteAheadLog.Durability.ASYNC)) {
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			for (int i = 0; i < numBooks; i++) {
+				booksToAdd.add(getBook(TEST_ISBN + i));
+			}
+			store.addBooks(booksToAdd);
+
+			List<Thread> writers = new ArrayList<Thread>();
+			List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+			for (int w = 0; w < numWriters; w++) {
+				final int writer = w;
+				writers.add(new Thread(() -> {
+					try {
+						for (int i = 0; i < numOperations; i++) {
+							Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+							bookCopies.add(new BookCopy(TEST_ISBN + (i * 7 + writer) % numBooks, 1));
+							bookCopies.add(new BookCopy(TEST_ISBN + (i * 13 + writer + 1) % numBooks, 1));
+							store.addCopies(bookCopies);
+							store.buyBooks(bookCopies);
+							store.addCopies(bookCopies);
+						}
+					} catch (Throwable ex) {
+						failures.add(ex);
+					}
+				}));
+			}
+
+			for (Thread writer : writers) {
+				writer.start();
+			}
+			while (writers.stream().anyMatch(Thread::isAlive)) {
+				store.checkpoint(checkpointFile);
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+			assertTrue(failures.toString(), failures.isEmpty());
+			booksBeforeClose = store.getBooks();
+		}
+
+		try (DurableCertainBookStore store = openStoreFromCheckpoint()) {
+			assertSameBooks(booksBeforeClose, store.getBooks());
+		}
+	}
+
+	/**
+	 * Checks that the store fails for good after a failure of the log: the
+	 * mutation which could not be logged and every later operation are
+	 * rejected.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testLogFailureFailsTheStore() throws IOException, BookStoreException {
+		try (DurableCertainBookStore store = openStore()) {
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getBook(TEST_ISBN));
+			store.addBooks(booksToAdd);
+			assertFalse(store.isFailed());
+
+			store.getLog().close();
+
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+
+			try {
+				store.buyBooks(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			assertTrue(store.isFailed());
+
+			try {
+				store.getBooks();
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			try {
+				store.addCopies(booksToBuy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			try {
+				store.checkpoint(directory.resolve("bookstore.checkpoint"));
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		}
+	}
+}
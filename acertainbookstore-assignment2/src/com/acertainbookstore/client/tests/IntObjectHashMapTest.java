@@ -0,0 +1,122 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.IntObjectHashMap;
+
+/**
+ * {@link IntObjectHashMapTest} tests the {@link IntObjectHashMap} against a
+ * {@link HashMap}.
+ *
+ * @see IntObjectHashMap
+ */
+public class IntObjectHashMapTest {
+
+	/** The Constant NUM_KEYS. */
+	private static final int NUM_KEYS = 10000;
+
+	/**
+	 * Checks that a map holds the same entries as the expected one.
+	 *
+	 * @param expected
+	 *            the expected entries
+	 * @param map
+	 *            the map
+	 */
+	private static void assertSameEntries(Map<Integer, String> expected, IntObjectHashMap<String> map) {
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected.isEmpty(), map.isEmpty());
+		for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+			assertTrue(map.containsKey(entry.getKey()));
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+
+		List<String> values = new ArrayList<String>(map.values());
+		assertEquals(expected.size(), values.size());
+		assertTrue(values.containsAll(expected.values()));
+	}
+
+	/**
+	 * Checks that the map grows from its minimum capacity while keeping every
+	 * entry, including the key 0 which is stored apart.
+	 */
+	@Test
+	public void testPutResizes() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<String>();
+		Map<Integer, String> expected = new HashMap<Integer, String>();
+
+		for (int key = -NUM_KEYS / 2; key < NUM_KEYS / 2; key++) {
+			assertNull(map.put(key, "v" + key));
+			expected.put(key, "v" + key);
+		}
+		assertSameEntries(expected, map);
+
+		assertEquals("v0", map.put(0, "w0"));
+		expected.put(0, "w0");
+		assertSameEntries(expected, map);
+	}
+
+	/**
+	 * Checks that removals shift the entries of their cluster back, so that
+	 * the entries after a removed one are still found, and that removing a
+	 * missing key changes nothing.
+	 */
+	@Test
+	public void testRemoveKeepsClusters() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<String>();
+		Map<Integer, String> expected = new HashMap<Integer, String>();
+
+		// Multiples of a power of two collide more than random keys.
+		for (int i = 0; i < NUM_KEYS; i++) {
+			map.put(i << 12, "v" + i);
+			expected.put(i << 12, "v" + i);
+		}
+
+		for (int i = 0; i < NUM_KEYS; i += 3) {
+			assertEquals("v" + i, map.remove(i << 12));
+			expected.remove(i << 12);
+		}
+		assertNull(map.remove(1));
+		assertNull(map.remove(0));
+		assertSameEntries(expected, map);
+
+		for (int i = 0; i < NUM_KEYS; i += 3) {
+			assertFalse(map.containsKey(i << 12));
+			assertNull(map.get(i << 12));
+		}
+	}
+
+	/**
+	 * Checks random puts and removals against a {@link HashMap}.
+	 */
+	@Test
+	public void testRandomOperations() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<String>(4);
+		Map<Integer, String> expected = new HashMap<Integer, String>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 10 * NUM_KEYS; i++) {
+			int key = random.nextInt(NUM_KEYS) - NUM_KEYS / 2;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+			}
+		}
+		assertSameEntries(expected, map);
+
+		map.clear();
+		expected.clear();
+		assertSameEntries(expected, map);
+		map.put(7, "v7");
+		assertEquals("v7", map.get(7));
+	}
+}
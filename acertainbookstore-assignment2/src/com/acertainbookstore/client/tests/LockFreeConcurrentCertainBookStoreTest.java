@@ -0,0 +1,103 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.LockFreeConcurrentCertainBookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LockFreeConcurrentCertainBookStoreTest} tests the multi-word
+ * compare-and-set transactions and the scans of the
+ * {@link LockFreeConcurrentCertainBookStore}.
+ *
+ * @see LockFreeConcurrentCertainBookStore
+ */
+public class LockFreeConcurrentCertainBookStoreTest {
+
+	/** The Constant NUM_PAIRS. */
+	private static final int NUM_PAIRS = 10;
+
+	/** The Constant NUM_OPERATIONS. */
+	private static final int NUM_OPERATIONS = BookPairs.NUM_OPERATIONS;
+
+	/** The pairs of books. */
+	private final BookPairs pairs = new BookPairs(NUM_PAIRS);
+
+	/** The store. */
+	private LockFreeConcurrentCertainBookStore store;
+
+	/**
+	 * Adds the pairs of books to a new store, executed before every test case
+	 * is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new LockFreeConcurrentCertainBookStore();
+		pairs.addTo(store);
+	}
+
+	/**
+	 * Checks that transactions without contention commit at the first attempt,
+	 * and that the scans count as no transaction.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testNoAbortWithoutContention() throws BookStoreException {
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			Set<BookCopy> copies = BookPairs.copiesOf(i % NUM_PAIRS, 1);
+			store.addCopies(copies);
+			store.buyBooks(copies);
+			pairs.assertConsistent(store.getBooks());
+		}
+
+		assertEquals(2 * NUM_OPERATIONS, store.getNumTransactions());
+		assertEquals(0, store.getNumAborts());
+		assertEquals(0, store.getNumRetriedTransactions());
+		assertEquals(0, store.getNumDescriptorScans());
+	}
+
+	/**
+	 * Checks that the scans never see half of a transaction while writers
+	 * restock and buy the pairs, and miss sales of both books of a pair at
+	 * once.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testScansUnderWriters() throws InterruptedException, BookStoreException {
+		pairs.runWritersAndReader(store, NUM_OPERATIONS, true, 10);
+		assertTrue(store.getNumRetriedTransactions() <= store.getNumAborts());
+	}
+
+	/**
+	 * Checks that the scans collecting the books by descriptor are consistent
+	 * as well, and that they do not keep the writers from completing.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testDescriptorScansUnderWriters() throws InterruptedException, BookStoreException {
+		store = new LockFreeConcurrentCertainBookStore(0);
+		pairs.addTo(store);
+		pairs.runWritersAndReader(store, NUM_OPERATIONS, true, 10);
+		assertTrue(store.getNumRetriedTransactions() <= store.getNumAborts());
+		assertTrue(store.getNumDescriptorScans() > 0);
+	}
+}
@@ -0,0 +1,95 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link MultiVersionConcurrentCertainBookStoreTest} tests the snapshot reads
+ * of the {@link MultiVersionConcurrentCertainBookStore}.
+ *
+ * @see MultiVersionConcurrentCertainBookStore
+ */
+public class MultiVersionConcurrentCertainBookStoreTest {
+
+	/** The Constant NUM_PAIRS. */
+	private static final int NUM_PAIRS = 10;
+
+	/** The pairs of books. */
+	private final BookPairs pairs = new BookPairs(NUM_PAIRS);
+
+	/** The store. */
+	private MultiVersionConcurrentCertainBookStore store;
+
+	/**
+	 * Adds the pairs of books to a new store, executed before every test case
+	 * is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new MultiVersionConcurrentCertainBookStore();
+		pairs.addTo(store);
+	}
+
+	/**
+	 * Checks that every catalog read is a snapshot holding both books of every
+	 * pair as of the same point in time, while writers restock and buy the
+	 * pairs.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSnapshotsUnderWriters() throws InterruptedException, BookStoreException {
+		pairs.runWritersAndReader(store, BookPairs.NUM_OPERATIONS, true);
+	}
+
+	/**
+	 * Checks that a removed book leaves the later snapshots, and that a book
+	 * added again under the same ISBN shows none of its old versions.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRemoveAndAddAgain() throws BookStoreException {
+		Set<BookCopy> copies = BookPairs.copiesOf(0, 1);
+		for (int i = 0; i < 5; i++) {
+			store.addCopies(copies);
+		}
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(BookPairs.TEST_ISBN);
+		store.removeBooks(isbnsToRemove);
+		assertEquals(2 * NUM_PAIRS - 1, store.getBooks().size());
+		try {
+			store.getBooksByISBN(isbnsToRemove);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(BookPairs.getBook(BookPairs.TEST_ISBN, 1));
+		store.addBooks(booksToAdd);
+		List<StockBook> books = store.getBooksByISBN(isbnsToRemove);
+		assertEquals(1, books.size());
+		assertEquals(1, books.get(0).getNumCopies());
+		assertEquals(2 * NUM_PAIRS, store.getBooks().size());
+	}
+}
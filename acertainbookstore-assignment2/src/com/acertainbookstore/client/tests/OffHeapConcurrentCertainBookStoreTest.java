@@ -0,0 +1,258 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OffHeapConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OffHeapConcurrentCertainBookStoreTest} tests the off-heap book table
+ * of the {@link OffHeapConcurrentCertainBookStore} against a
+ * {@link SingleLockConcurrentCertainBookStore} given the same operations:
+ * growth beyond the initial capacity, reuse of the slots of removed books and
+ * compaction of the titles and authors.
+ *
+ * @see OffHeapConcurrentCertainBookStore
+ */
+public class OffHeapConcurrentCertainBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_BOOKS, more than the initial capacity of the table. */
+	private static final int NUM_BOOKS = 3000;
+
+	/** The store under test. */
+	private OffHeapConcurrentCertainBookStore store;
+
+	/** The reference store. */
+	private SingleLockConcurrentCertainBookStore expectedStore;
+
+	/** The random generator of the books. */
+	private Random random;
+
+	/**
+	 * Creates the stores, executed before every test case is run.
+	 */
+	@Before
+	public void createStores() {
+		store = new OffHeapConcurrentCertainBookStore();
+		expectedStore = new SingleLockConcurrentCertainBookStore();
+		random = new Random(42);
+	}
+
+	/**
+	 * Helper method to get a book with a title and an author of random length,
+	 * some of them outside of ASCII.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param generation
+	 *            a number distinguishing the books added under the same ISBN
+	 * @return the book
+	 */
+	private StockBook getBook(int isbn, int generation) {
+		StringBuilder title = new StringBuilder("Harry Potter ").append(generation);
+		int length = random.nextInt(40);
+		for (int i = 0; i < length; i++) {
+			title.append(random.nextBoolean() ? 'a' : '\u00e9');
+		}
+		String author = (isbn % 3 == 0) ? "J\u00f8rgen \u4e66\u5e97 " + isbn : "JK Unit " + isbn;
+		return new ImmutableStockBook(isbn, title.toString(), author, 1 + random.nextInt(1000) / 10f,
+				1 + random.nextInt(20), random.nextInt(5), 0, 0, random.nextInt(4) == 0);
+	}
+
+	/**
+	 * Adds books to both stores.
+	 *
+	 * @param firstISBN
+	 *            the first ISBN
+	 * @param numBooks
+	 *            the number of books
+	 * @param generation
+	 *            a number distinguishing the books added under the same ISBN
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void addBooks(int firstISBN, int numBooks, int generation) throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		for (int isbn = firstISBN; isbn < firstISBN + numBooks; isbn++) {
+			booksToAdd.add(getBook(isbn, generation));
+		}
+		store.addBooks(booksToAdd);
+		expectedStore.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Checks that both stores hold the same books, down to every attribute,
+	 * and the same editor picks.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void assertSameBooks() throws BookStoreException {
+		List<StockBook> expectedBooks = expectedStore.getBooks();
+		Map<Integer, StockBook> booksByISBN = new HashMap<Integer, StockBook>();
+		for (StockBook book : store.getBooks()) {
+			assertNull(booksByISBN.put(book.getISBN(), book));
+		}
+
+		assertEquals(expectedBooks.size(), booksByISBN.size());
+		for (StockBook expected : expectedBooks) {
+			StockBook actual = booksByISBN.get(expected.getISBN());
+			assertNotNull(actual);
+			assertEquals(expected.getTitle(), actual.getTitle());
+			assertEquals(expected.getAuthor(), actual.getAuthor());
+			assertEquals(expected.getPrice(), actual.getPrice(), 0);
+			assertEquals(expected.getNumCopies(), actual.getNumCopies());
+			assertEquals(expected.getNumSaleMisses(), actual.getNumSaleMisses());
+			assertEquals(expected.getNumTimesRated(), actual.getNumTimesRated());
+			assertEquals(expected.getTotalRating(), actual.getTotalRating());
+			assertEquals(expected.isEditorPick(), actual.isEditorPick());
+		}
+
+		// Asking for more picks than books returns all of them.
+		int numBooks = expectedBooks.size() + 1;
+		assertEquals(new HashSet<Book>(expectedStore.getEditorPicks(numBooks)),
+				new HashSet<Book>(store.getEditorPicks(numBooks)));
+	}
+
+	/**
+	 * Checks that the table grows beyond its initial capacity without losing
+	 * or altering a book.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGrowth() throws BookStoreException {
+		for (int batch = 0; batch < 3; batch++) {
+			addBooks(TEST_ISBN + batch * NUM_BOOKS, NUM_BOOKS, 0);
+			assertSameBooks();
+		}
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		for (int isbn = TEST_ISBN; isbn < TEST_ISBN + 3 * NUM_BOOKS; isbn += 97) {
+			isbns.add(isbn);
+		}
+		List<StockBook> books = store.getBooksByISBN(isbns);
+		assertEquals(isbns.size(), books.size());
+		assertTrue(books.containsAll(expectedStore.getBooksByISBN(isbns)));
+	}
+
+	/**
+	 * Checks that removing books and adding others in their place, over and
+	 * over, reuses the slots and compacts the titles and authors without
+	 * altering the books left.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRemoveAndAddAgain() throws BookStoreException {
+		addBooks(TEST_ISBN, NUM_BOOKS, 0);
+
+		for (int generation = 1; generation <= 5; generation++) {
+			Set<Integer> isbnsToRemove = new HashSet<Integer>();
+			for (int isbn = TEST_ISBN; isbn < TEST_ISBN + NUM_BOOKS; isbn++) {
+				if (isbn % 3 != generation % 3) {
+					isbnsToRemove.add(isbn);
+				}
+			}
+			store.removeBooks(isbnsToRemove);
+			expectedStore.removeBooks(isbnsToRemove);
+			assertSameBooks();
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			for (int isbn : isbnsToRemove) {
+				booksToAdd.add(getBook(isbn, generation));
+			}
+			store.addBooks(booksToAdd);
+			expectedStore.addBooks(booksToAdd);
+			assertSameBooks();
+		}
+
+		store.removeAllBooks();
+		expectedStore.removeAllBooks();
+		assertSameBooks();
+		addBooks(TEST_ISBN, NUM_BOOKS, 6);
+		assertSameBooks();
+	}
+
+	/**
+	 * Checks that the stock columns are updated like the reference: copies,
+	 * sale misses, ratings and editor picks, and so are the books in demand.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testStockUpdates() throws BookStoreException {
+		addBooks(TEST_ISBN, NUM_BOOKS, 0);
+
+		for (int i = 0; i < 1000; i++) {
+			int isbn = TEST_ISBN + random.nextInt(NUM_BOOKS);
+			Set<BookCopy> copies = new HashSet<BookCopy>();
+			copies.add(new BookCopy(isbn, 1 + random.nextInt(5)));
+			Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+			editorPicks.add(new BookEditorPick(isbn, random.nextBoolean()));
+			Set<BookRating> ratings = new HashSet<BookRating>();
+			ratings.add(new BookRating(isbn, random.nextInt(6)));
+
+			switch (random.nextInt(4)) {
+			case 0:
+				store.addCopies(copies);
+				expectedStore.addCopies(copies);
+				break;
+			case 1:
+				boolean bought = true;
+				try {
+					expectedStore.buyBooks(copies);
+				} catch (BookStoreException ex) {
+					bought = false;
+				}
+				try {
+					store.buyBooks(copies);
+					assertTrue(bought);
+				} catch (BookStoreException ex) {
+					assertFalse(bought);
+				}
+				break;
+			case 2:
+				store.rateBooks(ratings);
+				expectedStore.rateBooks(ratings);
+				break;
+			default:
+				store.updateEditorPicks(editorPicks);
+				expectedStore.updateEditorPicks(editorPicks);
+				break;
+			}
+		}
+		assertSameBooks();
+
+		int numPicks = expectedStore.getEditorPicks(NUM_BOOKS).size();
+		List<Book> editorPicks = store.getEditorPicks(NUM_BOOKS);
+		assertEquals(numPicks, editorPicks.size());
+		assertEquals(numPicks, new HashSet<Book>(editorPicks).size());
+		assertEquals(expectedStore.getTopRatedBooks(10), store.getTopRatedBooks(10));
+		assertEquals(new HashSet<StockBook>(expectedStore.getBooksInDemand()),
+				new HashSet<StockBook>(store.getBooksInDemand()));
+	}
+}
@@ -0,0 +1,87 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OptimisticConcurrentCertainBookStoreTest} tests the validation of the
+ * {@link OptimisticConcurrentCertainBookStore}.
+ *
+ * @see OptimisticConcurrentCertainBookStore
+ */
+public class OptimisticConcurrentCertainBookStoreTest {
+
+	/** The Constant NUM_OPERATIONS. */
+	private static final int NUM_OPERATIONS = BookPairs.NUM_OPERATIONS;
+
+	/** The two books every transaction writes together. */
+	private final BookPairs pairs = new BookPairs(1);
+
+	/** The store. */
+	private OptimisticConcurrentCertainBookStore store;
+
+	/**
+	 * Adds the two books to a new store, executed before every test case is
+	 * run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new OptimisticConcurrentCertainBookStore();
+		pairs.addTo(store);
+	}
+
+	/**
+	 * Checks that transactions without contention commit at the first attempt.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testNoAbortWithoutContention() throws BookStoreException {
+		Set<BookCopy> copies = BookPairs.copiesOf(0, 1);
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			store.addCopies(copies);
+			store.buyBooks(copies);
+			List<StockBook> books = store.getBooksByISBN(pairs.getISBNs());
+			pairs.assertConsistent(books);
+			BookPairs.assertNumCopies(books, BookPairs.NUM_COPIES);
+		}
+
+		assertEquals(3 * NUM_OPERATIONS, store.getNumTransactions());
+		assertEquals(0, store.getNumAborts());
+		assertEquals(0, store.getNumRetriedTransactions());
+	}
+
+	/**
+	 * Checks that the validated reads never see half of a transaction while
+	 * writers restock and buy both books together, and that the counters of
+	 * aborts add up.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testValidatedReadsUnderContention() throws InterruptedException, BookStoreException {
+		// The catalog reads snapshot the books one by one.
+		pairs.runWritersAndReader(store, NUM_OPERATIONS, false);
+
+		assertEquals(4 * NUM_OPERATIONS + NUM_OPERATIONS / 10, store.getNumTransactions());
+		assertTrue(store.getNumRetriedTransactions() <= store.getNumAborts());
+		assertTrue(store.getNumRetriedTransactions() <= store.getNumTransactions());
+	}
+}
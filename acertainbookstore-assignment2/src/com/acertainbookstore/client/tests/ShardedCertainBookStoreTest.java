@@ -0,0 +1,141 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ShardedCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ShardedCertainBookStoreTest} tests the operations of the
+ * {@link ShardedCertainBookStore} spanning several shards.
+ *
+ * @see ShardedCertainBookStore
+ */
+public class ShardedCertainBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = BookPairs.TEST_ISBN;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = BookPairs.NUM_COPIES;
+
+	/** The Constant NUM_SHARDS. */
+	private static final int NUM_SHARDS = 4;
+
+	/** The Constant NUM_PAIRS, so that most pairs span two shards. */
+	private static final int NUM_PAIRS = 16;
+
+	/** The Constant NUM_OPERATIONS. */
+	private static final int NUM_OPERATIONS = 1000;
+
+	/** The pairs of books. */
+	private final BookPairs pairs = new BookPairs(NUM_PAIRS);
+
+	/** The store. */
+	private ShardedCertainBookStore store;
+
+	/**
+	 * Adds the pairs of books to a new store, executed before every test case
+	 * is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		store = new ShardedCertainBookStore(NUM_SHARDS);
+		pairs.addTo(store);
+	}
+
+	/**
+	 * Stops the shards, executed after every test case is run.
+	 */
+	@After
+	public void closeStore() {
+		store.close();
+	}
+
+	/**
+	 * Checks the number of shards.
+	 */
+	@Test
+	public void testNumShards() {
+		assertEquals(NUM_SHARDS, store.getNumShards());
+	}
+
+	/**
+	 * Checks that a buy spanning every shard is all or nothing: when one book
+	 * lacks copies, no copy of any book is sold, and only that book records
+	 * the sale miss.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testMultiShardBuyIsAllOrNothing() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		for (int isbn = TEST_ISBN; isbn < TEST_ISBN + 2 * NUM_PAIRS - 1; isbn++) {
+			booksToBuy.add(new BookCopy(isbn, 1));
+		}
+		int missingISBN = TEST_ISBN + 2 * NUM_PAIRS - 1;
+		booksToBuy.add(new BookCopy(missingISBN, NUM_COPIES + 3));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+			assertEquals(book.getISBN() == missingISBN ? 3 : 0, book.getNumSaleMisses());
+		}
+
+		booksToBuy.remove(new BookCopy(missingISBN, NUM_COPIES + 3));
+		booksToBuy.add(new BookCopy(missingISBN, 1));
+		store.buyBooks(booksToBuy);
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES - 1, book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Checks that reads never see half of a multi-shard operation while
+	 * writers restock and buy the pairs.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testMultiShardReadsUnderWriters() throws InterruptedException, BookStoreException {
+		pairs.runWritersAndReader(store, NUM_OPERATIONS, true);
+	}
+
+	/**
+	 * Checks that a closed store rejects the operations instead of waiting for
+	 * the stopped shards.
+	 */
+	@Test
+	public void testClosedStoreRejectsOperations() {
+		store.close();
+
+		try {
+			store.buyBooks(BookPairs.copiesOf(0, 1));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+}
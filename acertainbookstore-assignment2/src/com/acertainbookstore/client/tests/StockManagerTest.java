@@ -16,12 +16,14 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CertainBookStoreFactory;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
@@ -57,7 +59,13 @@ public class StockManagerTest {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 			
-			if (localTest) {
+			String engineProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_ENGINE);
+
+			if (localTest && engineProperty != null) {
+				ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engineProperty);
+				storeManager = store;
+				client = store;
+			} else if (localTest) {
 				SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 				storeManager = store;
 				client = store;
@@ -384,6 +392,44 @@ public class StockManagerTest {
 		assertTrue(editorPick.equals(defaultBookAdded));
 	}
 
+	/**
+	 * Checks that a sample of the editor picks never holds a book twice, nor a
+	 * book which is not a pick, whatever its size.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testEditorPicksSampleWithoutDuplicates() throws BookStoreException {
+		final int numBooks = 30;
+		final int numPicks = 10;
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		for (int i = 1; i <= numBooks; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Harry Potter and JUnit", "JK Unit", (float) 10,
+					NUM_COPIES, 0, 0, 0, false));
+			if (i <= numPicks) {
+				editorPicks.add(new BookEditorPick(TEST_ISBN + i, true));
+			}
+		}
+		storeManager.addBooks(booksToAdd);
+		storeManager.updateEditorPicks(editorPicks);
+
+		for (int round = 0; round < 20; round++) {
+			for (int numBooksToGet = 1; numBooksToGet <= numPicks + 2; numBooksToGet++) {
+				List<Book> sample = client.getEditorPicks(numBooksToGet);
+				assertEquals(Math.min(numBooksToGet, numPicks), sample.size());
+
+				Set<Integer> isbns = new HashSet<Integer>();
+				for (Book book : sample) {
+					assertTrue(isbns.add(book.getISBN()));
+					assertTrue(book.getISBN() > TEST_ISBN && book.getISBN() <= TEST_ISBN + numPicks);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Checks that a book can be removed.
 	 *
@@ -0,0 +1,207 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TimestampOrderingConcurrentCertainBookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TimestampOrderingConcurrentCertainBookStoreTest} tests the Thomas
+ * write rule of the {@link TimestampOrderingConcurrentCertainBookStore}.
+ *
+ * Every transaction picks one of two books and unpicks the other, so that the
+ * two books have opposite picks after any serial history, whichever writes
+ * were skipped as obsolete.
+ *
+ * @see TimestampOrderingConcurrentCertainBookStore
+ */
+public class TimestampOrderingConcurrentCertainBookStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread and round. */
+	private static final int NUM_OPERATIONS = 10000;
+
+	/** The Constant MAX_ROUNDS. */
+	private static final int MAX_ROUNDS = 20;
+
+	/**
+	 * Creates a store holding the two books.
+	 *
+	 * @param thomasWriteRule
+	 *            whether the obsolete blind writes are skipped
+	 * @return the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static TimestampOrderingConcurrentCertainBookStore newStore(boolean thomasWriteRule)
+			throws BookStoreException {
+		TimestampOrderingConcurrentCertainBookStore store = new TimestampOrderingConcurrentCertainBookStore(
+				thomasWriteRule);
+		assertEquals(thomasWriteRule, store.isThomasWriteRule());
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		for (int isbn = TEST_ISBN; isbn < TEST_ISBN + 2; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Harry Potter and JUnit", "JK Unit", (float) 10, 5, 0, 0, 0,
+					false));
+		}
+		store.addBooks(booksToAdd);
+		return store;
+	}
+
+	/**
+	 * Picks one of the two books and unpicks the other.
+	 *
+	 * @param store
+	 *            the store
+	 * @param pickFirst
+	 *            whether the first book is picked
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void pick(TimestampOrderingConcurrentCertainBookStore store, boolean pickFirst)
+			throws BookStoreException {
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, pickFirst));
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 1, !pickFirst));
+		store.updateEditorPicks(editorPicks);
+	}
+
+	/**
+	 * Checks that the two books have opposite picks, and returns the pick of
+	 * the first one.
+	 *
+	 * @param store
+	 *            the store
+	 * @return whether the first book is picked
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static boolean assertOppositePicks(TimestampOrderingConcurrentCertainBookStore store)
+			throws BookStoreException {
+		List<StockBook> books = store.getBooks();
+		assertEquals(2, books.size());
+		assertNotEquals(books.get(0).isEditorPick(), books.get(1).isEditorPick());
+		return books.get(books.get(0).getISBN() == TEST_ISBN ? 0 : 1).isEditorPick();
+	}
+
+	/**
+	 * Runs a round of concurrent picks.
+	 *
+	 * @param store
+	 *            the store
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private static void runConcurrentPicks(TimestampOrderingConcurrentCertainBookStore store)
+			throws InterruptedException {
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			final int thread = t;
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < NUM_OPERATIONS; i++) {
+						pick(store, (i + thread) % 2 == 0);
+					}
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	/**
+	 * Checks that serial blind writes are never skipped nor restarted.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSerialWritesAreApplied() throws BookStoreException {
+		TimestampOrderingConcurrentCertainBookStore store = newStore(true);
+
+		for (int i = 0; i < 100; i++) {
+			pick(store, i % 2 == 0);
+			assertEquals(i % 2 == 0, assertOppositePicks(store));
+		}
+
+		assertEquals(0, store.getNumSkippedWrites());
+		assertEquals(0, store.getNumRestarts());
+	}
+
+	/**
+	 * Checks that without the Thomas write rule, concurrent blind writes are
+	 * restarted rather than skipped.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testNoSkippedWritesWithoutThomasWriteRule() throws InterruptedException, BookStoreException {
+		TimestampOrderingConcurrentCertainBookStore store = newStore(false);
+
+		runConcurrentPicks(store);
+
+		assertOppositePicks(store);
+		assertEquals(0, store.getNumSkippedWrites());
+	}
+
+	/**
+	 * Checks that under the Thomas write rule, concurrent blind writes
+	 * overwritten by later transactions are skipped, and that the books are
+	 * left as after the latest transaction, with opposite picks. A write is
+	 * only obsolete if its transaction is overtaken between drawing its
+	 * timestamp and latching the books, so the rounds go on until it happens.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testThomasWriteRuleSkipsObsoleteWrites() throws InterruptedException, BookStoreException {
+		TimestampOrderingConcurrentCertainBookStore store = newStore(true);
+
+		for (int round = 0; round < MAX_ROUNDS && store.getNumSkippedWrites() == 0; round++) {
+			runConcurrentPicks(store);
+			assertOppositePicks(store);
+		}
+		assertTrue(store.getNumSkippedWrites() > 0);
+
+		// Both books of a transaction are skipped together, since every
+		// transaction writes both.
+		assertEquals(0, store.getNumSkippedWrites() % 2);
+
+		// A write after all the others is never obsolete.
+		pick(store, false);
+		assertFalse(assertOppositePicks(store));
+		pick(store, true);
+		assertTrue(assertOppositePicks(store));
+	}
+}
@@ -0,0 +1,143 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TopRatedBooksTest} tests the order of getTopRatedBooks over the
+ * engines, whether they keep their books in a rating-ordered index or select
+ * them from a scan: best average rating first, ties by ascending ISBN.
+ *
+ * @see BookStore#getTopRatedBooks(int)
+ */
+public class TopRatedBooksTest {
+
+	/** The engines. */
+	private static final String[] ENGINES = { CertainBookStoreFactory.SINGLE_LOCK,
+			CertainBookStoreFactory.TWO_LEVEL_LOCKING, CertainBookStoreFactory.STRIPED_LOCKING,
+			CertainBookStoreFactory.SHARDED, CertainBookStoreFactory.LOCK_MANAGER,
+			CertainBookStoreFactory.OPTIMISTIC, CertainBookStoreFactory.TIMESTAMP_ORDERING,
+			CertainBookStoreFactory.MULTI_VERSION, CertainBookStoreFactory.LOCK_FREE,
+			CertainBookStoreFactory.OFF_HEAP };
+
+	/**
+	 * Adds books.
+	 *
+	 * @param storeManager
+	 *            the store manager
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void addBooks(StockManager storeManager, int... isbns) throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		for (int isbn : isbns) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Harry Potter and JUnit", "JK Unit", (float) 10, 5, 0, 0, 0,
+					false));
+		}
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Rates a book once per given rating.
+	 *
+	 * @param client
+	 *            the client
+	 * @param isbn
+	 *            the ISBN
+	 * @param ratings
+	 *            the ratings
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void rate(BookStore client, int isbn, int... ratings) throws BookStoreException {
+		for (int rating : ratings) {
+			Set<BookRating> bookRatings = new HashSet<BookRating>();
+			bookRatings.add(new BookRating(isbn, rating));
+			client.rateBooks(bookRatings);
+		}
+	}
+
+	/**
+	 * Gets the ISBNs of the top rated books, in order.
+	 *
+	 * @param client
+	 *            the client
+	 * @param numBooks
+	 *            the number of books
+	 * @return the ISBNs
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static List<Integer> topRatedISBNs(BookStore client, int numBooks) throws BookStoreException {
+		List<Integer> isbns = new ArrayList<Integer>();
+		for (Book book : client.getTopRatedBooks(numBooks)) {
+			isbns.add(book.getISBN());
+		}
+		return isbns;
+	}
+
+	/**
+	 * Checks that books of equal average rating are ordered by ISBN, even if
+	 * they got their average from different ratings, that unrated books come
+	 * last, and that a new rating moves a book.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testTiesByISBN() throws BookStoreException, IOException {
+		for (String engine : ENGINES) {
+			ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engine);
+			BookStore client = store;
+			StockManager storeManager = store;
+
+			try {
+				addBooks(storeManager, 50, 30, 90, 10, 70, 20);
+				rate(client, 70, 5);
+				rate(client, 50, 3);
+				rate(client, 30, 2, 4);
+				rate(client, 90, 1, 5);
+				rate(client, 10, 3, 3, 3);
+
+				assertEquals(engine, Arrays.asList(70), topRatedISBNs(client, 1));
+				assertEquals(engine, Arrays.asList(70, 10, 30), topRatedISBNs(client, 3));
+				assertEquals(engine, Arrays.asList(70, 10, 30, 50, 90, 20), topRatedISBNs(client, 6));
+
+				// 90 moves ahead of the books rated 3 on average.
+				rate(client, 90, 5, 5);
+				assertEquals(engine, Arrays.asList(70, 90, 10, 30, 50, 20), topRatedISBNs(client, 6));
+
+				// 70 drops among the books rated 3 on average, after them by ISBN.
+				rate(client, 70, 1);
+				assertEquals(engine, Arrays.asList(90, 10, 30, 50, 70, 20), topRatedISBNs(client, 6));
+			} finally {
+				if (store instanceof Closeable) {
+					((Closeable) store).close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLogTest} tests the replay of a {@link WriteAheadLog}.
+ *
+ * @see WriteAheadLog
+ */
+public class WriteAheadLogTest {
+
+	/** The Constant NUM_RECORDS. */
+	private static final int NUM_RECORDS = 10;
+
+	/** The Constant MAX_RECORD_LENGTH. */
+	private static final int MAX_RECORD_LENGTH = 40;
+
+	/** The directory of the log. */
+	private Path directory;
+
+	/** The file of the log. */
+	private Path logFile;
+
+	/** The records appended to the log. */
+	private List<byte[]> records;
+
+	/** The offsets of the log after each record. */
+	private List<Long> offsets;
+
+	/**
+	 * Writes a log of records of various lengths, executed before every test
+	 * case is run.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void writeLog() throws IOException, BookStoreException {
+		directory = Files.createTempDirectory("bookstore");
+		logFile = directory.resolve("bookstore.log");
+		records = new ArrayList<byte[]>();
+		offsets = new ArrayList<Long>();
+
+		Random random = new Random(42);
+		try (WriteAheadLog log = WriteAheadLog.open(logFile, WriteAheadLog.Durability.COMMIT, record -> fail())) {
+			for (int i = 0; i < NUM_RECORDS; i++) {
+				byte[] record = new byte[random.nextInt(MAX_RECORD_LENGTH + 1)];
+				random.nextBytes(record);
+				log.awaitDurable(log.append(record));
+				records.add(record);
+				offsets.add(log.getAppendedOffset());
+			}
+		}
+	}
+
+	/**
+	 * Deletes the directory of the log, executed after every test case is run.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	/**
+	 * Opens a log and collects the records it replays.
+	 *
+	 * @param path
+	 *            the file of the log
+	 * @param replayed
+	 *            the list receiving the replayed records
+	 * @return the log
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static WriteAheadLog replay(Path path, List<byte[]> replayed) throws IOException, BookStoreException {
+		return WriteAheadLog.open(path, WriteAheadLog.Durability.COMMIT, replayed::add);
+	}
+
+	/**
+	 * Checks that the replayed records are the first appended ones, in order.
+	 *
+	 * @param numRecords
+	 *            the number of records expected
+	 * @param replayed
+	 *            the replayed records
+	 */
+	private void assertReplayed(int numRecords, List<byte[]> replayed) {
+		assertEquals(numRecords, replayed.size());
+		for (int i = 0; i < numRecords; i++) {
+			assertArrayEquals(records.get(i), replayed.get(i));
+		}
+	}
+
+	/**
+	 * Checks that a log closed cleanly replays all its records, and that new
+	 * records follow them.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReplayAfterClose() throws IOException, BookStoreException {
+		List<byte[]> replayed = new ArrayList<byte[]>();
+		try (WriteAheadLog log = replay(logFile, replayed)) {
+			assertReplayed(NUM_RECORDS, replayed);
+			assertEquals((long) offsets.get(NUM_RECORDS - 1), log.getAppendedOffset());
+
+			byte[] record = { 1, 2, 3 };
+			log.awaitDurable(log.append(record));
+			records.add(record);
+		}
+
+		replayed.clear();
+		try (WriteAheadLog log = replay(logFile, replayed)) {
+			assertReplayed(NUM_RECORDS + 1, replayed);
+			assertEquals(Files.size(logFile), log.getAppendedOffset());
+		}
+	}
+
+	/**
+	 * Checks that a log cut at any byte, as by a crash in the middle of a
+	 * write, replays the whole records before the cut, drops the torn one and
+	 * appends new records right after the whole ones.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReplayDropsTornRecord() throws IOException, BookStoreException {
+		Path tornLogFile = directory.resolve("torn.log");
+		long size = Files.size(logFile);
+
+		for (long cut = 0; cut <= size; cut++) {
+			Files.copy(logFile, tornLogFile, StandardCopyOption.REPLACE_EXISTING);
+			try (FileChannel channel = FileChannel.open(tornLogFile, StandardOpenOption.WRITE)) {
+				channel.truncate(cut);
+			}
+
+			int numWholeRecords = 0;
+			while (numWholeRecords < NUM_RECORDS && offsets.get(numWholeRecords) <= cut) {
+				numWholeRecords++;
+			}
+			long wholeOffset = (numWholeRecords == 0) ? 0 : offsets.get(numWholeRecords - 1);
+
+			List<byte[]> replayed = new ArrayList<byte[]>();
+			byte[] record = { 1, 2, 3 };
+			try (WriteAheadLog log = replay(tornLogFile, replayed)) {
+				assertReplayed(numWholeRecords, replayed);
+				assertEquals(wholeOffset, log.getAppendedOffset());
+				assertEquals(wholeOffset, Files.size(tornLogFile));
+				log.awaitDurable(log.append(record));
+			}
+
+			replayed.clear();
+			try (WriteAheadLog log = replay(tornLogFile, replayed)) {
+				assertEquals(numWholeRecords + 1, replayed.size());
+				assertArrayEquals(record, replayed.get(numWholeRecords));
+				assertEquals(Files.size(tornLogFile), log.getAppendedOffset());
+			}
+		}
+	}
+
+	/**
+	 * Checks that a record whose bytes were corrupted fails its checksum, so
+	 * that the replay stops before it.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReplayStopsAtCorruptRecord() throws IOException, BookStoreException {
+		int corruptRecord = NUM_RECORDS / 2;
+		while (records.get(corruptRecord).length == 0) {
+			corruptRecord++;
+		}
+
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long position = offsets.get(corruptRecord) - 1;
+			ByteBuffer lastByte = ByteBuffer.allocate(1);
+			channel.read(lastByte, position);
+			lastByte.put(0, (byte) ~lastByte.get(0));
+			lastByte.rewind();
+			channel.write(lastByte, position);
+		}
+
+		List<byte[]> replayed = new ArrayList<byte[]>();
+		try (WriteAheadLog log = replay(logFile, replayed)) {
+			assertReplayed(corruptRecord, replayed);
+			assertEquals((long) offsets.get(corruptRecord - 1), log.getAppendedOffset());
+		}
+	}
+}
@@ -0,0 +1,9 @@
+package com.acertainbookstore.interfaces;
+
+/**
+ * {@link ConcurrentCertainBookStore} declares a book store serving both the
+ * customers and the stock managers, concurrently, as implemented by every
+ * engine of {@link com.acertainbookstore.business.CertainBookStoreFactory}.
+ */
+public interface ConcurrentCertainBookStore extends BookStore, StockManager {
+}
@@ -1,10 +1,23 @@
 package com.acertainbookstore.server;
 
-import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
-import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.CertainBookStoreFactory;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.ConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.StockManager;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -17,10 +30,20 @@ public class BookStoreHTTPServer {
 	private static final int MIN_THREADPOOL_SIZE = 10;
 	private static final int MAX_THREADPOOL_SIZE = 100;
 	
-	/** The constant, defining which locking scheme implementation to use
-	 *  true - single lock 
-	 *  false - two-level locking */
-	private static final boolean SINGLE_LOCK = true;
+	/**
+	 * The implementation used unless the engine property names another one,
+	 * cf. {@link CertainBookStoreFactory}.
+	 */
+	private static final String DEFAULT_ENGINE = CertainBookStoreFactory.SINGLE_LOCK;
+
+	/** The file of the write-ahead log, if the durability property is set. */
+	private static final String DEFAULT_LOG_FILE = "bookstore.wal";
+
+	/** The file of the checkpoints of the durable server. */
+	private static final String DEFAULT_CHECKPOINT_FILE = "bookstore.ckpt";
+
+	/** The interval between the checkpoints of the durable server. */
+	private static final long DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 60;
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
@@ -38,17 +61,71 @@ public class BookStoreHTTPServer {
 	public static void main(String[] args) {
 		int listenOnPort = DEFAULT_PORT;
 		
-		BookStoreHTTPMessageHandler handler = null;
-		
-		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
-			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		}		
+		BookStore bookStore = null;
+		StockManager stockManager = null;
+		String engineString = System.getProperty(BookStoreConstants.PROPERTY_KEY_ENGINE, DEFAULT_ENGINE);
+
+		try {
+			ConcurrentCertainBookStore store = CertainBookStoreFactory.newBookStore(engineString);
+			/* we pass the store as both the BookStore and the StockManager,
+			 * since it implements both interfaces */
+			bookStore = store;
+			stockManager = store;
+		} catch (BookStoreException ex) {
+			System.err.println(ex.getMessage());
+			return;
+		}
+
+		String durabilityString = System.getProperty(BookStoreConstants.PROPERTY_KEY_DURABILITY);
+
+		if (durabilityString != null) {
+			String logFile = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOG_FILE, DEFAULT_LOG_FILE);
+			Path checkpointFile = Paths.get(
+					System.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_FILE, DEFAULT_CHECKPOINT_FILE));
+			long checkpointIntervalSeconds = DEFAULT_CHECKPOINT_INTERVAL_SECONDS;
+			DurableCertainBookStore durableStore;
+
+			try {
+				String checkpointIntervalString = System
+						.getProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL);
+				if (checkpointIntervalString != null) {
+					checkpointIntervalSeconds = Long.parseLong(checkpointIntervalString);
+				}
+
+				// Restores the checkpoint and replays the log tail into the
+				// engine before serving any request.
+				WriteAheadLog.Durability durability = WriteAheadLog.Durability
+						.valueOf(durabilityString.toUpperCase(Locale.ROOT));
+				durableStore = DurableCertainBookStore.open(bookStore, stockManager, Paths.get(logFile), durability,
+						checkpointFile);
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Unsupported durability " + durabilityString + " or checkpoint interval");
+				return;
+			} catch (IOException | BookStoreException ex) {
+				System.err.println("Cannot restore the log " + logFile + ": " + ex.getMessage());
+				return;
+			}
+
+			if (checkpointIntervalSeconds > 0) {
+				ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "BookStoreHTTPServer-checkpointer");
+					thread.setDaemon(true);
+					return thread;
+				});
+				checkpointer.scheduleWithFixedDelay(() -> {
+					try {
+						durableStore.checkpoint(checkpointFile);
+					} catch (IOException | BookStoreException ex) {
+						System.err.println("Checkpoint failed: " + ex.getMessage());
+					}
+				}, checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+			}
+
+			bookStore = durableStore;
+			stockManager = durableStore;
+		}
+
+		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore, stockManager);
 		
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
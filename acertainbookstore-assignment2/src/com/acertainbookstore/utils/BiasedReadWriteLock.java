@@ -0,0 +1,330 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link BiasedReadWriteLock} is a reader-biased {@link ReadWriteLock} in the
+ * style of BRAVO. It wraps a {@link ReentrantReadWriteLock}, whose reader
+ * count is a single cache line written by every reader, and lets the readers
+ * bypass it while the lock is biased towards them: a reader then only
+ * publishes itself in a slot of its own, chosen by hashing its thread, in a
+ * table padded so that the threads of different cores write to different
+ * cache lines.
+ *
+ * A writer takes the underlying write lock, revokes the bias, and waits for
+ * the readers published in the table to leave. Since the revocation scans the
+ * whole table, the bias is only restored by a reader once it has been
+ * inhibited for {@link #INHIBIT_MULTIPLIER} times the duration of the last
+ * revocation, which bounds the slowdown of write-heavy phases. A reader whose
+ * slot is taken by another thread, or which races with a revocation, takes
+ * the underlying read lock instead.
+ *
+ * Both locks are reentrant like those of {@link ReentrantReadWriteLock}, and a
+ * thread holding the write lock may take the read lock. Only the write lock
+ * supports {@link Lock#newCondition()}.
+ */
+public class BiasedReadWriteLock implements ReadWriteLock {
+
+	/** The number of slots, a power of two at least four times the number of cores. */
+	private static final int NUM_SLOTS;
+
+	/** The distance between two slots, in references, so that they do not share a cache line. */
+	private static final int SLOT_STRIDE = 16;
+
+	/**
+	 * The number of times the duration of a revocation during which the bias
+	 * is inhibited after it.
+	 */
+	private static final int INHIBIT_MULTIPLIER = 9;
+
+	static {
+		int minNumSlots = 4 * Runtime.getRuntime().availableProcessors();
+		NUM_SLOTS = Integer.highestOneBit(minNumSlots - 1) << 1;
+	}
+
+	private final ReentrantReadWriteLock underlying = new ReentrantReadWriteLock();
+
+	/** The readers holding the lock through the bias, every {@link #SLOT_STRIDE} references. */
+	private final AtomicReferenceArray<Thread> visibleReaders = new AtomicReferenceArray<>(NUM_SLOTS * SLOT_STRIDE);
+
+	/**
+	 * The number of times the reader of a slot reentered it, only written by
+	 * that reader.
+	 */
+	private final int[] reentries = new int[NUM_SLOTS * SLOT_STRIDE];
+
+	/** Whether the readers may bypass the underlying lock. */
+	private volatile boolean readBias = true;
+
+	/** The time before which the readers may not restore the bias. */
+	private volatile long inhibitUntilNanos = 0;
+
+	private final Lock readLock = new ReadLock();
+	private final Lock writeLock = new WriteLock();
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.locks.ReadWriteLock#readLock()
+	 */
+	@Override
+	public Lock readLock() {
+		return readLock;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.locks.ReadWriteLock#writeLock()
+	 */
+	@Override
+	public Lock writeLock() {
+		return writeLock;
+	}
+
+	/**
+	 * Gets the slot of the calling thread.
+	 *
+	 * @return the index of the slot
+	 */
+	private static int slotOf(Thread thread) {
+		int h = (int) thread.getId() * 0x9E3779B9;
+		return ((h ^ (h >>> 16)) & (NUM_SLOTS - 1)) * SLOT_STRIDE;
+	}
+
+	/**
+	 * Takes the read lock through the bias, if the lock is biased and the slot
+	 * of the calling thread is free or already its own.
+	 *
+	 * @return true, if the read lock was taken
+	 */
+	private boolean tryFastRead() {
+		Thread current = Thread.currentThread();
+		int slot = slotOf(current);
+		Thread owner = visibleReaders.get(slot);
+		if (owner == current) {
+			// Reenter even if the bias is being revoked, since the writer waits
+			// for this slot.
+			reentries[slot]++;
+			return true;
+		}
+		if (!readBias || owner != null || !visibleReaders.compareAndSet(slot, null, current)) {
+			return false;
+		}
+
+		// A writer revoking the bias now either sees the slot or is seen here.
+		if (readBias) {
+			return true;
+		}
+		visibleReaders.set(slot, null);
+		return false;
+	}
+
+	/**
+	 * Restores the bias once the inhibition is over, while holding the
+	 * underlying read lock, unless the calling thread also holds the write
+	 * lock.
+	 */
+	private void restoreBias() {
+		if (!readBias && System.nanoTime() >= inhibitUntilNanos && !underlying.isWriteLocked()) {
+			readBias = true;
+		}
+	}
+
+	/**
+	 * Revokes the bias while holding the underlying write lock, and waits for
+	 * the readers which took the lock through it.
+	 */
+	private void revokeBias() {
+		if (!readBias) {
+			return;
+		}
+		readBias = false;
+
+		long start = System.nanoTime();
+		for (int slot = 0; slot < NUM_SLOTS * SLOT_STRIDE; slot += SLOT_STRIDE) {
+			while (visibleReaders.get(slot) != null) {
+				Thread.yield();
+			}
+		}
+		long now = System.nanoTime();
+		inhibitUntilNanos = now + (now - start) * INHIBIT_MULTIPLIER;
+	}
+
+	/**
+	 * The read lock of a {@link BiasedReadWriteLock}.
+	 */
+	private final class ReadLock implements Lock {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#lock()
+		 */
+		@Override
+		public void lock() {
+			if (!tryFastRead()) {
+				underlying.readLock().lock();
+				restoreBias();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#lockInterruptibly()
+		 */
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			if (!tryFastRead()) {
+				underlying.readLock().lockInterruptibly();
+				restoreBias();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#tryLock()
+		 */
+		@Override
+		public boolean tryLock() {
+			if (tryFastRead()) {
+				return true;
+			}
+			if (underlying.readLock().tryLock()) {
+				restoreBias();
+				return true;
+			}
+			return false;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#tryLock(long,
+		 * java.util.concurrent.TimeUnit)
+		 */
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			if (tryFastRead()) {
+				return true;
+			}
+			if (underlying.readLock().tryLock(time, unit)) {
+				restoreBias();
+				return true;
+			}
+			return false;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#unlock()
+		 */
+		@Override
+		public void unlock() {
+			Thread current = Thread.currentThread();
+			int slot = slotOf(current);
+			if (visibleReaders.get(slot) != current) {
+				underlying.readLock().unlock();
+			} else if (reentries[slot] > 0) {
+				reentries[slot]--;
+			} else {
+				visibleReaders.set(slot, null);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#newCondition()
+		 */
+		@Override
+		public Condition newCondition() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * The write lock of a {@link BiasedReadWriteLock}.
+	 */
+	private final class WriteLock implements Lock {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#lock()
+		 */
+		@Override
+		public void lock() {
+			underlying.writeLock().lock();
+			revokeBias();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#lockInterruptibly()
+		 */
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			underlying.writeLock().lockInterruptibly();
+			revokeBias();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#tryLock()
+		 */
+		@Override
+		public boolean tryLock() {
+			if (underlying.writeLock().tryLock()) {
+				revokeBias();
+				return true;
+			}
+			return false;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#tryLock(long,
+		 * java.util.concurrent.TimeUnit)
+		 */
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			if (underlying.writeLock().tryLock(time, unit)) {
+				revokeBias();
+				return true;
+			}
+			return false;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#unlock()
+		 */
+		@Override
+		public void unlock() {
+			underlying.writeLock().unlock();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.locks.Lock#newCondition()
+		 */
+		@Override
+		public Condition newCondition() {
+			return underlying.writeLock().newCondition();
+		}
+	}
+}
@@ -60,9 +60,53 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/** The Constant PROPERTY_KEY_ENGINE. */
+	public static final String PROPERTY_KEY_ENGINE = "engine";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/**
+	 * The Constant PROPERTY_KEY_DURABILITY, one of commit, group and async (cf.
+	 * {@link com.acertainbookstore.business.WriteAheadLog.Durability}). The
+	 * server keeps no log if it is not set.
+	 */
+	public static final String PROPERTY_KEY_DURABILITY = "durability";
+
+	/** The Constant PROPERTY_KEY_LOG_FILE. */
+	public static final String PROPERTY_KEY_LOG_FILE = "logfile";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_FILE. */
+	public static final String PROPERTY_KEY_CHECKPOINT_FILE = "checkpointfile";
+
+	/**
+	 * The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL, in seconds, 0 disables
+	 * the periodic checkpoints.
+	 */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
+	/**
+	 * The Constant PROPERTY_KEY_EPOCH_MICROS, the length of the epochs of the
+	 * twoleveldeterministic engine in microseconds, 0 by default to sequence
+	 * every call as it arrives.
+	 */
+	public static final String PROPERTY_KEY_EPOCH_MICROS = "epochmicros";
+
+	/**
+	 * The Constant PROPERTY_KEY_LOCK_POLICY, the locking policy of the
+	 * lockmanager engine, perbook by default (cf.
+	 * {@link com.acertainbookstore.business.LockManager#POLICIES}).
+	 */
+	public static final String PROPERTY_KEY_LOCK_POLICY = "lockpolicy";
+
+	/**
+	 * The Constant PROPERTY_KEY_LOCK_ACQUISITION, how the two-level engines
+	 * take the book locks of buyBooks and getBooks, one of ordered (the
+	 * default), nowait, waitdie and woundwait (cf.
+	 * {@link com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore.AcquisitionPolicy}).
+	 */
+	public static final String PROPERTY_KEY_LOCK_ACQUISITION = "lockacquisition";
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
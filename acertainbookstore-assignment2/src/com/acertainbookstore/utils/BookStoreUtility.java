@@ -1,6 +1,7 @@
 package com.acertainbookstore.utils;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
@@ -83,6 +84,26 @@ public final class BookStoreUtility {
 		return str == null || str.isEmpty();
 	}
 
+	/**
+	 * Sorts ISBNs in place and drops their duplicates, e.g. to lock the books
+	 * of a request in ascending order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the sorted distinct ISBNs, <code>isbns</code> itself if there was
+	 *         no duplicate
+	 */
+	public static int[] sortedDistinct(int[] isbns) {
+		Arrays.sort(isbns);
+		int numDistinct = 0;
+		for (int i = 0; i < isbns.length; i++) {
+			if (i == 0 || isbns[i] != isbns[i - 1]) {
+				isbns[numDistinct++] = isbns[i];
+			}
+		}
+		return numDistinct == isbns.length ? isbns : Arrays.copyOf(isbns, numDistinct);
+	}
+
 	/**
 	 * Converts a string to a float if possible else it returns the signal value
 	 * for failure passed as parameter.
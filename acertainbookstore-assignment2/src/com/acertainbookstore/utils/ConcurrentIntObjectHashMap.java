@@ -0,0 +1,291 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link ConcurrentIntObjectHashMap} is the thread-safe counterpart of
+ * {@link IntObjectHashMap}. The keys are spread over segments, each of them an
+ * {@link IntObjectHashMap} guarded by a {@link StampedLock}: updates take the
+ * write lock of their segment, and lookups read optimistically without
+ * writing to shared memory, falling back to the read lock only if an update
+ * of the segment raced with them. Null values are not supported.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class ConcurrentIntObjectHashMap<V> {
+
+	/** The default number of segments. */
+	private static final int DEFAULT_NUM_SEGMENTS = 64;
+
+	/**
+	 * A segment of the map.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 */
+	private static final class Segment<V> {
+		private final StampedLock lock = new StampedLock();
+		private final IntObjectHashMap<V> map = new IntObjectHashMap<>();
+	}
+
+	private final Segment<V>[] segments;
+
+	/** The number of bits of the hash selecting the segment. */
+	private final int segmentShift;
+
+	/**
+	 * Instantiates a new, empty {@link ConcurrentIntObjectHashMap}.
+	 */
+	public ConcurrentIntObjectHashMap() {
+		this(DEFAULT_NUM_SEGMENTS);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link ConcurrentIntObjectHashMap}.
+	 *
+	 * @param numSegments
+	 *            the number of segments, rounded up to a power of two
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ConcurrentIntObjectHashMap(int numSegments) {
+		int bits = 0;
+		while ((1 << bits) < numSegments) {
+			bits++;
+		}
+
+		segmentShift = 32 - bits;
+		segments = new Segment[1 << bits];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment<>();
+		}
+	}
+
+	private Segment<V> segmentOf(int key) {
+		// The upper bits of the hash, the segments use the lower ones.
+		int h = key * 0x9E3779B9;
+		return segments.length == 1 ? segments[0] : segments[h >>> segmentShift];
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not mapped
+	 */
+	public V get(int key) {
+		Segment<V> segment = segmentOf(key);
+
+		long stamp = segment.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				V value = segment.map.get(key);
+				if (segment.lock.validate(stamp)) {
+					return value;
+				}
+			} catch (RuntimeException ex) {
+				// A racing resize can make the lookup fail, retry under the lock.
+			}
+		}
+
+		stamp = segment.lock.readLock();
+		try {
+			return segment.map.get(key);
+		} finally {
+			segment.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Checks whether a key is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the previous value, or null if the key was not mapped
+	 */
+	public V put(int key, V value) {
+		Segment<V> segment = segmentOf(key);
+
+		long stamp = segment.lock.writeLock();
+		try {
+			return segment.map.put(key, value);
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Maps a key to a value, unless it is already mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the current value, or null if the key was not mapped
+	 */
+	public V putIfAbsent(int key, V value) {
+		Segment<V> segment = segmentOf(key);
+
+		long stamp = segment.lock.writeLock();
+		try {
+			V current = segment.map.get(key);
+			if (current == null) {
+				segment.map.put(key, value);
+			}
+			return current;
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Maps a key to a value, if it is still mapped to the expected one.
+	 *
+	 * @param key
+	 *            the key
+	 * @param expected
+	 *            the expected value
+	 * @param value
+	 *            the new value, not null
+	 * @return true, if the value was replaced
+	 */
+	public boolean replace(int key, V expected, V value) {
+		Segment<V> segment = segmentOf(key);
+
+		long stamp = segment.lock.writeLock();
+		try {
+			if (segment.map.get(key) != expected) {
+				return false;
+			}
+			segment.map.put(key, value);
+			return true;
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the mapping of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the previous value, or null if the key was not mapped
+	 */
+	public V remove(int key) {
+		Segment<V> segment = segmentOf(key);
+
+		long stamp = segment.lock.writeLock();
+		try {
+			return segment.map.remove(key);
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the mapping of a key, if it is still mapped to the expected
+	 * value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param expected
+	 *            the expected value
+	 * @return true, if the mapping was removed
+	 */
+	public boolean remove(int key, V expected) {
+		Segment<V> segment = segmentOf(key);
+
+		long stamp = segment.lock.writeLock();
+		try {
+			if (segment.map.get(key) != expected) {
+				return false;
+			}
+			segment.map.remove(key);
+			return true;
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes all the entries. Not atomic with respect to concurrent updates.
+	 */
+	public void clear() {
+		for (Segment<V> segment : segments) {
+			long stamp = segment.lock.writeLock();
+			try {
+				segment.map.clear();
+			} finally {
+				segment.lock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of entries. Not atomic with respect to concurrent
+	 * updates.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<V> segment : segments) {
+			long stamp = segment.lock.readLock();
+			try {
+				size += segment.map.size();
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Copies the values. Every segment is copied atomically, but the map as a
+	 * whole is not, like the weakly consistent iterators of the
+	 * <code>java.util.concurrent</code> collections.
+	 *
+	 * @return the values
+	 */
+	public List<V> values() {
+		List<V> values = new ArrayList<>();
+		for (Segment<V> segment : segments) {
+			long stamp = segment.lock.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					List<V> segmentValues = new ArrayList<>(segment.map.values());
+					if (segment.lock.validate(stamp)) {
+						values.addAll(segmentValues);
+						continue;
+					}
+				} catch (RuntimeException ex) {
+					// A racing update can make the copy fail, retry under the lock.
+				}
+			}
+
+			stamp = segment.lock.readLock();
+			try {
+				values.addAll(segment.map.values());
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		return values;
+	}
+}
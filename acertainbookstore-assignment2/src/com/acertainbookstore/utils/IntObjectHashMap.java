@@ -0,0 +1,299 @@
+package com.acertainbookstore.utils;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link IntObjectHashMap} maps <code>int</code> keys to objects without
+ * boxing the keys. The keys and the values are kept in two parallel arrays
+ * probed linearly from the hash of the key, so that a lookup touches two
+ * arrays instead of a chain of nodes. Removal shifts the following entries
+ * back instead of leaving tombstones. Null values are not supported.
+ *
+ * The map is not thread-safe, but lookups never write, so concurrent lookups
+ * are safe as long as nobody modifies the map.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class IntObjectHashMap<V> {
+
+	/** The key of an empty entry. The key itself is stored apart. */
+	private static final int FREE_KEY = 0;
+
+	/** The minimum number of entries. */
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values;
+
+	/** The value of the key {@link #FREE_KEY}, if any. */
+	private Object freeKeyValue;
+
+	private int size;
+
+	/**
+	 * Instantiates a new, empty {@link IntObjectHashMap}.
+	 */
+	public IntObjectHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link IntObjectHashMap} holding
+	 * <code>expectedSize</code> entries without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public IntObjectHashMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * expectedSize) {
+			capacity *= 2;
+		}
+		keys = new int[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * Computes the first entry probed for a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param mask
+	 *            the number of entries minus one
+	 * @return the entry
+	 */
+	private static int position(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the map is empty.
+	 *
+	 * @return true, if empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key == FREE_KEY) {
+			return (V) freeKeyValue;
+		}
+
+		// Read the arrays once, so that a lookup racing with a resize at
+		// worst fails, cf. ConcurrentIntObjectHashMap.
+		int[] keys = this.keys;
+		Object[] values = this.values;
+		int mask = keys.length - 1;
+
+		for (int i = position(key, mask);; i = (i + 1) & mask) {
+			int current = keys[i];
+			if (current == key) {
+				return (V) values[i];
+			}
+			if (current == FREE_KEY) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a key is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the previous value, or null if the key was not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+
+		if (key == FREE_KEY) {
+			V previous = (V) freeKeyValue;
+			freeKeyValue = value;
+			if (previous == null) {
+				size++;
+			}
+			return previous;
+		}
+
+		int mask = keys.length - 1;
+		int i = position(key, mask);
+		while (keys[i] != FREE_KEY) {
+			if (keys[i] == key) {
+				V previous = (V) values[i];
+				values[i] = value;
+				return previous;
+			}
+			i = (i + 1) & mask;
+		}
+
+		// Grow first if the table would be more than half full.
+		if (2 * (size + 1) > keys.length) {
+			resize(2 * keys.length);
+			return put(key, value);
+		}
+
+		values[i] = value;
+		keys[i] = key;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Removes the mapping of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the previous value, or null if the key was not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key == FREE_KEY) {
+			V previous = (V) freeKeyValue;
+			freeKeyValue = null;
+			if (previous != null) {
+				size--;
+			}
+			return previous;
+		}
+
+		int mask = keys.length - 1;
+		int i = position(key, mask);
+		while (keys[i] != key) {
+			if (keys[i] == FREE_KEY) {
+				return null;
+			}
+			i = (i + 1) & mask;
+		}
+		V previous = (V) values[i];
+
+		// Shift the following entries of the cluster back, so that lookups
+		// never need tombstones.
+		for (int j = (i + 1) & mask; keys[j] != FREE_KEY; j = (j + 1) & mask) {
+			if (((j - position(keys[j], mask)) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = FREE_KEY;
+		values[i] = null;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public void clear() {
+		keys = new int[MIN_CAPACITY];
+		values = new Object[MIN_CAPACITY];
+		freeKeyValue = null;
+		size = 0;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		int[] newKeys = new int[capacity];
+		Object[] newValues = new Object[capacity];
+		int mask = capacity - 1;
+
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != FREE_KEY) {
+				int i = position(oldKeys[j], mask);
+				while (newKeys[i] != FREE_KEY) {
+					i = (i + 1) & mask;
+				}
+				newKeys[i] = oldKeys[j];
+				newValues[i] = oldValues[j];
+			}
+		}
+
+		values = newValues;
+		keys = newKeys;
+	}
+
+	/**
+	 * Gets a view of the values. The view does not support modifications.
+	 *
+	 * @return the values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					/** The next entry to look at, -1 for the free key. */
+					private int next = freeKeyValue != null ? -1 : 0;
+
+					@Override
+					public boolean hasNext() {
+						while (next >= 0 && next < keys.length && keys[next] == FREE_KEY) {
+							next++;
+						}
+						return next < keys.length;
+					}
+
+					@Override
+					@SuppressWarnings("unchecked")
+					public V next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						if (next < 0) {
+							next = 0;
+							return (V) freeKeyValue;
+						}
+						return (V) values[next++];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,254 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookLockAcquirer.BookLock;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore.AcquisitionPolicy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookLockAcquirerTest} tests that the {@link BookLockAcquirer} takes
+ * the book locks in ascending ISBN order under the ordered policy, releases
+ * every lock it took when an operation fails or aborts, and keeps the
+ * operations from deadlocking under every {@link AcquisitionPolicy}.
+ *
+ * @see BookLockAcquirer
+ */
+public class BookLockAcquirerTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 4;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 5000;
+
+	/** The Constant BLOCKED_MILLIS, during which a blocked operation must not proceed. */
+	private static final long BLOCKED_MILLIS = 100;
+
+	/** The Constant TIMEOUT_MILLIS, after which an operation is deemed stuck. */
+	private static final long TIMEOUT_MILLIS = 60000;
+
+	/** The locks of the books, by ISBN. */
+	private BookLock[] bookLocks;
+
+	/**
+	 * Creates the book locks, executed before every test case is run.
+	 */
+	@Before
+	public void initializeLocks() {
+		bookLocks = new BookLock[NUM_BOOKS];
+		for (int isbn = 0; isbn < NUM_BOOKS; isbn++) {
+			bookLocks[isbn] = new BookLock();
+		}
+	}
+
+	/**
+	 * Checks that none of the book locks is held.
+	 */
+	private void assertAllReleased() {
+		for (BookLock bookLock : bookLocks) {
+			assertFalse(bookLock.isWriteLocked());
+			assertEquals(0, bookLock.getReadLockCount());
+		}
+	}
+
+	/**
+	 * Starts a thread running a section writing the given books.
+	 *
+	 * @param acquirer
+	 *            the acquirer
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @param ran
+	 *            set once the section runs
+	 * @param failures
+	 *            the failures of the thread
+	 * @return the thread
+	 */
+	private Thread startWriter(BookLockAcquirer acquirer, int[] isbns, AtomicBoolean ran, List<Throwable> failures) {
+		Thread thread = new Thread(() -> {
+			try {
+				acquirer.runWithBookLocks(isbns, isbn -> bookLocks[isbn], true, () -> {
+					ran.set(true);
+					return null;
+				});
+			} catch (Throwable ex) {
+				failures.add(ex);
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Checks that the ordered policy takes the locks in ascending ISBN order,
+	 * whatever the order of the operation: while the second book is held by
+	 * another thread, the operation holds the first one only.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testOrderedAcquisition() throws InterruptedException {
+		BookLockAcquirer acquirer = new BookLockAcquirer(AcquisitionPolicy.ORDERED);
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		AtomicBoolean ran = new AtomicBoolean();
+
+		bookLocks[2].writeLock().lock();
+		Thread writer = startWriter(acquirer, new int[] { 3, 2, 1 }, ran, failures);
+		Thread.sleep(BLOCKED_MILLIS);
+		assertFalse(ran.get());
+		assertTrue(bookLocks[1].isWriteLocked());
+		assertFalse(bookLocks[3].isWriteLocked());
+
+		bookLocks[2].writeLock().unlock();
+		writer.join(TIMEOUT_MILLIS);
+		assertFalse(writer.isAlive());
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertTrue(ran.get());
+		assertAllReleased();
+		assertEquals(0, acquirer.getNumAborts());
+		assertTrue(acquirer.getLockWaitNanos() > 0);
+	}
+
+	/**
+	 * Checks that the locks are released when the section fails, in read and
+	 * write mode, under every policy, and that the failure reaches the caller.
+	 */
+	@Test
+	public void testReleaseOnFailure() {
+		for (AcquisitionPolicy policy : AcquisitionPolicy.values()) {
+			BookLockAcquirer acquirer = new BookLockAcquirer(policy);
+			for (boolean write : new boolean[] { false, true }) {
+				BookStoreException failure = new BookStoreException("failed");
+				try {
+					acquirer.runWithBookLocks(new int[] { 2, 0, 1, 0 }, isbn -> bookLocks[isbn], write, () -> {
+						throw failure;
+					});
+					fail();
+				} catch (BookStoreException ex) {
+					assertSame(failure, ex);
+				}
+				assertAllReleased();
+
+				try {
+					acquirer.runWithBookLocks(new int[] { 3, 1 }, isbn -> bookLocks[isbn], write, () -> {
+						throw new IllegalStateException();
+					});
+					fail();
+				} catch (IllegalStateException | BookStoreException ex) {
+					assertTrue(ex instanceof IllegalStateException);
+				}
+				assertAllReleased();
+			}
+		}
+	}
+
+	/**
+	 * Checks that an operation aborted by the no-wait policy gives up the
+	 * locks it took, so that another operation on them completes while it
+	 * starts again, and that it completes once the lock it needs is free.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testReleaseOnAbort() throws InterruptedException {
+		BookLockAcquirer acquirer = new BookLockAcquirer(AcquisitionPolicy.NO_WAIT);
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		AtomicBoolean ran = new AtomicBoolean();
+		AtomicBoolean otherRan = new AtomicBoolean();
+
+		bookLocks[2].writeLock().lock();
+		Thread writer = startWriter(acquirer, new int[] { 1, 2 }, ran, failures);
+		Thread other = startWriter(new BookLockAcquirer(AcquisitionPolicy.ORDERED), new int[] { 1 }, otherRan,
+				failures);
+		other.join(TIMEOUT_MILLIS);
+		assertFalse(other.isAlive());
+		assertTrue(otherRan.get());
+		assertFalse(ran.get());
+
+		bookLocks[2].writeLock().unlock();
+		writer.join(TIMEOUT_MILLIS);
+		assertFalse(writer.isAlive());
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertTrue(ran.get());
+		assertTrue(acquirer.getNumAborts() > 0);
+		assertEquals(1, acquirer.getNumRetries());
+		assertAllReleased();
+	}
+
+	/**
+	 * Checks under every policy that operations writing overlapping books,
+	 * given in opposite orders, never write a book together and never
+	 * deadlock.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testDeadlockFreedom() throws InterruptedException {
+		for (AcquisitionPolicy policy : AcquisitionPolicy.values()) {
+			initializeLocks();
+			BookLockAcquirer acquirer = new BookLockAcquirer(policy);
+			AtomicBoolean[] written = new AtomicBoolean[NUM_BOOKS];
+			for (int isbn = 0; isbn < NUM_BOOKS; isbn++) {
+				written[isbn] = new AtomicBoolean();
+			}
+
+			List<Runnable> tasks = new ArrayList<Runnable>();
+			for (int t = 0; t < NUM_THREADS; t++) {
+				final boolean descending = t % 2 == 1;
+				tasks.add(() -> {
+					try {
+						for (int i = 0; i < NUM_OPERATIONS; i++) {
+							int low = i % (NUM_BOOKS - 1);
+							boolean yield = i % 16 == 0;
+							int[] isbns = descending ? new int[] { low + 1, low } : new int[] { low, low + 1 };
+							acquirer.runWithBookLocks(isbns, isbn -> bookLocks[isbn], true, () -> {
+								for (int isbn = low; isbn <= low + 1; isbn++) {
+									assertTrue(written[isbn].compareAndSet(false, true));
+								}
+								if (yield) {
+									Thread.yield();
+								}
+								for (int isbn = low; isbn <= low + 1; isbn++) {
+									written[isbn].set(false);
+								}
+								return null;
+							});
+						}
+					} catch (BookStoreException ex) {
+						throw new IllegalStateException(ex);
+					}
+				});
+			}
+
+			CountDownLatch done = new CountDownLatch(1);
+			Thread runner = new Thread(() -> {
+				try {
+					EscrowCounterTest.runConcurrently(tasks);
+					done.countDown();
+				} catch (Throwable ex) {
+					throw new IllegalStateException(ex);
+				}
+			});
+			runner.start();
+			runner.join(TIMEOUT_MILLIS);
+			assertEquals(policy + " deadlocked or failed", 0, done.getCount());
+			assertAllReleased();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link CatalogSnapshotTest} tests that the {@link CatalogSnapshot.Publisher}
+ * copies the catalog once per burst of writes, never serves a snapshot older
+ * than the writes completed before a read, and keeps the readers queued
+ * behind a copy from copying the catalog again one after the other.
+ *
+ * @see CatalogSnapshot
+ */
+public class CatalogSnapshotTest {
+
+	/** The Constant NUM_READERS, queued behind a copy. */
+	private static final int NUM_READERS = 4;
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The publisher. */
+	private CatalogSnapshot.Publisher publisher;
+
+	/** The number of copies in the catalog, only read by the builders. */
+	private volatile int numCopies;
+
+	/**
+	 * Creates a new publisher, executed before every test case is run.
+	 */
+	@Before
+	public void initializePublisher() {
+		publisher = new CatalogSnapshot.Publisher();
+		numCopies = 0;
+	}
+
+	/**
+	 * Copies the catalog, made of a single book.
+	 *
+	 * @return the snapshot
+	 */
+	private CatalogSnapshot build() {
+		long version = publisher.getVersion();
+		List<StockBook> books = new ArrayList<StockBook>();
+		books.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, numCopies, 0, 0,
+				0, false));
+		return new CatalogSnapshot(version, books);
+	}
+
+	/**
+	 * Writes the catalog.
+	 *
+	 * @param newNumCopies
+	 *            the new number of copies of the book
+	 */
+	private void write(int newNumCopies) {
+		numCopies = newNumCopies;
+		publisher.invalidate();
+	}
+
+	/**
+	 * Gets the number of copies of the book in the current snapshot.
+	 *
+	 * @return the number of copies
+	 */
+	private int readNumCopies() {
+		return publisher.get(this::build).getBooks().get(0).getNumCopies();
+	}
+
+	/**
+	 * Checks that the reads share a snapshot until a write, that a burst of
+	 * writes is copied once, and that every read sees the writes completed
+	 * before it.
+	 */
+	@Test
+	public void testOneBuildPerBurst() {
+		assertEquals(0, readNumCopies());
+		assertEquals(0, readNumCopies());
+		assertEquals(1, publisher.getNumBuilds());
+
+		for (int i = 1; i <= 10; i++) {
+			write(i);
+		}
+		assertEquals(10, readNumCopies());
+		assertEquals(10, readNumCopies());
+		assertEquals(2, publisher.getNumBuilds());
+
+		write(11);
+		assertEquals(11, readNumCopies());
+		assertEquals(3, publisher.getNumBuilds());
+	}
+
+	/**
+	 * Checks that the readers which queued behind a copy take the next one,
+	 * even though a write outdated it, instead of each copying the catalog
+	 * again.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testQueuedReadersShareOneBuild() throws InterruptedException {
+		CountDownLatch building = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		// Every copy races with a write, which outdates it at once.
+		CatalogSnapshot.Builder builder = () -> {
+			CatalogSnapshot snapshot = build();
+			write(numCopies + 1);
+			building.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return snapshot;
+		};
+
+		Thread first = new Thread(() -> publisher.get(builder));
+		first.start();
+		building.await();
+
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int r = 0; r < NUM_READERS; r++) {
+			readers.add(new Thread(() -> {
+				try {
+					assertTrue(publisher.get(builder).getBooks().get(0).getNumCopies() >= 1);
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		// The readers arrived once they wait for the copy in progress.
+		for (Thread reader : readers) {
+			while (reader.getState() != Thread.State.WAITING) {
+				Thread.sleep(1);
+			}
+		}
+
+		release.countDown();
+		first.join();
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(2, publisher.getNumBuilds());
+	}
+}
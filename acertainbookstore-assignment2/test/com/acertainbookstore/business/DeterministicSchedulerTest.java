@@ -0,0 +1,260 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link DeterministicSchedulerTest} tests that the
+ * {@link DeterministicScheduler} admits the transactions in the order they
+ * were sequenced in the queues of their keys, runs conflicting transactions
+ * one at a time, and never deadlocks, whatever the order in which the
+ * transactions give their keys.
+ *
+ * @see DeterministicScheduler
+ */
+public class DeterministicSchedulerTest {
+
+	/** The Constant NUM_KEYS. */
+	private static final int NUM_KEYS = 4;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 8;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 5000;
+
+	/** The Constant EPOCH_MICROS, of the schedulers with a sequencer. */
+	private static final long EPOCH_MICROS = 100;
+
+	/** The Constant TIMEOUT_MILLIS, after which a thread is deemed stuck. */
+	private static final long TIMEOUT_MILLIS = 60000;
+
+	/** The Constant SEQUENCING_MILLIS, to let a blocked request be admitted. */
+	private static final long SEQUENCING_MILLIS = 100;
+
+	/**
+	 * Starts a thread executing a transaction, and records its failure.
+	 *
+	 * @param scheduler
+	 *            the scheduler
+	 * @param keys
+	 *            the keys
+	 * @param transaction
+	 *            the transaction
+	 * @param failures
+	 *            the failures
+	 * @return the thread
+	 */
+	private static Thread start(DeterministicScheduler scheduler, int[] keys,
+			DeterministicScheduler.Transaction transaction, List<Throwable> failures) {
+		Thread thread = new Thread(() -> {
+			try {
+				scheduler.execute(keys, transaction);
+			} catch (Throwable ex) {
+				failures.add(ex);
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Waits until the scheduler has sequenced the given number of
+	 * transactions.
+	 *
+	 * @param scheduler
+	 *            the scheduler
+	 * @param numTransactions
+	 *            the number of transactions
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private static void awaitSequenced(DeterministicScheduler scheduler, long numTransactions)
+			throws InterruptedException {
+		while (scheduler.getNumTransactions() < numTransactions) {
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Checks that a transaction waits for the earlier transactions of all its
+	 * keys, even those whose other keys are taken by an earlier transaction:
+	 * a later transaction of a free key does not overtake one sequenced
+	 * before it.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testLockOrderAdmission() throws InterruptedException {
+		try (DeterministicScheduler scheduler = new DeterministicScheduler(0)) {
+			List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+			List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+			CountDownLatch running = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+
+			// The first transaction holds key 1 until it is released.
+			Thread first = start(scheduler, new int[] { 1 }, () -> {
+				order.add(1);
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					throw new BookStoreException(ex);
+				}
+			}, failures);
+			running.await();
+
+			// The second one waits for key 1, holding its place for key 2.
+			Thread second = start(scheduler, new int[] { 2, 1 }, () -> order.add(2), failures);
+			awaitSequenced(scheduler, 2);
+
+			// The third one only needs key 2, which nobody holds yet.
+			Thread third = start(scheduler, new int[] { 2 }, () -> order.add(3), failures);
+			awaitSequenced(scheduler, 3);
+			Thread.sleep(SEQUENCING_MILLIS);
+			assertEquals(Arrays.asList(1), order);
+
+			release.countDown();
+			for (Thread thread : Arrays.asList(first, second, third)) {
+				thread.join(TIMEOUT_MILLIS);
+				assertFalse(thread.isAlive());
+			}
+			assertTrue(failures.toString(), failures.isEmpty());
+			assertEquals(Arrays.asList(1, 2, 3), order);
+		}
+	}
+
+	/**
+	 * Checks that transactions on arrival never deadlock nor overlap on a key.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testDeadlockFreedomOnArrival() throws InterruptedException {
+		runConflictingTransactions(0);
+	}
+
+	/**
+	 * Checks that transactions sequenced in epochs never deadlock nor overlap
+	 * on a key.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testDeadlockFreedomInEpochs() throws InterruptedException {
+		runConflictingTransactions(EPOCH_MICROS);
+	}
+
+	/**
+	 * Runs transactions whose key sets overlap, given in opposite orders by
+	 * half of the threads, and checks that every transaction ran alone on its
+	 * keys and that all of them completed.
+	 *
+	 * @param epochMicros
+	 *            the length of an epoch
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private void runConflictingTransactions(long epochMicros) throws InterruptedException {
+		AtomicBoolean[] inUse = new AtomicBoolean[NUM_KEYS];
+		for (int key = 0; key < NUM_KEYS; key++) {
+			inUse[key] = new AtomicBoolean();
+		}
+		AtomicInteger numRun = new AtomicInteger();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		try (DeterministicScheduler scheduler = new DeterministicScheduler(epochMicros)) {
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int t = 0; t < NUM_THREADS; t++) {
+				final boolean descending = t % 2 == 1;
+				threads.add(new Thread(() -> {
+					try {
+						for (int i = 0; i < NUM_OPERATIONS; i++) {
+							int low = i % (NUM_KEYS - 1);
+							int[] keys = descending ? new int[] { low + 1, low } : new int[] { low, low + 1 };
+							scheduler.execute(keys, () -> {
+								for (int key = low; key <= low + 1; key++) {
+									assertTrue(inUse[key].compareAndSet(false, true));
+								}
+								numRun.incrementAndGet();
+								for (int key = low; key <= low + 1; key++) {
+									inUse[key].set(false);
+								}
+							});
+						}
+					} catch (Throwable ex) {
+						failures.add(ex);
+					}
+				}));
+			}
+
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join(TIMEOUT_MILLIS);
+				assertFalse("Deadlocked", thread.isAlive());
+			}
+			assertTrue(failures.toString(), failures.isEmpty());
+			assertEquals(NUM_THREADS * NUM_OPERATIONS, numRun.get());
+			assertEquals(NUM_THREADS * NUM_OPERATIONS, scheduler.getNumTransactions());
+			assertTrue(scheduler.getNumEpochs() <= scheduler.getNumTransactions());
+		}
+	}
+
+	/**
+	 * Checks that the failure of a transaction is thrown to its caller, that
+	 * its keys are released, and that a closed scheduler accepts no
+	 * transaction.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testFailureAndClose() throws BookStoreException {
+		DeterministicScheduler scheduler = new DeterministicScheduler(EPOCH_MICROS);
+		BookStoreException failure = new BookStoreException("failed");
+		try {
+			scheduler.execute(new int[] { 1, 2 }, () -> {
+				throw failure;
+			});
+			fail();
+		} catch (BookStoreException ex) {
+			assertSame(failure, ex);
+		}
+
+		AtomicInteger numRun = new AtomicInteger();
+		scheduler.execute(new int[] { 2, 1 }, () -> numRun.incrementAndGet());
+		assertEquals(1, numRun.get());
+
+		scheduler.close();
+		try {
+			scheduler.execute(new int[] { 1 }, () -> numRun.incrementAndGet());
+			fail();
+		} catch (IllegalStateException ex) {
+			;
+		}
+		assertEquals(1, numRun.get());
+
+		try {
+			new DeterministicScheduler(-1);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link EpochReclaimerTest} tests that the {@link EpochReclaimer} never
+ * recycles an object while a section which could have observed it is still
+ * open, recycles it once those sections are closed, and unlinks the records
+ * of the threads which have terminated.
+ *
+ * @see EpochReclaimer
+ */
+public class EpochReclaimerTest {
+
+	/** The Constant NUM_THREADS, reading the shared object. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 100000;
+
+	/** The Constant NUM_RECLAIM_ATTEMPTS, more than enough to advance two epochs. */
+	private static final int NUM_RECLAIM_ATTEMPTS = 10;
+
+	/**
+	 * An object which is recycled once reclaimed.
+	 */
+	private static final class Entry {
+
+		/** Whether the entry was recycled. */
+		private volatile boolean recycled = false;
+	}
+
+	/** The reclaimer. */
+	private EpochReclaimer<Entry> reclaimer;
+
+	/**
+	 * Creates a new reclaimer, executed before every test case is run.
+	 */
+	@Before
+	public void initializeReclaimer() {
+		reclaimer = new EpochReclaimer<Entry>(entry -> {
+			assertFalse(entry.recycled);
+			entry.recycled = true;
+		});
+	}
+
+	/**
+	 * Tries to reclaim the retired entries several times, enough for every
+	 * entry no section can observe to be recycled.
+	 */
+	private void reclaimAll() {
+		for (int i = 0; i < NUM_RECLAIM_ATTEMPTS; i++) {
+			reclaimer.tryReclaim();
+		}
+	}
+
+	/**
+	 * Checks that an entry retired while another thread is in a section is
+	 * not recycled until that section is closed, however often the reclaimer
+	 * tries, and that the epoch does not advance past the one of the section
+	 * meanwhile.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testNotRecycledWhileObserved() throws InterruptedException {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch exit = new CountDownLatch(1);
+		Thread reader = new Thread(() -> {
+			reclaimer.enter();
+			// Nested sections close with the outer one only.
+			reclaimer.enter();
+			reclaimer.exit();
+			entered.countDown();
+			try {
+				exit.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				reclaimer.exit();
+			}
+		});
+		reader.start();
+		entered.await();
+
+		long epoch = reclaimer.getEpoch();
+		Entry entry = new Entry();
+		reclaimer.retire(entry);
+		reclaimAll();
+		assertFalse(entry.recycled);
+		assertEquals(1, reclaimer.getNumRetired());
+		assertTrue(reclaimer.getEpoch() <= epoch + 1);
+
+		exit.countDown();
+		reader.join();
+		reclaimAll();
+		assertTrue(entry.recycled);
+		assertEquals(0, reclaimer.getNumRetired());
+		assertEquals(1, reclaimer.getNumReclaimed());
+	}
+
+	/**
+	 * Checks that the records of the terminated threads are unlinked, while
+	 * those of the live threads, in a section or not, are kept.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testDeadThreadRecordsUnlinked() throws InterruptedException {
+		reclaimer.enter();
+		reclaimer.exit();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			threads.add(new Thread(() -> {
+				reclaimer.enter();
+				reclaimer.exit();
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch exit = new CountDownLatch(1);
+		Thread reader = new Thread(() -> {
+			reclaimer.enter();
+			entered.countDown();
+			try {
+				exit.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				reclaimer.exit();
+			}
+		});
+		reader.start();
+		entered.await();
+		assertEquals(NUM_THREADS + 2, reclaimer.getNumRecords());
+
+		reclaimer.tryReclaim();
+		assertEquals(2, reclaimer.getNumRecords());
+
+		exit.countDown();
+		reader.join();
+		reclaimer.tryReclaim();
+		assertEquals(1, reclaimer.getNumRecords());
+	}
+
+	/**
+	 * Checks that readers never find a recycled entry in their sections while
+	 * a writer keeps replacing the shared entry and retiring the old one, and
+	 * that the entries are eventually all recycled.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testConcurrentReadersAndWriter() throws InterruptedException {
+		AtomicReference<Entry> shared = new AtomicReference<Entry>(new Entry());
+		AtomicBoolean done = new AtomicBoolean();
+		long[] numReplaced = new long[1];
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			tasks.add(() -> {
+				for (int i = 0; i < NUM_OPERATIONS; i++) {
+					reclaimer.enter();
+					try {
+						Entry entry = shared.get();
+						if (i % 64 == 0) {
+							Thread.yield();
+						}
+						assertFalse(entry.recycled);
+					} finally {
+						reclaimer.exit();
+					}
+				}
+			});
+		}
+
+		// The writer runs until the readers are done.
+		Thread writer = new Thread(() -> {
+			while (!done.get()) {
+				reclaimer.retire(shared.getAndSet(new Entry()));
+				numReplaced[0]++;
+			}
+		});
+		writer.start();
+		try {
+			EscrowCounterTest.runConcurrently(tasks);
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+
+		reclaimAll();
+		assertEquals(0, reclaimer.getNumRetired());
+		assertEquals(numReplaced[0], reclaimer.getNumReclaimed());
+		assertFalse(shared.get().recycled);
+	}
+}
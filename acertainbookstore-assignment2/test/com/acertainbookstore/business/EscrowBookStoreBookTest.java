@@ -0,0 +1,116 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * {@link EscrowBookStoreBookTest} tests the purchases of an
+ * {@link EscrowBookStoreBook}: the copies a buyer reserves with
+ * {@link EscrowBookStoreBook#tryBuyCopies(int)} are either kept, committing
+ * the purchase, or given back with
+ * {@link EscrowBookStoreBook#returnCopies(int)}, aborting it.
+ *
+ * @see EscrowBookStoreBook
+ */
+public class EscrowBookStoreBookTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 1000;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 20000;
+
+	/**
+	 * Creates a book.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 * @return the book
+	 */
+	private static EscrowBookStoreBook newBook(int numCopies, long numSaleMisses) {
+		return new EscrowBookStoreBook(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit",
+				(float) 10, numCopies, numSaleMisses, 0, 0, false));
+	}
+
+	/**
+	 * Checks that reserved copies leave the book until they are returned,
+	 * that returning them keeps the sale misses, and that the methods
+	 * excluding the buyers see the exact count.
+	 */
+	@Test
+	public void testReserveCommitAbort() {
+		EscrowBookStoreBook book = newBook(5, 2);
+
+		// Commit: the reserved copies are gone.
+		assertTrue(book.tryBuyCopies(2));
+		assertEquals(3, book.getNumCopies());
+
+		// Abort: the reserved copies come back, but not the sale misses.
+		assertTrue(book.tryBuyCopies(3));
+		assertEquals(0, book.getNumCopies());
+		assertFalse(book.tryBuyCopies(1));
+		book.returnCopies(3);
+		assertEquals(3, book.getNumCopies());
+		assertEquals(2, book.getNumSaleMisses());
+
+		assertTrue(book.areCopiesInStore(3));
+		assertFalse(book.areCopiesInStore(4));
+		assertFalse(book.buyCopies(4));
+		assertTrue(book.buyCopies(1));
+		assertEquals(2, book.getNumCopies());
+
+		book.addCopies(4);
+		assertEquals(6, book.getNumCopies());
+		assertEquals(0, book.getNumSaleMisses());
+
+		StockBook copy = book.immutableStockBook();
+		assertEquals(6, copy.getNumCopies());
+		assertEquals(6, book.copy().getNumCopies());
+	}
+
+	/**
+	 * Checks that concurrent buyers, which keep some of their reservations
+	 * and return the others, never buy more copies than the book holds, and
+	 * leave the count of the copies they did not keep.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testConcurrentReservations() throws InterruptedException {
+		EscrowBookStoreBook book = newBook(NUM_COPIES, 0);
+		AtomicInteger numKept = new AtomicInteger();
+		List<Runnable> buyers = new ArrayList<Runnable>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			buyers.add(() -> {
+				for (int i = 0; i < NUM_OPERATIONS; i++) {
+					if (book.tryBuyCopies(2)) {
+						if (i % 3 == 0) {
+							numKept.addAndGet(2);
+						} else {
+							book.returnCopies(2);
+						}
+					}
+				}
+			});
+		}
+
+		EscrowCounterTest.runConcurrently(buyers);
+		assertTrue(numKept.get() <= NUM_COPIES);
+		assertEquals(NUM_COPIES - numKept.get(), book.getNumCopies());
+		assertEquals(NUM_COPIES - numKept.get(), book.immutableStockBook().getNumCopies());
+	}
+}
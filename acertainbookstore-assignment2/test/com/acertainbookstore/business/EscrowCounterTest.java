@@ -0,0 +1,141 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * {@link EscrowCounterTest} tests that the {@link EscrowCounter} never hands
+ * out more copies than it holds, and loses none while concurrent takers and
+ * adders move them between the quotas.
+ *
+ * @see EscrowCounter
+ */
+public class EscrowCounterTest {
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 1000;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 20000;
+
+	/**
+	 * Runs the given tasks in concurrent threads and checks that none of them
+	 * failed.
+	 *
+	 * @param tasks
+	 *            the tasks
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	static void runConcurrently(List<Runnable> tasks) throws InterruptedException {
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (Runnable task : tasks) {
+			threads.add(new Thread(() -> {
+				try {
+					task.run();
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	/**
+	 * Checks the count of a counter used by a single thread.
+	 */
+	@Test
+	public void testSingleThread() {
+		EscrowCounter counter = new EscrowCounter(NUM_COPIES);
+		assertEquals(NUM_COPIES, counter.sum());
+
+		assertTrue(counter.tryTake(NUM_COPIES - 1));
+		assertFalse(counter.tryTake(2));
+		assertEquals(1, counter.sum());
+
+		counter.add(5);
+		assertTrue(counter.tryTake(6));
+		assertFalse(counter.tryTake(1));
+		assertEquals(0, counter.sum());
+
+		counter.set(NUM_COPIES);
+		assertEquals(NUM_COPIES, counter.sum());
+	}
+
+	/**
+	 * Checks that concurrent takers never take more copies than the counter
+	 * held, and that the copies left add up once they are done.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testNeverOversold() throws InterruptedException {
+		EscrowCounter counter = new EscrowCounter(NUM_COPIES);
+		AtomicInteger numTaken = new AtomicInteger();
+		List<Runnable> takers = new ArrayList<Runnable>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			takers.add(() -> {
+				for (int i = 0; i < NUM_OPERATIONS; i++) {
+					if (counter.tryTake(1 + i % 3)) {
+						numTaken.addAndGet(1 + i % 3);
+					}
+				}
+			});
+		}
+
+		runConcurrently(takers);
+		assertTrue(numTaken.get() <= NUM_COPIES);
+		assertEquals(NUM_COPIES - numTaken.get(), counter.sum());
+	}
+
+	/**
+	 * Checks that no copy is lost or created while takers rebalance the
+	 * quotas and adders refill them, and that the count never goes negative.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testTakeAndAddConcurrently() throws InterruptedException {
+		EscrowCounter counter = new EscrowCounter(NUM_COPIES);
+		AtomicInteger numTaken = new AtomicInteger();
+		AtomicInteger numAdded = new AtomicInteger();
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			final boolean adder = t % 2 == 0;
+			tasks.add(() -> {
+				for (int i = 0; i < NUM_OPERATIONS; i++) {
+					if (adder && i % 4 == 0) {
+						counter.add(2);
+						numAdded.addAndGet(2);
+					} else if (counter.tryTake(1)) {
+						numTaken.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		runConcurrently(tasks);
+		assertTrue(numTaken.get() <= NUM_COPIES + numAdded.get());
+		assertEquals(NUM_COPIES + numAdded.get() - numTaken.get(), counter.sum());
+		assertTrue(counter.sum() >= 0);
+	}
+}
@@ -0,0 +1,240 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link FlatCombinerTest} tests that the {@link FlatCombiner} applies the
+ * operations of concurrent threads in batches under the batch lock, in the
+ * order of its publication list, and hands the failures back to the threads
+ * which published the operations.
+ *
+ * @see FlatCombiner
+ */
+public class FlatCombinerTest {
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 10000;
+
+	/** The Constant MAX_ROUNDS. */
+	private static final int MAX_ROUNDS = 10;
+
+	/** The Constant PUBLICATION_MILLIS, to let the waiters publish. */
+	private static final long PUBLICATION_MILLIS = 100;
+
+	/** The batch lock. */
+	private ReentrantLock batchLock;
+
+	/** The number of batches. */
+	private AtomicInteger numBatches;
+
+	/** The combiner. */
+	private FlatCombiner combiner;
+
+	/**
+	 * Creates a new combiner, executed before every test case is run.
+	 */
+	@Before
+	public void initializeCombiner() {
+		batchLock = new ReentrantLock();
+		numBatches = new AtomicInteger();
+		combiner = new FlatCombiner(batchLock, () -> {
+			assertTrue(batchLock.isHeldByCurrentThread());
+			numBatches.incrementAndGet();
+		});
+	}
+
+	/**
+	 * Checks that a lone thread applies its own operations under the batch
+	 * lock, one batch each, and gets their failures back as thrown.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSingleThread() throws BookStoreException {
+		AtomicInteger numApplied = new AtomicInteger();
+		combiner.execute(() -> {
+			assertTrue(batchLock.isHeldByCurrentThread());
+			numApplied.incrementAndGet();
+		});
+		assertEquals(1, numApplied.get());
+		assertEquals(1, numBatches.get());
+		assertFalse(batchLock.isLocked());
+
+		BookStoreException failure = new BookStoreException("failed");
+		try {
+			combiner.execute(() -> {
+				throw failure;
+			});
+			fail();
+		} catch (BookStoreException ex) {
+			assertSame(failure, ex);
+		}
+
+		IllegalStateException runtimeFailure = new IllegalStateException();
+		try {
+			combiner.execute(() -> {
+				throw runtimeFailure;
+			});
+			fail();
+		} catch (IllegalStateException ex) {
+			assertSame(runtimeFailure, ex);
+		}
+
+		// A failure is not handed back again with the next operation.
+		combiner.execute(() -> numApplied.incrementAndGet());
+		assertEquals(2, numApplied.get());
+		assertFalse(batchLock.isLocked());
+	}
+
+	/**
+	 * Checks that the operations of concurrent threads are applied exactly
+	 * once each, one at a time, without any other synchronization.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testConcurrentOperations() throws InterruptedException {
+		// Not atomic: only the batch lock protects the counter.
+		int[] counter = new int[1];
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < NUM_OPERATIONS; i++) {
+						combiner.execute(() -> counter[0]++);
+					}
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(NUM_THREADS * NUM_OPERATIONS, counter[0]);
+		assertTrue(numBatches.get() <= NUM_THREADS * NUM_OPERATIONS);
+	}
+
+	/**
+	 * Checks that operations published while the batch lock is held are
+	 * combined in one batch, applied in the order of the publication list,
+	 * i.e. the last registered thread first, and that each failure is thrown
+	 * to the thread which published the failed operation only. A thread
+	 * publishing too late for the batch spoils the round, so the rounds go on
+	 * until one gets a single batch.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testBatchOrderAndFailures() throws InterruptedException {
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			initializeCombiner();
+			if (runBatch()) {
+				return;
+			}
+		}
+		fail("No round got its operations in a single batch");
+	}
+
+	/**
+	 * Registers the threads one after the other, then lets them all publish
+	 * an operation while the batch lock is held, and checks the batch.
+	 *
+	 * @return true, if the operations were combined in a single batch
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private boolean runBatch() throws InterruptedException {
+		List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		BookStoreException[] thrown = new BookStoreException[NUM_THREADS];
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		CountDownLatch go = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int t = 0; t < NUM_THREADS; t++) {
+			final int id = t;
+			CountDownLatch registered = new CountDownLatch(1);
+			Thread thread = new Thread(() -> {
+				try {
+					// The first operation links the slot of the thread.
+					combiner.execute(() -> {
+					});
+					registered.countDown();
+					go.await();
+
+					// Odd threads fail, with their own exception.
+					combiner.execute(() -> {
+						order.add(id);
+						if (id % 2 == 1) {
+							throw new BookStoreException(Integer.toString(id));
+						}
+					});
+				} catch (BookStoreException ex) {
+					thrown[id] = ex;
+				} catch (Throwable ex) {
+					failures.add(ex);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+			registered.await();
+		}
+
+		int numBatchesBefore = numBatches.get();
+		batchLock.lock();
+		try {
+			go.countDown();
+			Thread.sleep(PUBLICATION_MILLIS);
+		} finally {
+			batchLock.unlock();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+
+		// Whatever the batches, every operation ran once, and the failures
+		// went to their threads.
+		assertEquals(NUM_THREADS, order.size());
+		for (int id = 0; id < NUM_THREADS; id++) {
+			if (id % 2 == 1) {
+				assertNotNull(thrown[id]);
+				assertEquals(Integer.toString(id), thrown[id].getMessage());
+			} else {
+				assertNull(thrown[id]);
+			}
+		}
+
+		if (numBatches.get() - numBatchesBefore != 1) {
+			return false;
+		}
+		for (int i = 0; i < NUM_THREADS; i++) {
+			assertEquals(NUM_THREADS - 1 - i, (int) order.get(i));
+		}
+		return true;
+	}
+}
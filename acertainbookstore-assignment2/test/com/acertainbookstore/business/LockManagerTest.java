@@ -0,0 +1,359 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LockManagerTest} tests every {@link LockManager} policy against the
+ * same sections: the sections writing a book exclude each other, the catalog
+ * reads see no write halfway through, and the catalog changes are isolated,
+ * whatever the order in which the sections give their books. It also tests
+ * the no-wait and single-lock modes of the {@link PerBookLockManager}.
+ *
+ * @see LockManager
+ * @see PerBookLockManager
+ */
+public class LockManagerTest {
+
+	/** The Constant FIRST_ISBN. */
+	private static final int FIRST_ISBN = 3044560;
+
+	/**
+	 * The Constant ISBN_STEP, between the books, so that they fall in
+	 * different partitions of the {@link HierarchicalLockManager}.
+	 */
+	private static final int ISBN_STEP = 700;
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 8;
+
+	/** The Constant INITIAL_BALANCE, of every book. */
+	private static final int INITIAL_BALANCE = 100;
+
+	/** The Constant NUM_THREADS, writing books. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 2000;
+
+	/** The Constant YIELD_PERIOD, the average number of transfers between two yields. */
+	private static final int YIELD_PERIOD = 16;
+
+	/** The Constant BLOCKED_MILLIS, during which a blocked section must not run. */
+	private static final long BLOCKED_MILLIS = 100;
+
+	/** The balances of the books, only protected by the lock manager. */
+	private int[] balances;
+
+	/** Whether a writing section holds each book. */
+	private AtomicBoolean[] written;
+
+	/**
+	 * Gets the ISBN of a book.
+	 *
+	 * @param book
+	 *            the index of the book
+	 * @return the ISBN
+	 */
+	private static int isbnOf(int book) {
+		return FIRST_ISBN + book * ISBN_STEP;
+	}
+
+	/**
+	 * Adds the books to the catalog of a lock manager, and resets their
+	 * balances.
+	 *
+	 * @param manager
+	 *            the lock manager
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void initializeBooks(LockManager manager) throws BookStoreException {
+		balances = new int[NUM_BOOKS];
+		written = new AtomicBoolean[NUM_BOOKS];
+		manager.writeCatalog(() -> {
+			for (int book = 0; book < NUM_BOOKS; book++) {
+				balances[book] = INITIAL_BALANCE;
+				written[book] = new AtomicBoolean();
+				manager.bookAdded(isbnOf(book));
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Moves a unit of balance between two books in a section writing both,
+	 * checking that no other writing section holds them.
+	 *
+	 * @param manager
+	 *            the lock manager
+	 * @param from
+	 *            the book losing the unit
+	 * @param to
+	 *            the book getting the unit
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void transfer(LockManager manager, int from, int to) throws BookStoreException {
+		manager.writeBooks(new int[] { isbnOf(from), isbnOf(to) }, () -> {
+			assertTrue(written[from].compareAndSet(false, true));
+			assertTrue(written[to].compareAndSet(false, true));
+			balances[from]--;
+			// Now and then, let the other sections run halfway through.
+			if (ThreadLocalRandom.current().nextInt(YIELD_PERIOD) == 0) {
+				Thread.yield();
+			}
+			balances[to]++;
+			written[to].set(false);
+			written[from].set(false);
+			return null;
+		});
+	}
+
+	/**
+	 * Sums the balances in a section reading the whole catalog.
+	 *
+	 * @param manager
+	 *            the lock manager
+	 * @return the sum
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private int sumBalances(LockManager manager) throws BookStoreException {
+		return manager.readCatalog(() -> {
+			int sum = 0;
+			for (int balance : balances) {
+				sum += balance;
+			}
+			return sum;
+		});
+	}
+
+	/**
+	 * Runs concurrent transfers between random pairs of books, catalog reads
+	 * and catalog changes of other books, along with an extra task, and checks
+	 * that no balance was lost and that every read saw all the balances.
+	 *
+	 * @param manager
+	 *            the lock manager
+	 * @param extraTask
+	 *            a task run concurrently until the others are done, or null
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void runTransfers(LockManager manager, Runnable extraTask) throws Exception {
+		initializeBooks(manager);
+		int total = NUM_BOOKS * INITIAL_BALANCE;
+		AtomicBoolean done = new AtomicBoolean();
+		CountDownLatch transfersDone = new CountDownLatch(NUM_THREADS);
+		List<Runnable> tasks = new ArrayList<Runnable>();
+
+		for (int t = 0; t < NUM_THREADS; t++) {
+			tasks.add(() -> {
+				try {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int i = 0; i < NUM_OPERATIONS; i++) {
+						int from = random.nextInt(NUM_BOOKS);
+						int to = (from + 1 + random.nextInt(NUM_BOOKS - 1)) % NUM_BOOKS;
+						transfer(manager, from, to);
+					}
+				} catch (BookStoreException ex) {
+					throw new IllegalStateException(ex);
+				} finally {
+					transfersDone.countDown();
+				}
+			});
+		}
+
+		// The other tasks stop once the transfers are done.
+		tasks.add(() -> {
+			try {
+				transfersDone.await();
+			} catch (InterruptedException ex) {
+				throw new IllegalStateException(ex);
+			} finally {
+				done.set(true);
+			}
+		});
+		tasks.add(() -> {
+			try {
+				while (!done.get()) {
+					assertEquals(total, sumBalances(manager));
+				}
+			} catch (BookStoreException ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+		tasks.add(() -> {
+			try {
+				// Books added and removed between the books being written.
+				for (int i = 0; !done.get(); i++) {
+					int isbn = isbnOf(i % NUM_BOOKS) + 1;
+					boolean add = i / NUM_BOOKS % 2 == 0;
+					manager.changeCatalog(new int[] { isbn }, () -> {
+						if (add) {
+							manager.bookAdded(isbn);
+						} else {
+							manager.bookRemoved(isbn);
+						}
+						return null;
+					});
+				}
+			} catch (BookStoreException ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+		if (extraTask != null) {
+			tasks.add(() -> {
+				while (!done.get()) {
+					extraTask.run();
+				}
+			});
+		}
+
+		EscrowCounterTest.runConcurrently(tasks);
+		assertEquals(total, sumBalances(manager));
+		for (AtomicBoolean flag : written) {
+			assertFalse(flag.get());
+		}
+	}
+
+	/**
+	 * Checks every policy with concurrent transfers, catalog reads and
+	 * catalog changes.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testPolicies() throws Exception {
+		for (String policy : LockManager.POLICIES) {
+			try {
+				runTransfers(LockManager.newLockManager(policy), null);
+			} catch (AssertionError ex) {
+				throw new AssertionError(policy + ": " + ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the policies are created by name, and that the unknown ones
+	 * are rejected.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testNewLockManager() throws BookStoreException {
+		assertTrue(LockManager.newLockManager(LockManager.GLOBAL) instanceof GlobalLockManager);
+		assertTrue(LockManager.newLockManager(LockManager.PER_BOOK) instanceof PerBookLockManager);
+		assertTrue(LockManager.newLockManager(LockManager.NO_WAIT) instanceof PerBookLockManager);
+		assertTrue(LockManager.newLockManager(LockManager.STRIPED) instanceof StripedLockManager);
+		assertTrue(LockManager.newLockManager(LockManager.OPTIMISTIC) instanceof OptimisticLockManager);
+		assertTrue(LockManager.newLockManager(LockManager.HIERARCHICAL) instanceof HierarchicalLockManager);
+		assertTrue(LockManager.newLockManager(LockManager.ADAPTIVE) instanceof AdaptiveLockManager);
+
+		for (String policy : new String[] { null, "unknown" }) {
+			try {
+				LockManager.newLockManager(policy);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		}
+	}
+
+	/**
+	 * Checks that a section on a book held by another one waits for it in
+	 * blocking mode, and gives up its locks and retries in no-wait mode.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testNoWaitRetries() throws Exception {
+		for (boolean noWait : new boolean[] { false, true }) {
+			PerBookLockManager manager = new PerBookLockManager(noWait);
+			initializeBooks(manager);
+			CountDownLatch holding = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			AtomicBoolean ran = new AtomicBoolean();
+			List<Runnable> tasks = new ArrayList<Runnable>();
+			tasks.add(() -> {
+				try {
+					manager.writeBooks(new int[] { isbnOf(0) }, () -> {
+						holding.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException ex) {
+							throw new BookStoreException(ex);
+						}
+						return null;
+					});
+				} catch (BookStoreException ex) {
+					throw new IllegalStateException(ex);
+				}
+			});
+			tasks.add(() -> {
+				try {
+					holding.await();
+					// Given in descending order, and sorted by the lock manager.
+					manager.writeBooks(new int[] { isbnOf(1), isbnOf(0) }, () -> {
+						ran.set(true);
+						return null;
+					});
+				} catch (BookStoreException | InterruptedException ex) {
+					throw new IllegalStateException(ex);
+				}
+			});
+			tasks.add(() -> {
+				try {
+					holding.await();
+					Thread.sleep(BLOCKED_MILLIS);
+					assertFalse(ran.get());
+					// The other book stays free in no-wait mode.
+					if (noWait) {
+						transfer(manager, 1, 2);
+					}
+				} catch (BookStoreException | InterruptedException ex) {
+					throw new IllegalStateException(ex);
+				} finally {
+					release.countDown();
+				}
+			});
+
+			EscrowCounterTest.runConcurrently(tasks);
+			assertTrue(ran.get());
+			assertEquals(noWait, manager.getNumRetries() > 0);
+		}
+	}
+
+	/**
+	 * Checks the no-wait mode, and the switches between the single-lock and
+	 * per-book modes of a {@link PerBookLockManager} while sections run.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testPerBookModes() throws Exception {
+		runTransfers(new PerBookLockManager(true), null);
+
+		PerBookLockManager manager = new PerBookLockManager(false);
+		boolean[] singleLock = new boolean[1];
+		runTransfers(manager, () -> {
+			singleLock[0] = !singleLock[0];
+			manager.setSingleLock(singleLock[0]);
+			Thread.yield();
+		});
+	}
+}
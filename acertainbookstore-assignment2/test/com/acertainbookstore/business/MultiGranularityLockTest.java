@@ -0,0 +1,230 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.MultiGranularityLock.Mode;
+
+/**
+ * {@link MultiGranularityLockTest} tests that the
+ * {@link MultiGranularityLock} grants two modes together exactly when the
+ * compatibility matrix of multi-granularity locking allows it, and queues the
+ * other requests in FIFO order.
+ *
+ * @see MultiGranularityLock
+ */
+public class MultiGranularityLockTest {
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 4;
+
+	/** The Constant NUM_OPERATIONS, per thread. */
+	private static final int NUM_OPERATIONS = 20000;
+
+	/** The Constant BLOCKED_MILLIS, during which a blocked request must not be granted. */
+	private static final long BLOCKED_MILLIS = 50;
+
+	/** The Constant TIMEOUT_MILLIS, after which a request is deemed stuck. */
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * The compatibility matrix of multi-granularity locking, indexed by the
+	 * ordinals of {@link Mode}.
+	 */
+	private static final boolean[][] COMPATIBLE = {
+			// IS, IX, S, SIX, X
+			{ true, true, true, true, false }, // IS
+			{ true, true, false, false, false }, // IX
+			{ true, false, true, false, false }, // S
+			{ true, false, false, false, false }, // SIX
+			{ false, false, false, false, false } }; // X
+
+	/**
+	 * Starts a thread taking the lock, recording when it got it, and releasing
+	 * it once told to.
+	 *
+	 * @param lock
+	 *            the lock
+	 * @param mode
+	 *            the mode
+	 * @param order
+	 *            where the mode is added once granted
+	 * @param release
+	 *            the latch the thread waits for before releasing the lock
+	 * @return the thread
+	 */
+	private static Thread startLocker(MultiGranularityLock lock, Mode mode, List<Mode> order,
+			CountDownLatch release) {
+		Thread thread = new Thread(() -> {
+			lock.lock(mode);
+			order.add(mode);
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				lock.unlock(mode);
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Waits until the given number of modes were granted.
+	 *
+	 * @param order
+	 *            the modes granted
+	 * @param size
+	 *            the number of modes
+	 * @param timeoutMillis
+	 *            how long to wait, in milliseconds
+	 * @return true, if they were granted before the timeout
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private static boolean awaitGranted(List<Mode> order, int size, long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (order.size() < size) {
+			if (System.nanoTime() > deadline) {
+				return false;
+			}
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the compatibility of the modes against the matrix, which is
+	 * symmetric.
+	 */
+	@Test
+	public void testCompatibilityMatrix() {
+		for (Mode mode : Mode.values()) {
+			for (Mode other : Mode.values()) {
+				assertEquals(mode + "/" + other, COMPATIBLE[mode.ordinal()][other.ordinal()],
+						mode.isCompatibleWith(other));
+				assertEquals(mode.isCompatibleWith(other), other.isCompatibleWith(mode));
+			}
+		}
+	}
+
+	/**
+	 * Checks that a request is granted while another thread holds the lock in
+	 * a compatible mode, and waits for it otherwise.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testGrantedModes() throws InterruptedException {
+		for (Mode held : Mode.values()) {
+			for (Mode requested : Mode.values()) {
+				MultiGranularityLock lock = new MultiGranularityLock();
+				List<Mode> order = Collections.synchronizedList(new ArrayList<Mode>());
+				lock.lock(held);
+				Thread locker = startLocker(lock, requested, order, new CountDownLatch(0));
+
+				boolean compatible = COMPATIBLE[held.ordinal()][requested.ordinal()];
+				assertEquals(held + "/" + requested, compatible,
+						awaitGranted(order, 1, compatible ? TIMEOUT_MILLIS : BLOCKED_MILLIS));
+				lock.unlock(held);
+				locker.join();
+				assertEquals(1, order.size());
+			}
+		}
+	}
+
+	/**
+	 * Checks that a request compatible with the granted modes still waits
+	 * behind an earlier incompatible request, so that the intentions cannot
+	 * starve an X request, and that the compatible requests at the head of
+	 * the queue are granted together.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testFifoOrder() throws InterruptedException {
+		MultiGranularityLock lock = new MultiGranularityLock();
+		List<Mode> order = Collections.synchronizedList(new ArrayList<Mode>());
+		CountDownLatch releaseX = new CountDownLatch(1);
+		CountDownLatch releaseOthers = new CountDownLatch(1);
+		lock.lock(Mode.IS);
+
+		Thread writer = startLocker(lock, Mode.X, order, releaseX);
+		assertFalse(awaitGranted(order, 1, BLOCKED_MILLIS));
+		Thread intention = startLocker(lock, Mode.IS, order, releaseOthers);
+		assertFalse(awaitGranted(order, 1, BLOCKED_MILLIS));
+		Thread reader = startLocker(lock, Mode.S, order, releaseOthers);
+		assertFalse(awaitGranted(order, 1, BLOCKED_MILLIS));
+
+		lock.unlock(Mode.IS);
+		assertTrue(awaitGranted(order, 1, TIMEOUT_MILLIS));
+		assertFalse(awaitGranted(order, 2, BLOCKED_MILLIS));
+		assertEquals(Mode.X, order.get(0));
+
+		releaseX.countDown();
+		assertTrue(awaitGranted(order, 3, TIMEOUT_MILLIS));
+		assertEquals(EnumSet.of(Mode.IS, Mode.S), EnumSet.copyOf(order.subList(1, 3)));
+
+		releaseOthers.countDown();
+		for (Thread thread : Arrays.asList(writer, intention, reader)) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Checks that concurrent threads taking random modes never hold two
+	 * incompatible modes together, and all get the lock.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testConcurrentModes() throws InterruptedException {
+		MultiGranularityLock lock = new MultiGranularityLock();
+		Mode[] modes = Mode.values();
+		AtomicIntegerArray holders = new AtomicIntegerArray(modes.length);
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			tasks.add(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < NUM_OPERATIONS; i++) {
+					Mode mode = modes[random.nextInt(modes.length)];
+					lock.lock(mode);
+					try {
+						holders.incrementAndGet(mode.ordinal());
+						for (Mode other : modes) {
+							int numOthers = holders.get(other.ordinal()) - (other == mode ? 1 : 0);
+							assertTrue(mode + "/" + other, numOthers == 0 || mode.isCompatibleWith(other));
+						}
+						if (i % 16 == 0) {
+							Thread.yield();
+						}
+						holders.decrementAndGet(mode.ordinal());
+					} finally {
+						lock.unlock(mode);
+					}
+				}
+			});
+		}
+
+		EscrowCounterTest.runConcurrently(tasks);
+		for (Mode mode : modes) {
+			assertEquals(0, holders.get(mode.ordinal()));
+		}
+	}
+}
@@ -30,6 +30,9 @@ public class CertainBookStore implements BookStore, StockManager {
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/** The books of {@link #bookMap} ordered by number of copies. */
+	private final StockLevelIndex stockLevelIndex = new StockLevelIndex();
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
@@ -112,7 +115,11 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook previous = bookMap.put(isbn, new BookStoreBook(book));
+			if (previous != null) {
+				stockLevelIndex.remove(isbn, previous.getNumCopies());
+			}
+			stockLevelIndex.add(isbn, book.getNumCopies());
 		}
 	}
 
@@ -141,10 +148,24 @@ public class CertainBookStore implements BookStore, StockManager {
 			isbn = bookCopy.getISBN();
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
+			addCopies(book, numCopies);
 		}
 	}
 
+	/**
+	 * Adds copies of a book, keeping {@link #stockLevelIndex} in order.
+	 *
+	 * @param book
+	 *            the book
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	private void addCopies(BookStoreBook book, int numCopies) {
+		int oldNumCopies = book.getNumCopies();
+		book.addCopies(numCopies);
+		stockLevelIndex.update(book.getISBN(), oldNumCopies, book.getNumCopies());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -227,7 +248,9 @@ public class CertainBookStore implements BookStore, StockManager {
 		// Then make the purchase.
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
 			book = bookMap.get(bookCopyToBuy.getISBN());
+			int oldNumCopies = book.getNumCopies();
 			book.buyCopies(bookCopyToBuy.getNumCopies());
+			stockLevelIndex.update(book.getISBN(), oldNumCopies, book.getNumCopies());
 		}
 	}
 
@@ -337,6 +360,44 @@ public class CertainBookStore implements BookStore, StockManager {
 		throw new BookStoreException();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksWithLeastCopies(int)
+	 */
+	public synchronized List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return stockLevelIndex.least(numBooks).stream()
+				.map(isbn -> bookMap.get(isbn).immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#replenishLeastStocked(int,
+	 * int)
+	 */
+	public synchronized void replenishLeastStocked(int numBooks, int numCopies) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		// Pick all the books first, since replenishing reorders the index.
+		for (int isbn : stockLevelIndex.least(numBooks)) {
+			addCopies(bookMap.get(isbn), numCopies);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -354,6 +415,7 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		stockLevelIndex.clear();
 	}
 
 	/*
@@ -378,7 +440,7 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			stockLevelIndex.remove(isbn, bookMap.remove(isbn).getNumCopies());
 		}
 	}
 }
@@ -0,0 +1,89 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * {@link StockLevelIndex} keeps the ISBNs of the catalog ordered by ascending
+ * number of copies, then ascending ISBN, so that the least stocked books are
+ * read from the head of a tree instead of sorting the catalog. Every entry
+ * packs the number of copies in the upper and the ISBN in the lower 32 bits
+ * of a <code>long</code>, whose natural order is the order of the index.
+ *
+ * The index is not thread-safe: it is guarded by the lock of the store.
+ */
+final class StockLevelIndex {
+
+	private final TreeSet<Long> entries = new TreeSet<>();
+
+	private static long entry(int isbn, int numCopies) {
+		return ((long) numCopies << 32) | (isbn & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	void add(int isbn, int numCopies) {
+		entries.add(entry(isbn, numCopies));
+	}
+
+	/**
+	 * Moves a book to its new number of copies.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param oldNumCopies
+	 *            the number of copies before the update
+	 * @param newNumCopies
+	 *            the number of copies after the update
+	 */
+	void update(int isbn, int oldNumCopies, int newNumCopies) {
+		if (oldNumCopies != newNumCopies && entries.remove(entry(isbn, oldNumCopies))) {
+			entries.add(entry(isbn, newNumCopies));
+		}
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	void remove(int isbn, int numCopies) {
+		entries.remove(entry(isbn, numCopies));
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Gets the ISBNs of the least stocked books, or of all of them if there
+	 * are no more than <code>numBooks</code>.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the ISBNs, least stocked first
+	 */
+	List<Integer> least(int numBooks) {
+		List<Integer> isbns = new ArrayList<>(Math.min(numBooks, entries.size()));
+
+		Iterator<Long> iterator = entries.iterator();
+		while (isbns.size() < numBooks && iterator.hasNext()) {
+			isbns.add((int) (long) iterator.next());
+		}
+		return isbns;
+	}
+}
@@ -1,5 +1,7 @@
 package com.acertainbookstore.client;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
 
@@ -144,6 +146,45 @@ public class StockManagerHTTPProxy implements StockManager {
 		throw new BookStoreException("Not implemented");
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksWithLeastCopies(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException {
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSWITHLEASTCOPIES + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#replenishLeastStocked(int,
+	 * int)
+	 */
+	public void replenishLeastStocked(int numBooks, int numCopies) throws BookStoreException {
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+		String urlEncodedNumCopies = URLEncoder.encode(Integer.toString(numCopies), StandardCharsets.UTF_8);
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.REPLENISHLEASTSTOCKED + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks + "&"
+				+ BookStoreConstants.COPIES_NUM_PARAM + "=" + urlEncodedNumCopies;
+
+		// The parameters are in the URL, the request body is empty.
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
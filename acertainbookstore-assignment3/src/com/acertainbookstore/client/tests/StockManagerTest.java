@@ -475,6 +475,85 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that getBooksWithLeastCopies returns the least stocked books in
+	 * ascending order of copies, also after purchases.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksWithLeastCopies() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES + 1, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES + 2, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> leastStocked = storeManager.getBooksWithLeastCopies(2);
+		assertEquals(2, leastStocked.size());
+		assertEquals(TEST_ISBN.intValue(), leastStocked.get(0).getISBN());
+		assertEquals(TEST_ISBN + 1, leastStocked.get(1).getISBN());
+
+		// Buying copies of the best stocked book makes it the least stocked.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 2, NUM_COPIES + 1));
+		client.buyBooks(booksToBuy);
+
+		leastStocked = storeManager.getBooksWithLeastCopies(5);
+		assertEquals(3, leastStocked.size());
+		assertEquals(TEST_ISBN + 2, leastStocked.get(0).getISBN());
+		assertEquals(1, leastStocked.get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that replenishLeastStocked adds copies to the least stocked books
+	 * only, and changes nothing for invalid arguments.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReplenishLeastStocked() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES + 1, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES + 2, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> booksInStorePreTest = storeManager.getBooks();
+
+		try {
+			storeManager.replenishLeastStocked(-1, NUM_COPIES);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			storeManager.replenishLeastStocked(2, 0);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(booksInStorePreTest, storeManager.getBooks());
+
+		storeManager.replenishLeastStocked(2, NUM_COPIES);
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+		isbnSet.add(TEST_ISBN + 1);
+		isbnSet.add(TEST_ISBN + 2);
+		for (StockBook book : storeManager.getBooksByISBN(isbnSet)) {
+			int expectedNumCopies = book.getISBN() == TEST_ISBN + 2 ? NUM_COPIES + 2
+					: book.getISBN() == TEST_ISBN + 1 ? 2 * NUM_COPIES + 1 : 2 * NUM_COPIES;
+			assertEquals(expectedNumCopies, book.getNumCopies());
+		}
+	}
+
 	/**
 	 * Tear down after class.
 	 *
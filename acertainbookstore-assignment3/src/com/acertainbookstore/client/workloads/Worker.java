@@ -133,25 +133,11 @@ public class Worker implements Callable<WorkerRunResult> {
      * @throws BookStoreException
      */
     private void runFrequentStockManagerInteraction() throws BookStoreException {
-		// Initialize all class instances and variablse
+		// Replenish the k books with the least copies in a single round
+		// trip, the server keeps them ordered by number of copies.
 		var stockManager = configuration.getStockManager();
-		List<StockBook> existingBooks = stockManager.getBooks();
 		int k = configuration.getNumBooksWithLeastCopies();
-
-		// Sort in ascending order by num book copies
-		// For each of the first k of these books, add copies
-		Set<StockBook> booksToReplenish = existingBooks.stream()
-				.sorted((b1, b2) -> Integer.compare(b1.getNumCopies(), b2.getNumCopies()))
-				.limit(k)
-				.collect(Collectors.toSet());
-
-		// Create BookCopy objects and add them to stock manager
-		Set<BookCopy> bookCopiesToAdd = new HashSet<>();
-		for (StockBook book : booksToReplenish) {
-			var bookCopy = new BookCopy(book.getISBN(), configuration.getNumBooksToAdd());
-			bookCopiesToAdd.add(bookCopy);
-		}
-		stockManager.addCopies(bookCopiesToAdd);
+		stockManager.replenishLeastStocked(k, configuration.getNumBooksToAdd());
     }
 
     /**
@@ -60,6 +60,31 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksInDemand() throws BookStoreException;
 
+	/**
+	 * Gets the books with the least copies in stock, least stocked first, or
+	 * all the books if there are no more than numBooks.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the least stocked books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException;
+
+	/**
+	 * Atomically adds numCopies copies to each of the numBooks books with the
+	 * least copies in stock.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @param numCopies
+	 *            the number of copies added to each book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void replenishLeastStocked(int numBooks, int numCopies) throws BookStoreException;
+
 	/**
 	 * Updates the books by mark/unmark them as editor pick.
 	 *
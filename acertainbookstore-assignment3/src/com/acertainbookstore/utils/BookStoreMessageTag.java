@@ -34,5 +34,11 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the get books with least copies message. */
+	GETBOOKSWITHLEASTCOPIES,
+
+	/** The tag for the replenish least stocked books message. */
+	REPLENISHLEASTSTOCKED;
 }